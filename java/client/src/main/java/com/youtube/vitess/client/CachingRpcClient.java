@@ -0,0 +1,436 @@
+package com.youtube.vitess.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+
+import com.youtube.vitess.proto.Query.BindVariable;
+import com.youtube.vitess.proto.Query.BoundQuery;
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.BeginRequest;
+import com.youtube.vitess.proto.Vtgate.BeginResponse;
+import com.youtube.vitess.proto.Vtgate.CommitRequest;
+import com.youtube.vitess.proto.Vtgate.CommitResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyRangesRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyRangesResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteShardsResponse;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceRequest;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceResponse;
+import com.youtube.vitess.proto.Vtgate.RollbackRequest;
+import com.youtube.vitess.proto.Vtgate.RollbackResponse;
+import com.youtube.vitess.proto.Vtgate.Session;
+import com.youtube.vitess.proto.Vtgate.SplitQueryRequest;
+import com.youtube.vitess.proto.Vtgate.SplitQueryResponse;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteKeyRangesRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteShardsRequest;
+
+import org.joda.time.Duration;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link RpcClient} that caches the results of read-only queries for a short time.
+ *
+ * <p>{@code execute} and {@code executeKeyspaceIds} calls outside of a transaction with a
+ * {@code REPLICA} or {@code RDONLY} tablet type are answered from the cache if the same request,
+ * i.e. the same SQL text, bind variables (in any order), target and caller ID, succeeded recently.
+ * Replica reads can already be slightly stale, so this only adds a bounded amount of staleness:
+ * each response is kept for the TTL of its SQL text, or the default TTL for other queries. A TTL of
+ * zero disables caching for that SQL text. Concurrent misses for the same request share a single
+ * RPC.
+ *
+ * <p>Responses are kept serialized, which is much more compact than the parsed messages, and parsed
+ * again on each hit. The cache holds at most about {@code maxBytes} of keys and responses, and
+ * evicts the least recently used ones beyond that. Responses with an application error are never
+ * cached. All other calls are passed through unchanged.
+ */
+public class CachingRpcClient implements RpcClient {
+  /**
+   * The approximate memory used by a cache entry besides its key and response bytes.
+   */
+  private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+  // Prefixes that keep the keys of different kinds of requests apart.
+  private static final ByteString EXECUTE_KEY = ByteString.copyFrom(new byte[] {1});
+  private static final ByteString EXECUTE_KEYSPACE_IDS_KEY = ByteString.copyFrom(new byte[] {2});
+
+  private final RpcClient client;
+  private final long defaultTtlNanos;
+  private final ImmutableMap<String, Long> queryTtlNanos;
+  private final Ticker ticker;
+  private final Cache<ByteString, CachedResponse> cache;
+  private final ConcurrentMap<ByteString, ListenableFuture<?>> inFlight =
+      new ConcurrentHashMap<ByteString, ListenableFuture<?>>();
+
+  /**
+   * @param client The client to send calls to.
+   * @param maxBytes The approximate maximum size of the cache.
+   * @param defaultTtl How long to keep the results of queries that have no TTL of their own.
+   * @param queryTtls How long to keep the results of specific SQL texts.
+   */
+  public CachingRpcClient(
+      RpcClient client, long maxBytes, Duration defaultTtl, Map<String, Duration> queryTtls) {
+    this(client, maxBytes, defaultTtl, queryTtls, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CachingRpcClient(
+      RpcClient client,
+      long maxBytes,
+      Duration defaultTtl,
+      Map<String, Duration> queryTtls,
+      Ticker ticker) {
+    checkArgument(maxBytes > 0, "maxBytes must be positive");
+    this.client = checkNotNull(client);
+    this.ticker = checkNotNull(ticker);
+    defaultTtlNanos = toNanos(defaultTtl);
+    long maxTtlNanos = defaultTtlNanos;
+    ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+    for (Map.Entry<String, Duration> entry : queryTtls.entrySet()) {
+      long ttlNanos = toNanos(entry.getValue());
+      builder.put(entry.getKey(), ttlNanos);
+      maxTtlNanos = Math.max(maxTtlNanos, ttlNanos);
+    }
+    queryTtlNanos = builder.build();
+    // Entries also expire individually with the TTL of their query, which may be shorter.
+    cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher(
+                new Weigher<ByteString, CachedResponse>() {
+                  @Override
+                  public int weigh(ByteString key, CachedResponse value) {
+                    return key.size() + value.bytes.size() + ENTRY_OVERHEAD_BYTES;
+                  }
+                })
+            .expireAfterWrite(maxTtlNanos, TimeUnit.NANOSECONDS)
+            .ticker(ticker)
+            .build();
+  }
+
+  @Override
+  public void close() throws IOException {
+    cache.invalidateAll();
+    client.close();
+  }
+
+  @Override
+  public ListenableFuture<ExecuteResponse> execute(final Context ctx, final ExecuteRequest request)
+      throws SQLException {
+    long ttlNanos = getTtlNanos(request.getSession(), request.getTabletType(), request.getQuery());
+    if (ttlNanos <= 0) {
+      return client.execute(ctx, request);
+    }
+    return cached(
+        EXECUTE_KEY.concat(
+            request
+                .toBuilder()
+                .setQuery(sortBindVariables(request.getQuery()))
+                .build()
+                .toByteString()),
+        ttlNanos,
+        new CachedCall<ExecuteResponse>(ExecuteResponse.parser()) {
+          @Override
+          ListenableFuture<ExecuteResponse> invoke() throws SQLException {
+            return client.execute(ctx, request);
+          }
+
+          @Override
+          boolean isCacheable(ExecuteResponse response) {
+            return !response.hasError();
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteShardsResponse> executeShards(
+      Context ctx, ExecuteShardsRequest request) throws SQLException {
+    return client.executeShards(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<ExecuteKeyspaceIdsResponse> executeKeyspaceIds(
+      final Context ctx, final ExecuteKeyspaceIdsRequest request) throws SQLException {
+    long ttlNanos = getTtlNanos(request.getSession(), request.getTabletType(), request.getQuery());
+    if (ttlNanos <= 0) {
+      return client.executeKeyspaceIds(ctx, request);
+    }
+    return cached(
+        EXECUTE_KEYSPACE_IDS_KEY.concat(
+            request
+                .toBuilder()
+                .setQuery(sortBindVariables(request.getQuery()))
+                .build()
+                .toByteString()),
+        ttlNanos,
+        new CachedCall<ExecuteKeyspaceIdsResponse>(ExecuteKeyspaceIdsResponse.parser()) {
+          @Override
+          ListenableFuture<ExecuteKeyspaceIdsResponse> invoke() throws SQLException {
+            return client.executeKeyspaceIds(ctx, request);
+          }
+
+          @Override
+          boolean isCacheable(ExecuteKeyspaceIdsResponse response) {
+            return !response.hasError();
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteKeyRangesResponse> executeKeyRanges(
+      Context ctx, ExecuteKeyRangesRequest request) throws SQLException {
+    return client.executeKeyRanges(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<ExecuteEntityIdsResponse> executeEntityIds(
+      Context ctx, ExecuteEntityIdsRequest request) throws SQLException {
+    return client.executeEntityIds(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<ExecuteBatchShardsResponse> executeBatchShards(
+      Context ctx, ExecuteBatchShardsRequest request) throws SQLException {
+    return client.executeBatchShards(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> executeBatchKeyspaceIds(
+      Context ctx, ExecuteBatchKeyspaceIdsRequest request) throws SQLException {
+    return client.executeBatchKeyspaceIds(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecute(Context ctx, StreamExecuteRequest request)
+      throws SQLException {
+    return client.streamExecute(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request) throws SQLException {
+    return client.streamExecuteShards(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteKeyspaceIds(
+      Context ctx, StreamExecuteKeyspaceIdsRequest request) throws SQLException {
+    return client.streamExecuteKeyspaceIds(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteKeyRanges(
+      Context ctx, StreamExecuteKeyRangesRequest request) throws SQLException {
+    return client.streamExecuteKeyRanges(ctx, request);
+  }
+
+  @Override
+  public void streamExecute(
+      Context ctx, StreamExecuteRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecute(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecuteShards(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteKeyspaceIds(
+      Context ctx,
+      StreamExecuteKeyspaceIdsRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecuteKeyspaceIds(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteKeyRanges(
+      Context ctx,
+      StreamExecuteKeyRangesRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecuteKeyRanges(ctx, request, subscriber);
+  }
+
+  @Override
+  public ListenableFuture<BeginResponse> begin(Context ctx, BeginRequest request)
+      throws SQLException {
+    return client.begin(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<CommitResponse> commit(Context ctx, CommitRequest request)
+      throws SQLException {
+    return client.commit(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<RollbackResponse> rollback(Context ctx, RollbackRequest request)
+      throws SQLException {
+    return client.rollback(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<SplitQueryResponse> splitQuery(Context ctx, SplitQueryRequest request)
+      throws SQLException {
+    return client.splitQuery(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<GetSrvKeyspaceResponse> getSrvKeyspace(
+      Context ctx, GetSrvKeyspaceRequest request) throws SQLException {
+    return client.getSrvKeyspace(ctx, request);
+  }
+
+  /**
+   * Returns how long to cache the result of a query, or 0 if it must not be cached.
+   */
+  private long getTtlNanos(
+      Session session, TabletType tabletType, BoundQuery query) {
+    if (session.getInTransaction()
+        || (tabletType != TabletType.REPLICA && tabletType != TabletType.RDONLY)) {
+      return 0;
+    }
+    Long ttlNanos = queryTtlNanos.get(query.getSql());
+    return ttlNanos != null ? ttlNanos : defaultTtlNanos;
+  }
+
+  /**
+   * Returns {@code query} with its bind variables sorted by name.
+   *
+   * <p>Map fields are serialized in insertion order, so requests that only differ in the order
+   * their bind variables were added would otherwise have different keys.
+   */
+  private static BoundQuery sortBindVariables(BoundQuery query) {
+    if (query.getBindVariables().size() < 2) {
+      return query;
+    }
+    BoundQuery.Builder builder = query.toBuilder();
+    Map<String, BindVariable> bindVars = builder.getMutableBindVariables();
+    bindVars.clear();
+    bindVars.putAll(new TreeMap<String, BindVariable>(query.getBindVariables()));
+    return builder.build();
+  }
+
+  /**
+   * Returns the cached response for {@code key} if it hasn't expired, and otherwise makes the call
+   * (or joins the same call already in flight) and caches its response.
+   */
+  private <T extends MessageLite> ListenableFuture<T> cached(
+      final ByteString key, final long ttlNanos, CachedCall<T> call) throws SQLException {
+    CachedResponse cached = cache.getIfPresent(key);
+    if (cached != null && cached.expiresAtNanos - ticker.read() > 0) {
+      try {
+        return Futures.immediateFuture(call.parser.parseFrom(cached.bytes));
+      } catch (InvalidProtocolBufferException e) {
+        // This can't happen, since the bytes were serialized from the same type. Just miss.
+        cache.invalidate(key);
+      }
+    }
+
+    final SettableFuture<T> loading = SettableFuture.create();
+    @SuppressWarnings("unchecked")
+    ListenableFuture<T> shared = (ListenableFuture<T>) inFlight.putIfAbsent(key, loading);
+    if (shared == null) {
+      shared = loading;
+      ListenableFuture<T> response;
+      try {
+        response = call.invoke();
+      } catch (SQLException | RuntimeException e) {
+        inFlight.remove(key, loading);
+        loading.setException(e);
+        throw e;
+      }
+      final CachedCall<T> cachedCall = call;
+      Futures.addCallback(
+          response,
+          new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+              if (cachedCall.isCacheable(result)) {
+                cache.put(
+                    key, new CachedResponse(result.toByteString(), ticker.read() + ttlNanos));
+              }
+              inFlight.remove(key, loading);
+              loading.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              inFlight.remove(key, loading);
+              loading.setException(t);
+            }
+          });
+    }
+    // One caller giving up on the shared call must not cancel it for the others.
+    return Futures.nonCancellationPropagating(shared);
+  }
+
+  private static long toNanos(Duration ttl) {
+    checkArgument(ttl.getMillis() >= 0, "TTL must not be negative");
+    return TimeUnit.MILLISECONDS.toNanos(ttl.getMillis());
+  }
+
+  /**
+   * A call whose response may be cached.
+   */
+  private abstract static class CachedCall<T extends MessageLite> {
+    final Parser<T> parser;
+
+    CachedCall(Parser<T> parser) {
+      this.parser = parser;
+    }
+
+    abstract ListenableFuture<T> invoke() throws SQLException;
+
+    abstract boolean isCacheable(T response);
+  }
+
+  private static class CachedResponse {
+    final ByteString bytes;
+    final long expiresAtNanos;
+
+    CachedResponse(ByteString bytes, long expiresAtNanos) {
+      this.bytes = bytes;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+}
@@ -1,10 +1,16 @@
 package com.youtube.vitess.client;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
 import com.youtube.vitess.proto.Vtrpc.CallerID;
 
 import org.joda.time.Duration;
 import org.joda.time.Instant;
 
+import java.util.concurrent.Executor;
+
 import javax.annotation.Nullable;
 
 /**
@@ -38,7 +44,7 @@ public class Context {
       // You can't make a derived context with a later deadline than the parent.
       return this;
     }
-    return new Context(deadline, callerId);
+    return new Context(deadline, callerId, executor);
   }
 
   /**
@@ -55,7 +61,23 @@ public class Context {
       // Nothing changed.
       return this;
     }
-    return new Context(deadline, callerId);
+    return new Context(deadline, callerId, executor);
+  }
+
+  /**
+   * withExecutor returns a derived context whose calls process their responses on the given
+   * executor.
+   *
+   * <p>By default, the work that turns a response into the result of a future (such as updating a
+   * transaction's session, and building a cursor) runs on whichever thread completes the RPC,
+   * typically one of the RPC layer's threads. With an executor, that work and any listeners added
+   * with {@code directExecutor()} run there instead, e.g. on a virtual thread per request.
+   */
+  public Context withExecutor(Executor executor) {
+    if (this.executor == executor) {
+      return this;
+    }
+    return new Context(deadline, callerId, checkNotNull(executor));
   }
 
   @Nullable
@@ -76,13 +98,23 @@ public class Context {
     return callerId;
   }
 
+  /**
+   * Returns the executor for processing responses, which is {@code directExecutor()} unless one
+   * was set with {@link #withExecutor(Executor)}.
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
   private Instant deadline;
   private CallerID callerId;
+  private Executor executor = MoreExecutors.directExecutor();
 
   private Context() {}
 
-  private Context(Instant deadline, CallerID callerId) {
+  private Context(Instant deadline, CallerID callerId, Executor executor) {
     this.deadline = deadline;
     this.callerId = callerId;
+    this.executor = executor;
   }
 }
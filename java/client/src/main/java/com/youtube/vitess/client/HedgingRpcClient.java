@@ -0,0 +1,502 @@
+package com.youtube.vitess.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.BeginRequest;
+import com.youtube.vitess.proto.Vtgate.BeginResponse;
+import com.youtube.vitess.proto.Vtgate.CommitRequest;
+import com.youtube.vitess.proto.Vtgate.CommitResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyRangesRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyRangesResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteShardsResponse;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceRequest;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceResponse;
+import com.youtube.vitess.proto.Vtgate.RollbackRequest;
+import com.youtube.vitess.proto.Vtgate.RollbackResponse;
+import com.youtube.vitess.proto.Vtgate.Session;
+import com.youtube.vitess.proto.Vtgate.SplitQueryRequest;
+import com.youtube.vitess.proto.Vtgate.SplitQueryResponse;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteKeyRangesRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteShardsRequest;
+
+import org.joda.time.Duration;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An {@link RpcClient} that hedges read-only queries across several VTGates.
+ *
+ * <p>Calls are spread round-robin over the underlying clients. For {@code execute},
+ * {@code executeShards} and {@code executeKeyspaceIds} outside of a transaction with a
+ * {@code REPLICA} or {@code RDONLY} tablet type, if the first VTGate hasn't answered once the call
+ * has taken longer than a tracked latency percentile of recent calls (e.g. the 95th), the same
+ * request is sent to the next VTGate too. The first successful response is returned and the other
+ * call is cancelled, so a single slow VTGate (or a GC pause) doesn't end up in the tail latency.
+ *
+ * <p>Hedging only starts after enough calls have completed to estimate the percentile, and never
+ * happens earlier than {@code minDelay}, which keeps the extra load bounded to roughly
+ * {@code 1 - percentile} of the hedged calls. All other calls are sent to a single VTGate each.
+ * Since the transaction state is carried in the {@code Session} of each request, calls within a
+ * transaction don't need to go to the same VTGate.
+ */
+public class HedgingRpcClient implements RpcClient {
+  private final List<RpcClient> clients;
+  private final double percentile;
+  private final long minDelayMicros;
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final AtomicInteger nextClient = new AtomicInteger();
+  private final ScheduledExecutorService hedgeExecutor;
+
+  /**
+   * @param clients The clients to spread calls over. At least two are needed to hedge.
+   * @param percentile The latency percentile, between 0 and 1 (e.g. 0.95), after which a read is
+   *     hedged.
+   * @param minDelay The minimum time to wait before hedging a read.
+   */
+  public HedgingRpcClient(List<? extends RpcClient> clients, double percentile, Duration minDelay) {
+    checkArgument(!clients.isEmpty(), "at least one client is required");
+    checkArgument(percentile > 0 && percentile < 1, "percentile must be between 0 and 1");
+    this.clients = ImmutableList.copyOf(clients);
+    this.percentile = percentile;
+    minDelayMicros = TimeUnit.MILLISECONDS.toMicros(minDelay.getMillis());
+    hedgeExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("vitess-hedging-rpc-client-%d")
+                .build());
+  }
+
+  @Override
+  public void close() throws IOException {
+    hedgeExecutor.shutdownNow();
+    IOException exception = null;
+    for (RpcClient client : clients) {
+      try {
+        client.close();
+      } catch (IOException e) {
+        exception = e;
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public ListenableFuture<ExecuteResponse> execute(final Context ctx, final ExecuteRequest request)
+      throws SQLException {
+    return call(
+        isReadOnly(request.getSession(), request.getTabletType()),
+        new Call<ExecuteResponse>() {
+          @Override
+          public ListenableFuture<ExecuteResponse> invoke(RpcClient client) throws SQLException {
+            return client.execute(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteShardsResponse> executeShards(
+      final Context ctx, final ExecuteShardsRequest request) throws SQLException {
+    return call(
+        isReadOnly(request.getSession(), request.getTabletType()),
+        new Call<ExecuteShardsResponse>() {
+          @Override
+          public ListenableFuture<ExecuteShardsResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.executeShards(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteKeyspaceIdsResponse> executeKeyspaceIds(
+      final Context ctx, final ExecuteKeyspaceIdsRequest request) throws SQLException {
+    return call(
+        isReadOnly(request.getSession(), request.getTabletType()),
+        new Call<ExecuteKeyspaceIdsResponse>() {
+          @Override
+          public ListenableFuture<ExecuteKeyspaceIdsResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.executeKeyspaceIds(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteKeyRangesResponse> executeKeyRanges(
+      Context ctx, ExecuteKeyRangesRequest request) throws SQLException {
+    return nextClient().executeKeyRanges(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<ExecuteEntityIdsResponse> executeEntityIds(
+      Context ctx, ExecuteEntityIdsRequest request) throws SQLException {
+    return nextClient().executeEntityIds(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<ExecuteBatchShardsResponse> executeBatchShards(
+      Context ctx, ExecuteBatchShardsRequest request) throws SQLException {
+    return nextClient().executeBatchShards(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> executeBatchKeyspaceIds(
+      Context ctx, ExecuteBatchKeyspaceIdsRequest request) throws SQLException {
+    return nextClient().executeBatchKeyspaceIds(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecute(Context ctx, StreamExecuteRequest request)
+      throws SQLException {
+    return nextClient().streamExecute(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request) throws SQLException {
+    return nextClient().streamExecuteShards(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteKeyspaceIds(
+      Context ctx, StreamExecuteKeyspaceIdsRequest request) throws SQLException {
+    return nextClient().streamExecuteKeyspaceIds(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteKeyRanges(
+      Context ctx, StreamExecuteKeyRangesRequest request) throws SQLException {
+    return nextClient().streamExecuteKeyRanges(ctx, request);
+  }
+
+  @Override
+  public void streamExecute(
+      Context ctx, StreamExecuteRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    nextClient().streamExecute(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    nextClient().streamExecuteShards(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteKeyspaceIds(
+      Context ctx,
+      StreamExecuteKeyspaceIdsRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    nextClient().streamExecuteKeyspaceIds(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteKeyRanges(
+      Context ctx,
+      StreamExecuteKeyRangesRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    nextClient().streamExecuteKeyRanges(ctx, request, subscriber);
+  }
+
+  @Override
+  public ListenableFuture<BeginResponse> begin(Context ctx, BeginRequest request)
+      throws SQLException {
+    return nextClient().begin(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<CommitResponse> commit(Context ctx, CommitRequest request)
+      throws SQLException {
+    return nextClient().commit(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<RollbackResponse> rollback(Context ctx, RollbackRequest request)
+      throws SQLException {
+    return nextClient().rollback(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<SplitQueryResponse> splitQuery(Context ctx, SplitQueryRequest request)
+      throws SQLException {
+    return nextClient().splitQuery(ctx, request);
+  }
+
+  @Override
+  public ListenableFuture<GetSrvKeyspaceResponse> getSrvKeyspace(
+      Context ctx, GetSrvKeyspaceRequest request) throws SQLException {
+    return nextClient().getSrvKeyspace(ctx, request);
+  }
+
+  private static boolean isReadOnly(Session session, TabletType tabletType) {
+    return !session.getInTransaction()
+        && (tabletType == TabletType.REPLICA || tabletType == TabletType.RDONLY);
+  }
+
+  /**
+   * Returns how long a read currently waits before it's hedged, not counting {@code minDelay}, or
+   * -1 if there aren't enough samples to hedge yet.
+   */
+  @VisibleForTesting
+  long hedgeDelayMicros() {
+    return latencies.percentile(percentile);
+  }
+
+  private int nextIndex() {
+    return (nextClient.getAndIncrement() & Integer.MAX_VALUE) % clients.size();
+  }
+
+  private RpcClient nextClient() {
+    return clients.get(nextIndex());
+  }
+
+  private <T> ListenableFuture<T> call(boolean hedge, Call<T> call) throws SQLException {
+    int index = nextIndex();
+    if (!hedge || clients.size() < 2) {
+      return call.invoke(clients.get(index));
+    }
+    HedgedCall<T> hedgedCall = new HedgedCall<T>(call, index);
+    hedgedCall.start();
+    return hedgedCall.result;
+  }
+
+  /**
+   * One RPC, which can be sent to any of the clients.
+   */
+  private interface Call<T> {
+    ListenableFuture<T> invoke(RpcClient client) throws SQLException;
+  }
+
+  /**
+   * The state of a call that may be hedged.
+   */
+  private class HedgedCall<T> implements Runnable {
+    final SettableFuture<T> result = SettableFuture.create();
+    private final Call<T> call;
+    private final int firstIndex;
+    private final List<ListenableFuture<T>> attempts = new ArrayList<>(2);
+    private int pending;
+    private boolean succeeded;
+    private ScheduledFuture<?> hedgeTimer;
+    private final long startNanos = System.nanoTime();
+
+    HedgedCall(Call<T> call, int firstIndex) {
+      this.call = call;
+      this.firstIndex = firstIndex;
+    }
+
+    void start() throws SQLException {
+      ListenableFuture<T> first = call.invoke(clients.get(firstIndex));
+      synchronized (this) {
+        attempts.add(first);
+        pending++;
+      }
+      addCallback(first);
+
+      long delayMicros = hedgeDelayMicros();
+      if (delayMicros >= 0) {
+        ScheduledFuture<?> timer =
+            hedgeExecutor.schedule(
+                this, Math.max(delayMicros, minDelayMicros), TimeUnit.MICROSECONDS);
+        synchronized (this) {
+          hedgeTimer = timer;
+        }
+      }
+      // Once the result is set (or the caller cancels it), stop everything else.
+      result.addListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              cancelAll();
+            }
+          },
+          MoreExecutors.directExecutor());
+      if (result.isDone()) {
+        cancelAll();
+      }
+    }
+
+    /**
+     * Sends the hedge request, when the timer fires.
+     */
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (result.isDone()) {
+          return;
+        }
+        pending++;
+      }
+      ListenableFuture<T> hedge;
+      try {
+        hedge = call.invoke(clients.get((firstIndex + 1) % clients.size()));
+      } catch (SQLException | RuntimeException e) {
+        hedge = Futures.immediateFailedFuture(e);
+      }
+      synchronized (this) {
+        attempts.add(hedge);
+      }
+      addCallback(hedge);
+      if (result.isDone()) {
+        hedge.cancel(true);
+      }
+    }
+
+    private void addCallback(ListenableFuture<T> attempt) {
+      Futures.addCallback(
+          attempt,
+          new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+              // Record the latency of the call as a whole, from when the first attempt was sent.
+              // Timing a winning hedge from its own start would make the percentile drift down,
+              // and hedging more and more often.
+              long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+              boolean first;
+              synchronized (HedgedCall.this) {
+                first = !succeeded;
+                succeeded = true;
+              }
+              if (first) {
+                latencies.record(micros);
+              }
+              result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              boolean last;
+              synchronized (HedgedCall.this) {
+                last = --pending == 0;
+              }
+              // Wait for the other attempt, if there is one. Otherwise, fail.
+              if (last) {
+                result.setException(t);
+              }
+            }
+          });
+    }
+
+    private void cancelAll() {
+      List<ListenableFuture<T>> toCancel;
+      ScheduledFuture<?> timer;
+      synchronized (this) {
+        toCancel = new ArrayList<>(attempts);
+        timer = hedgeTimer;
+      }
+      if (timer != null) {
+        timer.cancel(false);
+      }
+      for (ListenableFuture<T> attempt : toCancel) {
+        attempt.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * An approximate histogram of recent latencies, in microseconds.
+   *
+   * <p>Buckets are spaced logarithmically with four buckets per power of two, so percentiles are
+   * accurate to within 25%. Counts are halved every {@link #DECAY_INTERVAL} samples so the
+   * percentiles follow recent behavior.
+   */
+  static class LatencyHistogram {
+    static final int MIN_SAMPLES = 100;
+    static final int DECAY_INTERVAL = 1000;
+    // Enough for any non-negative long.
+    private static final int BUCKETS = 248;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicInteger samples = new AtomicInteger();
+
+    void record(long micros) {
+      counts.incrementAndGet(bucket(Math.max(0, micros)));
+      if (samples.incrementAndGet() % DECAY_INTERVAL == 0) {
+        for (int i = 0; i < BUCKETS; i++) {
+          long count = counts.get(i);
+          if (count > 0) {
+            counts.addAndGet(i, -(count / 2));
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the latency at the given percentile, or -1 if there aren't enough samples yet.
+     */
+    long percentile(double percentile) {
+      if (samples.get() < MIN_SAMPLES) {
+        return -1;
+      }
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        total += counts.get(i);
+      }
+      long target = (long) Math.ceil(percentile * total);
+      long cumulative = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        cumulative += counts.get(i);
+        if (cumulative >= target) {
+          return upperBound(i);
+        }
+      }
+      return upperBound(BUCKETS - 1);
+    }
+
+    static int bucket(long value) {
+      if (value < 4) {
+        return (int) value;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      return 4 * (exponent - 1) + (int) ((value >>> (exponent - 2)) & 3);
+    }
+
+    static long upperBound(int bucket) {
+      if (bucket < 4) {
+        return bucket;
+      }
+      int exponent = bucket / 4 + 1;
+      long lower = (4L + bucket % 4) << (exponent - 2);
+      return lower + (1L << (exponent - 2)) - 1;
+    }
+  }
+}
@@ -0,0 +1,362 @@
+package com.youtube.vitess.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.youtube.vitess.client.cursor.Cursor;
+import com.youtube.vitess.proto.Topodata.KeyRange;
+import com.youtube.vitess.proto.Topodata.ShardReference;
+import com.youtube.vitess.proto.Topodata.SrvKeyspace;
+import com.youtube.vitess.proto.Topodata.SrvKeyspace.KeyspacePartition;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.BoundShardQuery;
+
+import org.joda.time.Duration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * A client-side cache of keyspace routing information.
+ *
+ * <p>{@code KeyspaceRouter} fetches the {@link SrvKeyspace} of each keyspace it is asked about
+ * with {@link VTGateConn#getSrvKeyspace(Context, String)}, and keeps the key ranges of every
+ * {@link KeyspacePartition} indexed by {@link TabletType}. Keyspace IDs can then be resolved to
+ * shard names locally, which lets callers with many keyspace IDs group them by shard and send a
+ * single {@link VTGateConn#executeBatchShards} instead of having vtgate resolve every ID.
+ *
+ * <p>Cached keyspaces are refreshed in the background at a fixed interval, with the caller ID of
+ * the call that first fetched them. If a refresh fails, the previous routing information is kept
+ * until the next successful refresh. Since the cache may be stale during a resharding, callers
+ * that can't tolerate misrouted queries should keep using the keyspace ID based APIs.
+ *
+ * <p>{@code KeyspaceRouter} is thread-safe. The {@link #close()} method stops the background
+ * refresh, but does not close the underlying {@link VTGateConn}.
+ */
+public class KeyspaceRouter implements Closeable {
+  private static final Comparator<byte[]> KEYSPACE_ID_ORDER =
+      UnsignedBytes.lexicographicalComparator();
+
+  private final VTGateConn conn;
+  private final Duration refreshInterval;
+  private final ScheduledExecutorService refreshExecutor;
+  private final ConcurrentMap<String, KeyspaceRoutes> keyspaces =
+      new ConcurrentHashMap<String, KeyspaceRoutes>();
+
+  /**
+   * Creates a {@code KeyspaceRouter} that refreshes cached keyspaces every
+   * {@code refreshInterval}.
+   *
+   * <p>Each background refresh has the timeout of the call that first fetched the keyspace, but no
+   * more than {@code refreshInterval}.
+   */
+  public KeyspaceRouter(VTGateConn conn, Duration refreshInterval) {
+    this.conn = checkNotNull(conn);
+    this.refreshInterval = checkNotNull(refreshInterval);
+    checkArgument(refreshInterval.getMillis() > 0, "refreshInterval must be positive");
+    refreshExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("vitess-keyspace-router-%d")
+                .build());
+    refreshExecutor.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            refreshAll();
+          }
+        },
+        refreshInterval.getMillis(),
+        refreshInterval.getMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the name of the shard that serves {@code keyspaceId} for the given tablet type.
+   *
+   * <p>If the keyspace isn't cached yet, its {@link SrvKeyspace} is fetched synchronously.
+   *
+   * @throws SQLDataException if no shard serves the keyspace ID.
+   */
+  public String getShard(
+      Context ctx, String keyspace, TabletType tabletType, byte[] keyspaceId)
+      throws SQLException {
+    return getPartition(ctx, keyspace, tabletType).getShard(checkNotNull(keyspaceId));
+  }
+
+  /**
+   * Groups keyspace IDs by the shard that serves them for the given tablet type.
+   *
+   * <p>The returned map iterates over shards in key range order.
+   *
+   * @throws SQLDataException if no shard serves one of the keyspace IDs.
+   */
+  public Map<String, List<byte[]>> groupByShard(
+      Context ctx, String keyspace, TabletType tabletType, Iterable<byte[]> keyspaceIds)
+      throws SQLException {
+    Partition partition = getPartition(ctx, keyspace, tabletType);
+    List<List<byte[]>> groups = new ArrayList<List<byte[]>>(partition.size());
+    for (int i = 0; i < partition.size(); i++) {
+      groups.add(null);
+    }
+    for (byte[] keyspaceId : checkNotNull(keyspaceIds)) {
+      int index = partition.getShardIndex(checkNotNull(keyspaceId));
+      List<byte[]> group = groups.get(index);
+      if (group == null) {
+        group = new ArrayList<byte[]>();
+        groups.set(index, group);
+      }
+      group.add(keyspaceId);
+    }
+    Map<String, List<byte[]>> result = new LinkedHashMap<String, List<byte[]>>();
+    for (int i = 0; i < groups.size(); i++) {
+      if (groups.get(i) != null) {
+        result.put(partition.shardNames[i], groups.get(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Sends one query per shard as a single {@link VTGateConn#executeBatchShards} call.
+   *
+   * <p>{@code entityKeyspaceIds} pairs each keyspace ID with an entity value, such as the entries
+   * of a list or a map. It isn't a map keyed by keyspace ID, since {@code byte[]} keys compare by
+   * identity. The entity values are grouped by the shard that serves their keyspace IDs. Each
+   * shard gets its own copy of {@code query}, in which the list bind variable {@code entityBindVar}
+   * holds only the entity values that belong to that shard. For example,
+   * {@code "SELECT * FROM user WHERE id IN ::ids"} with {@code entityBindVar = "ids"}.
+   *
+   * <p>The returned cursors are in the same order as the shards that were targeted,
+   * which is key range order.
+   */
+  public SQLFuture<List<Cursor>> executeBatchShards(
+      Context ctx,
+      String query,
+      String keyspace,
+      String entityBindVar,
+      Iterable<? extends Map.Entry<byte[], ?>> entityKeyspaceIds,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType)
+      throws SQLException {
+    checkNotNull(query);
+    checkNotNull(entityBindVar);
+    Partition partition = getPartition(ctx, keyspace, tabletType);
+    // Sorted by shard index, so the queries come out in key range order.
+    Map<Integer, List<Object>> valuesByShard = new TreeMap<Integer, List<Object>>();
+    for (Map.Entry<byte[], ?> entry : checkNotNull(entityKeyspaceIds)) {
+      Integer index = partition.getShardIndex(checkNotNull(entry.getKey()));
+      List<Object> values = valuesByShard.get(index);
+      if (values == null) {
+        values = new ArrayList<Object>();
+        valuesByShard.put(index, values);
+      }
+      values.add(entry.getValue());
+    }
+
+    ImmutableList.Builder<BoundShardQuery> queries = ImmutableList.builder();
+    for (Map.Entry<Integer, List<Object>> shardValues : valuesByShard.entrySet()) {
+      Map<String, Object> shardBindVars = new HashMap<String, Object>();
+      if (bindVars != null) {
+        shardBindVars.putAll(bindVars);
+      }
+      shardBindVars.put(entityBindVar, shardValues.getValue());
+      queries.add(
+          Proto.bindShardQuery(
+              keyspace,
+              Collections.singletonList(partition.shardNames[shardValues.getKey()]),
+              query,
+              shardBindVars));
+    }
+    return conn.executeBatchShards(ctx, queries.build(), tabletType, false);
+  }
+
+  /**
+   * Drops the cached routing information for a keyspace.
+   *
+   * <p>The next lookup will fetch it again synchronously.
+   */
+  public void invalidate(String keyspace) {
+    keyspaces.remove(keyspace);
+  }
+
+  @Override
+  public void close() throws IOException {
+    refreshExecutor.shutdownNow();
+  }
+
+  private Partition getPartition(Context ctx, String keyspace, TabletType tabletType)
+      throws SQLException {
+    checkNotNull(keyspace);
+    checkNotNull(tabletType);
+    KeyspaceRoutes routes = keyspaces.get(keyspace);
+    if (routes == null) {
+      // Later refreshes act on behalf of this caller.
+      Context refreshCtx = Context.getDefault();
+      if (ctx.getCallerId() != null) {
+        refreshCtx = refreshCtx.withCallerId(ctx.getCallerId());
+      }
+      Duration refreshTimeout = ctx.getTimeout();
+      if (refreshTimeout == null || refreshTimeout.isLongerThan(refreshInterval)) {
+        refreshTimeout = refreshInterval;
+      }
+      routes =
+          new KeyspaceRoutes(
+              conn.getSrvKeyspace(ctx, keyspace).checkedGet(), refreshCtx, refreshTimeout);
+      KeyspaceRoutes existing = keyspaces.putIfAbsent(keyspace, routes);
+      if (existing != null) {
+        routes = existing;
+      }
+    }
+    Partition partition = routes.partitions.get(tabletType);
+    if (partition == null) {
+      throw new SQLDataException(
+          "keyspace " + keyspace + " has no partition for tablet type " + tabletType);
+    }
+    return partition;
+  }
+
+  @VisibleForTesting
+  void refreshAll() {
+    for (Map.Entry<String, KeyspaceRoutes> entry : keyspaces.entrySet()) {
+      final String keyspace = entry.getKey();
+      final KeyspaceRoutes routes = entry.getValue();
+      try {
+        Futures.addCallback(
+            conn.getSrvKeyspace(
+                routes.refreshCtx.withDeadlineAfter(routes.refreshTimeout), keyspace),
+            new FutureCallback<SrvKeyspace>() {
+              @Override
+              public void onSuccess(SrvKeyspace srvKeyspace) {
+                // Only replace the routes this refresh started from, so that a keyspace that was
+                // invalidated (and maybe fetched again) in the meantime isn't overwritten.
+                keyspaces.replace(
+                    keyspace,
+                    routes,
+                    new KeyspaceRoutes(srvKeyspace, routes.refreshCtx, routes.refreshTimeout));
+              }
+
+              @Override
+              public void onFailure(Throwable t) {
+                // Keep serving the previous routing information until the next refresh.
+              }
+            });
+      } catch (SQLException e) {
+        // Keep serving the previous routing information until the next refresh.
+      }
+    }
+  }
+
+  /**
+   * The routing information of one keyspace, indexed by tablet type, and how to refresh it.
+   */
+  private static class KeyspaceRoutes {
+    final Map<TabletType, Partition> partitions =
+        new EnumMap<TabletType, Partition>(TabletType.class);
+    final Context refreshCtx;
+    final Duration refreshTimeout;
+
+    KeyspaceRoutes(SrvKeyspace srvKeyspace, Context refreshCtx, Duration refreshTimeout) {
+      this.refreshCtx = refreshCtx;
+      this.refreshTimeout = refreshTimeout;
+      for (KeyspacePartition partition : srvKeyspace.getPartitionsList()) {
+        partitions.put(
+            partition.getServedType(), new Partition(partition.getShardReferencesList()));
+      }
+    }
+  }
+
+  /**
+   * The shards of one {@link KeyspacePartition}, sorted by key range.
+   *
+   * <p>Key range starts and ends are kept in parallel arrays so that a lookup is a binary search
+   * over {@code byte[]} without any allocation. An empty start or end means the key range is
+   * unbounded on that side.
+   */
+  static class Partition {
+    private final String[] shardNames;
+    private final byte[][] starts;
+    private final byte[][] ends;
+
+    Partition(List<ShardReference> shardReferences) {
+      List<ShardReference> sorted = new ArrayList<ShardReference>(shardReferences);
+      Collections.sort(
+          sorted,
+          new Comparator<ShardReference>() {
+            @Override
+            public int compare(ShardReference a, ShardReference b) {
+              return KEYSPACE_ID_ORDER.compare(
+                  a.getKeyRange().getStart().toByteArray(),
+                  b.getKeyRange().getStart().toByteArray());
+            }
+          });
+      int size = sorted.size();
+      shardNames = new String[size];
+      starts = new byte[size][];
+      ends = new byte[size][];
+      for (int i = 0; i < size; i++) {
+        KeyRange keyRange = sorted.get(i).getKeyRange();
+        shardNames[i] = sorted.get(i).getName();
+        starts[i] = keyRange.getStart().toByteArray();
+        ends[i] = keyRange.getEnd().toByteArray();
+      }
+    }
+
+    int size() {
+      return shardNames.length;
+    }
+
+    String getShard(byte[] keyspaceId) throws SQLException {
+      return shardNames[getShardIndex(keyspaceId)];
+    }
+
+    int getShardIndex(byte[] keyspaceId) throws SQLException {
+      // Find the last shard whose start is <= keyspaceId.
+      int low = 0;
+      int high = starts.length - 1;
+      int found = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (KEYSPACE_ID_ORDER.compare(starts[mid], keyspaceId) <= 0) {
+          found = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if (found < 0
+          || (ends[found].length != 0 && KEYSPACE_ID_ORDER.compare(keyspaceId, ends[found]) >= 0)) {
+        throw new SQLDataException(
+            "no shard serves keyspace id " + BaseEncoding.base16().lowerCase().encode(keyspaceId));
+      }
+      return found;
+    }
+  }
+}
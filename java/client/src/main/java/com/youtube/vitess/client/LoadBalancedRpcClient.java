@@ -0,0 +1,504 @@
+package com.youtube.vitess.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Vtgate.BeginRequest;
+import com.youtube.vitess.proto.Vtgate.BeginResponse;
+import com.youtube.vitess.proto.Vtgate.CommitRequest;
+import com.youtube.vitess.proto.Vtgate.CommitResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyRangesRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyRangesResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteShardsResponse;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceRequest;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceResponse;
+import com.youtube.vitess.proto.Vtgate.RollbackRequest;
+import com.youtube.vitess.proto.Vtgate.RollbackResponse;
+import com.youtube.vitess.proto.Vtgate.SplitQueryRequest;
+import com.youtube.vitess.proto.Vtgate.SplitQueryResponse;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteKeyRangesRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteShardsRequest;
+
+import org.joda.time.Duration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link RpcClient} that balances calls over several VTGates according to their load.
+ *
+ * <p>Each call picks two VTGates at random and sends the call to the one with the lower cost
+ * ("power of two choices"), which avoids both the herd behavior of always picking the single best
+ * VTGate and the blindness of round-robin. The cost depends on the {@link Strategy}:
+ * <ul>
+ * <li>{@link Strategy#LEAST_OUTSTANDING}: the number of calls in flight to the VTGate.
+ * <li>{@link Strategy#PEAK_EWMA}: an exponentially weighted moving average of the response
+ *     time, which jumps up immediately on a slow response and decays slowly, multiplied by the
+ *     number of calls in flight plus one.
+ * </ul>
+ *
+ * <p>A VTGate whose calls fail with {@link SQLTransientException} (which is how an UNAVAILABLE
+ * status is reported) several times in a row is ejected for the given ejection time, during which
+ * it only gets calls if all VTGates are ejected. Since the transaction state is carried in the
+ * {@code Session} of each request, calls within a transaction don't need to go to the same VTGate.
+ *
+ * <p>Streaming calls are balanced in the same way, but they don't count as outstanding and don't
+ * update the latency, because their duration depends on the size of the result.
+ */
+public class LoadBalancedRpcClient implements RpcClient {
+  /**
+   * How the load of a VTGate is measured.
+   */
+  public enum Strategy {
+    LEAST_OUTSTANDING,
+    PEAK_EWMA
+  }
+
+  /**
+   * The number of consecutive transient failures after which a VTGate is ejected.
+   */
+  static final int EJECTION_THRESHOLD = 3;
+  /**
+   * The time constant of the latency moving average.
+   */
+  private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final List<Endpoint> endpoints;
+  private final Strategy strategy;
+  private final long ejectionNanos;
+
+  /**
+   * Creates a client for each address with the given factory.
+   */
+  public static LoadBalancedRpcClient create(
+      RpcClientFactory factory,
+      Context ctx,
+      Iterable<InetSocketAddress> addresses,
+      Strategy strategy,
+      Duration ejectionTime) {
+    List<RpcClient> clients = new ArrayList<>();
+    for (InetSocketAddress address : addresses) {
+      clients.add(factory.create(ctx, address));
+    }
+    return new LoadBalancedRpcClient(clients, strategy, ejectionTime);
+  }
+
+  /**
+   * @param clients The clients to balance calls over, typically one per VTGate.
+   * @param strategy How to measure the load of each client.
+   * @param ejectionTime How long a client is avoided after repeated transient failures.
+   */
+  public LoadBalancedRpcClient(
+      List<? extends RpcClient> clients, Strategy strategy, Duration ejectionTime) {
+    checkArgument(!clients.isEmpty(), "at least one client is required");
+    ImmutableList.Builder<Endpoint> builder = ImmutableList.builder();
+    for (RpcClient client : clients) {
+      builder.add(new Endpoint(client));
+    }
+    endpoints = builder.build();
+    this.strategy = strategy;
+    ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionTime.getMillis());
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException exception = null;
+    for (Endpoint endpoint : endpoints) {
+      try {
+        endpoint.client.close();
+      } catch (IOException e) {
+        exception = e;
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public ListenableFuture<ExecuteResponse> execute(final Context ctx, final ExecuteRequest request)
+      throws SQLException {
+    return call(
+        new Call<ExecuteResponse>() {
+          @Override
+          public ListenableFuture<ExecuteResponse> invoke(RpcClient client) throws SQLException {
+            return client.execute(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteShardsResponse> executeShards(
+      final Context ctx, final ExecuteShardsRequest request) throws SQLException {
+    return call(
+        new Call<ExecuteShardsResponse>() {
+          @Override
+          public ListenableFuture<ExecuteShardsResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.executeShards(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteKeyspaceIdsResponse> executeKeyspaceIds(
+      final Context ctx, final ExecuteKeyspaceIdsRequest request) throws SQLException {
+    return call(
+        new Call<ExecuteKeyspaceIdsResponse>() {
+          @Override
+          public ListenableFuture<ExecuteKeyspaceIdsResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.executeKeyspaceIds(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteKeyRangesResponse> executeKeyRanges(
+      final Context ctx, final ExecuteKeyRangesRequest request) throws SQLException {
+    return call(
+        new Call<ExecuteKeyRangesResponse>() {
+          @Override
+          public ListenableFuture<ExecuteKeyRangesResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.executeKeyRanges(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteEntityIdsResponse> executeEntityIds(
+      final Context ctx, final ExecuteEntityIdsRequest request) throws SQLException {
+    return call(
+        new Call<ExecuteEntityIdsResponse>() {
+          @Override
+          public ListenableFuture<ExecuteEntityIdsResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.executeEntityIds(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteBatchShardsResponse> executeBatchShards(
+      final Context ctx, final ExecuteBatchShardsRequest request) throws SQLException {
+    return call(
+        new Call<ExecuteBatchShardsResponse>() {
+          @Override
+          public ListenableFuture<ExecuteBatchShardsResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.executeBatchShards(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> executeBatchKeyspaceIds(
+      final Context ctx, final ExecuteBatchKeyspaceIdsRequest request) throws SQLException {
+    return call(
+        new Call<ExecuteBatchKeyspaceIdsResponse>() {
+          @Override
+          public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.executeBatchKeyspaceIds(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecute(Context ctx, StreamExecuteRequest request)
+      throws SQLException {
+    return pick().client.streamExecute(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request) throws SQLException {
+    return pick().client.streamExecuteShards(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteKeyspaceIds(
+      Context ctx, StreamExecuteKeyspaceIdsRequest request) throws SQLException {
+    return pick().client.streamExecuteKeyspaceIds(ctx, request);
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteKeyRanges(
+      Context ctx, StreamExecuteKeyRangesRequest request) throws SQLException {
+    return pick().client.streamExecuteKeyRanges(ctx, request);
+  }
+
+  @Override
+  public void streamExecute(
+      Context ctx, StreamExecuteRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    pick().client.streamExecute(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    pick().client.streamExecuteShards(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteKeyspaceIds(
+      Context ctx,
+      StreamExecuteKeyspaceIdsRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    pick().client.streamExecuteKeyspaceIds(ctx, request, subscriber);
+  }
+
+  @Override
+  public void streamExecuteKeyRanges(
+      Context ctx,
+      StreamExecuteKeyRangesRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    pick().client.streamExecuteKeyRanges(ctx, request, subscriber);
+  }
+
+  @Override
+  public ListenableFuture<BeginResponse> begin(final Context ctx, final BeginRequest request)
+      throws SQLException {
+    return call(
+        new Call<BeginResponse>() {
+          @Override
+          public ListenableFuture<BeginResponse> invoke(RpcClient client) throws SQLException {
+            return client.begin(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<CommitResponse> commit(final Context ctx, final CommitRequest request)
+      throws SQLException {
+    return call(
+        new Call<CommitResponse>() {
+          @Override
+          public ListenableFuture<CommitResponse> invoke(RpcClient client) throws SQLException {
+            return client.commit(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<RollbackResponse> rollback(
+      final Context ctx, final RollbackRequest request) throws SQLException {
+    return call(
+        new Call<RollbackResponse>() {
+          @Override
+          public ListenableFuture<RollbackResponse> invoke(RpcClient client) throws SQLException {
+            return client.rollback(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<SplitQueryResponse> splitQuery(
+      final Context ctx, final SplitQueryRequest request) throws SQLException {
+    return call(
+        new Call<SplitQueryResponse>() {
+          @Override
+          public ListenableFuture<SplitQueryResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.splitQuery(ctx, request);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<GetSrvKeyspaceResponse> getSrvKeyspace(
+      final Context ctx, final GetSrvKeyspaceRequest request) throws SQLException {
+    return call(
+        new Call<GetSrvKeyspaceResponse>() {
+          @Override
+          public ListenableFuture<GetSrvKeyspaceResponse> invoke(RpcClient client)
+              throws SQLException {
+            return client.getSrvKeyspace(ctx, request);
+          }
+        });
+  }
+
+  /**
+   * Returns the number of calls in flight to each client, in the order they were given.
+   */
+  List<Integer> getOutstanding() {
+    List<Integer> outstanding = new ArrayList<>();
+    for (Endpoint endpoint : endpoints) {
+      outstanding.add(endpoint.outstanding.get());
+    }
+    return outstanding;
+  }
+
+  private <T> ListenableFuture<T> call(Call<T> call) throws SQLException {
+    final Endpoint endpoint = pick();
+    final long startNanos = System.nanoTime();
+    endpoint.outstanding.incrementAndGet();
+    ListenableFuture<T> future;
+    try {
+      future = call.invoke(endpoint.client);
+    } catch (SQLException | RuntimeException e) {
+      endpoint.outstanding.decrementAndGet();
+      endpoint.onFailure(e);
+      throw e;
+    }
+    Futures.addCallback(
+        future,
+        new FutureCallback<T>() {
+          @Override
+          public void onSuccess(T result) {
+            endpoint.outstanding.decrementAndGet();
+            endpoint.onSuccess(System.nanoTime() - startNanos);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            endpoint.outstanding.decrementAndGet();
+            endpoint.onFailure(t);
+          }
+        });
+    return future;
+  }
+
+  /**
+   * Picks the cheaper of two random endpoints that aren't ejected.
+   */
+  private Endpoint pick() {
+    long now = System.nanoTime();
+    List<Endpoint> candidates = endpoints;
+    for (Endpoint endpoint : endpoints) {
+      if (endpoint.isEjected(now)) {
+        candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint e : endpoints) {
+          if (!e.isEjected(now)) {
+            candidates.add(e);
+          }
+        }
+        if (candidates.isEmpty()) {
+          // Everything is ejected, so ejection can't help.
+          candidates = endpoints;
+        }
+        break;
+      }
+    }
+
+    int size = candidates.size();
+    if (size == 1) {
+      return candidates.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+    Endpoint a = candidates.get(first);
+    Endpoint b = candidates.get(second);
+    return cost(a, now) <= cost(b, now) ? a : b;
+  }
+
+  private double cost(Endpoint endpoint, long now) {
+    int outstanding = endpoint.outstanding.get();
+    if (strategy == Strategy.LEAST_OUTSTANDING) {
+      return outstanding;
+    }
+    // Add a nanosecond so that clients without latency samples are still ordered by load.
+    return (endpoint.getLatency(now) + 1) * (outstanding + 1);
+  }
+
+  /**
+   * One RPC, which can be sent to any of the clients.
+   */
+  private interface Call<T> {
+    ListenableFuture<T> invoke(RpcClient client) throws SQLException;
+  }
+
+  /**
+   * The load and health of one client.
+   */
+  private class Endpoint {
+    final RpcClient client;
+    final AtomicInteger outstanding = new AtomicInteger();
+    private double latencyNanos;
+    private long lastUpdateNanos = System.nanoTime();
+    private int consecutiveFailures;
+    private volatile long ejectedUntilNanos;
+    private volatile boolean ejected;
+
+    Endpoint(RpcClient client) {
+      this.client = client;
+    }
+
+    boolean isEjected(long now) {
+      return ejected && now - ejectedUntilNanos < 0;
+    }
+
+    /**
+     * Returns the peak EWMA of the response time, decayed to the current time.
+     */
+    synchronized double getLatency(long now) {
+      return latencyNanos * decay(now);
+    }
+
+    synchronized void onSuccess(long rttNanos) {
+      long now = System.nanoTime();
+      double current = latencyNanos * decay(now);
+      if (rttNanos > current) {
+        // Peak sensitivity: react to a slowdown immediately.
+        latencyNanos = rttNanos;
+      } else {
+        double w = decay(now);
+        latencyNanos = latencyNanos * w + rttNanos * (1 - w);
+      }
+      lastUpdateNanos = now;
+      consecutiveFailures = 0;
+      ejected = false;
+    }
+
+    synchronized void onFailure(Throwable t) {
+      if (!(t instanceof SQLTransientException) || t instanceof SQLTimeoutException) {
+        // Only count failures to reach the VTGate, not query errors.
+        return;
+      }
+      if (++consecutiveFailures >= EJECTION_THRESHOLD) {
+        ejectedUntilNanos = System.nanoTime() + ejectionNanos;
+        ejected = true;
+        consecutiveFailures = 0;
+      }
+    }
+
+    private double decay(long now) {
+      return Math.exp(-(double) Math.max(0, now - lastUpdateNanos) / DECAY_NANOS);
+    }
+  }
+}
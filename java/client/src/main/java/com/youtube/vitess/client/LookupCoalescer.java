@@ -0,0 +1,271 @@
+package com.youtube.vitess.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.youtube.vitess.client.cursor.Cursor;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.BoundKeyspaceIdQuery;
+import com.youtube.vitess.proto.Vtrpc.CallerID;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Coalesces concurrent keyspace ID lookups into batch RPCs.
+ *
+ * <p>{@link #executeKeyspaceIds} has the same signature as
+ * {@link VTGateConn#executeKeyspaceIds}, but instead of sending an RPC right away, the request
+ * is queued together with other requests that share the same SQL text, keyspace, tablet type and
+ * caller ID. A queue is flushed as a single {@link VTGateConn#executeBatchKeyspaceIds} call when
+ * it reaches {@code maxBatchSize} requests, or {@code maxDelay} after its first request arrived,
+ * whichever comes first. The {@link Cursor} for each request is then delivered to its own
+ * {@link SQLFuture}.
+ *
+ * <p>This is intended for read-only point lookups issued by many threads at once, where the
+ * per-RPC overhead dominates. Each request may still wait up to {@code maxDelay} for its batch,
+ * and an error in the batch RPC fails every request in it.
+ *
+ * <p>The batch RPC uses the {@link Context} with the earliest deadline among the coalesced
+ * requests. {@code LookupCoalescer} is thread-safe. The {@link #close()} method flushes pending
+ * requests, but does not close the underlying {@link VTGateConn}. Requests made after that fail.
+ */
+public class LookupCoalescer implements Closeable {
+  private final VTGateConn conn;
+  private final int maxBatchSize;
+  private final Duration maxDelay;
+  private final ScheduledExecutorService flushExecutor;
+  private final Map<BatchKey, Batch> pending = new HashMap<BatchKey, Batch>();
+  /**
+   * Guarded by {@link #pending}.
+   */
+  private boolean closed;
+
+  /**
+   * Creates a {@code LookupCoalescer} that sends its batches through {@code conn}.
+   *
+   * @param maxBatchSize The maximum number of requests merged into one RPC.
+   * @param maxDelay The maximum time a request waits for other requests to join its batch.
+   */
+  public LookupCoalescer(VTGateConn conn, int maxBatchSize, Duration maxDelay) {
+    this.conn = checkNotNull(conn);
+    checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelay = checkNotNull(maxDelay);
+    flushExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("vitess-lookup-coalescer-%d")
+                .build());
+  }
+
+  /**
+   * Queues a keyspace ID query to be sent as part of a batch.
+   *
+   * @see VTGateConn#executeKeyspaceIds
+   */
+  public SQLFuture<Cursor> executeKeyspaceIds(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<byte[]> keyspaceIds,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType) {
+    BoundKeyspaceIdQuery boundQuery =
+        Proto.bindKeyspaceIdQuery(
+            checkNotNull(keyspace), checkNotNull(keyspaceIds), checkNotNull(query), bindVars);
+    final BatchKey key = new BatchKey(query, keyspace, checkNotNull(tabletType), ctx.getCallerId());
+    SettableFuture<Cursor> result = SettableFuture.create();
+
+    Batch full = null;
+    synchronized (pending) {
+      if (closed) {
+        result.setException(
+            new SQLDataException("executeKeyspaceIds() called on closed LookupCoalescer"));
+        return new SQLFuture<Cursor>(result);
+      }
+      Batch batch = pending.get(key);
+      if (batch == null) {
+        batch = new Batch(tabletType);
+        final Batch scheduled = batch;
+        // Schedule the flush first, so that a batch is never pending without a timer.
+        flushExecutor.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                flush(key, scheduled);
+              }
+            },
+            maxDelay.getMillis(),
+            TimeUnit.MILLISECONDS);
+        pending.put(key, batch);
+      }
+      batch.add(ctx, boundQuery, result);
+      if (batch.size() >= maxBatchSize) {
+        pending.remove(key);
+        full = batch;
+      }
+    }
+    if (full != null) {
+      full.send();
+    }
+    return new SQLFuture<Cursor>(result);
+  }
+
+  /**
+   * Sends all pending batches and stops the flush timer.
+   */
+  @Override
+  public void close() throws IOException {
+    List<Batch> batches;
+    synchronized (pending) {
+      closed = true;
+      batches = new ArrayList<Batch>(pending.values());
+      pending.clear();
+      flushExecutor.shutdownNow();
+    }
+    for (Batch batch : batches) {
+      batch.send();
+    }
+  }
+
+  private void flush(BatchKey key, Batch batch) {
+    synchronized (pending) {
+      // The batch may have already been sent because it filled up.
+      if (pending.get(key) != batch) {
+        return;
+      }
+      pending.remove(key);
+    }
+    batch.send();
+  }
+
+  /**
+   * Identifies requests that can be merged into the same batch.
+   */
+  private static class BatchKey {
+    final String query;
+    final String keyspace;
+    final TabletType tabletType;
+    final CallerID callerId;
+
+    BatchKey(String query, String keyspace, TabletType tabletType, @Nullable CallerID callerId) {
+      this.query = query;
+      this.keyspace = keyspace;
+      this.tabletType = tabletType;
+      this.callerId = callerId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BatchKey)) {
+        return false;
+      }
+      BatchKey other = (BatchKey) o;
+      return query.equals(other.query)
+          && keyspace.equals(other.keyspace)
+          && tabletType == other.tabletType
+          && Objects.equal(callerId, other.callerId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(query, keyspace, tabletType, callerId);
+    }
+  }
+
+  /**
+   * The requests queued for one batch RPC.
+   */
+  private class Batch {
+    final TabletType tabletType;
+    final List<BoundKeyspaceIdQuery> queries = new ArrayList<BoundKeyspaceIdQuery>();
+    final List<SettableFuture<Cursor>> results = new ArrayList<SettableFuture<Cursor>>();
+    Context ctx;
+
+    Batch(TabletType tabletType) {
+      this.tabletType = tabletType;
+    }
+
+    void add(Context ctx, BoundKeyspaceIdQuery query, SettableFuture<Cursor> result) {
+      if (this.ctx == null || isEarlier(ctx.getDeadline(), this.ctx.getDeadline())) {
+        this.ctx = ctx;
+      }
+      queries.add(query);
+      results.add(result);
+    }
+
+    int size() {
+      return queries.size();
+    }
+
+    void send() {
+      SQLFuture<List<Cursor>> call;
+      try {
+        call = conn.executeBatchKeyspaceIds(ctx, queries, tabletType, false);
+      } catch (SQLException | RuntimeException e) {
+        fail(e);
+        return;
+      }
+      Futures.addCallback(
+          call,
+          new FutureCallback<List<Cursor>>() {
+            @Override
+            public void onSuccess(List<Cursor> cursors) {
+              if (cursors.size() != results.size()) {
+                fail(
+                    new SQLException(
+                        "batch returned "
+                            + cursors.size()
+                            + " results for "
+                            + results.size()
+                            + " queries"));
+                return;
+              }
+              for (int i = 0; i < cursors.size(); i++) {
+                results.get(i).set(cursors.get(i));
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              fail(t);
+            }
+          });
+    }
+
+    private void fail(Throwable t) {
+      for (SettableFuture<Cursor> result : results) {
+        result.setException(t);
+      }
+    }
+  }
+
+  private static boolean isEarlier(@Nullable Instant a, @Nullable Instant b) {
+    if (a == null) {
+      return false;
+    }
+    return b == null || a.isBefore(b);
+  }
+}
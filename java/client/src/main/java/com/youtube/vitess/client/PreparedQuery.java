@@ -0,0 +1,105 @@
+package com.youtube.vitess.client;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.proto.Query.BindVariable;
+import com.youtube.vitess.proto.Query.BoundQuery;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteRequest;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * PreparedQuery holds the parts of a query request that are the same for every execution: the SQL
+ * text, the keyspace and the tablet type.
+ *
+ * <p>The SQL text is encoded as UTF-8 once, when the PreparedQuery is created, and the request
+ * templates are built once. Executing it with {@link VTGateConn#execute(Context, PreparedQuery,
+ * Map)} and the like then only encodes the bind variables, rather than encoding a possibly long
+ * SQL string again for every call.
+ *
+ * <p>A PreparedQuery is immutable and can be shared by any number of threads and connections.
+ */
+public final class PreparedQuery {
+  private final String sql;
+  private final TabletType tabletType;
+  @Nullable private final String keyspace;
+  private final ByteString sqlBytes;
+  private final ExecuteRequest executeTemplate;
+  private final StreamExecuteRequest streamExecuteTemplate;
+
+  public PreparedQuery(String sql, TabletType tabletType) {
+    this(sql, null, tabletType);
+  }
+
+  /**
+   * @param keyspace The default keyspace for unqualified table names, or null for none.
+   */
+  public PreparedQuery(String sql, @Nullable String keyspace, TabletType tabletType) {
+    this.sql = checkNotNull(sql);
+    this.keyspace = keyspace;
+    this.tabletType = checkNotNull(tabletType);
+    sqlBytes = ByteString.copyFromUtf8(sql);
+
+    ExecuteRequest.Builder executeBuilder = ExecuteRequest.newBuilder().setTabletType(tabletType);
+    StreamExecuteRequest.Builder streamExecuteBuilder =
+        StreamExecuteRequest.newBuilder().setTabletType(tabletType);
+    if (keyspace != null) {
+      ByteString keyspaceBytes = ByteString.copyFromUtf8(keyspace);
+      executeBuilder.setKeyspaceBytes(keyspaceBytes);
+      streamExecuteBuilder.setKeyspaceBytes(keyspaceBytes);
+    }
+    executeTemplate = executeBuilder.build();
+    streamExecuteTemplate = streamExecuteBuilder.build();
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  @Nullable
+  public String getKeyspace() {
+    return keyspace;
+  }
+
+  public TabletType getTabletType() {
+    return tabletType;
+  }
+
+  /**
+   * Returns a BoundQuery with the pre-encoded SQL text and the given bind variables.
+   */
+  public BoundQuery bind(@Nullable Map<String, ?> bindVars) {
+    BoundQuery.Builder builder = BoundQuery.newBuilder().setSqlBytes(sqlBytes);
+    if (bindVars != null) {
+      Map<String, BindVariable> boundVars = builder.getMutableBindVariables();
+      for (Map.Entry<String, ?> entry : bindVars.entrySet()) {
+        boundVars.put(entry.getKey(), Proto.buildBindVariable(entry.getValue()));
+      }
+    }
+    return builder.build();
+  }
+
+  ExecuteRequest.Builder newExecuteRequest(Context ctx, @Nullable Map<String, ?> bindVars) {
+    ExecuteRequest.Builder builder = executeTemplate.toBuilder().setQuery(bind(bindVars));
+    if (ctx.getCallerId() != null) {
+      builder.setCallerId(ctx.getCallerId());
+    }
+    return builder;
+  }
+
+  StreamExecuteRequest.Builder newStreamExecuteRequest(
+      Context ctx, @Nullable Map<String, ?> bindVars) {
+    StreamExecuteRequest.Builder builder =
+        streamExecuteTemplate.toBuilder().setQuery(bind(bindVars));
+    if (ctx.getCallerId() != null) {
+      builder.setCallerId(ctx.getCallerId());
+    }
+    return builder;
+  }
+}
@@ -2,8 +2,6 @@ package com.youtube.vitess.client;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
-import com.google.common.primitives.UnsignedLong;
 import com.google.protobuf.ByteString;
 
 import com.youtube.vitess.client.cursor.Cursor;
@@ -25,7 +23,6 @@ import java.sql.SQLSyntaxErrorException;
 import java.sql.SQLTimeoutException;
 import java.sql.SQLTransientException;
 import java.util.Iterator;
-import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
 
@@ -34,8 +31,6 @@ import java.util.Map;
  */
 public class Proto {
 
-  private static int MAX_DECIMAL_UNIT = 30;
-
   /**
    * Throws the proper SQLException for an error returned by VTGate.
    *
@@ -76,9 +71,22 @@ public class Proto {
 
       builder.setType(Query.Type.TUPLE);
 
-      while (itr.hasNext()) {
-        TypedValue tval = new TypedValue(itr.next());
-        builder.addValues(Query.Value.newBuilder().setType(tval.type).setValue(tval.value).build());
+      // Encode all the elements into one buffer, so they share a single ByteString.
+      ValueEncoder encoder = ValueEncoder.get();
+      try {
+        while (itr.hasNext()) {
+          encoder.add(itr.next());
+        }
+        ByteString values = encoder.toByteString();
+        for (int i = 0; i < encoder.size(); i++) {
+          builder.addValues(
+              Query.Value.newBuilder()
+                  .setType(encoder.getType(i))
+                  .setValue(encoder.getValue(values, i))
+                  .build());
+        }
+      } finally {
+        encoder.release();
       }
     } else {
       TypedValue tval = new TypedValue(value);
@@ -99,6 +107,53 @@ public class Proto {
         .build();
   }
 
+  /**
+   * buildEntityIds creates an EntityId for each map entry, with all of their keyspace ids and
+   * values sharing one ByteString.
+   */
+  public static List<EntityId> buildEntityIds(Iterable<? extends Map.Entry<byte[], ?>> entries) {
+    ValueEncoder encoder = ValueEncoder.get();
+    try {
+      for (Map.Entry<byte[], ?> entry : entries) {
+        encoder.addBytes(entry.getKey());
+        encoder.add(entry.getValue());
+      }
+      ByteString slab = encoder.toByteString();
+      ImmutableList.Builder<EntityId> builder = ImmutableList.builder();
+      for (int i = 0; i < encoder.size(); i += 2) {
+        builder.add(
+            EntityId.newBuilder()
+                .setKeyspaceId(encoder.getValue(slab, i))
+                .setType(encoder.getType(i + 1))
+                .setValue(encoder.getValue(slab, i + 1))
+                .build());
+      }
+      return builder.build();
+    } finally {
+      encoder.release();
+    }
+  }
+
+  /**
+   * toByteStrings copies keyspace ids into one ByteString, and returns a slice of it for each.
+   */
+  public static List<ByteString> toByteStrings(Iterable<byte[]> keyspaceIds) {
+    ValueEncoder encoder = ValueEncoder.get();
+    try {
+      for (byte[] keyspaceId : keyspaceIds) {
+        encoder.addBytes(keyspaceId);
+      }
+      ByteString slab = encoder.toByteString();
+      ImmutableList.Builder<ByteString> builder = ImmutableList.builder();
+      for (int i = 0; i < encoder.size(); i++) {
+        builder.add(encoder.getValue(slab, i));
+      }
+      return builder.build();
+    } finally {
+      encoder.release();
+    }
+  }
+
   /**
    * bindQuery creates a BoundQuery from query and vars.
    */
@@ -140,7 +195,7 @@ public class Proto {
       String keyspace, Iterable<byte[]> keyspaceIds, BoundQuery query) {
     return BoundKeyspaceIdQuery.newBuilder()
         .setKeyspace(keyspace)
-        .addAllKeyspaceIds(Iterables.transform(keyspaceIds, BYTE_ARRAY_TO_BYTE_STRING))
+        .addAllKeyspaceIds(toByteStrings(keyspaceIds))
         .setQuery(query)
         .build();
   }
@@ -185,48 +240,25 @@ public class Proto {
     ByteString value;
 
     TypedValue(Object value) {
-      if (value == null) {
-        this.type = Query.Type.NULL_TYPE;
-      } else if (value instanceof String) {
-        // String
+      // Strings and byte arrays can be large. On their own they are copied straight into a
+      // ByteString, since going through the encoder's buffer would copy them twice.
+      if (value instanceof String) {
         this.type = Query.Type.VARCHAR;
         this.value = ByteString.copyFromUtf8((String) value);
-      } else if (value instanceof byte[]) {
-        // Bytes
+        return;
+      }
+      if (value instanceof byte[]) {
         this.type = Query.Type.VARBINARY;
         this.value = ByteString.copyFrom((byte[]) value);
-      } else if (value instanceof Integer
-          || value instanceof Long
-          || value instanceof Short
-          || value instanceof Byte) {
-        // Int32, Int64, Short, Byte
-        this.type = Query.Type.INT64;
-        this.value = ByteString.copyFromUtf8(value.toString());
-      } else if (value instanceof UnsignedLong) {
-        // Uint64
-        this.type = Query.Type.UINT64;
-        this.value = ByteString.copyFromUtf8(value.toString());
-      } else if (value instanceof Float || value instanceof Double) {
-        // Float, Double
-        this.type = Query.Type.FLOAT64;
-        this.value = ByteString.copyFromUtf8(value.toString());
-      } else if (value instanceof Boolean) {
-        // Boolean
-        this.type = Query.Type.INT64;
-        this.value =
-            ByteString.copyFromUtf8(((boolean) value) ? "1" : "0");
-      } else if (value instanceof BigDecimal) {
-        // BigDecimal
-        BigDecimal bigDecimal = (BigDecimal) value;
-        if (bigDecimal.scale() > MAX_DECIMAL_UNIT) {
-          // MySQL only supports scale up to 30.
-          bigDecimal = bigDecimal.setScale(MAX_DECIMAL_UNIT, BigDecimal.ROUND_HALF_UP);
-        }
-        this.type = Query.Type.DECIMAL;
-        this.value = ByteString.copyFromUtf8(bigDecimal.toPlainString());
-      } else {
-        throw new IllegalArgumentException(
-            "unsupported type for Query.Value proto: " + value.getClass());
+        return;
+      }
+      ValueEncoder encoder = ValueEncoder.get();
+      try {
+        encoder.add(value);
+        this.type = encoder.getType(0);
+        this.value = encoder.toByteString();
+      } finally {
+        encoder.release();
       }
     }
   }
@@ -169,6 +169,49 @@ public interface RpcClient extends Closeable {
   StreamIterator<QueryResult> streamExecuteKeyRanges(
       Context ctx, StreamExecuteKeyRangesRequest request) throws SQLException;
 
+  /**
+   * Starts stream queries with the VTGate V3 API, and pushes the results to a subscriber.
+   *
+   * <p>Unlike {@link #streamExecute(Context, StreamExecuteRequest)}, no thread blocks waiting for
+   * results: they are delivered to the {@link StreamSubscriber} as they arrive, and only as many
+   * are received from the server as the subscriber has requested.
+   */
+  void streamExecute(
+      Context ctx, StreamExecuteRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException;
+
+  /**
+   * Starts stream queries with multiple shards, and pushes the results to a subscriber.
+   *
+   * @see #streamExecute(Context, StreamExecuteRequest, StreamSubscriber)
+   */
+  void streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException;
+
+  /**
+   * Starts a list of stream queries with keyspace ids as bind variables, and pushes the results
+   * to a subscriber.
+   *
+   * @see #streamExecute(Context, StreamExecuteRequest, StreamSubscriber)
+   */
+  void streamExecuteKeyspaceIds(
+      Context ctx,
+      StreamExecuteKeyspaceIdsRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException;
+
+  /**
+   * Starts stream query with a set of key ranges, and pushes the results to a subscriber.
+   *
+   * @see #streamExecute(Context, StreamExecuteRequest, StreamSubscriber)
+   */
+  void streamExecuteKeyRanges(
+      Context ctx,
+      StreamExecuteKeyRangesRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException;
+
   /**
    * Starts a transaction.
    *
@@ -0,0 +1,29 @@
+package com.youtube.vitess.client;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the results of a streaming call as they arrive, instead of blocking on a
+ * {@link StreamIterator}.
+ *
+ * <p>{@link #onSubscribe(StreamSubscription)} is called first, and no results arrive until they
+ * are requested through the subscription. Then {@link #onNext(Object)} is called once for each
+ * result, followed by either {@link #onComplete()} or {@link #onError(SQLException)}, unless the
+ * subscription is cancelled. These calls are never made concurrently, but they may be made on
+ * different threads, typically those of the RPC layer, so they must not block.
+ *
+ * <p>This follows the {@code Subscriber} contract of <a href="http://www.reactive-streams.org/">
+ * Reactive Streams</a>, except that errors are always reported as {@link SQLException}s.
+ *
+ * @param <E> the type of result, e.g.
+ *     {@link com.youtube.vitess.proto.Query.QueryResult QueryResult}
+ */
+public interface StreamSubscriber<E> {
+  void onSubscribe(StreamSubscription subscription);
+
+  void onNext(E value);
+
+  void onError(SQLException e);
+
+  void onComplete();
+}
@@ -0,0 +1,30 @@
+package com.youtube.vitess.client;
+
+import java.sql.SQLException;
+
+/**
+ * The demand side of a streaming call whose results are pushed to a {@link StreamSubscriber}.
+ *
+ * <p>Results are only received from the server as fast as they are requested, so a slow
+ * subscriber applies backpressure all the way to vtgate, without blocking any thread.
+ *
+ * <p>This follows the {@code Subscription} contract of <a href="http://www.reactive-streams.org/">
+ * Reactive Streams</a>, so it can be adapted to any library that implements it. Calls to a
+ * subscription must not be made concurrently with each other.
+ */
+public interface StreamSubscription {
+  /**
+   * Asks for {@code n} more results to be delivered to {@link StreamSubscriber#onNext(Object)}.
+   * Requests add up.
+   *
+   * @throws IllegalArgumentException if {@code n} is not positive.
+   */
+  void request(long n);
+
+  /**
+   * Cancels the streaming call. No more results are delivered once the subscriber has seen this
+   * take effect, and neither {@link StreamSubscriber#onComplete()} nor
+   * {@link StreamSubscriber#onError(SQLException)} is called.
+   */
+  void cancel();
+}
@@ -43,6 +43,11 @@ public class VTGateBlockingConn implements Closeable {
     return conn.execute(ctx, query, bindVars, tabletType).checkedGet();
   }
 
+  public Cursor execute(Context ctx, PreparedQuery query, Map<String, ?> bindVars)
+      throws SQLException {
+    return conn.execute(ctx, query, bindVars).checkedGet();
+  }
+
   public Cursor executeShards(
       Context ctx,
       String query,
@@ -128,6 +133,11 @@ public class VTGateBlockingConn implements Closeable {
     return conn.streamExecute(ctx, query, bindVars, tabletType);
   }
 
+  public Cursor streamExecute(Context ctx, PreparedQuery query, Map<String, ?> bindVars)
+      throws SQLException {
+    return conn.streamExecute(ctx, query, bindVars);
+  }
+
   public Cursor streamExecuteShards(
       Context ctx,
       String query,
@@ -139,6 +149,17 @@ public class VTGateBlockingConn implements Closeable {
     return conn.streamExecuteShards(ctx, query, keyspace, shards, bindVars, tabletType);
   }
 
+  public Cursor streamExecuteShardsParallel(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<String> shards,
+      Map<String, ?> bindVars,
+      TabletType tabletType)
+      throws SQLException {
+    return conn.streamExecuteShardsParallel(ctx, query, keyspace, shards, bindVars, tabletType);
+  }
+
   public Cursor streamExecuteKeyspaceIds(
       Context ctx,
       String query,
@@ -165,6 +186,15 @@ public class VTGateBlockingConn implements Closeable {
     return new VTGateBlockingTx(conn.begin(ctx).checkedGet());
   }
 
+  /**
+   * Starts a write-only transaction that sends nothing until it's committed.
+   *
+   * @see VTGateConn#beginBuffered()
+   */
+  public VTGateBufferedTx beginBuffered() {
+    return conn.beginBuffered();
+  }
+
   public List<SplitQueryResponse.Part> splitQuery(
       Context ctx,
       String keyspace,
@@ -31,6 +31,11 @@ public class VTGateBlockingTx {
     return tx.execute(ctx, query, bindVars, tabletType).checkedGet();
   }
 
+  public Cursor execute(Context ctx, PreparedQuery query, Map<String, ?> bindVars)
+      throws SQLException {
+    return tx.execute(ctx, query, bindVars).checkedGet();
+  }
+
   public Cursor executeShards(
       Context ctx,
       String query,
@@ -91,6 +96,33 @@ public class VTGateBlockingTx {
     return tx.executeBatchKeyspaceIds(ctx, queries, tabletType).checkedGet();
   }
 
+  /**
+   * Queues a statement for the next {@link #flush(Context, TabletType)}. The returned future is
+   * done once the flush returns.
+   *
+   * @see VTGateTx#queueExecuteKeyspaceIds(String, String, Iterable, Map)
+   */
+  public SQLFuture<Cursor> queueExecuteKeyspaceIds(
+      String query, String keyspace, Iterable<byte[]> keyspaceIds, Map<String, ?> bindVars)
+      throws SQLException {
+    return tx.queueExecuteKeyspaceIds(query, keyspace, keyspaceIds, bindVars);
+  }
+
+  /**
+   * Queues a statement for the next {@link #flush(Context, TabletType)}.
+   *
+   * @see VTGateTx#queueExecuteShards(String, String, Iterable, Map)
+   */
+  public SQLFuture<Cursor> queueExecuteShards(
+      String query, String keyspace, Iterable<String> shards, Map<String, ?> bindVars)
+      throws SQLException {
+    return tx.queueExecuteShards(query, keyspace, shards, bindVars);
+  }
+
+  public void flush(Context ctx, TabletType tabletType) throws SQLException {
+    tx.flush(ctx, tabletType).checkedGet();
+  }
+
   public void commit(Context ctx) throws SQLException {
     tx.commit(ctx).checkedGet();
   }
@@ -0,0 +1,177 @@
+package com.youtube.vitess.client;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.youtube.vitess.client.cursor.Cursor;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.BoundKeyspaceIdQuery;
+import com.youtube.vitess.proto.Vtgate.BoundShardQuery;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A write-only transaction that sends nothing until it is committed.
+ *
+ * <p>The statements are buffered locally, and {@link #commit(Context)} sends all of them in a
+ * single {@code executeBatchKeyspaceIds} or {@code executeBatchShards} call with
+ * {@code as_transaction} set. That's one round trip instead of a Begin, one Execute per statement,
+ * and a Commit.
+ *
+ * <p>Note that vtgate runs such a batch in a separate transaction <em>per shard</em>. The
+ * statements sent to any one shard commit or fail together, but if the statements span several
+ * shards (several shards, or keyspace ids that map to several shards), the commit can fail after
+ * some of the shards have committed. Only use this for statements that all go to one shard, or
+ * for writes that are safe to retry or to apply partially.
+ *
+ * <p>Since nothing is sent before the commit, the statements can't read anything, including their
+ * own writes: each future returned by the execute methods only gets its result (e.g. the number of
+ * rows affected) once the commit succeeds. For the same reason, the statements of a transaction
+ * must all use keyspace ids, or all use shards, because they must go in a single batch call.
+ *
+ * <p>Use {@link VTGateConn#beginBuffered()} to create one.
+ */
+@NotThreadSafe
+public class VTGateBufferedTx {
+  private final VTGateConn conn;
+  private final List<BoundKeyspaceIdQuery> keyspaceIdQueries = new ArrayList<>();
+  private final List<BoundShardQuery> shardQueries = new ArrayList<>();
+  private final List<SettableFuture<Cursor>> results = new ArrayList<>();
+  private boolean done = false;
+
+  VTGateBufferedTx(VTGateConn conn) {
+    this.conn = checkNotNull(conn);
+  }
+
+  /**
+   * Buffers a statement with keyspace ids until {@link #commit(Context)}.
+   */
+  public SQLFuture<Cursor> executeKeyspaceIds(
+      String query,
+      String keyspace,
+      Iterable<byte[]> keyspaceIds,
+      @Nullable Map<String, ?> bindVars) {
+    checkCanBuffer("executeKeyspaceIds");
+    if (!shardQueries.isEmpty()) {
+      throw new IllegalStateException(
+          "Can't mix executeKeyspaceIds() and executeShards() in a VTGateBufferedTx.");
+    }
+    keyspaceIdQueries.add(
+        Proto.bindKeyspaceIdQuery(
+            checkNotNull(keyspace), checkNotNull(keyspaceIds), checkNotNull(query), bindVars));
+    return newResult();
+  }
+
+  /**
+   * Buffers a statement on a set of shards until {@link #commit(Context)}.
+   */
+  public SQLFuture<Cursor> executeShards(
+      String query, String keyspace, Iterable<String> shards, @Nullable Map<String, ?> bindVars) {
+    checkCanBuffer("executeShards");
+    if (!keyspaceIdQueries.isEmpty()) {
+      throw new IllegalStateException(
+          "Can't mix executeKeyspaceIds() and executeShards() in a VTGateBufferedTx.");
+    }
+    shardQueries.add(
+        Proto.bindShardQuery(
+            checkNotNull(keyspace), checkNotNull(shards), checkNotNull(query), bindVars));
+    return newResult();
+  }
+
+  /**
+   * Sends the buffered statements in one transaction per shard.
+   *
+   * <p>If the commit fails, the futures of all statements fail with the same error. None of the
+   * statements took effect on the shard that failed, but other shards may have committed theirs.
+   */
+  public SQLFuture<Void> commit(Context ctx) throws SQLException {
+    checkCanBuffer("commit");
+    done = true;
+    SQLFuture<List<Cursor>> call;
+    try {
+      if (!shardQueries.isEmpty()) {
+        call = conn.executeBatchShards(ctx, shardQueries, TabletType.MASTER, true);
+      } else if (!keyspaceIdQueries.isEmpty()) {
+        call = conn.executeBatchKeyspaceIds(ctx, keyspaceIdQueries, TabletType.MASTER, true);
+      } else {
+        return new SQLFuture<Void>(Futures.<Void>immediateFuture(null));
+      }
+    } catch (SQLException | RuntimeException e) {
+      fail(e);
+      throw e;
+    }
+    ListenableFuture<Void> committed =
+        Futures.transformAsync(
+            call,
+            new AsyncFunction<List<Cursor>, Void>() {
+              @Override
+              public ListenableFuture<Void> apply(List<Cursor> cursors) throws Exception {
+                if (cursors.size() != results.size()) {
+                  throw new SQLException(
+                      "batch returned "
+                          + cursors.size()
+                          + " results for "
+                          + results.size()
+                          + " queries");
+                }
+                for (int i = 0; i < cursors.size(); i++) {
+                  results.get(i).set(cursors.get(i));
+                }
+                return Futures.immediateFuture(null);
+              }
+            },
+            ctx.getExecutor());
+    Futures.addCallback(
+        committed,
+        new FutureCallback<Void>() {
+          @Override
+          public void onSuccess(Void result) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            fail(t);
+          }
+        });
+    return new SQLFuture<Void>(committed);
+  }
+
+  /**
+   * Discards the buffered statements. Since nothing was sent, this doesn't make an RPC.
+   */
+  public void rollback() {
+    done = true;
+    for (SettableFuture<Cursor> result : results) {
+      result.cancel(false);
+    }
+  }
+
+  private void checkCanBuffer(String call) {
+    if (done) {
+      throw new IllegalStateException(
+          "Can't call " + call + "() on a VTGateBufferedTx after commit() or rollback().");
+    }
+  }
+
+  private SQLFuture<Cursor> newResult() {
+    SettableFuture<Cursor> result = SettableFuture.create();
+    results.add(result);
+    return new SQLFuture<Cursor>(result);
+  }
+
+  private void fail(Throwable t) {
+    for (SettableFuture<Cursor> result : results) {
+      result.setException(t);
+    }
+  }
+}
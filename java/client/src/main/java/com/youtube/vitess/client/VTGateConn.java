@@ -2,14 +2,15 @@ package com.youtube.vitess.client;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import com.youtube.vitess.client.cursor.Cursor;
+import com.youtube.vitess.client.cursor.ParallelStreamCursor;
 import com.youtube.vitess.client.cursor.SimpleCursor;
 import com.youtube.vitess.client.cursor.StreamCursor;
+import com.youtube.vitess.proto.Query.QueryResult;
 import com.youtube.vitess.proto.Topodata.KeyRange;
 import com.youtube.vitess.proto.Topodata.SrvKeyspace;
 import com.youtube.vitess.proto.Topodata.TabletType;
@@ -43,6 +44,7 @@ import com.youtube.vitess.proto.Vtgate.StreamExecuteShardsRequest;
 import java.io.Closeable;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -75,16 +77,29 @@ public final class VTGateConn implements Closeable {
     if (ctx.getCallerId() != null) {
       requestBuilder.setCallerId(ctx.getCallerId());
     }
+    return execute(ctx, requestBuilder.build());
+  }
+
+  /**
+   * Executes a {@link PreparedQuery}, which only needs to encode the bind variables.
+   */
+  public SQLFuture<Cursor> execute(
+      Context ctx, PreparedQuery query, @Nullable Map<String, ?> bindVars) throws SQLException {
+    return execute(ctx, query.newExecuteRequest(ctx, bindVars).build());
+  }
+
+  private SQLFuture<Cursor> execute(Context ctx, ExecuteRequest request) throws SQLException {
     return new SQLFuture<Cursor>(
         Futures.transformAsync(
-            client.execute(ctx, requestBuilder.build()),
+            client.execute(ctx, request),
             new AsyncFunction<ExecuteResponse, Cursor>() {
               @Override
               public ListenableFuture<Cursor> apply(ExecuteResponse response) throws Exception {
                 Proto.checkError(response.getError());
                 return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   public SQLFuture<Cursor> executeShards(
@@ -114,7 +129,8 @@ public final class VTGateConn implements Closeable {
                 Proto.checkError(response.getError());
                 return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   public SQLFuture<Cursor> executeKeyspaceIds(
@@ -129,8 +145,7 @@ public final class VTGateConn implements Closeable {
         ExecuteKeyspaceIdsRequest.newBuilder()
             .setQuery(Proto.bindQuery(checkNotNull(query), bindVars))
             .setKeyspace(checkNotNull(keyspace))
-            .addAllKeyspaceIds(
-                Iterables.transform(checkNotNull(keyspaceIds), Proto.BYTE_ARRAY_TO_BYTE_STRING))
+            .addAllKeyspaceIds(Proto.toByteStrings(checkNotNull(keyspaceIds)))
             .setTabletType(checkNotNull(tabletType));
     if (ctx.getCallerId() != null) {
       requestBuilder.setCallerId(ctx.getCallerId());
@@ -145,7 +160,8 @@ public final class VTGateConn implements Closeable {
                 Proto.checkError(response.getError());
                 return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   public SQLFuture<Cursor> executeKeyRanges(
@@ -175,7 +191,8 @@ public final class VTGateConn implements Closeable {
                 Proto.checkError(response.getError());
                 return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   public SQLFuture<Cursor> executeEntityIds(
@@ -192,9 +209,7 @@ public final class VTGateConn implements Closeable {
             .setQuery(Proto.bindQuery(checkNotNull(query), bindVars))
             .setKeyspace(checkNotNull(keyspace))
             .setEntityColumnName(checkNotNull(entityColumnName))
-            .addAllEntityKeyspaceIds(
-                Iterables.transform(
-                    entityKeyspaceIds.entrySet(), Proto.MAP_ENTRY_TO_ENTITY_KEYSPACE_ID))
+            .addAllEntityKeyspaceIds(Proto.buildEntityIds(entityKeyspaceIds.entrySet()))
             .setTabletType(checkNotNull(tabletType));
     if (ctx.getCallerId() != null) {
       requestBuilder.setCallerId(ctx.getCallerId());
@@ -209,7 +224,8 @@ public final class VTGateConn implements Closeable {
                 Proto.checkError(response.getError());
                 return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   /**
@@ -243,7 +259,8 @@ public final class VTGateConn implements Closeable {
                 return Futures.<List<Cursor>>immediateFuture(
                     Proto.toCursorList(response.getResultsList()));
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   /**
@@ -277,12 +294,208 @@ public final class VTGateConn implements Closeable {
                 return Futures.<List<Cursor>>immediateFuture(
                     Proto.toCursorList(response.getResultsList()));
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   public Cursor streamExecute(
       Context ctx, String query, @Nullable Map<String, ?> bindVars, TabletType tabletType)
       throws SQLException {
+    return new StreamCursor(
+        client.streamExecute(ctx, newStreamExecuteRequest(ctx, query, bindVars, tabletType)));
+  }
+
+  /**
+   * Streams the results of a query to a {@link StreamSubscriber} as they arrive.
+   *
+   * <p>Unlike the {@link Cursor} variant, no thread waits for results. The subscriber receives
+   * one {@link QueryResult} per response from vtgate, the first of which only has the fields, and
+   * only as many responses are read from the server as it requests, so a slow subscriber slows
+   * down the stream instead of buffering it.
+   */
+  public void streamExecute(
+      Context ctx,
+      String query,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecute(
+        ctx, newStreamExecuteRequest(ctx, query, bindVars, tabletType), subscriber);
+  }
+
+  /**
+   * Streams the results of a {@link PreparedQuery}, which only needs to encode the bind variables.
+   */
+  public Cursor streamExecute(Context ctx, PreparedQuery query, @Nullable Map<String, ?> bindVars)
+      throws SQLException {
+    return new StreamCursor(
+        client.streamExecute(ctx, query.newStreamExecuteRequest(ctx, bindVars).build()));
+  }
+
+  /**
+   * Streams the results of a {@link PreparedQuery} to a {@link StreamSubscriber}.
+   *
+   * @see #streamExecute(Context, String, Map, TabletType, StreamSubscriber)
+   */
+  public void streamExecute(
+      Context ctx,
+      PreparedQuery query,
+      @Nullable Map<String, ?> bindVars,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecute(ctx, query.newStreamExecuteRequest(ctx, bindVars).build(), subscriber);
+  }
+
+  public Cursor streamExecuteShards(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<String> shards,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType)
+      throws SQLException {
+    return new StreamCursor(
+        client.streamExecuteShards(
+            ctx,
+            newStreamExecuteShardsRequest(ctx, query, keyspace, shards, bindVars, tabletType)));
+  }
+
+  /**
+   * Streams the results of a query on a set of shards to a {@link StreamSubscriber}.
+   *
+   * @see #streamExecute(Context, String, Map, TabletType, StreamSubscriber)
+   */
+  public void streamExecuteShards(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<String> shards,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecuteShards(
+        ctx,
+        newStreamExecuteShardsRequest(ctx, query, keyspace, shards, bindVars, tabletType),
+        subscriber);
+  }
+
+  /**
+   * Starts a separate stream query on each shard and merges the rows as they arrive.
+   *
+   * <p>Unlike {@link #streamExecuteShards}, which relies on a single stream from vtgate, this
+   * reads the per-shard streams concurrently through a {@link ParallelStreamCursor}. Rows from
+   * different shards are interleaved in no particular order.
+   */
+  public Cursor streamExecuteShardsParallel(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<String> shards,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType)
+      throws SQLException {
+    StreamExecuteShardsRequest.Builder requestBuilder =
+        StreamExecuteShardsRequest.newBuilder()
+            .setQuery(Proto.bindQuery(checkNotNull(query), bindVars))
+            .setKeyspace(checkNotNull(keyspace))
+            .setTabletType(checkNotNull(tabletType));
+    if (ctx.getCallerId() != null) {
+      requestBuilder.setCallerId(ctx.getCallerId());
+    }
+    List<StreamIterator<QueryResult>> streams = new ArrayList<StreamIterator<QueryResult>>();
+    try {
+      for (String shard : checkNotNull(shards)) {
+        streams.add(
+            client.streamExecuteShards(
+                ctx, requestBuilder.clearShards().addShards(shard).build()));
+      }
+    } catch (SQLException | RuntimeException e) {
+      for (StreamIterator<QueryResult> stream : streams) {
+        try {
+          stream.close();
+        } catch (Exception closeException) {
+          e.addSuppressed(closeException);
+        }
+      }
+      throw e;
+    }
+    return new ParallelStreamCursor(streams);
+  }
+
+  public Cursor streamExecuteKeyspaceIds(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<byte[]> keyspaceIds,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType)
+      throws SQLException {
+    return new StreamCursor(
+        client.streamExecuteKeyspaceIds(
+            ctx,
+            newStreamExecuteKeyspaceIdsRequest(
+                ctx, query, keyspace, keyspaceIds, bindVars, tabletType)));
+  }
+
+  /**
+   * Streams the results of a query with a set of keyspace ids to a {@link StreamSubscriber}.
+   *
+   * @see #streamExecute(Context, String, Map, TabletType, StreamSubscriber)
+   */
+  public void streamExecuteKeyspaceIds(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<byte[]> keyspaceIds,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecuteKeyspaceIds(
+        ctx,
+        newStreamExecuteKeyspaceIdsRequest(ctx, query, keyspace, keyspaceIds, bindVars, tabletType),
+        subscriber);
+  }
+
+  public Cursor streamExecuteKeyRanges(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<? extends KeyRange> keyRanges,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType)
+      throws SQLException {
+    return new StreamCursor(
+        client.streamExecuteKeyRanges(
+            ctx,
+            newStreamExecuteKeyRangesRequest(
+                ctx, query, keyspace, keyRanges, bindVars, tabletType)));
+  }
+
+  /**
+   * Streams the results of a query on a set of key ranges to a {@link StreamSubscriber}.
+   *
+   * @see #streamExecute(Context, String, Map, TabletType, StreamSubscriber)
+   */
+  public void streamExecuteKeyRanges(
+      Context ctx,
+      String query,
+      String keyspace,
+      Iterable<? extends KeyRange> keyRanges,
+      @Nullable Map<String, ?> bindVars,
+      TabletType tabletType,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    client.streamExecuteKeyRanges(
+        ctx,
+        newStreamExecuteKeyRangesRequest(ctx, query, keyspace, keyRanges, bindVars, tabletType),
+        subscriber);
+  }
+
+  private static StreamExecuteRequest newStreamExecuteRequest(
+      Context ctx, String query, @Nullable Map<String, ?> bindVars, TabletType tabletType) {
     StreamExecuteRequest.Builder requestBuilder =
         StreamExecuteRequest.newBuilder()
             .setQuery(Proto.bindQuery(checkNotNull(query), bindVars))
@@ -290,17 +503,16 @@ public final class VTGateConn implements Closeable {
     if (ctx.getCallerId() != null) {
       requestBuilder.setCallerId(ctx.getCallerId());
     }
-    return new StreamCursor(client.streamExecute(ctx, requestBuilder.build()));
+    return requestBuilder.build();
   }
 
-  public Cursor streamExecuteShards(
+  private static StreamExecuteShardsRequest newStreamExecuteShardsRequest(
       Context ctx,
       String query,
       String keyspace,
       Iterable<String> shards,
       @Nullable Map<String, ?> bindVars,
-      TabletType tabletType)
-      throws SQLException {
+      TabletType tabletType) {
     StreamExecuteShardsRequest.Builder requestBuilder =
         StreamExecuteShardsRequest.newBuilder()
             .setQuery(Proto.bindQuery(checkNotNull(query), bindVars))
@@ -310,38 +522,35 @@ public final class VTGateConn implements Closeable {
     if (ctx.getCallerId() != null) {
       requestBuilder.setCallerId(ctx.getCallerId());
     }
-    return new StreamCursor(client.streamExecuteShards(ctx, requestBuilder.build()));
+    return requestBuilder.build();
   }
 
-  public Cursor streamExecuteKeyspaceIds(
+  private static StreamExecuteKeyspaceIdsRequest newStreamExecuteKeyspaceIdsRequest(
       Context ctx,
       String query,
       String keyspace,
       Iterable<byte[]> keyspaceIds,
       @Nullable Map<String, ?> bindVars,
-      TabletType tabletType)
-      throws SQLException {
+      TabletType tabletType) {
     StreamExecuteKeyspaceIdsRequest.Builder requestBuilder =
         StreamExecuteKeyspaceIdsRequest.newBuilder()
             .setQuery(Proto.bindQuery(checkNotNull(query), bindVars))
             .setKeyspace(checkNotNull(keyspace))
-            .addAllKeyspaceIds(
-                Iterables.transform(checkNotNull(keyspaceIds), Proto.BYTE_ARRAY_TO_BYTE_STRING))
+            .addAllKeyspaceIds(Proto.toByteStrings(checkNotNull(keyspaceIds)))
             .setTabletType(checkNotNull(tabletType));
     if (ctx.getCallerId() != null) {
       requestBuilder.setCallerId(ctx.getCallerId());
     }
-    return new StreamCursor(client.streamExecuteKeyspaceIds(ctx, requestBuilder.build()));
+    return requestBuilder.build();
   }
 
-  public Cursor streamExecuteKeyRanges(
+  private static StreamExecuteKeyRangesRequest newStreamExecuteKeyRangesRequest(
       Context ctx,
       String query,
       String keyspace,
       Iterable<? extends KeyRange> keyRanges,
       @Nullable Map<String, ?> bindVars,
-      TabletType tabletType)
-      throws SQLException {
+      TabletType tabletType) {
     StreamExecuteKeyRangesRequest.Builder requestBuilder =
         StreamExecuteKeyRangesRequest.newBuilder()
             .setQuery(Proto.bindQuery(checkNotNull(query), bindVars))
@@ -351,7 +560,7 @@ public final class VTGateConn implements Closeable {
     if (ctx.getCallerId() != null) {
       requestBuilder.setCallerId(ctx.getCallerId());
     }
-    return new StreamCursor(client.streamExecuteKeyRanges(ctx, requestBuilder.build()));
+    return requestBuilder.build();
   }
 
   public SQLFuture<VTGateTx> begin(Context ctx) throws SQLException {
@@ -368,7 +577,17 @@ public final class VTGateConn implements Closeable {
                 return Futures.<VTGateTx>immediateFuture(
                     new VTGateTx(client, response.getSession()));
               }
-            }));
+            },
+            ctx.getExecutor()));
+  }
+
+  /**
+   * Starts a write-only transaction that buffers its statements locally and sends them all at
+   * once when it's committed. It is only atomic per shard: see {@link VTGateBufferedTx} for when
+   * it can be used.
+   */
+  public VTGateBufferedTx beginBuffered() {
+    return new VTGateBufferedTx(this);
   }
 
   // TODO(erez): Migrate to SplitQueryV2 after it's stable.
@@ -400,7 +619,8 @@ public final class VTGateConn implements Closeable {
                 return Futures.<List<SplitQueryResponse.Part>>immediateFuture(
                     response.getSplitsList());
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   public SQLFuture<SrvKeyspace> getSrvKeyspace(Context ctx, String keyspace) throws SQLException {
@@ -415,7 +635,8 @@ public final class VTGateConn implements Closeable {
                   throws Exception {
                 return Futures.<SrvKeyspace>immediateFuture(response.getSrvKeyspace());
               }
-            }));
+            },
+            ctx.getExecutor()));
   }
 
   @Override
@@ -2,13 +2,15 @@ package com.youtube.vitess.client;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import com.youtube.vitess.client.cursor.Cursor;
 import com.youtube.vitess.client.cursor.SimpleCursor;
+import com.youtube.vitess.proto.Query.QueryResult;
 import com.youtube.vitess.proto.Topodata.KeyRange;
 import com.youtube.vitess.proto.Topodata.TabletType;
 import com.youtube.vitess.proto.Vtgate.BoundKeyspaceIdQuery;
@@ -35,20 +37,28 @@ import com.youtube.vitess.proto.Vtgate.Session;
 
 import java.sql.SQLDataException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
 
 /**
  * An asynchronous VTGate transaction session.
  *
  * <p>Because {@code VTGateTx} manages a session cookie, only one operation can be in flight
- * at a time on a given instance. The methods are {@code synchronized} only because the
- * session cookie is updated asynchronously when the RPC response comes back.
+ * at a time on a given instance. The methods take a lock only because the session cookie is
+ * updated asynchronously when the RPC response comes back.
  *
  * <p>After calling any method that returns a {@link SQLFuture}, you must wait for that future to
  * complete before calling any other methods on that {@code VTGateTx} instance.
  * An {@link IllegalStateException} will be thrown if this constraint is violated.
  *
+ * <p>To write several rows without a round trip each, queue the statements with
+ * {@link #queueExecuteKeyspaceIds} or {@link #queueExecuteShards}, and send them together with
+ * {@link #flush(Context, TabletType)}.
+ *
  * <p>All operations on {@code VTGateTx} are asynchronous, including those whose ultimate
  * return type is {@link Void}, such as {@link #commit(Context)} and {@link #rollback(Context)}.
  * You must still wait for the futures returned by these methods to complete and check the
@@ -60,26 +70,61 @@ import java.util.Map;
  */
 public class VTGateTx {
   private final RpcClient client;
+  /**
+   * Guards {@link #session}, {@link #lastCall} and {@link #queued}. This is a
+   * {@link ReentrantLock} rather than a monitor so a virtual thread holding it can be unmounted
+   * from its carrier.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
   private Session session;
   private SQLFuture<?> lastCall;
+  /**
+   * Statements queued for the next {@link #flush(Context, TabletType)}.
+   */
+  private List<QueuedStatement> queued = new ArrayList<>();
 
   VTGateTx(RpcClient client, Session session) {
     this.client = checkNotNull(client);
     setSession(checkNotNull(session));
   }
 
-  public synchronized SQLFuture<Cursor> execute(
+  public SQLFuture<Cursor> execute(
       Context ctx, String query, Map<String, ?> bindVars, TabletType tabletType)
       throws SQLException {
-    checkCallIsAllowed("execute");
-    ExecuteRequest.Builder requestBuilder =
-        ExecuteRequest.newBuilder()
-            .setQuery(Proto.bindQuery(query, bindVars))
-            .setTabletType(tabletType)
-            .setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
+    lock.lock();
+    try {
+      checkCallIsAllowed("execute");
+      ExecuteRequest.Builder requestBuilder =
+          ExecuteRequest.newBuilder()
+              .setQuery(Proto.bindQuery(query, bindVars))
+              .setTabletType(tabletType)
+              .setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      return execute(ctx, requestBuilder);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Executes a {@link PreparedQuery} in this transaction, which only needs to encode the bind
+   * variables.
+   */
+  public SQLFuture<Cursor> execute(
+      Context ctx, PreparedQuery query, Map<String, ?> bindVars) throws SQLException {
+    lock.lock();
+    try {
+      checkCallIsAllowed("execute");
+      return execute(ctx, query.newExecuteRequest(ctx, bindVars).setSession(session));
+    } finally {
+      lock.unlock();
     }
+  }
+
+  private SQLFuture<Cursor> execute(Context ctx, ExecuteRequest.Builder requestBuilder)
+      throws SQLException {
     SQLFuture<Cursor> call =
         new SQLFuture<>(
             Futures.transformAsync(
@@ -91,12 +136,13 @@ public class VTGateTx {
                     Proto.checkError(response.getError());
                     return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
                   }
-                }));
+                },
+                ctx.getExecutor()));
     lastCall = call;
     return call;
   }
 
-  public synchronized SQLFuture<Cursor> executeShards(
+  public SQLFuture<Cursor> executeShards(
       Context ctx,
       String query,
       String keyspace,
@@ -104,35 +150,42 @@ public class VTGateTx {
       Map<String, ?> bindVars,
       TabletType tabletType)
       throws SQLException {
-    checkCallIsAllowed("executeShards");
-    ExecuteShardsRequest.Builder requestBuilder =
-        ExecuteShardsRequest.newBuilder()
-            .setQuery(Proto.bindQuery(query, bindVars))
-            .setKeyspace(keyspace)
-            .addAllShards(shards)
-            .setTabletType(tabletType)
-            .setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
+    lock.lock();
+    try {
+      checkCallIsAllowed("executeShards");
+      ExecuteShardsRequest.Builder requestBuilder =
+          ExecuteShardsRequest.newBuilder()
+              .setQuery(Proto.bindQuery(query, bindVars))
+              .setKeyspace(keyspace)
+              .addAllShards(shards)
+              .setTabletType(tabletType)
+              .setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      SQLFuture<Cursor> call =
+          new SQLFuture<>(
+              Futures.transformAsync(
+                  client.executeShards(ctx, requestBuilder.build()),
+                  new AsyncFunction<ExecuteShardsResponse, Cursor>() {
+                    @Override
+                    public ListenableFuture<Cursor> apply(ExecuteShardsResponse response)
+                        throws Exception {
+                      setSession(response.getSession());
+                      Proto.checkError(response.getError());
+                      return Futures.<Cursor>immediateFuture(
+                          new SimpleCursor(response.getResult()));
+                    }
+                  },
+                  ctx.getExecutor()));
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
     }
-    SQLFuture<Cursor> call =
-        new SQLFuture<>(
-            Futures.transformAsync(
-                client.executeShards(ctx, requestBuilder.build()),
-                new AsyncFunction<ExecuteShardsResponse, Cursor>() {
-                  @Override
-                  public ListenableFuture<Cursor> apply(ExecuteShardsResponse response)
-                      throws Exception {
-                    setSession(response.getSession());
-                    Proto.checkError(response.getError());
-                    return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
-                  }
-                }));
-    lastCall = call;
-    return call;
   }
 
-  public synchronized SQLFuture<Cursor> executeKeyspaceIds(
+  public SQLFuture<Cursor> executeKeyspaceIds(
       Context ctx,
       String query,
       String keyspace,
@@ -140,35 +193,42 @@ public class VTGateTx {
       Map<String, ?> bindVars,
       TabletType tabletType)
       throws SQLException {
-    checkCallIsAllowed("executeKeyspaceIds");
-    ExecuteKeyspaceIdsRequest.Builder requestBuilder =
-        ExecuteKeyspaceIdsRequest.newBuilder()
-            .setQuery(Proto.bindQuery(query, bindVars))
-            .setKeyspace(keyspace)
-            .addAllKeyspaceIds(Iterables.transform(keyspaceIds, Proto.BYTE_ARRAY_TO_BYTE_STRING))
-            .setTabletType(tabletType)
-            .setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
+    lock.lock();
+    try {
+      checkCallIsAllowed("executeKeyspaceIds");
+      ExecuteKeyspaceIdsRequest.Builder requestBuilder =
+          ExecuteKeyspaceIdsRequest.newBuilder()
+              .setQuery(Proto.bindQuery(query, bindVars))
+              .setKeyspace(keyspace)
+              .addAllKeyspaceIds(Proto.toByteStrings(keyspaceIds))
+              .setTabletType(tabletType)
+              .setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      SQLFuture<Cursor> call =
+          new SQLFuture<>(
+              Futures.transformAsync(
+                  client.executeKeyspaceIds(ctx, requestBuilder.build()),
+                  new AsyncFunction<ExecuteKeyspaceIdsResponse, Cursor>() {
+                    @Override
+                    public ListenableFuture<Cursor> apply(ExecuteKeyspaceIdsResponse response)
+                        throws Exception {
+                      setSession(response.getSession());
+                      Proto.checkError(response.getError());
+                      return Futures.<Cursor>immediateFuture(
+                          new SimpleCursor(response.getResult()));
+                    }
+                  },
+                  ctx.getExecutor()));
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
     }
-    SQLFuture<Cursor> call =
-        new SQLFuture<>(
-            Futures.transformAsync(
-                client.executeKeyspaceIds(ctx, requestBuilder.build()),
-                new AsyncFunction<ExecuteKeyspaceIdsResponse, Cursor>() {
-                  @Override
-                  public ListenableFuture<Cursor> apply(ExecuteKeyspaceIdsResponse response)
-                      throws Exception {
-                    setSession(response.getSession());
-                    Proto.checkError(response.getError());
-                    return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
-                  }
-                }));
-    lastCall = call;
-    return call;
   }
 
-  public synchronized SQLFuture<Cursor> executeKeyRanges(
+  public SQLFuture<Cursor> executeKeyRanges(
       Context ctx,
       String query,
       String keyspace,
@@ -176,35 +236,42 @@ public class VTGateTx {
       Map<String, ?> bindVars,
       TabletType tabletType)
       throws SQLException {
-    checkCallIsAllowed("executeKeyRanges");
-    ExecuteKeyRangesRequest.Builder requestBuilder =
-        ExecuteKeyRangesRequest.newBuilder()
-            .setQuery(Proto.bindQuery(query, bindVars))
-            .setKeyspace(keyspace)
-            .addAllKeyRanges(keyRanges)
-            .setTabletType(tabletType)
-            .setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
+    lock.lock();
+    try {
+      checkCallIsAllowed("executeKeyRanges");
+      ExecuteKeyRangesRequest.Builder requestBuilder =
+          ExecuteKeyRangesRequest.newBuilder()
+              .setQuery(Proto.bindQuery(query, bindVars))
+              .setKeyspace(keyspace)
+              .addAllKeyRanges(keyRanges)
+              .setTabletType(tabletType)
+              .setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      SQLFuture<Cursor> call =
+          new SQLFuture<>(
+              Futures.transformAsync(
+                  client.executeKeyRanges(ctx, requestBuilder.build()),
+                  new AsyncFunction<ExecuteKeyRangesResponse, Cursor>() {
+                    @Override
+                    public ListenableFuture<Cursor> apply(ExecuteKeyRangesResponse response)
+                        throws Exception {
+                      setSession(response.getSession());
+                      Proto.checkError(response.getError());
+                      return Futures.<Cursor>immediateFuture(
+                          new SimpleCursor(response.getResult()));
+                    }
+                  },
+                  ctx.getExecutor()));
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
     }
-    SQLFuture<Cursor> call =
-        new SQLFuture<>(
-            Futures.transformAsync(
-                client.executeKeyRanges(ctx, requestBuilder.build()),
-                new AsyncFunction<ExecuteKeyRangesResponse, Cursor>() {
-                  @Override
-                  public ListenableFuture<Cursor> apply(ExecuteKeyRangesResponse response)
-                      throws Exception {
-                    setSession(response.getSession());
-                    Proto.checkError(response.getError());
-                    return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
-                  }
-                }));
-    lastCall = call;
-    return call;
   }
 
-  public synchronized SQLFuture<Cursor> executeEntityIds(
+  public SQLFuture<Cursor> executeEntityIds(
       Context ctx,
       String query,
       String keyspace,
@@ -213,154 +280,418 @@ public class VTGateTx {
       Map<String, ?> bindVars,
       TabletType tabletType)
       throws SQLException {
-    checkCallIsAllowed("executeEntityIds");
-    ExecuteEntityIdsRequest.Builder requestBuilder =
-        ExecuteEntityIdsRequest.newBuilder()
-            .setQuery(Proto.bindQuery(query, bindVars))
-            .setKeyspace(keyspace)
-            .setEntityColumnName(entityColumnName)
-            .addAllEntityKeyspaceIds(
-                Iterables.transform(
-                    entityKeyspaceIds.entrySet(), Proto.MAP_ENTRY_TO_ENTITY_KEYSPACE_ID))
-            .setTabletType(tabletType)
-            .setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
+    lock.lock();
+    try {
+      checkCallIsAllowed("executeEntityIds");
+      ExecuteEntityIdsRequest.Builder requestBuilder =
+          ExecuteEntityIdsRequest.newBuilder()
+              .setQuery(Proto.bindQuery(query, bindVars))
+              .setKeyspace(keyspace)
+              .setEntityColumnName(entityColumnName)
+              .addAllEntityKeyspaceIds(Proto.buildEntityIds(entityKeyspaceIds.entrySet()))
+              .setTabletType(tabletType)
+              .setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      SQLFuture<Cursor> call =
+          new SQLFuture<>(
+              Futures.transformAsync(
+                  client.executeEntityIds(ctx, requestBuilder.build()),
+                  new AsyncFunction<ExecuteEntityIdsResponse, Cursor>() {
+                    @Override
+                    public ListenableFuture<Cursor> apply(ExecuteEntityIdsResponse response)
+                        throws Exception {
+                      setSession(response.getSession());
+                      Proto.checkError(response.getError());
+                      return Futures.<Cursor>immediateFuture(
+                          new SimpleCursor(response.getResult()));
+                    }
+                  },
+                  ctx.getExecutor()));
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
     }
-    SQLFuture<Cursor> call =
-        new SQLFuture<>(
-            Futures.transformAsync(
-                client.executeEntityIds(ctx, requestBuilder.build()),
-                new AsyncFunction<ExecuteEntityIdsResponse, Cursor>() {
-                  @Override
-                  public ListenableFuture<Cursor> apply(ExecuteEntityIdsResponse response)
-                      throws Exception {
-                    setSession(response.getSession());
-                    Proto.checkError(response.getError());
-                    return Futures.<Cursor>immediateFuture(new SimpleCursor(response.getResult()));
-                  }
-                }));
-    lastCall = call;
-    return call;
   }
 
-  public synchronized SQLFuture<List<Cursor>> executeBatchShards(
+  public SQLFuture<List<Cursor>> executeBatchShards(
       Context ctx, Iterable<? extends BoundShardQuery> queries, TabletType tabletType)
       throws SQLException {
-    checkCallIsAllowed("executeBatchShards");
-    ExecuteBatchShardsRequest.Builder requestBuilder =
-        ExecuteBatchShardsRequest.newBuilder()
-            .addAllQueries(queries)
-            .setTabletType(tabletType)
-            .setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
+    lock.lock();
+    try {
+      checkCallIsAllowed("executeBatchShards");
+      ExecuteBatchShardsRequest.Builder requestBuilder =
+          ExecuteBatchShardsRequest.newBuilder()
+              .addAllQueries(queries)
+              .setTabletType(tabletType)
+              .setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      SQLFuture<List<Cursor>> call =
+          new SQLFuture<>(
+              Futures.transformAsync(
+                  client.executeBatchShards(ctx, requestBuilder.build()),
+                  new AsyncFunction<ExecuteBatchShardsResponse, List<Cursor>>() {
+                    @Override
+                    public ListenableFuture<List<Cursor>> apply(ExecuteBatchShardsResponse response)
+                        throws Exception {
+                      setSession(response.getSession());
+                      Proto.checkError(response.getError());
+                      return Futures.<List<Cursor>>immediateFuture(
+                          Proto.toCursorList(response.getResultsList()));
+                    }
+                  },
+                  ctx.getExecutor()));
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
     }
-    SQLFuture<List<Cursor>> call =
-        new SQLFuture<>(
+  }
+
+  public SQLFuture<List<Cursor>> executeBatchKeyspaceIds(
+      Context ctx, Iterable<? extends BoundKeyspaceIdQuery> queries, TabletType tabletType)
+      throws SQLException {
+    lock.lock();
+    try {
+      checkCallIsAllowed("executeBatchKeyspaceIds");
+      ExecuteBatchKeyspaceIdsRequest.Builder requestBuilder =
+          ExecuteBatchKeyspaceIdsRequest.newBuilder()
+              .addAllQueries(queries)
+              .setTabletType(tabletType)
+              .setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      SQLFuture<List<Cursor>> call =
+          new SQLFuture<>(
+              Futures.transformAsync(
+                  client.executeBatchKeyspaceIds(ctx, requestBuilder.build()),
+                  new AsyncFunction<ExecuteBatchKeyspaceIdsResponse, List<Cursor>>() {
+                    @Override
+                    public ListenableFuture<List<Cursor>> apply(
+                        ExecuteBatchKeyspaceIdsResponse response) throws Exception {
+                      setSession(response.getSession());
+                      Proto.checkError(response.getError());
+                      return Futures.<List<Cursor>>immediateFuture(
+                          Proto.toCursorList(response.getResultsList()));
+                    }
+                  },
+                  ctx.getExecutor()));
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Queues a statement with keyspace ids to be sent by the next {@link #flush(Context,
+   * TabletType)}, instead of sending it right away.
+   *
+   * <p>Queued statements don't wait for each other's round trips: a flush sends all of them
+   * together in one batch RPC, in the order they were queued. The returned future gets the
+   * statement's own result once the batch returns.
+   */
+  public SQLFuture<Cursor> queueExecuteKeyspaceIds(
+      String query, String keyspace, Iterable<byte[]> keyspaceIds, Map<String, ?> bindVars)
+      throws SQLException {
+    return queue(null, Proto.bindKeyspaceIdQuery(keyspace, keyspaceIds, query, bindVars));
+  }
+
+  /**
+   * Queues a statement on a set of shards to be sent by the next {@link #flush(Context,
+   * TabletType)}.
+   *
+   * @see #queueExecuteKeyspaceIds(String, String, Iterable, Map)
+   */
+  public SQLFuture<Cursor> queueExecuteShards(
+      String query, String keyspace, Iterable<String> shards, Map<String, ?> bindVars)
+      throws SQLException {
+    return queue(Proto.bindShardQuery(keyspace, shards, query, bindVars), null);
+  }
+
+  /**
+   * Sends the queued statements.
+   *
+   * <p>Consecutive statements of the same kind go in one {@code executeBatchKeyspaceIds} or
+   * {@code executeBatchShards} RPC, so a flush makes a single round trip unless keyspace id and
+   * shard statements are interleaved. Each RPC carries the transaction's session. If one fails,
+   * the statements that weren't sent yet fail with the same error. That includes the case where
+   * the first RPC can't be sent at all and this method throws.
+   *
+   * <p>Like the other calls, a flush must complete before anything else is called on this
+   * transaction, except for queueing more statements. No other call is allowed while statements
+   * are queued, except for {@link #rollback(Context)}, which discards them.
+   */
+  public SQLFuture<Void> flush(Context ctx, TabletType tabletType) throws SQLException {
+    lock.lock();
+    try {
+      checkCallIsAllowed("flush", true);
+      checkNotNull(tabletType);
+      final List<QueuedStatement> statements = queued;
+      queued = new ArrayList<>();
+      ListenableFuture<Void> sent;
+      if (statements.isEmpty()) {
+        sent = Futures.immediateFuture(null);
+      } else {
+        try {
+          sent = sendQueued(ctx, statements, 0, tabletType);
+        } catch (SQLException | RuntimeException e) {
+          // Nothing was sent, but the statements have left the queue, so they can't be retried.
+          for (QueuedStatement statement : statements) {
+            statement.result.setException(e);
+          }
+          throw e;
+        }
+        Futures.addCallback(
+            sent,
+            new FutureCallback<Void>() {
+              @Override
+              public void onSuccess(Void result) {}
+
+              @Override
+              public void onFailure(Throwable t) {
+                // Statements that already got their results are left alone.
+                for (QueuedStatement statement : statements) {
+                  statement.result.setException(t);
+                }
+              }
+            });
+      }
+      SQLFuture<Void> call = new SQLFuture<>(sent);
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public SQLFuture<Void> commit(Context ctx) throws SQLException {
+    lock.lock();
+    try {
+      checkCallIsAllowed("commit");
+      CommitRequest.Builder requestBuilder = CommitRequest.newBuilder().setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      SQLFuture<Void> call =
+          new SQLFuture<>(
+              Futures.transformAsync(
+                  client.commit(ctx, requestBuilder.build()),
+                  new AsyncFunction<CommitResponse, Void>() {
+                    @Override
+                    public ListenableFuture<Void> apply(CommitResponse response) throws Exception {
+                      setSession(null);
+                      return Futures.<Void>immediateFuture(null);
+                    }
+                  },
+                  ctx.getExecutor()));
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public SQLFuture<Void> rollback(Context ctx) throws SQLException {
+    lock.lock();
+    try {
+      checkCallIsAllowed("rollback", true);
+      for (QueuedStatement statement : queued) {
+        statement.result.cancel(false);
+      }
+      queued.clear();
+      RollbackRequest.Builder requestBuilder = RollbackRequest.newBuilder().setSession(session);
+      if (ctx.getCallerId() != null) {
+        requestBuilder.setCallerId(ctx.getCallerId());
+      }
+      SQLFuture<Void> call =
+          new SQLFuture<>(
+              Futures.transformAsync(
+                  client.rollback(ctx, requestBuilder.build()),
+                  new AsyncFunction<RollbackResponse, Void>() {
+                    @Override
+                    public ListenableFuture<Void> apply(RollbackResponse response)
+                        throws Exception {
+                      setSession(null);
+                      return Futures.<Void>immediateFuture(null);
+                    }
+                  },
+                  ctx.getExecutor()));
+      lastCall = call;
+      return call;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  protected void checkCallIsAllowed(String call) throws SQLException {
+    checkCallIsAllowed(call, false);
+  }
+
+  private void checkCallIsAllowed(String call, boolean allowQueued) throws SQLException {
+    lock.lock();
+    try {
+      // Calls are not allowed to overlap.
+      if (lastCall != null && !lastCall.isDone()) {
+        throw new IllegalStateException(
+            "Can't call "
+                + call
+                + "() on a VTGateTx instance until the last asynchronous call is done.");
+      }
+      // Nor are they allowed to overtake queued statements.
+      if (!allowQueued && !queued.isEmpty()) {
+        throw new IllegalStateException(
+            "Can't call " + call + "() on a VTGateTx instance with queued statements.");
+      }
+      // All calls must occur within a valid transaction.
+      if (session == null || !session.getInTransaction()) {
+        throw new SQLDataException("Can't perform " + call + "() while not in transaction.");
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  protected void setSession(Session session) {
+    lock.lock();
+    try {
+      this.session = session;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private SQLFuture<Cursor> queue(
+      @Nullable BoundShardQuery shardQuery, @Nullable BoundKeyspaceIdQuery keyspaceIdQuery)
+      throws SQLException {
+    lock.lock();
+    try {
+      if (session == null || !session.getInTransaction()) {
+        throw new SQLDataException("Can't queue statements while not in transaction.");
+      }
+      QueuedStatement statement = new QueuedStatement(shardQuery, keyspaceIdQuery);
+      queued.add(statement);
+      return new SQLFuture<Cursor>(statement.result);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sends the run of statements of the same kind that starts at {@code start} in one batch RPC,
+   * then the rest, one run at a time.
+   */
+  private ListenableFuture<Void> sendQueued(
+      final Context ctx,
+      final List<QueuedStatement> statements,
+      int start,
+      final TabletType tabletType)
+      throws SQLException {
+    boolean shards = statements.get(start).shardQuery != null;
+    int end = start + 1;
+    while (end < statements.size() && (statements.get(end).shardQuery != null) == shards) {
+      end++;
+    }
+    final List<QueuedStatement> run = statements.subList(start, end);
+    final int next = end;
+
+    ListenableFuture<List<QueryResult>> results;
+    lock.lock();
+    try {
+      if (shards) {
+        ExecuteBatchShardsRequest.Builder requestBuilder =
+            ExecuteBatchShardsRequest.newBuilder().setTabletType(tabletType).setSession(session);
+        for (QueuedStatement statement : run) {
+          requestBuilder.addQueries(statement.shardQuery);
+        }
+        if (ctx.getCallerId() != null) {
+          requestBuilder.setCallerId(ctx.getCallerId());
+        }
+        results =
             Futures.transformAsync(
                 client.executeBatchShards(ctx, requestBuilder.build()),
-                new AsyncFunction<ExecuteBatchShardsResponse, List<Cursor>>() {
+                new AsyncFunction<ExecuteBatchShardsResponse, List<QueryResult>>() {
                   @Override
-                  public ListenableFuture<List<Cursor>> apply(ExecuteBatchShardsResponse response)
-                      throws Exception {
+                  public ListenableFuture<List<QueryResult>> apply(
+                      ExecuteBatchShardsResponse response) throws Exception {
                     setSession(response.getSession());
                     Proto.checkError(response.getError());
-                    return Futures.<List<Cursor>>immediateFuture(
-                        Proto.toCursorList(response.getResultsList()));
+                    return Futures.immediateFuture(response.getResultsList());
                   }
-                }));
-    lastCall = call;
-    return call;
-  }
-
-  public synchronized SQLFuture<List<Cursor>> executeBatchKeyspaceIds(
-      Context ctx, Iterable<? extends BoundKeyspaceIdQuery> queries, TabletType tabletType)
-      throws SQLException {
-    checkCallIsAllowed("executeBatchKeyspaceIds");
-    ExecuteBatchKeyspaceIdsRequest.Builder requestBuilder =
-        ExecuteBatchKeyspaceIdsRequest.newBuilder()
-            .addAllQueries(queries)
-            .setTabletType(tabletType)
-            .setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
-    }
-    SQLFuture<List<Cursor>> call =
-        new SQLFuture<>(
+                },
+                ctx.getExecutor());
+      } else {
+        ExecuteBatchKeyspaceIdsRequest.Builder requestBuilder =
+            ExecuteBatchKeyspaceIdsRequest.newBuilder()
+                .setTabletType(tabletType)
+                .setSession(session);
+        for (QueuedStatement statement : run) {
+          requestBuilder.addQueries(statement.keyspaceIdQuery);
+        }
+        if (ctx.getCallerId() != null) {
+          requestBuilder.setCallerId(ctx.getCallerId());
+        }
+        results =
             Futures.transformAsync(
                 client.executeBatchKeyspaceIds(ctx, requestBuilder.build()),
-                new AsyncFunction<ExecuteBatchKeyspaceIdsResponse, List<Cursor>>() {
+                new AsyncFunction<ExecuteBatchKeyspaceIdsResponse, List<QueryResult>>() {
                   @Override
-                  public ListenableFuture<List<Cursor>> apply(
+                  public ListenableFuture<List<QueryResult>> apply(
                       ExecuteBatchKeyspaceIdsResponse response) throws Exception {
                     setSession(response.getSession());
                     Proto.checkError(response.getError());
-                    return Futures.<List<Cursor>>immediateFuture(
-                        Proto.toCursorList(response.getResultsList()));
+                    return Futures.immediateFuture(response.getResultsList());
                   }
-                }));
-    lastCall = call;
-    return call;
-  }
-
-  public synchronized SQLFuture<Void> commit(Context ctx) throws SQLException {
-    checkCallIsAllowed("commit");
-    CommitRequest.Builder requestBuilder = CommitRequest.newBuilder().setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
+                },
+                ctx.getExecutor());
+      }
+    } finally {
+      lock.unlock();
     }
-    SQLFuture<Void> call =
-        new SQLFuture<>(
-            Futures.transformAsync(
-                client.commit(ctx, requestBuilder.build()),
-                new AsyncFunction<CommitResponse, Void>() {
-                  @Override
-                  public ListenableFuture<Void> apply(CommitResponse response) throws Exception {
-                    setSession(null);
-                    return Futures.<Void>immediateFuture(null);
-                  }
-                }));
-    lastCall = call;
-    return call;
-  }
 
-  public synchronized SQLFuture<Void> rollback(Context ctx) throws SQLException {
-    checkCallIsAllowed("rollback");
-    RollbackRequest.Builder requestBuilder = RollbackRequest.newBuilder().setSession(session);
-    if (ctx.getCallerId() != null) {
-      requestBuilder.setCallerId(ctx.getCallerId());
-    }
-    SQLFuture<Void> call =
-        new SQLFuture<>(
-            Futures.transformAsync(
-                client.rollback(ctx, requestBuilder.build()),
-                new AsyncFunction<RollbackResponse, Void>() {
-                  @Override
-                  public ListenableFuture<Void> apply(RollbackResponse response) throws Exception {
-                    setSession(null);
-                    return Futures.<Void>immediateFuture(null);
-                  }
-                }));
-    lastCall = call;
-    return call;
+    return Futures.transformAsync(
+        results,
+        new AsyncFunction<List<QueryResult>, Void>() {
+          @Override
+          public ListenableFuture<Void> apply(List<QueryResult> queryResults) throws Exception {
+            if (queryResults.size() != run.size()) {
+              throw new SQLException(
+                  "batch returned "
+                      + queryResults.size()
+                      + " results for "
+                      + run.size()
+                      + " queries");
+            }
+            for (int i = 0; i < run.size(); i++) {
+              run.get(i).result.set(new SimpleCursor(queryResults.get(i)));
+            }
+            if (next == statements.size()) {
+              return Futures.immediateFuture(null);
+            }
+            return sendQueued(ctx, statements, next, tabletType);
+          }
+        },
+        ctx.getExecutor());
   }
 
-  protected synchronized void checkCallIsAllowed(String call) throws SQLException {
-    // Calls are not allowed to overlap.
-    if (lastCall != null && !lastCall.isDone()) {
-      throw new IllegalStateException(
-          "Can't call "
-              + call
-              + "() on a VTGateTx instance until the last asynchronous call is done.");
-    }
-    // All calls must occur within a valid transaction.
-    if (session == null || !session.getInTransaction()) {
-      throw new SQLDataException("Can't perform " + call + "() while not in transaction.");
-    }
-  }
+  /**
+   * A statement waiting for {@link #flush(Context, TabletType)}. Exactly one of the queries is
+   * set.
+   */
+  private static class QueuedStatement {
+    @Nullable final BoundShardQuery shardQuery;
+    @Nullable final BoundKeyspaceIdQuery keyspaceIdQuery;
+    final SettableFuture<Cursor> result = SettableFuture.create();
 
-  protected synchronized void setSession(Session session) {
-    this.session = session;
+    QueuedStatement(
+        @Nullable BoundShardQuery shardQuery, @Nullable BoundKeyspaceIdQuery keyspaceIdQuery) {
+      this.shardQuery = shardQuery;
+      this.keyspaceIdQuery = keyspaceIdQuery;
+    }
   }
 }
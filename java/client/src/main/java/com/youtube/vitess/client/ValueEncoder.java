@@ -0,0 +1,275 @@
+package com.youtube.vitess.client;
+
+import com.google.common.primitives.UnsignedLong;
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.proto.Query;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * ValueEncoder writes the bytes of bind variable values and keyspace ids for a request into one
+ * reusable buffer.
+ *
+ * <p>Numbers are written as ASCII digits directly, rather than through {@code toString()}. When
+ * the request is built, the buffer is copied once into a single {@link ByteString}, and each value
+ * is a {@link ByteString#substring(int, int) substring} of it. So a list of thousands of values
+ * costs one byte array instead of a String, a byte array and a ByteString for every element.
+ *
+ * <p>Strings and byte arrays are copied twice this way, into the buffer and then out of it, which
+ * only pays off for many small values. A single string or byte array is better copied straight
+ * into a {@link ByteString}.
+ *
+ * <p>Each thread has one pooled encoder, returned by {@link #get()} and given back with
+ * {@link #release()}.
+ */
+class ValueEncoder {
+  private static final int INITIAL_SIZE = 256;
+  /**
+   * Buffers that grew past this size aren't kept in the pool, so one huge request doesn't pin
+   * its memory for the life of the thread.
+   */
+  private static final int MAX_POOLED_SIZE = 64 * 1024;
+
+  private static final int MAX_DECIMAL_UNIT = 30;
+
+  private static final ThreadLocal<ValueEncoder> POOL =
+      new ThreadLocal<ValueEncoder>() {
+        @Override
+        protected ValueEncoder initialValue() {
+          return new ValueEncoder();
+        }
+      };
+
+  private byte[] buf = new byte[INITIAL_SIZE];
+  private int size;
+  /**
+   * The end offset and type of each value, in the order they were added.
+   */
+  private int[] ends = new int[16];
+
+  private Query.Type[] types = new Query.Type[16];
+  private int count;
+  private boolean inUse;
+
+  /**
+   * Returns this thread's encoder, or a new one if it's already in use.
+   */
+  static ValueEncoder get() {
+    ValueEncoder encoder = POOL.get();
+    if (encoder.inUse) {
+      encoder = new ValueEncoder();
+    }
+    encoder.inUse = true;
+    return encoder;
+  }
+
+  /**
+   * Clears the encoder so it can be reused by the next {@link #get()} on this thread.
+   */
+  void release() {
+    size = 0;
+    count = 0;
+    if (buf.length > MAX_POOLED_SIZE) {
+      buf = new byte[INITIAL_SIZE];
+      ends = new int[16];
+      types = new Query.Type[16];
+    } else {
+      Arrays.fill(types, null);
+    }
+    inUse = false;
+  }
+
+  int size() {
+    return count;
+  }
+
+  Query.Type getType(int index) {
+    return types[index];
+  }
+
+  /**
+   * Returns a ByteString holding every value added so far. Pass it to
+   * {@link #getValue(ByteString, int)} to get the individual values.
+   */
+  ByteString toByteString() {
+    return ByteString.copyFrom(buf, 0, size);
+  }
+
+  ByteString getValue(ByteString slab, int index) {
+    return slab.substring(index == 0 ? 0 : ends[index - 1], ends[index]);
+  }
+
+  /**
+   * Adds a bind variable value, with the type used in query.proto.
+   *
+   * @throws IllegalArgumentException if the value has an unsupported type.
+   */
+  void add(Object value) {
+    Query.Type type;
+    if (value == null) {
+      type = Query.Type.NULL_TYPE;
+    } else if (value instanceof String) {
+      // String
+      type = Query.Type.VARCHAR;
+      writeUtf8((String) value);
+    } else if (value instanceof byte[]) {
+      // Bytes
+      type = Query.Type.VARBINARY;
+      writeBytes((byte[]) value);
+    } else if (value instanceof Integer
+        || value instanceof Long
+        || value instanceof Short
+        || value instanceof Byte) {
+      // Int32, Int64, Short, Byte
+      type = Query.Type.INT64;
+      writeLong(((Number) value).longValue());
+    } else if (value instanceof UnsignedLong) {
+      // Uint64
+      type = Query.Type.UINT64;
+      writeUnsignedLong(((UnsignedLong) value).longValue());
+    } else if (value instanceof Float || value instanceof Double) {
+      // Float, Double
+      type = Query.Type.FLOAT64;
+      writeAscii(value.toString());
+    } else if (value instanceof Boolean) {
+      // Boolean
+      type = Query.Type.INT64;
+      ensureCapacity(1);
+      buf[size++] = (byte) (((boolean) value) ? '1' : '0');
+    } else if (value instanceof BigDecimal) {
+      // BigDecimal
+      BigDecimal bigDecimal = (BigDecimal) value;
+      if (bigDecimal.scale() > MAX_DECIMAL_UNIT) {
+        // MySQL only supports scale up to 30.
+        bigDecimal = bigDecimal.setScale(MAX_DECIMAL_UNIT, BigDecimal.ROUND_HALF_UP);
+      }
+      type = Query.Type.DECIMAL;
+      writeAscii(bigDecimal.toPlainString());
+    } else {
+      throw new IllegalArgumentException(
+          "unsupported type for Query.Value proto: " + value.getClass());
+    }
+    endValue(type);
+  }
+
+  /**
+   * Adds raw bytes, such as a keyspace id.
+   */
+  void addBytes(byte[] value) {
+    writeBytes(value);
+    endValue(Query.Type.VARBINARY);
+  }
+
+  private void endValue(Query.Type type) {
+    if (count == ends.length) {
+      ends = Arrays.copyOf(ends, count * 2);
+      types = Arrays.copyOf(types, count * 2);
+    }
+    ends[count] = size;
+    types[count] = type;
+    ++count;
+  }
+
+  private void writeBytes(byte[] value) {
+    ensureCapacity(value.length);
+    System.arraycopy(value, 0, buf, size, value.length);
+    size += value.length;
+  }
+
+  private void writeLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      // This can't be negated.
+      writeAscii(Long.toString(value));
+    } else if (value < 0) {
+      ensureCapacity(1);
+      buf[size++] = '-';
+      writeDigits(-value);
+    } else {
+      writeDigits(value);
+    }
+  }
+
+  private void writeUnsignedLong(long value) {
+    if (value >= 0) {
+      writeDigits(value);
+      return;
+    }
+    // Divide the unsigned value by 10 without overflow, as in UnsignedLongs.
+    long quotient = (value >>> 1) / 5;
+    long remainder = value - quotient * 10;
+    writeDigits(quotient);
+    ensureCapacity(1);
+    buf[size++] = (byte) ('0' + remainder);
+  }
+
+  /**
+   * Writes a non-negative number in decimal.
+   */
+  private void writeDigits(long value) {
+    int digits = 1;
+    for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+      ++digits;
+    }
+    ensureCapacity(digits);
+    int end = size + digits;
+    for (int i = end - 1; i >= size; i--) {
+      buf[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    size = end;
+  }
+
+  private void writeAscii(String value) {
+    int length = value.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      buf[size++] = (byte) value.charAt(i);
+    }
+  }
+
+  /**
+   * Writes a String as UTF-8, replacing unpaired surrogates with '?' like
+   * {@link ByteString#copyFromUtf8(String)}.
+   */
+  private void writeUtf8(String value) {
+    int length = value.length();
+    // Reserve one byte per char, and more only once non-ASCII chars show up, rather than the
+    // worst case of 3 bytes per char for every string.
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buf[size++] = (byte) c;
+        continue;
+      }
+      // Room for up to 4 bytes for this char (with its low surrogate), and 1 for each other char.
+      ensureCapacity(4 + length - i - 1);
+      if (c < 0x800) {
+        buf[size++] = (byte) (0xc0 | (c >>> 6));
+        buf[size++] = (byte) (0x80 | (c & 0x3f));
+      } else if (!Character.isSurrogate(c)) {
+        buf[size++] = (byte) (0xe0 | (c >>> 12));
+        buf[size++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+        buf[size++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buf[size++] = (byte) (0xf0 | (codePoint >>> 18));
+        buf[size++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3f));
+        buf[size++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3f));
+        buf[size++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else {
+        buf[size++] = '?';
+      }
+    }
+  }
+
+  private void ensureCapacity(int extra) {
+    if (size + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(size + extra, buf.length * 2));
+    }
+  }
+}
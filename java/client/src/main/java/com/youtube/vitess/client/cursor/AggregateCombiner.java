@@ -0,0 +1,680 @@
+package com.youtube.vitess.client.cursor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.proto.Query;
+import com.youtube.vitess.proto.Query.Field;
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Query.Type;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Combines partially aggregated rows from several shards into a single result.
+ *
+ * <p>When a grouped aggregate query such as
+ * {@code SELECT type, COUNT(*), SUM(size), MAX(size) FROM t GROUP BY type} is sent to several
+ * shards (for example with {@code executeShards} or {@code executeBatchShards}), each shard
+ * returns its own partial aggregates. {@code AggregateCombiner} merges the rows that share the same
+ * {@code GROUP BY} values, given one {@link Aggregate} per column:
+ *
+ * <blockquote><pre>
+ * AggregateCombiner combiner = new AggregateCombiner(Arrays.asList(
+ *     Aggregate.groupBy(), Aggregate.count(), Aggregate.sum(), Aggregate.max()));
+ * for (Cursor cursor : cursors) {
+ *   combiner.add(cursor);
+ * }
+ * Cursor combined = combiner.getResult();
+ * </pre></blockquote>
+ *
+ * <p>To combine an {@code AVG(x)}, query {@code SUM(x), COUNT(x)} on the shards instead, and use
+ * {@link Aggregate#avg(int)} on the sum column to turn it into the average.
+ *
+ * <p>Accumulators are kept in primitive arrays indexed by group number, and groups are looked up
+ * in open-addressing hash tables, so combining doesn't allocate per row beyond what's needed to
+ * hash the group key. Integers and floating point values are parsed directly from their raw bytes;
+ * only DECIMAL values with a fractional part go through {@link BigDecimal}. Groups are returned in
+ * the order they were first seen.
+ */
+@NotThreadSafe
+public class AggregateCombiner {
+  /**
+   * How a column is combined across shards.
+   */
+  public static final class Aggregate {
+    private enum Kind {
+      GROUP_BY,
+      COUNT,
+      SUM,
+      MIN,
+      MAX,
+      AVG
+    }
+
+    private final Kind kind;
+    private final int countColumnIndex;
+
+    private Aggregate(Kind kind, int countColumnIndex) {
+      this.kind = kind;
+      this.countColumnIndex = countColumnIndex;
+    }
+
+    /**
+     * A {@code GROUP BY} column. Rows with equal values in all such columns are combined.
+     */
+    public static Aggregate groupBy() {
+      return new Aggregate(Kind.GROUP_BY, 0);
+    }
+
+    /**
+     * A {@code COUNT} column. Partial counts are added up.
+     */
+    public static Aggregate count() {
+      return new Aggregate(Kind.COUNT, 0);
+    }
+
+    /**
+     * A {@code SUM} column. Partial sums are added up; {@code NULL}s are ignored.
+     */
+    public static Aggregate sum() {
+      return new Aggregate(Kind.SUM, 0);
+    }
+
+    /**
+     * A {@code MIN} column.
+     */
+    public static Aggregate min() {
+      return new Aggregate(Kind.MIN, 0);
+    }
+
+    /**
+     * A {@code MAX} column.
+     */
+    public static Aggregate max() {
+      return new Aggregate(Kind.MAX, 0);
+    }
+
+    /**
+     * A {@code SUM} column that is divided by the combined value of a {@code COUNT} column,
+     * to produce the overall average.
+     *
+     * @param countColumnIndex 1-based column number of the matching {@code COUNT} column.
+     */
+    public static Aggregate avg(int countColumnIndex) {
+      checkArgument(countColumnIndex >= 1, "columnIndex out of range: %s", countColumnIndex);
+      return new Aggregate(Kind.AVG, countColumnIndex);
+    }
+  }
+
+  /**
+   * The scale added to DECIMAL averages, like MySQL's default {@code div_precision_increment}.
+   */
+  private static final int AVG_SCALE_INCREMENT = 4;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final List<Aggregate> aggregates;
+  private List<Field> fields;
+  private int[] groupByColumns;
+  private Accumulator[] accumulators;
+  private GroupTable groups;
+  private int groupCount;
+
+  /**
+   * @param aggregates How to combine each column, in column order.
+   */
+  public AggregateCombiner(List<Aggregate> aggregates) {
+    this.aggregates = ImmutableList.copyOf(checkNotNull(aggregates));
+  }
+
+  /**
+   * Adds all remaining rows of a cursor. The cursor is not closed.
+   */
+  public void add(Cursor cursor) throws SQLException {
+    if (fields == null) {
+      init(cursor.getFields());
+    }
+    Row row;
+    while ((row = cursor.next()) != null) {
+      if (row.size() != accumulators.length) {
+        throw new SQLDataException(
+            "row has " + row.size() + " columns, expected " + accumulators.length);
+      }
+      int group = groups.findOrAdd(row);
+      for (int i = 0; i < accumulators.length; i++) {
+        if (accumulators[i] != null) {
+          accumulators[i].add(group, row.getRawValue(i + 1));
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds all rows of a {@link QueryResult}.
+   */
+  public void add(QueryResult queryResult) throws SQLException {
+    add(new SimpleCursor(queryResult));
+  }
+
+  /**
+   * Returns the combined rows, one per distinct group.
+   *
+   * <p>Like MySQL, an aggregate query without {@code GROUP BY} columns returns one row even if
+   * the shards had no rows: {@code COUNT} is 0, and {@code SUM}, {@code MIN}, {@code MAX} and
+   * averages are {@code NULL}.
+   *
+   * @throws SQLDataException if nothing was added, since the fields are unknown.
+   */
+  public Cursor getResult() throws SQLException {
+    if (fields == null) {
+      throw new SQLDataException("no results were added to AggregateCombiner");
+    }
+    QueryResult.Builder result = QueryResult.newBuilder().addAllFields(fields);
+    ByteString.Output buf = ByteString.newOutput();
+    // Without GROUP BY, the fresh accumulators of group 0 already hold the empty aggregates.
+    int rowCount = groupByColumns.length == 0 ? Math.max(groupCount, 1) : groupCount;
+    for (int group = 0; group < rowCount; group++) {
+      Query.Row.Builder row = Query.Row.newBuilder();
+      buf.reset();
+      for (int i = 0; i < fields.size(); i++) {
+        ByteString value = getValue(i, group);
+        if (value == null) {
+          row.addLengths(-1);
+        } else {
+          row.addLengths(value.size());
+          try {
+            value.writeTo(buf);
+          } catch (IOException e) {
+            throw new AssertionError(e); // ByteString.Output doesn't throw.
+          }
+        }
+      }
+      result.addRows(row.setValues(buf.toByteString()));
+    }
+    result.setRowsAffected(rowCount);
+    return new SimpleCursor(result.build());
+  }
+
+  private ByteString getValue(int column, int group) throws SQLException {
+    Aggregate aggregate = aggregates.get(column);
+    if (aggregate.kind == Aggregate.Kind.GROUP_BY) {
+      return groups.keyValue(column, group);
+    }
+    if (aggregate.kind == Aggregate.Kind.AVG) {
+      long count = ((CountAccumulator) accumulators[aggregate.countColumnIndex - 1]).counts[group];
+      return ((SumAccumulator) accumulators[column]).average(group, count);
+    }
+    return accumulators[column].get(group);
+  }
+
+  private void init(List<Field> fields) throws SQLException {
+    if (fields.size() != aggregates.size()) {
+      throw new SQLDataException(
+          "result has " + fields.size() + " columns, but " + aggregates.size()
+              + " aggregates were given");
+    }
+    this.fields = ImmutableList.copyOf(fields);
+    accumulators = new Accumulator[fields.size()];
+    int groupByCount = 0;
+    for (Aggregate aggregate : aggregates) {
+      if (aggregate.kind == Aggregate.Kind.GROUP_BY) {
+        groupByCount++;
+      }
+    }
+    groupByColumns = new int[groupByCount];
+    groupByCount = 0;
+    for (int i = 0; i < fields.size(); i++) {
+      Type type = fields.get(i).getType();
+      Aggregate aggregate = aggregates.get(i);
+      switch (aggregate.kind) {
+        case GROUP_BY:
+          groupByColumns[groupByCount++] = i + 1;
+          break;
+        case COUNT:
+          accumulators[i] = new CountAccumulator();
+          break;
+        case SUM:
+          accumulators[i] = new SumAccumulator(type);
+          break;
+        case AVG:
+          if (aggregate.countColumnIndex > fields.size()
+              || aggregates.get(aggregate.countColumnIndex - 1).kind != Aggregate.Kind.COUNT) {
+            throw new SQLDataException(
+                "avg() column " + (i + 1) + " must refer to a count() column");
+          }
+          accumulators[i] = new SumAccumulator(type);
+          break;
+        case MIN:
+          accumulators[i] = new MinMaxAccumulator(type, -1);
+          break;
+        case MAX:
+          accumulators[i] = new MinMaxAccumulator(type, 1);
+          break;
+      }
+    }
+    if (groupByColumns.length == 1 && isIntegral(fields.get(groupByColumns[0] - 1).getType())) {
+      groups = new LongGroupTable(groupByColumns[0]);
+    } else {
+      groups = new BytesGroupTable(groupByColumns);
+    }
+  }
+
+  private void ensureCapacity(int group) {
+    for (Accumulator accumulator : accumulators) {
+      if (accumulator != null) {
+        accumulator.ensureCapacity(group + 1);
+      }
+    }
+  }
+
+  private static boolean isIntegral(Type type) {
+    switch (type) {
+      case INT8: // fall through
+      case UINT8: // fall through
+      case INT16: // fall through
+      case UINT16: // fall through
+      case INT24: // fall through
+      case UINT24: // fall through
+      case INT32: // fall through
+      case UINT32: // fall through
+      case INT64: // fall through
+      case YEAR:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static int grow(int length, int needed) {
+    return Math.max(needed, length * 2);
+  }
+
+  /**
+   * Spreads a hash code over all bits, for power-of-two sized tables.
+   */
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * Maps the {@code GROUP BY} values of a row to a group number.
+   */
+  private abstract class GroupTable {
+    /**
+     * Returns the group number for the row, creating a new group if needed.
+     */
+    abstract int findOrAdd(Row row) throws SQLException;
+
+    /**
+     * Returns the raw value of a {@code GROUP BY} column for a group.
+     */
+    abstract ByteString keyValue(int column, int group);
+
+    int newGroup() {
+      ensureCapacity(groupCount);
+      return groupCount++;
+    }
+  }
+
+  /**
+   * Groups by a single integer column, hashing the parsed value.
+   */
+  private class LongGroupTable extends GroupTable {
+    private final int columnIndex;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    /**
+     * The group number plus one for each slot, or 0 if the slot is empty.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int size;
+    private int nullGroup = -1;
+    private ByteString[] keyValues = new ByteString[INITIAL_CAPACITY];
+
+    LongGroupTable(int columnIndex) {
+      this.columnIndex = columnIndex;
+    }
+
+    @Override
+    int findOrAdd(Row row) throws SQLException {
+      ByteString value = row.getRawValue(columnIndex);
+      if (value == null) {
+        if (nullGroup < 0) {
+          nullGroup = add(null);
+        }
+        return nullGroup;
+      }
+      long key = RawValues.parseLong(value);
+      int mask = slots.length - 1;
+      int pos = mix(key) & mask;
+      while (slots[pos] != 0) {
+        if (keys[pos] == key) {
+          return slots[pos] - 1;
+        }
+        pos = (pos + 1) & mask;
+      }
+      int group = add(value);
+      keys[pos] = key;
+      slots[pos] = group + 1;
+      if (++size * 2 > slots.length) {
+        rehash();
+      }
+      return group;
+    }
+
+    private int add(ByteString value) {
+      int group = newGroup();
+      if (group >= keyValues.length) {
+        keyValues = Arrays.copyOf(keyValues, grow(keyValues.length, group + 1));
+      }
+      keyValues[group] = value;
+      return group;
+    }
+
+    private void rehash() {
+      long[] oldKeys = keys;
+      int[] oldSlots = slots;
+      keys = new long[oldKeys.length * 2];
+      slots = new int[oldSlots.length * 2];
+      int mask = slots.length - 1;
+      for (int i = 0; i < oldSlots.length; i++) {
+        if (oldSlots[i] != 0) {
+          int pos = mix(oldKeys[i]) & mask;
+          while (slots[pos] != 0) {
+            pos = (pos + 1) & mask;
+          }
+          keys[pos] = oldKeys[i];
+          slots[pos] = oldSlots[i];
+        }
+      }
+    }
+
+    @Override
+    ByteString keyValue(int column, int group) {
+      return keyValues[group];
+    }
+  }
+
+  /**
+   * Groups by any number of columns of any type, hashing their raw bytes.
+   */
+  private class BytesGroupTable extends GroupTable {
+    private final int[] columnIndexes;
+    /**
+     * The raw {@code GROUP BY} values of each group, {@code columnIndexes.length} per group.
+     */
+    private ByteString[] keyValues;
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    /**
+     * The group number plus one for each slot, or 0 if the slot is empty.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int size;
+
+    BytesGroupTable(int[] columnIndexes) {
+      this.columnIndexes = columnIndexes;
+      keyValues = new ByteString[INITIAL_CAPACITY * Math.max(1, columnIndexes.length)];
+    }
+
+    @Override
+    int findOrAdd(Row row) throws SQLException {
+      int hash = 1;
+      for (int columnIndex : columnIndexes) {
+        ByteString value = row.getRawValue(columnIndex);
+        hash = 31 * hash + (value == null ? -1 : value.hashCode());
+      }
+      hash = mix(hash);
+      int mask = slots.length - 1;
+      int pos = hash & mask;
+      while (slots[pos] != 0) {
+        if (hashes[pos] == hash && keyEquals(slots[pos] - 1, row)) {
+          return slots[pos] - 1;
+        }
+        pos = (pos + 1) & mask;
+      }
+      int group = newGroup();
+      int width = columnIndexes.length;
+      if ((group + 1) * width > keyValues.length) {
+        keyValues = Arrays.copyOf(keyValues, grow(keyValues.length, (group + 1) * width));
+      }
+      for (int i = 0; i < width; i++) {
+        keyValues[group * width + i] = row.getRawValue(columnIndexes[i]);
+      }
+      hashes[pos] = hash;
+      slots[pos] = group + 1;
+      if (++size * 2 > slots.length) {
+        rehash();
+      }
+      return group;
+    }
+
+    private boolean keyEquals(int group, Row row) throws SQLException {
+      int width = columnIndexes.length;
+      for (int i = 0; i < width; i++) {
+        ByteString value = row.getRawValue(columnIndexes[i]);
+        ByteString key = keyValues[group * width + i];
+        if (value == null ? key != null : !value.equals(key)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void rehash() {
+      int[] oldHashes = hashes;
+      int[] oldSlots = slots;
+      hashes = new int[oldHashes.length * 2];
+      slots = new int[oldSlots.length * 2];
+      int mask = slots.length - 1;
+      for (int i = 0; i < oldSlots.length; i++) {
+        if (oldSlots[i] != 0) {
+          int pos = oldHashes[i] & mask;
+          while (slots[pos] != 0) {
+            pos = (pos + 1) & mask;
+          }
+          hashes[pos] = oldHashes[i];
+          slots[pos] = oldSlots[i];
+        }
+      }
+    }
+
+    @Override
+    ByteString keyValue(int column, int group) {
+      for (int i = 0; i < columnIndexes.length; i++) {
+        if (columnIndexes[i] == column + 1) {
+          return keyValues[group * columnIndexes.length + i];
+        }
+      }
+      throw new IllegalArgumentException("not a GROUP BY column: " + (column + 1));
+    }
+  }
+
+  /**
+   * Combines the values of one column, per group.
+   */
+  private abstract static class Accumulator {
+    abstract void ensureCapacity(int groups);
+
+    abstract void add(int group, ByteString value) throws SQLException;
+
+    abstract ByteString get(int group);
+  }
+
+  private static class CountAccumulator extends Accumulator {
+    long[] counts = new long[INITIAL_CAPACITY];
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (groups > counts.length) {
+        counts = Arrays.copyOf(counts, grow(counts.length, groups));
+      }
+    }
+
+    @Override
+    void add(int group, ByteString value) throws SQLException {
+      if (value != null) {
+        counts[group] += RawValues.parseLong(value);
+      }
+    }
+
+    @Override
+    ByteString get(int group) {
+      return ByteString.copyFromUtf8(Long.toString(counts[group]));
+    }
+  }
+
+  /**
+   * Adds up integral and DECIMAL values in a {@code long}, switching a group to
+   * {@link BigDecimal} only when a value has a fractional part or the sum overflows.
+   * Floating point values are added up in a {@code double}.
+   */
+  private static class SumAccumulator extends Accumulator {
+    private final boolean floating;
+    private long[] longs = new long[INITIAL_CAPACITY];
+    private double[] doubles;
+    private BigDecimal[] decimals = new BigDecimal[INITIAL_CAPACITY];
+    private boolean[] present = new boolean[INITIAL_CAPACITY];
+
+    SumAccumulator(Type type) {
+      floating = type == Type.FLOAT32 || type == Type.FLOAT64;
+      if (floating) {
+        doubles = new double[INITIAL_CAPACITY];
+      }
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (groups > present.length) {
+        int length = grow(present.length, groups);
+        present = Arrays.copyOf(present, length);
+        longs = Arrays.copyOf(longs, length);
+        decimals = Arrays.copyOf(decimals, length);
+        if (floating) {
+          doubles = Arrays.copyOf(doubles, length);
+        }
+      }
+    }
+
+    @Override
+    void add(int group, ByteString value) throws SQLException {
+      if (value == null) {
+        // SUM ignores NULLs.
+        return;
+      }
+      present[group] = true;
+      if (floating) {
+        doubles[group] += RawValues.parseDouble(value);
+        return;
+      }
+      if (decimals[group] == null && isInteger(value)) {
+        long addend = RawValues.parseLong(value);
+        long sum = longs[group] + addend;
+        // Overflow iff both operands have the opposite sign of the result.
+        if (((longs[group] ^ sum) & (addend ^ sum)) >= 0) {
+          longs[group] = sum;
+          return;
+        }
+      }
+      if (decimals[group] == null) {
+        decimals[group] = BigDecimal.valueOf(longs[group]);
+      }
+      decimals[group] = decimals[group].add(new BigDecimal(value.toStringUtf8()));
+    }
+
+    @Override
+    ByteString get(int group) {
+      if (!present[group]) {
+        return null;
+      }
+      if (floating) {
+        return ByteString.copyFromUtf8(Double.toString(doubles[group]));
+      }
+      if (decimals[group] != null) {
+        return ByteString.copyFromUtf8(decimals[group].toPlainString());
+      }
+      return ByteString.copyFromUtf8(Long.toString(longs[group]));
+    }
+
+    ByteString average(int group, long count) {
+      if (!present[group] || count == 0) {
+        return null;
+      }
+      if (floating) {
+        return ByteString.copyFromUtf8(Double.toString(doubles[group] / count));
+      }
+      BigDecimal sum = decimals[group] != null ? decimals[group] : BigDecimal.valueOf(longs[group]);
+      BigDecimal avg =
+          sum.divide(
+              BigDecimal.valueOf(count), sum.scale() + AVG_SCALE_INCREMENT, RoundingMode.HALF_UP);
+      return ByteString.copyFromUtf8(avg.toPlainString());
+    }
+
+    /**
+     * Reports whether a DECIMAL value has no fractional part and fits in a long.
+     */
+    private static boolean isInteger(ByteString value) {
+      int length = value.size();
+      // 18 digits always fit in a long.
+      if (length == 0 || length > 18) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        byte c = value.byteAt(i);
+        if ((c < '0' || c > '9') && !(i == 0 && c == '-' && length > 1)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Keeps the smallest ({@code sign < 0}) or largest ({@code sign > 0}) raw value seen.
+   */
+  private static class MinMaxAccumulator extends Accumulator {
+    private final Type type;
+    private final int sign;
+    private ByteString[] values = new ByteString[INITIAL_CAPACITY];
+
+    MinMaxAccumulator(Type type, int sign) {
+      this.type = type;
+      this.sign = sign;
+    }
+
+    @Override
+    void ensureCapacity(int groups) {
+      if (groups > values.length) {
+        values = Arrays.copyOf(values, grow(values.length, groups));
+      }
+    }
+
+    @Override
+    void add(int group, ByteString value) throws SQLException {
+      if (value == null) {
+        // MIN and MAX ignore NULLs.
+        return;
+      }
+      ByteString current = values[group];
+      if (current == null || Integer.signum(RawValues.compare(type, value, current)) == sign) {
+        values[group] = value;
+      }
+    }
+
+    @Override
+    ByteString get(int group) {
+      return values[group];
+    }
+  }
+}
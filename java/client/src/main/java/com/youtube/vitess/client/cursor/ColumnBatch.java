@@ -0,0 +1,266 @@
+package com.youtube.vitess.client.cursor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.proto.Query;
+import com.youtube.vitess.proto.Query.Field;
+import com.youtube.vitess.proto.Query.Type;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A chunk of result rows decoded into one vector per column, as returned by
+ * {@link Cursor#nextBatch()}.
+ *
+ * <p>The vector for a column depends on its {@link Field#getType() type}:
+ * <ul>
+ * <li>Integer types and YEAR are decoded into a {@code long[]} ({@link #getLongs(int)}). UINT64
+ * values are stored as their two's complement bits; use
+ * {@link com.google.common.primitives.UnsignedLongs} to read them.
+ * <li>FLOAT32 and FLOAT64 are decoded into a {@code double[]} ({@link #getDoubles(int)}).
+ * <li>All other types are copied into one byte slab per column ({@link #getBytes(int)}), with an
+ * offset table ({@link #getOffsets(int)}) where row {@code r} spans
+ * {@code [offsets[r], offsets[r + 1])}. The bytes are the same as {@link Row#getRawValue(int)}.
+ * </ul>
+ *
+ * <p>SQL NULL values are stored as 0 or an empty slice, and marked in a per-column bitmap that's
+ * read with {@link #isNull(int, int)}.
+ *
+ * <p>Column indexes are 1-based, as elsewhere in this package, while row indexes are 0-based
+ * positions in the vectors. The arrays returned by the getters are the batch's own storage, so
+ * they must not be modified.
+ */
+public class ColumnBatch {
+  private final FieldMap fieldMap;
+  private final int rowCount;
+  /**
+   * One {@code long[]}, {@code double[]} or {@code byte[]} per column.
+   */
+  private final Object[] vectors;
+  /**
+   * Offset tables for byte slab columns, or null for numeric columns.
+   */
+  private final int[][] offsets;
+  /**
+   * Null bitmaps, one bit per row, or null for columns without any SQL NULL values.
+   */
+  private final long[][] nulls;
+
+  ColumnBatch(FieldMap fieldMap, List<Query.Row> rows) throws SQLException {
+    this.fieldMap = fieldMap;
+    this.rowCount = rows.size();
+    int columnCount = fieldMap.getList().size();
+    vectors = new Object[columnCount];
+    offsets = new int[columnCount][];
+    nulls = new long[columnCount][];
+    Type[] types = new Type[columnCount];
+    int[] slabSizes = new int[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      types[i] = fieldMap.getList().get(i).getType();
+      switch (vectorKind(types[i])) {
+        case LONG:
+          vectors[i] = new long[rowCount];
+          break;
+        case DOUBLE:
+          vectors[i] = new double[rowCount];
+          break;
+        default:
+          vectors[i] = new byte[0];
+          offsets[i] = new int[rowCount + 1];
+          break;
+      }
+    }
+
+    for (int row = 0; row < rowCount; row++) {
+      Query.Row rawRow = rows.get(row);
+      if (rawRow.getLengthsCount() != columnCount) {
+        throw new SQLDataException(
+            "row has " + rawRow.getLengthsCount() + " values, expected " + columnCount);
+      }
+      ByteString buf = rawRow.getValues();
+      int start = 0;
+      for (int i = 0; i < columnCount; i++) {
+        long rawLength = rawRow.getLengths(i);
+        boolean isNull = rawLength < 0;
+        // Lengths are returned as long, but ByteString only supports int offsets.
+        int length = isNull ? 0 : (int) rawLength;
+        if (isNull) {
+          if (nulls[i] == null) {
+            nulls[i] = new long[(rowCount + 63) >>> 6];
+          }
+          nulls[i][row >>> 6] |= 1L << row;
+        }
+        Object vector = vectors[i];
+        if (vector instanceof long[]) {
+          if (!isNull) {
+            ((long[]) vector)[row] =
+                types[i] == Type.UINT64
+                    ? RawValues.parseUnsignedLong(buf, start, length)
+                    : RawValues.parseLong(buf, start, length);
+          }
+        } else if (vector instanceof double[]) {
+          if (!isNull) {
+            try {
+              ((double[]) vector)[row] = RawValues.parseDouble(buf, start, length);
+            } catch (NumberFormatException e) {
+              throw new SQLDataException(
+                  "invalid number: " + buf.substring(start, start + length).toStringUtf8(), e);
+            }
+          }
+        } else {
+          byte[] slab = (byte[]) vector;
+          int size = slabSizes[i];
+          if (size + length > slab.length) {
+            slab = Arrays.copyOf(slab, Math.max(size + length, slab.length * 2));
+            vectors[i] = slab;
+          }
+          buf.copyTo(slab, start, size, length);
+          slabSizes[i] = size + length;
+          offsets[i][row + 1] = size + length;
+        }
+        start += length;
+      }
+    }
+
+    // Trim the slabs, so their length is the end of the last value.
+    for (int i = 0; i < columnCount; i++) {
+      if (offsets[i] != null && ((byte[]) vectors[i]).length != slabSizes[i]) {
+        vectors[i] = Arrays.copyOf((byte[]) vectors[i], slabSizes[i]);
+      }
+    }
+  }
+
+  public List<Field> getFields() {
+    return fieldMap.getList();
+  }
+
+  /**
+   * Returns 1-based column number.
+   *
+   * @param columnLabel case-insensitive column label
+   */
+  public int findColumn(String columnLabel) throws SQLException {
+    int columnIndex = fieldMap.indexOf(columnLabel);
+    if (columnIndex == 0) {
+      throw new SQLDataException("column not found:" + columnLabel);
+    }
+    return columnIndex;
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return vectors.length;
+  }
+
+  /**
+   * Reports whether a value is SQL NULL.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   * @param row 0-based row number within the batch
+   */
+  public boolean isNull(int columnIndex, int row) {
+    long[] bitmap = nulls[checkColumnIndex(columnIndex) - 1];
+    checkArgument(row >= 0 && row < rowCount, "row out of range: %s", row);
+    return bitmap != null && (bitmap[row >>> 6] & (1L << row)) != 0;
+  }
+
+  /**
+   * Returns the values of an integer or YEAR column.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   * @throws SQLDataException if the column has another type.
+   */
+  public long[] getLongs(int columnIndex) throws SQLException {
+    return (long[]) getVector(columnIndex, long[].class);
+  }
+
+  /**
+   * Returns the values of a FLOAT32 or FLOAT64 column.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   * @throws SQLDataException if the column has another type.
+   */
+  public double[] getDoubles(int columnIndex) throws SQLException {
+    return (double[]) getVector(columnIndex, double[].class);
+  }
+
+  /**
+   * Returns the byte slab of a non-numeric column.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   * @throws SQLDataException if the column is numeric.
+   */
+  public byte[] getBytes(int columnIndex) throws SQLException {
+    return (byte[]) getVector(columnIndex, byte[].class);
+  }
+
+  /**
+   * Returns the offset table of a non-numeric column, which has one more entry than there are
+   * rows. Row {@code r} spans {@code [offsets[r], offsets[r + 1])} of {@link #getBytes(int)}.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   * @throws SQLDataException if the column is numeric.
+   */
+  public int[] getOffsets(int columnIndex) throws SQLException {
+    getVector(columnIndex, byte[].class);
+    return offsets[columnIndex - 1];
+  }
+
+  private Object getVector(int columnIndex, Class<?> vectorType) throws SQLException {
+    Object vector = vectors[checkColumnIndex(columnIndex) - 1];
+    if (!vectorType.isInstance(vector)) {
+      throw new SQLDataException(
+          "type mismatch, column "
+              + columnIndex
+              + " has type "
+              + fieldMap.get(columnIndex).getType()
+              + ", which is not stored as "
+              + vectorType.getSimpleName());
+    }
+    return vector;
+  }
+
+  private int checkColumnIndex(int columnIndex) {
+    checkArgument(
+        columnIndex >= 1 && columnIndex <= vectors.length,
+        "columnIndex out of range: %s",
+        columnIndex);
+    return columnIndex;
+  }
+
+  private enum VectorKind {
+    LONG,
+    DOUBLE,
+    BYTES
+  }
+
+  private static VectorKind vectorKind(Type type) {
+    switch (type) {
+      case INT8: // fall through
+      case UINT8: // fall through
+      case INT16: // fall through
+      case UINT16: // fall through
+      case INT24: // fall through
+      case UINT24: // fall through
+      case INT32: // fall through
+      case UINT32: // fall through
+      case INT64: // fall through
+      case UINT64: // fall through
+      case YEAR:
+        return VectorKind.LONG;
+      case FLOAT32: // fall through
+      case FLOAT64:
+        return VectorKind.DOUBLE;
+      default:
+        return VectorKind.BYTES;
+    }
+  }
+}
@@ -67,6 +67,39 @@ public abstract class Cursor implements AutoCloseable {
   @Nullable
   public abstract Row next() throws SQLException;
 
+  /**
+   * Calls {@code visitor} for each remaining row, in order.
+   *
+   * <p>{@link SimpleCursor} and {@link StreamCursor} pass the same {@link Row} object for every
+   * row, re-pointed at each one in turn, so iterating doesn't allocate a {@code Row} per record.
+   * The {@code Row} is only valid inside {@link RowVisitor#visit(Row)}; see {@link RowVisitor}.
+   *
+   * @throws SQLException if the server or the visitor throws an error.
+   */
+  public void forEachRow(RowVisitor visitor) throws SQLException {
+    Row row;
+    while ((row = next()) != null) {
+      visitor.visit(row);
+    }
+  }
+
+  /**
+   * Returns the rows that remain in the current chunk of results, decoded into column vectors, or
+   * {@code null} if there are no more rows.
+   *
+   * <p>A chunk is one {@link QueryResult}: the whole result for a {@link SimpleCursor}, or one
+   * streamed response for a {@link StreamCursor}. Calls to {@code nextBatch()} and {@link #next()}
+   * can be mixed; each row is returned only once.
+   *
+   * @throws SQLException if the server returns an error.
+   * @throws SQLFeatureNotSupportedException if the cursor type doesn't support this.
+   */
+  @Nullable
+  public ColumnBatch nextBatch() throws SQLException {
+    throw new SQLFeatureNotSupportedException(
+        "nextBatch() is not supported on " + getClass().getSimpleName());
+  }
+
   /**
    * Returns the list of fields.
    *
@@ -80,8 +113,8 @@ public abstract class Cursor implements AutoCloseable {
    * @throws SQLDataException if the column is not found.
    */
   public final int findColumn(String columnLabel) throws SQLException {
-    Integer columnIndex = getFieldMap().getIndex(checkNotNull(columnLabel));
-    if (columnIndex == null) {
+    int columnIndex = getFieldMap().indexOf(checkNotNull(columnLabel));
+    if (columnIndex == 0) {
       throw new SQLDataException("column not found:" + columnLabel);
     }
     return columnIndex;
@@ -89,7 +122,7 @@ public abstract class Cursor implements AutoCloseable {
 
   protected final FieldMap getFieldMap() throws SQLException {
     if (fieldMap == null) {
-      fieldMap = new FieldMap(getFields());
+      fieldMap = FieldMap.of(getFields());
     }
     return fieldMap;
   }
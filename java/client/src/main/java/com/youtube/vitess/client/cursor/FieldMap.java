@@ -3,14 +3,13 @@ package com.youtube.vitess.client.cursor;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 
 import com.youtube.vitess.proto.Query.Field;
 
-import org.apache.commons.collections4.map.CaseInsensitiveMap;
-
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -22,28 +21,66 @@ import javax.annotation.Nullable;
  *
  * <p>The field name maps to an index, rather than a Field, because that same
  * index is also used to find the value in a separate list.
+ *
+ * <p>A FieldMap is immutable. Use {@link #of(List)} to share one instance among all the results
+ * of a repeated query, rather than building the index again for each one.
  */
 public class FieldMap {
+  /**
+   * The maximum number of distinct field lists kept by {@link #of(List)}.
+   */
+  private static final int CACHE_SIZE = 1024;
+
+  private static final Cache<List<Field>, FieldMap> CACHE =
+      CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
   private final List<Field> fields;
-  private final Map<String, Integer> indexMap;
+  /**
+   * Open-addressing hash table of 1-based column indexes, or 0 for an empty slot. Its size is a
+   * power of two, at least twice the number of fields, so probe sequences stay short.
+   */
+  private final int[] slots;
+  /**
+   * The case-insensitive hash of the label in each slot, checked before comparing labels.
+   */
+  private final int[] slotHashes;
 
   public FieldMap(Iterable<Field> fields) {
     this.fields = ImmutableList.copyOf(checkNotNull(fields));
 
-    indexMap = new CaseInsensitiveMap<String, Integer>();
+    int capacity = Integer.highestOneBit(Math.max(1, this.fields.size()) * 2 - 1) << 1;
+    slots = new int[capacity];
+    slotHashes = new int[capacity];
     // columnIndex is 1-based.
     int columnIndex = 1;
     for (Field field : this.fields) {
       String columnLabel = field.getName();
       // If multiple columns have the same name,
       // prefer the earlier one as JDBC ResultSet does.
-      if (!indexMap.containsKey(columnLabel)) {
-        indexMap.put(columnLabel, columnIndex);
+      int hash = hashIgnoreCase(columnLabel);
+      int slot = findSlot(columnLabel, hash);
+      if (slots[slot] == 0) {
+        slots[slot] = columnIndex;
+        slotHashes[slot] = hash;
       }
       ++columnIndex;
     }
   }
 
+  /**
+   * Returns a FieldMap for the given fields, reusing a cached one if the same list of fields was
+   * seen before.
+   */
+  public static FieldMap of(List<Field> fields) {
+    FieldMap fieldMap = CACHE.getIfPresent(checkNotNull(fields));
+    if (fieldMap == null) {
+      fieldMap = new FieldMap(fields);
+      // Key on the immutable copy, in case the caller's list changes later.
+      CACHE.put(fieldMap.getList(), fieldMap);
+    }
+    return fieldMap;
+  }
+
   public List<Field> getList() {
     return fields;
   }
@@ -69,6 +106,50 @@ public class FieldMap {
    */
   @Nullable
   public Integer getIndex(String columnLabel) {
-    return indexMap.get(columnLabel);
+    int columnIndex = indexOf(columnLabel);
+    return columnIndex == 0 ? null : columnIndex;
+  }
+
+  /**
+   * Returns the 1-based index for a column label, or 0 if there's no such column.
+   *
+   * <p>Unlike {@link #getIndex(String)}, this doesn't box the result.
+   *
+   * @param columnLabel case-insensitive column label
+   */
+  public int indexOf(@Nullable String columnLabel) {
+    if (columnLabel == null) {
+      return 0;
+    }
+    return slots[findSlot(columnLabel, hashIgnoreCase(columnLabel))];
+  }
+
+  /**
+   * Returns the slot that holds {@code columnLabel}, or the empty slot where it would go.
+   */
+  private int findSlot(String columnLabel, int hash) {
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != 0) {
+      if (slotHashes[slot] == hash
+          && fields.get(slots[slot] - 1).getName().equalsIgnoreCase(columnLabel)) {
+        break;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Hashes a string consistently with {@link String#equalsIgnoreCase(String)}, without creating a
+   * lowercase copy.
+   */
+  private static int hashIgnoreCase(String s) {
+    int hash = 0;
+    for (int i = 0; i < s.length(); i++) {
+      hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+    }
+    // Spread the high bits, since the table index uses the low bits.
+    return hash ^ (hash >>> 16);
   }
 }
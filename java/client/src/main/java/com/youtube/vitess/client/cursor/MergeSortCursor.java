@@ -0,0 +1,214 @@
+package com.youtube.vitess.client.cursor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.proto.Query.Field;
+import com.youtube.vitess.proto.Query.Type;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A {@link Cursor} that merges several sorted cursors into one sorted stream of rows.
+ *
+ * <p>Each input {@code Cursor} (typically a {@link StreamCursor} per shard) must already return its
+ * rows sorted by the given {@link SortKey}s, e.g. because every shard ran the same
+ * {@code ORDER BY} query. The merge keeps only the current row of each input in a binary heap, so
+ * it uses constant memory no matter how many rows are read, and a top-N read stops fetching as
+ * soon as the caller stops calling {@link #next()}.
+ *
+ * <p>Values are compared on their raw bytes according to {@link Field#getType()}, without
+ * converting them to Java objects. SQL {@code NULL} sorts before any other value, as in MySQL.
+ * Textual columns are compared as unsigned bytes, which matches MySQL only for binary collations;
+ * use e.g. {@code ORDER BY BINARY col} on the shards if the column has a different collation.
+ *
+ * <p>The fields are taken from the first input cursor. The {@link #close()} method closes all
+ * input cursors.
+ */
+@NotThreadSafe
+public class MergeSortCursor extends Cursor {
+  /**
+   * A column to sort by, and the direction.
+   */
+  public static final class SortKey {
+    private final int columnIndex;
+    private final boolean descending;
+
+    private SortKey(int columnIndex, boolean descending) {
+      checkArgument(columnIndex >= 1, "columnIndex out of range: %s", columnIndex);
+      this.columnIndex = columnIndex;
+      this.descending = descending;
+    }
+
+    /**
+     * @param columnIndex 1-based column number (0 is invalid)
+     */
+    public static SortKey ascending(int columnIndex) {
+      return new SortKey(columnIndex, false);
+    }
+
+    /**
+     * @param columnIndex 1-based column number (0 is invalid)
+     */
+    public static SortKey descending(int columnIndex) {
+      return new SortKey(columnIndex, true);
+    }
+  }
+
+  private final List<Cursor> cursors;
+  private final List<SortKey> sortKeys;
+  private Type[] sortTypes;
+
+  /**
+   * The current row of each input cursor.
+   */
+  private final Row[] heads;
+  /**
+   * A binary min-heap of indexes into {@link #heads}, for inputs that still have rows.
+   */
+  private final int[] heap;
+  private int heapSize;
+  private boolean started;
+  /**
+   * The input whose row was returned last, which must be advanced before the next row is chosen.
+   */
+  private int lastInput = -1;
+
+  public MergeSortCursor(List<? extends Cursor> cursors, List<SortKey> sortKeys) {
+    checkArgument(!cursors.isEmpty(), "at least one cursor is required");
+    checkArgument(!sortKeys.isEmpty(), "at least one sort key is required");
+    this.cursors = ImmutableList.copyOf(cursors);
+    this.sortKeys = ImmutableList.copyOf(sortKeys);
+    heads = new Row[cursors.size()];
+    heap = new int[cursors.size()];
+  }
+
+  @Override
+  public long getRowsAffected() throws SQLException {
+    throw new SQLFeatureNotSupportedException(
+        "getRowsAffected() is not supported on MergeSortCursor");
+  }
+
+  @Override
+  public long getInsertId() throws SQLException {
+    throw new SQLFeatureNotSupportedException("getInsertId() is not supported on MergeSortCursor");
+  }
+
+  @Override
+  public List<Field> getFields() throws SQLException {
+    return cursors.get(0).getFields();
+  }
+
+  @Override
+  public void close() throws Exception {
+    Exception exception = null;
+    for (Cursor cursor : cursors) {
+      try {
+        cursor.close();
+      } catch (Exception e) {
+        exception = e;
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public Row next() throws SQLException {
+    if (!started) {
+      start();
+    } else if (lastInput >= 0) {
+      // Advance the input that supplied the last row, and restore the heap.
+      Row row = cursors.get(lastInput).next();
+      if (row != null) {
+        heads[lastInput] = row;
+        siftDown(0);
+      } else {
+        heads[lastInput] = null;
+        heap[0] = heap[--heapSize];
+        siftDown(0);
+      }
+    }
+
+    if (heapSize == 0) {
+      lastInput = -1;
+      return null;
+    }
+    lastInput = heap[0];
+    return heads[lastInput];
+  }
+
+  private void start() throws SQLException {
+    started = true;
+    List<Field> fields = getFields();
+    sortTypes = new Type[sortKeys.size()];
+    for (int i = 0; i < sortKeys.size(); i++) {
+      int columnIndex = sortKeys.get(i).columnIndex;
+      if (columnIndex > fields.size()) {
+        throw new SQLDataException("invalid sort columnIndex: " + columnIndex);
+      }
+      sortTypes[i] = fields.get(columnIndex - 1).getType();
+    }
+    for (int i = 0; i < cursors.size(); i++) {
+      Row row = cursors.get(i).next();
+      if (row != null) {
+        heads[i] = row;
+        heap[heapSize++] = i;
+      }
+    }
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  private void siftDown(int pos) throws SQLException {
+    int input = heap[pos];
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && compare(heap[child + 1], heap[child]) < 0) {
+        child++;
+      }
+      if (compare(input, heap[child]) <= 0) {
+        break;
+      }
+      heap[pos] = heap[child];
+      pos = child;
+    }
+    heap[pos] = input;
+  }
+
+  /**
+   * Compares the current rows of two inputs. Ties are broken by input index to keep the merge
+   * stable.
+   */
+  private int compare(int a, int b) throws SQLException {
+    Row rowA = heads[a];
+    Row rowB = heads[b];
+    for (int i = 0; i < sortTypes.length; i++) {
+      SortKey key = sortKeys.get(i);
+      ByteString valueA = rowA.getRawValue(key.columnIndex);
+      ByteString valueB = rowB.getRawValue(key.columnIndex);
+      int cmp;
+      if (valueA == null || valueB == null) {
+        cmp = (valueA == null ? 0 : 1) - (valueB == null ? 0 : 1);
+      } else {
+        cmp = RawValues.compare(sortTypes[i], valueA, valueB);
+      }
+      if (cmp != 0) {
+        return key.descending ? -cmp : cmp;
+      }
+    }
+    return a - b;
+  }
+}
@@ -0,0 +1,311 @@
+package com.youtube.vitess.client.cursor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.youtube.vitess.client.StreamIterator;
+import com.youtube.vitess.proto.Query;
+import com.youtube.vitess.proto.Query.Field;
+import com.youtube.vitess.proto.Query.QueryResult;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A {@link Cursor} that merges the rows of several streams, read concurrently.
+ *
+ * <p>Each {@link StreamIterator} (typically one per shard) is drained by its own thread into a
+ * bounded buffer of at most {@code bufferSize} {@link QueryResult} chunks, so network time on the
+ * different streams overlaps and at most {@code bufferSize} chunks per stream are held in memory.
+ * The cursor then serves rows from whichever buffer has data, so rows from different streams are
+ * interleaved in no particular order. Rows from the same stream keep their relative order.
+ *
+ * <p>The fields are taken from the first chunk received from any stream. All streams are expected
+ * to return the same fields, as they do for the same query sent to different shards.
+ *
+ * <p>An error on any stream is thrown from {@link #next()} once the consumer reaches it, and again
+ * from every later call. The {@link #close()} method must be called when done, to stop the reader
+ * threads and close all streams. Each stream is closed by its own reader thread, since a
+ * {@link StreamIterator} can only be used by one thread, and {@link #close()} waits for that.
+ */
+@NotThreadSafe
+public class ParallelStreamCursor extends Cursor {
+  /**
+   * The default number of chunks buffered per stream.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 4;
+
+  /**
+   * How long {@link #close()} waits for the readers to close their streams.
+   */
+  private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+  /**
+   * How often a reader blocked on a full buffer checks whether the cursor was closed.
+   */
+  private static final long PUT_POLL_MILLIS = 100;
+
+  private final List<BlockingQueue<Chunk>> buffers;
+  /**
+   * Counts chunks (including end-of-stream and error markers) available across all buffers.
+   */
+  private final Semaphore available = new Semaphore(0);
+  private final ExecutorService readers;
+  /**
+   * The last exception thrown when a reader closed its stream.
+   */
+  private final AtomicReference<Exception> closeException = new AtomicReference<>();
+
+  private int nextBuffer;
+  private int finishedStreams;
+  /**
+   * Set by {@link #close()} and read by the readers, which then stop and drop their chunks.
+   */
+  private volatile boolean closed;
+  private SQLException error;
+  private Iterator<Query.Row> rowIterator;
+  private List<Field> fields;
+
+  public ParallelStreamCursor(List<? extends StreamIterator<QueryResult>> streams) {
+    this(streams, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Starts reading all streams in the background.
+   *
+   * @param bufferSize The maximum number of {@link QueryResult} chunks buffered per stream.
+   */
+  public ParallelStreamCursor(List<? extends StreamIterator<QueryResult>> streams, int bufferSize) {
+    checkArgument(!streams.isEmpty(), "at least one stream is required");
+    checkArgument(bufferSize > 0, "bufferSize must be positive");
+    ImmutableList.Builder<BlockingQueue<Chunk>> buffersBuilder = ImmutableList.builder();
+    for (int i = 0; i < streams.size(); i++) {
+      buffersBuilder.add(new ArrayBlockingQueue<Chunk>(bufferSize));
+    }
+    buffers = buffersBuilder.build();
+    readers =
+        Executors.newFixedThreadPool(
+            streams.size(),
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("vitess-parallel-stream-%d")
+                .build());
+    for (int i = 0; i < streams.size(); i++) {
+      readers.execute(new Reader(streams.get(i), buffers.get(i)));
+    }
+  }
+
+  @Override
+  public long getRowsAffected() throws SQLException {
+    throw new SQLFeatureNotSupportedException(
+        "getRowsAffected() is not supported on ParallelStreamCursor");
+  }
+
+  @Override
+  public long getInsertId() throws SQLException {
+    throw new SQLFeatureNotSupportedException(
+        "getInsertId() is not supported on ParallelStreamCursor");
+  }
+
+  @Override
+  public List<Field> getFields() throws SQLException {
+    if (closed) {
+      throw new SQLDataException("getFields() called on closed Cursor");
+    }
+
+    if (fields == null) {
+      // The first QueryResult should have the fields.
+      if (!nextQueryResult()) {
+        throw new SQLDataException("stream ended before fields were received");
+      }
+    }
+
+    return fields;
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    // Interrupt the readers, and wait for each of them to close its stream. Clearing the buffers
+    // unblocks readers that are waiting for space, whether or not their stream kept the interrupt.
+    readers.shutdownNow();
+    for (BlockingQueue<Chunk> buffer : buffers) {
+      buffer.clear();
+    }
+    try {
+      if (!readers.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new SQLDataException(
+            "ParallelStreamCursor timed out waiting for streams to close");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLDataException("ParallelStreamCursor interrupted while closing streams", e);
+    }
+    Exception exception = closeException.get();
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public Row next() throws SQLException {
+    if (closed) {
+      throw new SQLDataException("next() called on closed Cursor");
+    }
+
+    // Get the next Row from the current QueryResult.
+    if (rowIterator != null && rowIterator.hasNext()) {
+      return new Row(getFieldMap(), rowIterator.next());
+    }
+
+    // Get the next QueryResult. Loop in case we get a QueryResult with no Rows (e.g. only Fields).
+    while (nextQueryResult()) {
+      if (rowIterator.hasNext()) {
+        return new Row(getFieldMap(), rowIterator.next());
+      }
+    }
+
+    // No more Rows and all streams have ended.
+    return null;
+  }
+
+  /**
+   * Takes the next {@link QueryResult} from any of the buffers.
+   *
+   * @return false if all streams have ended.
+   */
+  private boolean nextQueryResult() throws SQLException {
+    if (error != null) {
+      throw error;
+    }
+    while (finishedStreams < buffers.size()) {
+      try {
+        available.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLDataException("ParallelStreamCursor interrupted while waiting for value", e);
+      }
+      Chunk chunk = pollAny();
+      if (chunk.error != null) {
+        error = chunk.error;
+        throw error;
+      }
+      if (chunk.result == null) {
+        // End of one stream.
+        finishedStreams++;
+        continue;
+      }
+      if (fields == null) {
+        fields = chunk.result.getFieldsList();
+      }
+      rowIterator = chunk.result.getRowsList().iterator();
+      return true;
+    }
+    rowIterator = null;
+    return false;
+  }
+
+  /**
+   * Polls the buffers round-robin, starting after the one polled last time.
+   *
+   * <p>Must only be called after acquiring a permit from {@link #available}, which guarantees that
+   * at least one buffer is non-empty.
+   */
+  private Chunk pollAny() {
+    while (true) {
+      for (int i = 0; i < buffers.size(); i++) {
+        int index = (nextBuffer + i) % buffers.size();
+        Chunk chunk = buffers.get(index).poll();
+        if (chunk != null) {
+          nextBuffer = index + 1;
+          return chunk;
+        }
+      }
+    }
+  }
+
+  /**
+   * A buffered {@link QueryResult}, or a marker for the end of a stream or an error.
+   */
+  private static class Chunk {
+    static final Chunk END = new Chunk(null, null);
+
+    final QueryResult result;
+    final SQLException error;
+
+    Chunk(QueryResult result, SQLException error) {
+      this.result = result;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Drains one stream into its buffer, blocking while the buffer is full.
+   */
+  private class Reader implements Runnable {
+    private final StreamIterator<QueryResult> stream;
+    private final BlockingQueue<Chunk> buffer;
+
+    Reader(StreamIterator<QueryResult> stream, BlockingQueue<Chunk> buffer) {
+      this.stream = stream;
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void run() {
+      try {
+        try {
+          while (!closed && stream.hasNext()) {
+            put(new Chunk(stream.next(), null));
+          }
+          put(Chunk.END);
+        } catch (SQLException e) {
+          put(new Chunk(null, e));
+        } catch (RuntimeException e) {
+          put(new Chunk(null, new SQLException("error reading stream", e)));
+        }
+      } catch (InterruptedException e) {
+        // The cursor was closed.
+        Thread.currentThread().interrupt();
+      } finally {
+        try {
+          stream.close();
+        } catch (Exception e) {
+          closeException.set(e);
+        }
+      }
+    }
+
+    /**
+     * Adds a chunk to the buffer, or drops it if the cursor is closed, since nobody will take it.
+     *
+     * <p>A stream may swallow the interrupt from {@link #close()}, so this can't rely on being
+     * interrupted out of a blocking put.
+     */
+    private void put(Chunk chunk) throws InterruptedException {
+      while (!closed) {
+        if (buffer.offer(chunk, PUT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          available.release();
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,381 @@
+package com.youtube.vitess.client.cursor;
+
+import com.google.common.primitives.UnsignedLongs;
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.proto.Query.Type;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+
+/**
+ * Helpers that work directly on the raw {@link ByteString} values of a row,
+ * without converting them to {@link String} or boxed types first.
+ *
+ * <p>MySQL returns numeric, date and time values as 7-bit ASCII text, so they can be
+ * parsed and compared byte by byte.
+ */
+final class RawValues {
+  private static final long MAX_UNSIGNED_LONG_DIV_10 = UnsignedLongs.divide(-1L, 10);
+
+  /**
+   * Any integer with this many decimal digits is exactly representable as a double.
+   */
+  private static final int MAX_EXACT_DIGITS = 15;
+  /**
+   * The largest power of ten that is exactly representable as a double.
+   */
+  private static final int MAX_EXACT_POWER_OF_TEN = 22;
+
+  private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_POWER_OF_TEN + 1];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private RawValues() {}
+
+  /**
+   * Parses a signed decimal integer.
+   *
+   * @throws SQLDataException if the value is not a valid integer or doesn't fit in a long.
+   */
+  static long parseLong(ByteString value) throws SQLException {
+    return parseLong(value, 0, value.size());
+  }
+
+  /**
+   * Parses a signed decimal integer from {@code length} bytes of {@code buf} starting at
+   * {@code offset}, so a cell can be read without slicing it out of a packed row first.
+   *
+   * @throws SQLDataException if the value is not a valid integer or doesn't fit in a long.
+   */
+  static long parseLong(ByteString buf, int offset, int length) throws SQLException {
+    int end = offset + length;
+    int i = offset;
+    boolean negative = false;
+    if (length > 0) {
+      byte first = buf.byteAt(offset);
+      if (first == '-' || first == '+') {
+        negative = first == '-';
+        i++;
+      }
+    }
+    if (i == end) {
+      throw invalidInteger(buf, offset, length);
+    }
+    // Accumulate negatively, since Long.MIN_VALUE has no positive counterpart.
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long multmin = limit / 10;
+    long result = 0;
+    for (; i < end; i++) {
+      int digit = buf.byteAt(i) - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw invalidInteger(buf, offset, length);
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw invalidInteger(buf, offset, length);
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Parses a decimal floating-point number, with the same result as
+   * {@link Double#parseDouble(String)}.
+   *
+   * @throws NumberFormatException if the value is not a valid number.
+   */
+  static double parseDouble(ByteString value) {
+    return parseDouble(value, 0, value.size());
+  }
+
+  /**
+   * Parses a decimal floating-point number from {@code length} bytes of {@code buf} starting at
+   * {@code offset}, with the same result as {@link Double#parseDouble(String)}.
+   *
+   * <p>Values with at most 15 significant digits and a small exponent are converted exactly
+   * from a long mantissa and a power of ten, without creating a {@link String}. Anything else
+   * is handed to {@link Double#parseDouble(String)}.
+   *
+   * @throws NumberFormatException if the value is not a valid number.
+   */
+  static double parseDouble(ByteString buf, int offset, int length) {
+    int end = offset + length;
+    int i = offset;
+    boolean negative = false;
+    if (i < end && (buf.byteAt(i) == '-' || buf.byteAt(i) == '+')) {
+      negative = buf.byteAt(i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int significantDigits = 0;
+    int fractionDigits = 0;
+    boolean digits = false;
+    boolean point = false;
+    for (; i < end; i++) {
+      byte c = buf.byteAt(i);
+      if (c >= '0' && c <= '9') {
+        digits = true;
+        if (mantissa != 0 || c != '0') {
+          if (++significantDigits > MAX_EXACT_DIGITS) {
+            return parseDoubleSlow(buf, offset, length);
+          }
+          mantissa = mantissa * 10 + (c - '0');
+        }
+        if (point) {
+          fractionDigits++;
+        }
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+    if (!digits) {
+      return parseDoubleSlow(buf, offset, length);
+    }
+    int exponent = 0;
+    if (i < end) {
+      byte c = buf.byteAt(i++);
+      if (c != 'e' && c != 'E') {
+        return parseDoubleSlow(buf, offset, length);
+      }
+      boolean negativeExponent = false;
+      if (i < end && (buf.byteAt(i) == '-' || buf.byteAt(i) == '+')) {
+        negativeExponent = buf.byteAt(i) == '-';
+        i++;
+      }
+      if (i == end || end - i > 3) {
+        return parseDoubleSlow(buf, offset, length);
+      }
+      for (; i < end; i++) {
+        int digit = buf.byteAt(i) - '0';
+        if (digit < 0 || digit > 9) {
+          return parseDoubleSlow(buf, offset, length);
+        }
+        exponent = exponent * 10 + digit;
+      }
+      if (negativeExponent) {
+        exponent = -exponent;
+      }
+    }
+    exponent -= fractionDigits;
+    if (exponent < -MAX_EXACT_POWER_OF_TEN || exponent > MAX_EXACT_POWER_OF_TEN) {
+      return parseDoubleSlow(buf, offset, length);
+    }
+    // Both operands are exact doubles, so the single rounding step gives the correctly
+    // rounded result, just like Double.parseDouble().
+    double value =
+        exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -value : value;
+  }
+
+  private static double parseDoubleSlow(ByteString buf, int offset, int length) {
+    return Double.parseDouble(buf.substring(offset, offset + length).toStringUtf8());
+  }
+
+  private static SQLDataException invalidUnsignedInteger(ByteString buf, int offset, int length) {
+    return new SQLDataException(
+        "invalid unsigned integer: " + buf.substring(offset, offset + length).toStringUtf8());
+  }
+
+  private static SQLDataException invalidInteger(ByteString buf, int offset, int length) {
+    return new SQLDataException(
+        "invalid integer: " + buf.substring(offset, offset + length).toStringUtf8());
+  }
+
+  /**
+   * Parses an unsigned decimal integer into the bits of a long.
+   *
+   * @throws SQLDataException if the value is not a valid unsigned 64-bit integer.
+   */
+  static long parseUnsignedLong(ByteString value) throws SQLException {
+    return parseUnsignedLong(value, 0, value.size());
+  }
+
+  /**
+   * Parses an unsigned decimal integer from {@code length} bytes of {@code buf} starting at
+   * {@code offset}.
+   *
+   * @throws SQLDataException if the value is not a valid unsigned 64-bit integer.
+   */
+  static long parseUnsignedLong(ByteString buf, int offset, int length) throws SQLException {
+    if (length == 0) {
+      throw invalidUnsignedInteger(buf, offset, length);
+    }
+    long result = 0;
+    for (int i = offset; i < offset + length; i++) {
+      int digit = buf.byteAt(i) - '0';
+      if (digit < 0 || digit > 9 || UnsignedLongs.compare(result, MAX_UNSIGNED_LONG_DIV_10) > 0) {
+        throw invalidUnsignedInteger(buf, offset, length);
+      }
+      long next = result * 10 + digit;
+      if (UnsignedLongs.compare(next, result) < 0) {
+        throw invalidUnsignedInteger(buf, offset, length);
+      }
+      result = next;
+    }
+    return result;
+  }
+
+  /**
+   * Compares two non-null raw values of the given type in the order MySQL would sort them.
+   *
+   * <p>Textual types are compared as unsigned bytes, which matches binary collations only.
+   */
+  static int compare(Type type, ByteString a, ByteString b) throws SQLException {
+    switch (type) {
+      case INT8: // fall through
+      case UINT8: // fall through
+      case INT16: // fall through
+      case UINT16: // fall through
+      case INT24: // fall through
+      case UINT24: // fall through
+      case INT32: // fall through
+      case UINT32: // fall through
+      case INT64: // fall through
+      case YEAR:
+        return Long.compare(parseLong(a), parseLong(b));
+      case UINT64:
+        return UnsignedLongs.compare(parseUnsignedLong(a), parseUnsignedLong(b));
+      case FLOAT32: // fall through
+      case FLOAT64:
+        return Double.compare(parseDouble(a), parseDouble(b));
+      case DECIMAL:
+        return compareDecimal(a, b);
+      case TIME:
+        return compareTime(a, b);
+      default:
+        // DATE, DATETIME and TIMESTAMP use fixed-width fields that sort lexicographically,
+        // and everything else is compared as bytes.
+        return compareBytes(a, b);
+    }
+  }
+
+  /**
+   * Compares two values as unsigned bytes, lexicographically.
+   */
+  static int compareBytes(ByteString a, ByteString b) {
+    return compareBytes(a, 0, b, 0);
+  }
+
+  private static int compareBytes(ByteString a, int aStart, ByteString b, int bStart) {
+    int aLength = a.size() - aStart;
+    int bLength = b.size() - bStart;
+    int length = Math.min(aLength, bLength);
+    for (int i = 0; i < length; i++) {
+      int cmp = (a.byteAt(aStart + i) & 0xff) - (b.byteAt(bStart + i) & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return aLength - bLength;
+  }
+
+  /**
+   * Compares two DECIMAL values without parsing them into {@link java.math.BigDecimal}.
+   */
+  static int compareDecimal(ByteString a, ByteString b) {
+    boolean aNegative = a.size() > 0 && a.byteAt(0) == '-';
+    boolean bNegative = b.size() > 0 && b.byteAt(0) == '-';
+    boolean aZero = isZero(a);
+    boolean bZero = isZero(b);
+    int aSign = aZero ? 0 : (aNegative ? -1 : 1);
+    int bSign = bZero ? 0 : (bNegative ? -1 : 1);
+    if (aSign != bSign) {
+      return aSign < bSign ? -1 : 1;
+    }
+    if (aSign == 0) {
+      return 0;
+    }
+    int cmp = compareMagnitude(a, aNegative ? 1 : 0, b, bNegative ? 1 : 0);
+    return aSign < 0 ? -cmp : cmp;
+  }
+
+  /**
+   * Compares two TIME values, which may be negative and have more than two hour digits.
+   */
+  static int compareTime(ByteString a, ByteString b) {
+    // TIME has the same shape as a DECIMAL whose "integer part" is the hours,
+    // except that the parts are separated by ':' instead of '.'.
+    boolean aNegative = a.size() > 0 && a.byteAt(0) == '-';
+    boolean bNegative = b.size() > 0 && b.byteAt(0) == '-';
+    if (aNegative != bNegative) {
+      return aNegative ? -1 : 1;
+    }
+    int aStart = aNegative ? 1 : 0;
+    int bStart = bNegative ? 1 : 0;
+    int aHours = indexOf(a, (byte) ':', aStart) - aStart;
+    int bHours = indexOf(b, (byte) ':', bStart) - bStart;
+    int cmp;
+    if (aHours != bHours) {
+      cmp = aHours < bHours ? -1 : 1;
+    } else {
+      cmp = compareBytes(a, aStart, b, bStart);
+    }
+    return aNegative ? -cmp : cmp;
+  }
+
+  /**
+   * Compares the absolute values of two decimal numbers starting at the given offsets.
+   */
+  private static int compareMagnitude(ByteString a, int aStart, ByteString b, int bStart) {
+    // Skip leading zeros.
+    while (aStart < a.size() - 1 && a.byteAt(aStart) == '0' && a.byteAt(aStart + 1) != '.') {
+      aStart++;
+    }
+    while (bStart < b.size() - 1 && b.byteAt(bStart) == '0' && b.byteAt(bStart + 1) != '.') {
+      bStart++;
+    }
+    int aPoint = indexOf(a, (byte) '.', aStart);
+    int bPoint = indexOf(b, (byte) '.', bStart);
+    // More integer digits means a larger magnitude.
+    int aIntDigits = aPoint - aStart;
+    int bIntDigits = bPoint - bStart;
+    if (aIntDigits != bIntDigits) {
+      return aIntDigits < bIntDigits ? -1 : 1;
+    }
+    for (int i = 0; i < aIntDigits; i++) {
+      int cmp = a.byteAt(aStart + i) - b.byteAt(bStart + i);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    // Compare fractional digits, treating missing digits as trailing zeros.
+    int aFracDigits = Math.max(0, a.size() - aPoint - 1);
+    int bFracDigits = Math.max(0, b.size() - bPoint - 1);
+    for (int i = 0; i < Math.max(aFracDigits, bFracDigits); i++) {
+      int aDigit = i < aFracDigits ? a.byteAt(aPoint + 1 + i) : '0';
+      int bDigit = i < bFracDigits ? b.byteAt(bPoint + 1 + i) : '0';
+      if (aDigit != bDigit) {
+        return aDigit - bDigit;
+      }
+    }
+    return 0;
+  }
+
+  private static boolean isZero(ByteString value) {
+    for (int i = 0; i < value.size(); i++) {
+      byte c = value.byteAt(i);
+      if (c >= '1' && c <= '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(ByteString value, byte c, int from) {
+    for (int i = from; i < value.size(); i++) {
+      if (value.byteAt(i) == c) {
+        return i;
+      }
+    }
+    return value.size();
+  }
+}
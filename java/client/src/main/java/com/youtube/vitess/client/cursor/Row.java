@@ -11,6 +11,9 @@ import com.youtube.vitess.proto.Query;
 import com.youtube.vitess.proto.Query.Field;
 import com.youtube.vitess.proto.Query.Type;
 
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+
 import java.math.BigDecimal;
 import java.sql.Date;
 import java.sql.SQLDataException;
@@ -18,9 +21,9 @@ import java.sql.SQLException;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.TimeZone;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -42,9 +45,40 @@ import javax.annotation.concurrent.NotThreadSafe;
  */
 @NotThreadSafe
 public class Row {
+  /**
+   * Returned by {@link #parseCellLong()} for malformed values. Long.MIN_VALUE itself is still
+   * valid; it just takes the slower boxed path.
+   */
+  private static final long INVALID_CELL = Long.MIN_VALUE;
+
   private final FieldMap fieldMap;
+  /**
+   * The wrapped proto. It's only reassigned by {@link #reset(Query.Row)}, for the reusable row
+   * that {@link Cursor#forEachRow(RowVisitor)} passes to its visitor.
+   */
+  private Query.Row rawRow;
+  /**
+   * Unpacked cell values, only used for rows that were not built from a proto.
+   */
   private final List<ByteString> values;
-  private final Query.Row rawRow;
+  /**
+   * Start offset of each cell in {@code rawRow.getValues()}, built on first access.
+   *
+   * <p>Cells are sliced out of the packed buffer only when they're read, so rows from
+   * wide tables don't allocate a {@link ByteString} per cell up front.
+   */
+  private int[] offsets;
+  /**
+   * Whether {@link #offsets} has been built for the current {@link #rawRow}. A reused row keeps
+   * the array, and rebuilds its contents for the next proto.
+   */
+  private boolean offsetsValid;
+  /**
+   * The buffer, offset and length of the cell found by the last {@link #findCell(int)}.
+   */
+  private ByteString cellBuffer;
+  private int cellOffset;
+  private int cellLength;
   /**
    * Remembers whether the column referenced by the last {@code get*()} was
    * MySQL {@code NULL}.
@@ -65,16 +99,16 @@ public class Row {
   public Row(FieldMap fieldMap, Query.Row rawRow) {
     this.fieldMap = fieldMap;
     this.rawRow = rawRow;
-    this.values = extractValues(rawRow.getLengthsList(), rawRow.getValues());
+    this.values = null;
   }
 
   /**
    * Construct a Row from {@link com.youtube.vitess.proto.Query.Row} proto.
    */
   public Row(List<Field> fields, Query.Row rawRow) {
-    this.fieldMap = new FieldMap(fields);
+    this.fieldMap = FieldMap.of(fields);
     this.rawRow = rawRow;
-    this.values = extractValues(rawRow.getLengthsList(), rawRow.getValues());
+    this.values = null;
   }
 
   /**
@@ -91,16 +125,37 @@ public class Row {
    */
   @VisibleForTesting
   public Row(List<Field> fields, List<ByteString> values) {
-    this.fieldMap = new FieldMap(fields);
+    this.fieldMap = FieldMap.of(fields);
     this.rawRow = null;
     this.values = values;
   }
 
+  /**
+   * Construct a reusable Row that must be pointed at a proto with {@link #reset(Query.Row)}
+   * before it's read.
+   */
+  Row(FieldMap fieldMap) {
+    this.fieldMap = fieldMap;
+    this.rawRow = null;
+    this.values = null;
+  }
+
+  /**
+   * Points this Row at another {@link com.youtube.vitess.proto.Query.Row} proto with the same
+   * fields, reusing the offset table.
+   */
+  void reset(Query.Row rawRow) {
+    this.rawRow = rawRow;
+    offsetsValid = false;
+    cellBuffer = null;
+    lastGetWasNull = false;
+  }
+
   /**
    * Returns the number of columns.
    */
   public int size() {
-    return values.size();
+    return values != null ? values.size() : rawRow.getLengthsCount();
   }
 
   public List<Field> getFields() {
@@ -121,8 +176,8 @@ public class Row {
    * @param columnLabel case-insensitive column label
    */
   public int findColumn(String columnLabel) throws SQLException {
-    Integer columnIndex = fieldMap.getIndex(columnLabel);
-    if (columnIndex == null) {
+    int columnIndex = fieldMap.indexOf(columnLabel);
+    if (columnIndex == 0) {
       throw new SQLDataException("column not found:" + columnLabel);
     }
     return columnIndex;
@@ -154,13 +209,43 @@ public class Row {
    * @param columnIndex 1-based column number (0 is invalid)
    */
   protected ByteString getRawValue(int columnIndex) throws SQLException {
+    if (!findCell(columnIndex)) {
+      return null;
+    }
+    if (values != null) {
+      return cellBuffer;
+    }
+    return cellBuffer.substring(cellOffset, cellOffset + cellLength);
+  }
+
+  /**
+   * Points {@link #cellBuffer}, {@link #cellOffset} and {@link #cellLength} at a column's value,
+   * without slicing it out of the packed buffer.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   * @return false if the value is SQL NULL
+   */
+  private boolean findCell(int columnIndex) throws SQLException {
     checkArgument(columnIndex >= 1, "columnIndex out of range: %s", columnIndex);
-    if (columnIndex > values.size()) {
+    if (columnIndex > size()) {
       throw new SQLDataException("invalid columnIndex: " + columnIndex);
     }
-    ByteString value = values.get(columnIndex - 1);
-    lastGetWasNull = (value == null);
-    return value;
+    if (values != null) {
+      cellBuffer = values.get(columnIndex - 1);
+      cellOffset = 0;
+      cellLength = cellBuffer == null ? 0 : cellBuffer.size();
+      lastGetWasNull = (cellBuffer == null);
+    } else {
+      long length = rawRow.getLengths(columnIndex - 1);
+      // A negative length indicates a MySQL NULL value, to distinguish it from a zero-length
+      // string.
+      lastGetWasNull = (length < 0);
+      cellBuffer = rawRow.getValues();
+      cellOffset = getOffsets()[columnIndex - 1];
+      // Lengths are returned as long, but ByteString.substring() only supports int.
+      cellLength = lastGetWasNull ? 0 : (int) length;
+    }
+    return !lastGetWasNull;
   }
 
   /**
@@ -184,6 +269,26 @@ public class Row {
    * @param columnIndex 1-based column number (0 is invalid)
    */
   public int getInt(int columnIndex) throws SQLException {
+    if (!findCell(columnIndex)) {
+      return 0;
+    }
+    switch (fieldMap.get(columnIndex).getType()) {
+      case INT8: // fall through
+      case UINT8: // fall through
+      case INT16: // fall through
+      case UINT16: // fall through
+      case INT24: // fall through
+      case UINT24: // fall through
+      case INT32:
+        long value = parseCellLong();
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+          return (int) value;
+        }
+        break;
+      default:
+        break;
+    }
+    // Type mismatches and malformed values take the boxed path, which reports them.
     Integer value = getObject(columnIndex, Integer.class);
     return value == null ? 0 : value;
   }
@@ -237,6 +342,21 @@ public class Row {
    * @param columnIndex 1-based column number (0 is invalid)
    */
   public long getLong(int columnIndex) throws SQLException {
+    if (!findCell(columnIndex)) {
+      return 0;
+    }
+    switch (fieldMap.get(columnIndex).getType()) {
+      case UINT32: // fall through
+      case INT64:
+        long value = parseCellLong();
+        if (value != INVALID_CELL) {
+          return value;
+        }
+        break;
+      default:
+        break;
+    }
+    // Type mismatches and malformed values take the boxed path, which reports them.
     Long value = getObject(columnIndex, Long.class);
     return value == null ? 0 : value;
   }
@@ -262,6 +382,13 @@ public class Row {
    * @param columnIndex 1-based column number (0 is invalid)
    */
   public double getDouble(int columnIndex) throws SQLException {
+    if (!findCell(columnIndex)) {
+      return 0;
+    }
+    if (fieldMap.get(columnIndex).getType() == Type.FLOAT64) {
+      return RawValues.parseDouble(cellBuffer, cellOffset, cellLength);
+    }
+    // Type mismatches take the boxed path, which reports them.
     Double value = getObject(columnIndex, Double.class);
     return value == null ? 0 : value;
   }
@@ -297,7 +424,7 @@ public class Row {
    * @param columnLabel case-insensitive column label
    */
   public Date getDate(String columnLabel) throws SQLException {
-    return getDate(findColumn(columnLabel), Calendar.getInstance());
+    return getDate(findColumn(columnLabel));
   }
 
   /**
@@ -315,11 +442,12 @@ public class Row {
    * @param columnIndex 1-based column number (0 is invalid)
    */
   public Date getDate(int columnIndex) throws SQLException {
-    return getDate(columnIndex, Calendar.getInstance());
+    return getDate(columnIndex, null);
   }
 
   /**
-   * Returns the column value as a {@link Date} with the given {@link Calendar}.
+   * Returns the column value as a {@link Date} with the given {@link Calendar},
+   * or the default time zone if {@code cal} is null.
    *
    * @param columnIndex 1-based column number (0 is invalid)
    */
@@ -334,7 +462,7 @@ public class Row {
           "type mismatch, expected: " + Type.DATE + ", actual: " + field.getType());
     }
     try {
-      return DateTime.parseDate(rawValue.toStringUtf8(), cal);
+      return cal == null ? DateTime.parseDate(rawValue) : DateTime.parseDate(rawValue, cal);
     } catch (ParseException e) {
       throw new SQLDataException("Can't parse DATE: " + rawValue.toStringUtf8(), e);
     }
@@ -346,7 +474,7 @@ public class Row {
    * @param columnLabel case-insensitive column label
    */
   public Time getTime(String columnLabel) throws SQLException {
-    return getTime(findColumn(columnLabel), Calendar.getInstance());
+    return getTime(findColumn(columnLabel));
   }
 
   /**
@@ -364,11 +492,12 @@ public class Row {
    * @param columnIndex 1-based column number (0 is invalid)
    */
   public Time getTime(int columnIndex) throws SQLException {
-    return getTime(columnIndex, Calendar.getInstance());
+    return getTime(columnIndex, null);
   }
 
   /**
-   * Returns the column value as {@link Time} with the given {@link Calendar}.
+   * Returns the column value as {@link Time} with the given {@link Calendar},
+   * or the default time zone if {@code cal} is null.
    *
    * @param columnIndex 1-based column number (0 is invalid)
    */
@@ -383,7 +512,7 @@ public class Row {
           "type mismatch, expected: " + Type.TIME + ", actual: " + field.getType());
     }
     try {
-      return DateTime.parseTime(rawValue.toStringUtf8(), cal);
+      return cal == null ? DateTime.parseTime(rawValue) : DateTime.parseTime(rawValue, cal);
     } catch (ParseException e) {
       throw new SQLDataException("Can't parse TIME: " + rawValue.toStringUtf8(), e);
     }
@@ -395,7 +524,7 @@ public class Row {
    * @param columnLabel case-insensitive column label
    */
   public Timestamp getTimestamp(String columnLabel) throws SQLException {
-    return getTimestamp(findColumn(columnLabel), Calendar.getInstance());
+    return getTimestamp(findColumn(columnLabel));
   }
 
   /**
@@ -413,15 +542,120 @@ public class Row {
    * @param columnIndex 1-based column number (0 is invalid)
    */
   public Timestamp getTimestamp(int columnIndex) throws SQLException {
-    return getTimestamp(columnIndex, Calendar.getInstance());
+    return getTimestamp(columnIndex, null);
   }
 
   /**
-   * Returns the column value as {@link Timestamp} with the given {@link Calendar}.
+   * Returns the column value as {@link Timestamp} with the given {@link Calendar},
+   * or the default time zone if {@code cal} is null.
    *
    * @param columnIndex 1-based column number (0 is invalid)
    */
   public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+    ByteString rawValue = getTimestampValue(columnIndex);
+    if (rawValue == null) {
+      return null;
+    }
+    try {
+      return cal == null
+          ? DateTime.parseTimestamp(rawValue)
+          : DateTime.parseTimestamp(rawValue, cal);
+    } catch (ParseException e) {
+      throw new SQLDataException("Can't parse TIMESTAMP: " + rawValue.toStringUtf8(), e);
+    }
+  }
+
+  /**
+   * Returns the value of a DATE column as a Joda-Time {@link LocalDate}, without a time zone.
+   *
+   * @param columnLabel case-insensitive column label
+   */
+  public LocalDate getLocalDate(String columnLabel) throws SQLException {
+    return getLocalDate(findColumn(columnLabel));
+  }
+
+  /**
+   * Returns the value of a DATE column as a Joda-Time {@link LocalDate}, without a time zone.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   */
+  public LocalDate getLocalDate(int columnIndex) throws SQLException {
+    ByteString rawValue = getRawValue(columnIndex);
+    if (rawValue == null) {
+      return null;
+    }
+    Field field = fieldMap.get(columnIndex);
+    if (field.getType() != Type.DATE) {
+      throw new SQLDataException(
+          "type mismatch, expected: " + Type.DATE + ", actual: " + field.getType());
+    }
+    try {
+      return DateTime.parseLocalDate(rawValue);
+    } catch (ParseException e) {
+      throw new SQLDataException("Can't parse DATE: " + rawValue.toStringUtf8(), e);
+    }
+  }
+
+  /**
+   * Returns the value of a TIMESTAMP or DATETIME column as a Joda-Time {@link LocalDateTime},
+   * without a time zone.
+   *
+   * @param columnLabel case-insensitive column label
+   */
+  public LocalDateTime getLocalDateTime(String columnLabel) throws SQLException {
+    return getLocalDateTime(findColumn(columnLabel));
+  }
+
+  /**
+   * Returns the value of a TIMESTAMP or DATETIME column as a Joda-Time {@link LocalDateTime},
+   * without a time zone.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   */
+  public LocalDateTime getLocalDateTime(int columnIndex) throws SQLException {
+    ByteString rawValue = getTimestampValue(columnIndex);
+    if (rawValue == null) {
+      return null;
+    }
+    try {
+      return DateTime.parseLocalDateTime(rawValue);
+    } catch (ParseException e) {
+      throw new SQLDataException("Can't parse TIMESTAMP: " + rawValue.toStringUtf8(), e);
+    }
+  }
+
+  /**
+   * Returns the value of a TIMESTAMP or DATETIME column as microseconds since the epoch, with the
+   * default time zone. Returns 0 for SQL NULL, which can be checked with {@link #wasNull()}.
+   *
+   * @param columnLabel case-insensitive column label
+   */
+  public long getTimestampMicros(String columnLabel) throws SQLException {
+    return getTimestampMicros(findColumn(columnLabel));
+  }
+
+  /**
+   * Returns the value of a TIMESTAMP or DATETIME column as microseconds since the epoch, with the
+   * default time zone. Returns 0 for SQL NULL, which can be checked with {@link #wasNull()}.
+   *
+   * @param columnIndex 1-based column number (0 is invalid)
+   */
+  public long getTimestampMicros(int columnIndex) throws SQLException {
+    ByteString rawValue = getTimestampValue(columnIndex);
+    if (rawValue == null) {
+      return 0;
+    }
+    try {
+      return DateTime.parseTimestampMicros(rawValue, TimeZone.getDefault());
+    } catch (ParseException e) {
+      throw new SQLDataException("Can't parse TIMESTAMP: " + rawValue.toStringUtf8(), e);
+    }
+  }
+
+  /**
+   * Returns the raw value of a TIMESTAMP or DATETIME column, or null for SQL NULL.
+   */
+  private ByteString getTimestampValue(int columnIndex) throws SQLException {
     ByteString rawValue = getRawValue(columnIndex);
     if (rawValue == null) {
       return null;
@@ -436,11 +670,7 @@ public class Row {
               + ", actual: "
               + field.getType());
     }
-    try {
-      return DateTime.parseTimestamp(rawValue.toStringUtf8(), cal);
-    } catch (ParseException e) {
-      throw new SQLDataException("Can't parse TIMESTAMP: " + rawValue.toStringUtf8(), e);
-    }
+    return rawValue;
   }
 
   /**
@@ -492,6 +722,16 @@ public class Row {
    * @param columnIndex 1-based column number (0 is invalid)
    */
   public short getShort(int columnIndex) throws SQLException {
+    if (!findCell(columnIndex)) {
+      return 0;
+    }
+    if (fieldMap.get(columnIndex).getType() == Type.YEAR) {
+      long value = parseCellLong();
+      if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        return (short) value;
+      }
+    }
+    // Type mismatches and malformed values take the boxed path, which reports them.
     Short value = getObject(columnIndex, Short.class);
     return value == null ? 0 : value;
   }
@@ -598,7 +838,7 @@ public class Row {
         // We don't get time zone information from the server,
         // so we use the default time zone.
         try {
-          return DateTime.parseDate(value.toStringUtf8());
+          return DateTime.parseDate(value);
         } catch (ParseException e) {
           throw new SQLDataException("Can't parse DATE: " + value.toStringUtf8(), e);
         }
@@ -606,7 +846,7 @@ public class Row {
         // We don't get time zone information from the server,
         // so we use the default time zone.
         try {
-          return DateTime.parseTime(value.toStringUtf8());
+          return DateTime.parseTime(value);
         } catch (ParseException e) {
           throw new SQLDataException("Can't parse TIME: " + value.toStringUtf8(), e);
         }
@@ -615,7 +855,7 @@ public class Row {
         // We don't get time zone information from the server,
         // so we use the default time zone.
         try {
-          return DateTime.parseTimestamp(value.toStringUtf8());
+          return DateTime.parseTimestamp(value);
         } catch (ParseException e) {
           throw new SQLDataException("Can't parse TIMESTAMP: " + value.toStringUtf8(), e);
         }
@@ -638,25 +878,40 @@ public class Row {
   }
 
   /**
-   * Extract cell values from the single-buffer wire format.
+   * Parses the cell found by the last {@link #findCell(int)} as a signed integer.
+   *
+   * @return the value, or {@link #INVALID_CELL} if it's malformed or out of range, so the caller
+   *     can fall back to the boxed path, which reports the error.
+   */
+  private long parseCellLong() {
+    try {
+      return RawValues.parseLong(cellBuffer, cellOffset, cellLength);
+    } catch (SQLException e) {
+      return INVALID_CELL;
+    }
+  }
+
+  /**
+   * Returns the start offset of each cell in the single-buffer wire format.
    *
    * <p>See the docs for the {@code Row} message in {@code query.proto}.
    */
-  private static List<ByteString> extractValues(List<Long> lengths, ByteString buf) {
-    List<ByteString> list = new ArrayList<ByteString>(lengths.size());
-
-    int start = 0;
-    for (long len : lengths) {
-      if (len < 0) {
-        // This indicates a MySQL NULL value, to distinguish it from a zero-length string.
-        list.add((ByteString) null);
-      } else {
-        // Lengths are returned as long, but ByteString.substring() only supports int.
-        list.add(buf.substring(start, start + (int) len));
-        start += len;
+  private int[] getOffsets() {
+    if (!offsetsValid) {
+      int count = rawRow.getLengthsCount();
+      if (offsets == null || offsets.length < count) {
+        offsets = new int[count];
+      }
+      int start = 0;
+      for (int i = 0; i < count; i++) {
+        offsets[i] = start;
+        long length = rawRow.getLengths(i);
+        if (length > 0) {
+          start += (int) length;
+        }
       }
+      offsetsValid = true;
     }
-
-    return list;
+    return offsets;
   }
 }
@@ -0,0 +1,21 @@
+package com.youtube.vitess.client.cursor;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a {@link Cursor}, one at a time, from
+ * {@link Cursor#forEachRow(RowVisitor)}.
+ *
+ * <p>The {@link Row} passed to {@link #visit(Row)} may be a single object that is re-pointed at
+ * each row in turn. It's only valid until {@code visit()} returns, so implementations must copy
+ * out any values they need rather than keep a reference to the {@code Row}.
+ */
+public interface RowVisitor {
+  /**
+   * Called once for each row, in order.
+   *
+   * @throws SQLException to stop the iteration. It's rethrown by
+   *     {@link Cursor#forEachRow(RowVisitor)}.
+   */
+  void visit(Row row) throws SQLException;
+}
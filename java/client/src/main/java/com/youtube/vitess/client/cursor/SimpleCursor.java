@@ -5,7 +5,6 @@ import com.youtube.vitess.proto.Query.Field;
 import com.youtube.vitess.proto.Query.QueryResult;
 
 import java.sql.SQLException;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -16,11 +15,15 @@ import javax.annotation.concurrent.NotThreadSafe;
 @NotThreadSafe
 public class SimpleCursor extends Cursor {
   private final QueryResult queryResult;
-  private final Iterator<Query.Row> rowIterator;
+  private final List<Query.Row> rows;
+  /**
+   * The position of the next row in {@link #rows}.
+   */
+  private int rowIndex;
 
   public SimpleCursor(QueryResult queryResult) {
     this.queryResult = queryResult;
-    rowIterator = queryResult.getRowsList().iterator();
+    rows = queryResult.getRowsList();
   }
 
   @Override
@@ -45,9 +48,31 @@ public class SimpleCursor extends Cursor {
 
   @Override
   public Row next() throws SQLException {
-    if (rowIterator.hasNext()) {
-      return new Row(getFieldMap(), rowIterator.next());
+    if (rowIndex < rows.size()) {
+      return new Row(getFieldMap(), rows.get(rowIndex++));
     }
     return null;
   }
+
+  @Override
+  public void forEachRow(RowVisitor visitor) throws SQLException {
+    if (rowIndex == rows.size()) {
+      return;
+    }
+    Row row = new Row(getFieldMap());
+    while (rowIndex < rows.size()) {
+      row.reset(rows.get(rowIndex++));
+      visitor.visit(row);
+    }
+  }
+
+  @Override
+  public ColumnBatch nextBatch() throws SQLException {
+    if (rowIndex == rows.size()) {
+      return null;
+    }
+    ColumnBatch batch = new ColumnBatch(getFieldMap(), rows.subList(rowIndex, rows.size()));
+    rowIndex = rows.size();
+    return batch;
+  }
 }
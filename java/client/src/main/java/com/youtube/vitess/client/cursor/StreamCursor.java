@@ -8,7 +8,6 @@ import com.youtube.vitess.proto.Query.QueryResult;
 import java.sql.SQLDataException;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -20,7 +19,14 @@ import javax.annotation.concurrent.NotThreadSafe;
 @NotThreadSafe
 public class StreamCursor extends Cursor {
   private StreamIterator<QueryResult> streamIterator;
-  private Iterator<Query.Row> rowIterator;
+  /**
+   * The rows of the current {@link QueryResult}, or null if there's none.
+   */
+  private List<Query.Row> rows;
+  /**
+   * The position of the next row in {@link #rows}.
+   */
+  private int rowIndex;
 
   private List<Field> fields;
 
@@ -66,21 +72,62 @@ public class StreamCursor extends Cursor {
       throw new SQLDataException("next() called on closed Cursor");
     }
 
-    // Get the next Row from the current QueryResult.
-    if (rowIterator != null && rowIterator.hasNext()) {
-      return new Row(getFieldMap(), rowIterator.next());
+    if (!hasRows()) {
+      return null;
+    }
+    return new Row(getFieldMap(), rows.get(rowIndex++));
+  }
+
+  @Override
+  public void forEachRow(RowVisitor visitor) throws SQLException {
+    if (streamIterator == null) {
+      throw new SQLDataException("forEachRow() called on closed Cursor");
+    }
+
+    Row row = null;
+    while (hasRows()) {
+      if (row == null) {
+        row = new Row(getFieldMap());
+      }
+      row.reset(rows.get(rowIndex++));
+      visitor.visit(row);
+    }
+  }
+
+  @Override
+  public ColumnBatch nextBatch() throws SQLException {
+    if (streamIterator == null) {
+      throw new SQLDataException("nextBatch() called on closed Cursor");
+    }
+
+    if (!hasRows()) {
+      return null;
+    }
+    ColumnBatch batch = new ColumnBatch(getFieldMap(), rows.subList(rowIndex, rows.size()));
+    rowIndex = rows.size();
+    return batch;
+  }
+
+  /**
+   * Makes sure {@link #rows} has a row left at {@link #rowIndex}, fetching more results if needed.
+   *
+   * @return false if there are no more rows in the stream.
+   */
+  private boolean hasRows() throws SQLException {
+    // Check the current QueryResult first.
+    if (rows != null && rowIndex < rows.size()) {
+      return true;
     }
 
     // Get the next QueryResult. Loop in case we get a QueryResult with no Rows (e.g. only Fields).
     while (nextQueryResult()) {
-      // Get the first Row from the new QueryResult.
-      if (rowIterator.hasNext()) {
-        return new Row(getFieldMap(), rowIterator.next());
+      if (!rows.isEmpty()) {
+        return true;
       }
     }
 
     // No more Rows and no more QueryResults.
-    return null;
+    return false;
   }
 
   /**
@@ -89,7 +136,7 @@ public class StreamCursor extends Cursor {
    * <p>Whereas the public {@link #next()} method advances the {@link Cursor} state to the next
    * {@link Row}, this method advances the internal state to the next {@link QueryResult}, which
    * contains a batch of rows. Specifically, we get the next {@link QueryResult} from
-   * {@link #streamIterator}, and then set {@link #rowIterator} accordingly.
+   * {@link #streamIterator}, and then set {@link #rows} accordingly.
    *
    * <p>If {@link #fields} is null, we assume the next {@link QueryResult} must contain the fields,
    * and set {@link #fields} from it.
@@ -103,10 +150,11 @@ public class StreamCursor extends Cursor {
         // The first QueryResult should have the fields.
         fields = queryResult.getFieldsList();
       }
-      rowIterator = queryResult.getRowsList().iterator();
+      rows = queryResult.getRowsList();
+      rowIndex = 0;
       return true;
     } else {
-      rowIterator = null;
+      rows = null;
       return false;
     }
   }
@@ -1,6 +1,13 @@
 package com.youtube.vitess.mysql;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.math.IntMath;
+import com.google.protobuf.ByteString;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.chrono.ISOChronology;
 
 import java.sql.Date;
 import java.sql.Time;
@@ -9,6 +16,10 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Utility methods for processing MySQL TIME, DATE, DATETIME, and TIMESTAMP.
@@ -16,6 +27,12 @@ import java.util.Calendar;
  * <p>These provide functionality similar to {@code valueOf()} and {@code toString()}
  * in {@link java.sql.Date} et al. The difference is that these support MySQL-specific
  * syntax like fractional seconds, negative times, and hours > 24 for elapsed time.
+ *
+ * <p>The {@link ByteString} overloads parse the UTF-8 bytes of a cell directly, and convert
+ * between local and UTC time with arithmetic and cached per-zone offsets, rather than through
+ * {@link SimpleDateFormat}. They fall back to the {@code String} methods for values outside
+ * the common case: a Gregorian date from 1583 on, in the canonical format MySQL returns, in a zone
+ * without a DST transition near that day.
  */
 public class DateTime {
   private static final String DATE_FORMAT = "yyyy-MM-dd";
@@ -24,6 +41,47 @@ public class DateTime {
   private static final long SECONDS_TO_MILLIS = 1000L;
   private static final long MINUTES_TO_MILLIS = 60L * SECONDS_TO_MILLIS;
   private static final long HOURS_TO_MILLIS = 60L * MINUTES_TO_MILLIS;
+  private static final long DAYS_TO_MILLIS = 24L * HOURS_TO_MILLIS;
+  private static final long DAYS_TO_SECONDS = DAYS_TO_MILLIS / SECONDS_TO_MILLIS;
+
+  /**
+   * Returned by the byte-level helpers for values they don't handle.
+   */
+  private static final long INVALID = Long.MIN_VALUE;
+
+  /**
+   * The range of epoch days handled without {@link Calendar}: from the first full year after the
+   * Gregorian cutover, before which {@link GregorianCalendar} uses the Julian calendar, up to the
+   * last year with 4 digits.
+   */
+  private static final long FIRST_FAST_DAY = daysFromCivil(1583, 1, 1);
+
+  private static final long END_FAST_DAY = daysFromCivil(10000, 1, 1);
+
+  /**
+   * The maximum number of distinct time zones kept by {@link #localToUtc(long, TimeZone)}.
+   */
+  private static final int ZONE_CACHE_SIZE = 64;
+
+  /**
+   * The number of spans of days with a constant offset kept per zone, e.g. both sides of the
+   * DST transitions of a year or two.
+   */
+  private static final int SPANS_PER_ZONE = 8;
+
+  /**
+   * The step used to look for the next offset change. Real zones don't change offset twice within
+   * this time, so equal offsets at two points this far apart mean there's no change in between.
+   */
+  private static final long OFFSET_PROBE_MILLIS = 2 * DAYS_TO_MILLIS;
+
+  /**
+   * How far a span extends at most on either side of the day it was computed for.
+   */
+  private static final long MAX_SPAN_MILLIS = 400 * DAYS_TO_MILLIS;
+
+  private static final Cache<TimeZone, ZoneOffsets> ZONE_OFFSETS =
+      CacheBuilder.newBuilder().maximumSize(ZONE_CACHE_SIZE).build();
 
   /**
    * Parse a MySQL DATE format into a {@link Date} with the default time zone.
@@ -43,19 +101,77 @@ public class DateTime {
     return new Date(dateFormat.parse(value).getTime());
   }
 
+  /**
+   * Parse the UTF-8 bytes of a MySQL DATE into a {@link Date} with the default time zone.
+   */
+  public static Date parseDate(ByteString value) throws ParseException {
+    return parseDate(value, TimeZone.getDefault());
+  }
+
+  /**
+   * Parse the UTF-8 bytes of a MySQL DATE into a {@link Date} with the given {@link Calendar}.
+   */
+  public static Date parseDate(ByteString value, Calendar cal) throws ParseException {
+    if (!isGregorian(cal)) {
+      return parseDate(value.toStringUtf8(), cal);
+    }
+    return parseDate(value, cal.getTimeZone());
+  }
+
+  private static Date parseDate(ByteString value, TimeZone zone) throws ParseException {
+    long days = value.size() == 10 ? localDays(value) : INVALID;
+    if (days >= FIRST_FAST_DAY) {
+      long millis = localToUtc(days * DAYS_TO_MILLIS, zone);
+      if (millis != INVALID) {
+        return new Date(millis);
+      }
+    }
+    return parseDate(value.toStringUtf8(), new GregorianCalendar(zone));
+  }
+
+  /**
+   * Parse the UTF-8 bytes of a MySQL DATE into a Joda-Time {@link LocalDate}, which has no time
+   * zone.
+   */
+  public static LocalDate parseLocalDate(ByteString value) throws ParseException {
+    long days = value.size() == 10 ? localDays(value) : INVALID;
+    if (days == INVALID) {
+      throw new ParseException("Invalid MySQL DATE format: " + value.toStringUtf8(), 0);
+    }
+    return new LocalDate(days * DAYS_TO_MILLIS, ISOChronology.getInstanceUTC());
+  }
+
   /**
    * Format a {@link Date} as a MySQL DATE with the default time zone.
    *
    * <p>This should match {@link Date#toString()}.
    */
   public static String formatDate(Date value) {
-    return formatDate(value, Calendar.getInstance());
+    return formatDate(value, TimeZone.getDefault());
   }
 
   /**
    * Format a {@link Date} as a MySQL DATE with the given {@link Calendar}.
    */
   public static String formatDate(Date value, Calendar cal) {
+    if (!isGregorian(cal)) {
+      return formatDateSlow(value, cal);
+    }
+    return formatDate(value, cal.getTimeZone());
+  }
+
+  private static String formatDate(Date value, TimeZone zone) {
+    long millis = value.getTime();
+    long days = floorDiv(millis + zone.getOffset(millis), DAYS_TO_MILLIS);
+    if (days < FIRST_FAST_DAY || days >= END_FAST_DAY) {
+      return formatDateSlow(value, new GregorianCalendar(zone));
+    }
+    StringBuilder sb = new StringBuilder(10);
+    appendDate(sb, days);
+    return sb.toString();
+  }
+
+  private static String formatDateSlow(Date value, Calendar cal) {
     DateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
     dateFormat.setCalendar(cal);
     return dateFormat.format(value);
@@ -71,6 +187,29 @@ public class DateTime {
     return parseTime(value, Calendar.getInstance());
   }
 
+  /**
+   * Parse the UTF-8 bytes of a MySQL TIME into a {@link Time} with the default time zone.
+   */
+  public static Time parseTime(ByteString value) throws ParseException {
+    TimeZone zone = TimeZone.getDefault();
+    long millis = localTimeMillis(value);
+    if (millis == INVALID) {
+      return parseTime(value.toStringUtf8(), new GregorianCalendar(zone));
+    }
+    return new Time(millis - zone.getRawOffset());
+  }
+
+  /**
+   * Parse the UTF-8 bytes of a MySQL TIME into a {@link Time} with the given {@link Calendar}.
+   */
+  public static Time parseTime(ByteString value, Calendar cal) throws ParseException {
+    long millis = localTimeMillis(value);
+    if (millis == INVALID) {
+      return parseTime(value.toStringUtf8(), cal);
+    }
+    return new Time(millis - cal.get(Calendar.ZONE_OFFSET));
+  }
+
   /**
    * Parse a MySQL TIME format into a {@link Time} with the given {@link Calendar}.
    *
@@ -151,7 +290,7 @@ public class DateTime {
    * and hours > 24) the results will differ.
    */
   public static String formatTime(Time value) {
-    return formatTime(value, Calendar.getInstance());
+    return formatTime(value.getTime() + TimeZone.getDefault().getRawOffset());
   }
 
   /**
@@ -163,14 +302,14 @@ public class DateTime {
    * wrapping around to the next day.
    */
   public static String formatTime(Time value, Calendar cal) {
-    long millis = value.getTime();
-
     // Adjust for time zone.
-    millis += cal.get(Calendar.ZONE_OFFSET);
+    return formatTime(value.getTime() + cal.get(Calendar.ZONE_OFFSET));
+  }
 
-    String sign = "";
+  private static String formatTime(long millis) {
+    StringBuilder sb = new StringBuilder(16);
     if (millis < 0) {
-      sign = "-";
+      sb.append('-');
       millis = -millis;
     }
 
@@ -181,11 +320,16 @@ public class DateTime {
     long seconds = millis / SECONDS_TO_MILLIS;
     millis -= seconds * SECONDS_TO_MILLIS;
 
-    if (millis == 0) {
-      return String.format("%s%02d:%02d:%02d", sign, hours, minutes, seconds);
-    } else {
-      return String.format("%s%02d:%02d:%02d.%03d", sign, hours, minutes, seconds, millis);
+    appendPadded(sb, hours, 2);
+    sb.append(':');
+    appendPadded(sb, minutes, 2);
+    sb.append(':');
+    appendPadded(sb, seconds, 2);
+    if (millis != 0) {
+      sb.append('.');
+      appendPadded(sb, millis, 3);
     }
+    return sb.toString();
   }
 
   /**
@@ -241,6 +385,65 @@ public class DateTime {
     return result;
   }
 
+  /**
+   * Parse the UTF-8 bytes of a MySQL TIMESTAMP or DATETIME into a {@link Timestamp} with the
+   * default time zone.
+   */
+  public static Timestamp parseTimestamp(ByteString value) throws ParseException {
+    return parseTimestamp(value, TimeZone.getDefault());
+  }
+
+  /**
+   * Parse the UTF-8 bytes of a MySQL TIMESTAMP or DATETIME into a {@link Timestamp} with the
+   * given {@link Calendar}.
+   */
+  public static Timestamp parseTimestamp(ByteString value, Calendar cal) throws ParseException {
+    if (!isGregorian(cal)) {
+      return parseTimestamp(value.toStringUtf8(), cal);
+    }
+    return parseTimestamp(value, cal.getTimeZone());
+  }
+
+  private static Timestamp parseTimestamp(ByteString value, TimeZone zone)
+      throws ParseException {
+    long seconds = localSeconds(value);
+    if (seconds >= FIRST_FAST_DAY * DAYS_TO_SECONDS) {
+      long millis = localToUtc(seconds * SECONDS_TO_MILLIS, zone);
+      if (millis != INVALID) {
+        Timestamp result = new Timestamp(millis);
+        result.setNanos(fractionNanos(value));
+        return result;
+      }
+    }
+    return parseTimestamp(value.toStringUtf8(), new GregorianCalendar(zone));
+  }
+
+  /**
+   * Parse the UTF-8 bytes of a MySQL TIMESTAMP or DATETIME into microseconds since the epoch,
+   * with the given time zone. Digits of the fraction beyond microseconds are truncated.
+   */
+  public static long parseTimestampMicros(ByteString value, TimeZone zone)
+      throws ParseException {
+    Timestamp timestamp = parseTimestamp(value, zone);
+    return floorDiv(timestamp.getTime(), SECONDS_TO_MILLIS) * 1000000L
+        + timestamp.getNanos() / 1000;
+  }
+
+  /**
+   * Parse the UTF-8 bytes of a MySQL TIMESTAMP or DATETIME into a Joda-Time {@link LocalDateTime},
+   * which has no time zone. Joda-Time only has millisecond precision, so the fraction is truncated
+   * to milliseconds.
+   */
+  public static LocalDateTime parseLocalDateTime(ByteString value) throws ParseException {
+    long seconds = localSeconds(value);
+    if (seconds == INVALID) {
+      throw new ParseException("Invalid MySQL TIMESTAMP format: " + value.toStringUtf8(), 0);
+    }
+    return new LocalDateTime(
+        seconds * SECONDS_TO_MILLIS + fractionNanos(value) / 1000000,
+        ISOChronology.getInstanceUTC());
+  }
+
   /**
    * Format a {@link Timestamp} as a MySQL TIMESTAMP with the default time zone.
    *
@@ -248,31 +451,355 @@ public class DateTime {
    * For MySQL-specific syntax, the results will differ.
    */
   public static String formatTimestamp(Timestamp value) {
-    return formatTimestamp(value, Calendar.getInstance());
+    return formatTimestamp(value, TimeZone.getDefault());
   }
 
   /**
    * Format a {@link Timestamp} as a MySQL TIMESTAMP with the given {@link Calendar}.
    */
   public static String formatTimestamp(Timestamp value, Calendar cal) {
-    // The java.util.Date portion of a Timestamp only contains second-level precision.
-    // When printing the nanos, limit to microseconds since that's all MySQL allows.
-    long millis = value.getNanos() / 1000;
+    if (!isGregorian(cal)) {
+      return formatTimestampSlow(value, cal);
+    }
+    return formatTimestamp(value, cal.getTimeZone());
+  }
+
+  private static String formatTimestamp(Timestamp value, TimeZone zone) {
+    long millis = value.getTime();
+    long localMillis = millis + zone.getOffset(millis);
+    long days = floorDiv(localMillis, DAYS_TO_MILLIS);
+    if (days < FIRST_FAST_DAY || days >= END_FAST_DAY) {
+      return formatTimestampSlow(value, new GregorianCalendar(zone));
+    }
+    long seconds = (localMillis - days * DAYS_TO_MILLIS) / SECONDS_TO_MILLIS;
+    StringBuilder sb = new StringBuilder(26);
+    appendDate(sb, days);
+    sb.append(' ');
+    appendPadded(sb, seconds / 3600, 2);
+    sb.append(':');
+    appendPadded(sb, seconds / 60 % 60, 2);
+    sb.append(':');
+    appendPadded(sb, seconds % 60, 2);
+    appendFraction(sb, value.getNanos());
+    return sb.toString();
+  }
+
+  private static String formatTimestampSlow(Timestamp value, Calendar cal) {
     DateFormat dateFormat = new SimpleDateFormat(DATETIME_FORMAT);
     dateFormat.setCalendar(cal);
-    String dateString = dateFormat.format(value);
-    if (millis == 0) {
+    StringBuilder sb = new StringBuilder(dateFormat.format(value));
+    appendFraction(sb, value.getNanos());
+    return sb.toString();
+  }
+
+  /**
+   * Appends the fraction of a TIMESTAMP.
+   *
+   * <p>The java.util.Date portion of a Timestamp only contains second-level precision.
+   * When printing the nanos, limit to microseconds since that's all MySQL allows.
+   */
+  private static void appendFraction(StringBuilder sb, int nanos) {
+    long micros = nanos / 1000;
+    sb.append('.');
+    if (micros == 0) {
       // For whole numbered seconds, we add ".0" to match Timestamp.toString().
-      return dateString + ".0";
-    } else {
-      // Otherwise, we print the full fraction, then trim off trailing zeros.
-      // This is also done to match Timestamp.toString().
-      String result = String.format("%s.%06d", dateString, millis);
-      int end = result.length();
-      while (end > 0 && result.charAt(end - 1) == '0') {
-        --end;
+      sb.append('0');
+      return;
+    }
+    // Otherwise, we print the full fraction, then trim off trailing zeros.
+    // This is also done to match Timestamp.toString().
+    int width = 6;
+    while (micros % 10 == 0) {
+      micros /= 10;
+      --width;
+    }
+    appendPadded(sb, micros, width);
+  }
+
+  /**
+   * Returns whether the byte-level methods can stand in for {@link SimpleDateFormat} with the
+   * given {@link Calendar}.
+   */
+  private static boolean isGregorian(Calendar cal) {
+    return cal.getClass() == GregorianCalendar.class && cal.isLenient();
+  }
+
+  /**
+   * Converts milliseconds since the epoch in local time to UTC, or returns {@link #INVALID} if
+   * there's a DST transition within a day of it.
+   *
+   * <p>Away from transitions, every local time maps to exactly one instant, so the conversion
+   * agrees with {@link Calendar}. Each zone caches the last few spans of days between transitions,
+   * typically months long, so the values of a column rarely miss even if they're far apart.
+   */
+  private static long localToUtc(long localMillis, TimeZone zone) {
+    long day = floorDiv(localMillis, DAYS_TO_MILLIS);
+    ZoneOffsets offsets = ZONE_OFFSETS.getIfPresent(zone);
+    if (offsets == null) {
+      offsets = new ZoneOffsets();
+      // Key on a copy, in case the caller's zone changes later.
+      ZONE_OFFSETS.put((TimeZone) zone.clone(), offsets);
+    }
+    OffsetSpan span = offsets.find(day);
+    if (span == null) {
+      span = OffsetSpan.around(day, zone);
+      if (span == null) {
+        return INVALID;
+      }
+      offsets.add(span);
+    }
+    return localMillis - span.offset;
+  }
+
+  /**
+   * The most recently used {@link OffsetSpan}s of a time zone. Spans are replaced round-robin.
+   */
+  private static class ZoneOffsets {
+    private final AtomicReferenceArray<OffsetSpan> spans =
+        new AtomicReferenceArray<>(SPANS_PER_ZONE);
+    private final AtomicInteger next = new AtomicInteger();
+
+    OffsetSpan find(long day) {
+      for (int i = 0; i < SPANS_PER_ZONE; i++) {
+        OffsetSpan span = spans.get(i);
+        if (span != null && day >= span.firstDay && day < span.endDay) {
+          return span;
+        }
+      }
+      return null;
+    }
+
+    void add(OffsetSpan span) {
+      spans.set((next.getAndIncrement() & Integer.MAX_VALUE) % SPANS_PER_ZONE, span);
+    }
+  }
+
+  /**
+   * A range of local days throughout which, and for a day on either side, a time zone has one UTC
+   * offset.
+   */
+  private static class OffsetSpan {
+    final long firstDay;
+    final long endDay;
+    final int offset;
+
+    OffsetSpan(long firstDay, long endDay, int offset) {
+      this.firstDay = firstDay;
+      this.endDay = endDay;
+      this.offset = offset;
+    }
+
+    /**
+     * Returns the span that contains the given local day, or null if the offset changes within a
+     * day of it.
+     */
+    static OffsetSpan around(long day, TimeZone zone) {
+      long dayStart = day * DAYS_TO_MILLIS;
+      int offset = zone.getOffset(dayStart - zone.getRawOffset());
+      long utcDayStart = dayStart - offset;
+      long first = utcDayStart - DAYS_TO_MILLIS;
+      long last = utcDayStart + 2 * DAYS_TO_MILLIS;
+      if (zone.getOffset(first) != offset || zone.getOffset(last) != offset) {
+        return null;
+      }
+      // Widen [first, last] in steps while the offset stays the same at the new end.
+      while (utcDayStart - first < MAX_SPAN_MILLIS
+          && zone.getOffset(first - OFFSET_PROBE_MILLIS) == offset) {
+        first -= OFFSET_PROBE_MILLIS;
+      }
+      while (last - utcDayStart < MAX_SPAN_MILLIS
+          && zone.getOffset(last + OFFSET_PROBE_MILLIS) == offset) {
+        last += OFFSET_PROBE_MILLIS;
+      }
+      // Keep the local days that, with a day on either side, fall within [first, last].
+      long firstDay = -floorDiv(-(first + offset), DAYS_TO_MILLIS) + 1;
+      long endDay = floorDiv(last + offset, DAYS_TO_MILLIS) - 1;
+      return new OffsetSpan(firstDay, endDay, offset);
+    }
+  }
+
+  /**
+   * Parses 'YYYY-MM-DD' at the start of the value into days since the epoch, or returns
+   * {@link #INVALID}. Days past the end of the month roll over, as with a lenient
+   * {@link Calendar}.
+   */
+  private static long localDays(ByteString value) {
+    if (value.size() < 10 || value.byteAt(4) != '-' || value.byteAt(7) != '-') {
+      return INVALID;
+    }
+    int year = parseDigits(value, 0, 4);
+    int month = parseDigits(value, 5, 2);
+    int day = parseDigits(value, 8, 2);
+    if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31) {
+      return INVALID;
+    }
+    return daysFromCivil(year, month, day);
+  }
+
+  /**
+   * Parses 'YYYY-MM-DD HH:MM:SS[.fraction]' into seconds since the epoch in local time, or
+   * returns {@link #INVALID}.
+   */
+  private static long localSeconds(ByteString value) {
+    int size = value.size();
+    if (size < 19
+        || value.byteAt(10) != ' '
+        || value.byteAt(13) != ':'
+        || value.byteAt(16) != ':'
+        || (size > 19 && value.byteAt(19) != '.')
+        || !isDigits(value, 20, size - 20)) {
+      return INVALID;
+    }
+    long days = localDays(value);
+    int hours = parseDigits(value, 11, 2);
+    int minutes = parseDigits(value, 14, 2);
+    int seconds = parseDigits(value, 17, 2);
+    if (days == INVALID
+        || hours < 0
+        || hours > 23
+        || minutes < 0
+        || minutes > 59
+        || seconds < 0
+        || seconds > 59) {
+      return INVALID;
+    }
+    return days * DAYS_TO_SECONDS + hours * 3600 + minutes * 60 + seconds;
+  }
+
+  /**
+   * Returns the fraction of a value accepted by {@link #localSeconds(ByteString)} in nanoseconds.
+   */
+  private static int fractionNanos(ByteString value) {
+    int digits = Math.min(value.size() - 20, 9);
+    if (digits <= 0) {
+      return 0;
+    }
+    return parseDigits(value, 20, digits) * IntMath.pow(10, 9 - digits);
+  }
+
+  /**
+   * Parses '[-]H+:MM[:SS[.fraction]]' into milliseconds, or returns {@link #INVALID}.
+   * Like {@link #parseTime(String, Calendar)}, the sign only applies if the hours are nonzero.
+   */
+  private static long localTimeMillis(ByteString value) {
+    int size = value.size();
+    int pos = size > 0 && value.byteAt(0) == '-' ? 1 : 0;
+    boolean negative = pos == 1;
+    int hoursEnd = pos;
+    while (hoursEnd < size && value.byteAt(hoursEnd) != ':') {
+      ++hoursEnd;
+    }
+    // Longer hours overflow an int, and MySQL never returns more than 3 digits anyway.
+    if (hoursEnd == pos || hoursEnd - pos > 9 || hoursEnd + 3 > size) {
+      return INVALID;
+    }
+    int hours = parseDigits(value, pos, hoursEnd - pos);
+    int minutes = parseDigits(value, hoursEnd + 1, 2);
+    int seconds = 0;
+    int millis = 0;
+    pos = hoursEnd + 3;
+    if (pos < size) {
+      if (value.byteAt(pos) != ':' || pos + 3 > size) {
+        return INVALID;
+      }
+      seconds = parseDigits(value, pos + 1, 2);
+      pos += 3;
+      if (pos < size) {
+        if (value.byteAt(pos) != '.' || !isDigits(value, pos + 1, size - pos - 1)) {
+          return INVALID;
+        }
+        int digits = Math.min(size - pos - 1, 3);
+        if (digits > 0) {
+          millis = parseDigits(value, pos + 1, digits) * IntMath.pow(10, 3 - digits);
+        }
       }
-      return result.substring(0, end);
     }
+    if (hours < 0 || minutes < 0 || seconds < 0) {
+      return INVALID;
+    }
+    long time =
+        hours * HOURS_TO_MILLIS
+            + minutes * MINUTES_TO_MILLIS
+            + seconds * SECONDS_TO_MILLIS
+            + millis;
+    return negative && hours > 0 ? -time : time;
+  }
+
+  /**
+   * Parses up to 9 ASCII digits, or returns -1 if there are other characters.
+   */
+  private static int parseDigits(ByteString value, int offset, int count) {
+    int result = 0;
+    for (int i = offset; i < offset + count; i++) {
+      int digit = value.byteAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+
+  private static boolean isDigits(ByteString value, int offset, int count) {
+    for (int i = offset; i < offset + count; i++) {
+      byte b = value.byteAt(i);
+      if (b < '0' || b > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of days since 1970-01-01 in the proleptic Gregorian calendar.
+   *
+   * <p>This is Howard Hinnant's days_from_civil algorithm, which treats March as the first month
+   * so that the leap day comes last.
+   */
+  private static long daysFromCivil(int year, int month, int day) {
+    if (month <= 2) {
+      --year;
+    }
+    long era = (year >= 0 ? year : year - 399) / 400;
+    long yearOfEra = year - era * 400;
+    long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /**
+   * Appends 'YYYY-MM-DD' for days since 1970-01-01, with the inverse of
+   * {@link #daysFromCivil(int, int, int)}.
+   */
+  private static void appendDate(StringBuilder sb, long days) {
+    days += 719468;
+    long era = (days >= 0 ? days : days - 146096) / 146097;
+    long dayOfEra = days - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+    long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    appendPadded(sb, year, 4);
+    sb.append('-');
+    appendPadded(sb, month, 2);
+    sb.append('-');
+    appendPadded(sb, day, 2);
+  }
+
+  /**
+   * Appends a non-negative number with leading zeros up to the given width.
+   */
+  private static void appendPadded(StringBuilder sb, long value, int width) {
+    for (long limit = IntMath.pow(10, width - 1); limit > value && limit > 1; limit /= 10) {
+      sb.append('0');
+    }
+    sb.append(value);
+  }
+
+  private static long floorDiv(long x, long y) {
+    long quotient = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
   }
 }
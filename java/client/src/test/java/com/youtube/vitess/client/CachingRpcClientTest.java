@@ -0,0 +1,232 @@
+package com.youtube.vitess.client;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.proto.Query.BindVariable;
+import com.youtube.vitess.proto.Query.BoundQuery;
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteResponse;
+import com.youtube.vitess.proto.Vtgate.Session;
+import com.youtube.vitess.proto.Vtrpc.RPCError;
+
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class CachingRpcClientTest {
+  private final FakeTicker ticker = new FakeTicker();
+  private int calls = 0;
+  private SettableFuture<ExecuteResponse> pending = null;
+
+  /**
+   * Returns the number of calls so far as rowsAffected, and an application error for "error".
+   */
+  private final RpcClient fakeClient =
+      new FakeRpcClient() {
+        @Override
+        public ListenableFuture<ExecuteResponse> execute(Context ctx, ExecuteRequest request) {
+          calls++;
+          if (pending != null) {
+            return pending;
+          }
+          ExecuteResponse.Builder response = ExecuteResponse.newBuilder();
+          if (request.getQuery().getSql().equals("error")) {
+            response.setError(RPCError.newBuilder().setMessage("error"));
+          } else {
+            response.setResult(QueryResult.newBuilder().setRowsAffected(calls));
+          }
+          return Futures.immediateFuture(response.build());
+        }
+
+        @Override
+        public ListenableFuture<ExecuteKeyspaceIdsResponse> executeKeyspaceIds(
+            Context ctx, ExecuteKeyspaceIdsRequest request) {
+          calls++;
+          return Futures.immediateFuture(
+              ExecuteKeyspaceIdsResponse.newBuilder()
+                  .setResult(QueryResult.newBuilder().setRowsAffected(calls))
+                  .build());
+        }
+      };
+
+  private final CachingRpcClient client =
+      new CachingRpcClient(
+          fakeClient,
+          1 << 20,
+          Duration.standardSeconds(10),
+          ImmutableMap.of("short", Duration.standardSeconds(1), "uncached", Duration.ZERO),
+          ticker);
+
+  private long execute(String sql, TabletType tabletType) throws Exception {
+    return client
+        .execute(Context.getDefault(), newRequest(sql, tabletType))
+        .get()
+        .getResult()
+        .getRowsAffected();
+  }
+
+  private static ExecuteRequest newRequest(String sql, TabletType tabletType) {
+    return ExecuteRequest.newBuilder()
+        .setQuery(BoundQuery.newBuilder().setSql(sql))
+        .setTabletType(tabletType)
+        .build();
+  }
+
+  @Test
+  public void testCacheHit() throws Exception {
+    Assert.assertEquals(1, execute("select", TabletType.REPLICA));
+    Assert.assertEquals(1, execute("select", TabletType.REPLICA));
+    // Different requests have different entries.
+    Assert.assertEquals(2, execute("select 2", TabletType.REPLICA));
+    Assert.assertEquals(3, execute("select", TabletType.RDONLY));
+
+    ExecuteKeyspaceIdsRequest request =
+        ExecuteKeyspaceIdsRequest.newBuilder()
+            .setQuery(BoundQuery.newBuilder().setSql("select"))
+            .setTabletType(TabletType.REPLICA)
+            .build();
+    for (int i = 0; i < 2; i++) {
+      Assert.assertEquals(
+          4,
+          client
+              .executeKeyspaceIds(Context.getDefault(), request)
+              .get()
+              .getResult()
+              .getRowsAffected());
+    }
+    Assert.assertEquals(4, calls);
+  }
+
+  @Test
+  public void testBindVariableOrder() throws Exception {
+    BindVariable a = BindVariable.newBuilder().setValue(ByteString.copyFromUtf8("a")).build();
+    BindVariable b = BindVariable.newBuilder().setValue(ByteString.copyFromUtf8("b")).build();
+    BoundQuery.Builder abQuery = BoundQuery.newBuilder().setSql("select");
+    abQuery.getMutableBindVariables().put("a", a);
+    abQuery.getMutableBindVariables().put("b", b);
+    BoundQuery.Builder baQuery = BoundQuery.newBuilder().setSql("select");
+    baQuery.getMutableBindVariables().put("b", b);
+    baQuery.getMutableBindVariables().put("a", a);
+
+    for (BoundQuery.Builder query : new BoundQuery.Builder[] {abQuery, baQuery}) {
+      ExecuteRequest request =
+          ExecuteRequest.newBuilder().setQuery(query).setTabletType(TabletType.REPLICA).build();
+      Assert.assertEquals(
+          1, client.execute(Context.getDefault(), request).get().getResult().getRowsAffected());
+    }
+    Assert.assertEquals(1, calls);
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    CachingRpcClient smallClient =
+        new CachingRpcClient(
+            fakeClient,
+            1000,
+            Duration.standardSeconds(10),
+            ImmutableMap.<String, Duration>of(),
+            ticker);
+    for (int i = 0; i < 100; i++) {
+      smallClient
+          .execute(Context.getDefault(), newRequest("select " + i, TabletType.REPLICA))
+          .get();
+    }
+    Assert.assertEquals(100, calls);
+
+    // The most recent response is still cached, but the oldest ones were evicted to stay within
+    // maxBytes.
+    smallClient.execute(Context.getDefault(), newRequest("select 99", TabletType.REPLICA)).get();
+    Assert.assertEquals(100, calls);
+    smallClient.execute(Context.getDefault(), newRequest("select 0", TabletType.REPLICA)).get();
+    Assert.assertEquals(101, calls);
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    Assert.assertEquals(1, execute("select", TabletType.REPLICA));
+    Assert.assertEquals(2, execute("short", TabletType.REPLICA));
+    ticker.advance(2, TimeUnit.SECONDS);
+    // Only the query with the short TTL has expired.
+    Assert.assertEquals(1, execute("select", TabletType.REPLICA));
+    Assert.assertEquals(3, execute("short", TabletType.REPLICA));
+    ticker.advance(10, TimeUnit.SECONDS);
+    Assert.assertEquals(4, execute("select", TabletType.REPLICA));
+  }
+
+  @Test
+  public void testNotCached() throws Exception {
+    Assert.assertEquals(1, execute("select", TabletType.MASTER));
+    Assert.assertEquals(2, execute("select", TabletType.MASTER));
+    Assert.assertEquals(3, execute("uncached", TabletType.REPLICA));
+    Assert.assertEquals(4, execute("uncached", TabletType.REPLICA));
+
+    ExecuteRequest inTransaction =
+        newRequest("select", TabletType.REPLICA)
+            .toBuilder()
+            .setSession(Session.newBuilder().setInTransaction(true))
+            .build();
+    for (int i = 0; i < 2; i++) {
+      client.execute(Context.getDefault(), inTransaction).get();
+    }
+    Assert.assertEquals(6, calls);
+
+    // Application errors are not cached.
+    for (int i = 0; i < 2; i++) {
+      Assert.assertTrue(
+          client.execute(Context.getDefault(), newRequest("error", TabletType.REPLICA))
+              .get()
+              .hasError());
+    }
+    Assert.assertEquals(8, calls);
+  }
+
+  @Test
+  public void testConcurrentMisses() throws Exception {
+    pending = SettableFuture.create();
+    ListenableFuture<ExecuteResponse> first =
+        client.execute(Context.getDefault(), newRequest("select", TabletType.REPLICA));
+    ListenableFuture<ExecuteResponse> second =
+        client.execute(Context.getDefault(), newRequest("select", TabletType.REPLICA));
+    Assert.assertEquals(1, calls);
+
+    // Cancelling one caller's future doesn't cancel the call for the other.
+    first.cancel(true);
+    Assert.assertFalse(pending.isCancelled());
+    pending.set(
+        ExecuteResponse.newBuilder()
+            .setResult(QueryResult.newBuilder().setRowsAffected(7))
+            .build());
+    Assert.assertEquals(7, second.get().getResult().getRowsAffected());
+
+    pending = null;
+    Assert.assertEquals(7, execute("select", TabletType.REPLICA));
+    Assert.assertEquals(1, calls);
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos = 0;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      nanos += unit.toNanos(duration);
+    }
+  }
+}
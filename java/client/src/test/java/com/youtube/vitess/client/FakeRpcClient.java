@@ -0,0 +1,179 @@
+package com.youtube.vitess.client;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Vtgate.BeginRequest;
+import com.youtube.vitess.proto.Vtgate.BeginResponse;
+import com.youtube.vitess.proto.Vtgate.CommitRequest;
+import com.youtube.vitess.proto.Vtgate.CommitResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyRangesRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyRangesResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteShardsResponse;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceRequest;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceResponse;
+import com.youtube.vitess.proto.Vtgate.RollbackRequest;
+import com.youtube.vitess.proto.Vtgate.RollbackResponse;
+import com.youtube.vitess.proto.Vtgate.SplitQueryRequest;
+import com.youtube.vitess.proto.Vtgate.SplitQueryResponse;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteKeyRangesRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteShardsRequest;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * An {@link RpcClient} that fails every call.
+ *
+ * <p>Tests override only the methods they expect to be called.
+ */
+public class FakeRpcClient implements RpcClient {
+  @Override
+  public ListenableFuture<ExecuteResponse> execute(
+      Context ctx, ExecuteRequest request) throws SQLException {
+    return unsupported("execute");
+  }
+
+  @Override
+  public ListenableFuture<ExecuteShardsResponse> executeShards(
+      Context ctx, ExecuteShardsRequest request) throws SQLException {
+    return unsupported("executeShards");
+  }
+
+  @Override
+  public ListenableFuture<ExecuteKeyspaceIdsResponse> executeKeyspaceIds(
+      Context ctx, ExecuteKeyspaceIdsRequest request) throws SQLException {
+    return unsupported("executeKeyspaceIds");
+  }
+
+  @Override
+  public ListenableFuture<ExecuteKeyRangesResponse> executeKeyRanges(
+      Context ctx, ExecuteKeyRangesRequest request) throws SQLException {
+    return unsupported("executeKeyRanges");
+  }
+
+  @Override
+  public ListenableFuture<ExecuteEntityIdsResponse> executeEntityIds(
+      Context ctx, ExecuteEntityIdsRequest request) throws SQLException {
+    return unsupported("executeEntityIds");
+  }
+
+  @Override
+  public ListenableFuture<ExecuteBatchShardsResponse> executeBatchShards(
+      Context ctx, ExecuteBatchShardsRequest request) throws SQLException {
+    return unsupported("executeBatchShards");
+  }
+
+  @Override
+  public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> executeBatchKeyspaceIds(
+      Context ctx, ExecuteBatchKeyspaceIdsRequest request) throws SQLException {
+    return unsupported("executeBatchKeyspaceIds");
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecute(
+      Context ctx, StreamExecuteRequest request) throws SQLException {
+    throw new UnsupportedOperationException("streamExecute");
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request) throws SQLException {
+    throw new UnsupportedOperationException("streamExecuteShards");
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteKeyspaceIds(
+      Context ctx, StreamExecuteKeyspaceIdsRequest request) throws SQLException {
+    throw new UnsupportedOperationException("streamExecuteKeyspaceIds");
+  }
+
+  @Override
+  public StreamIterator<QueryResult> streamExecuteKeyRanges(
+      Context ctx, StreamExecuteKeyRangesRequest request) throws SQLException {
+    throw new UnsupportedOperationException("streamExecuteKeyRanges");
+  }
+
+  @Override
+  public void streamExecute(
+      Context ctx, StreamExecuteRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    throw new UnsupportedOperationException("streamExecute");
+  }
+
+  @Override
+  public void streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    throw new UnsupportedOperationException("streamExecuteShards");
+  }
+
+  @Override
+  public void streamExecuteKeyspaceIds(
+      Context ctx,
+      StreamExecuteKeyspaceIdsRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    throw new UnsupportedOperationException("streamExecuteKeyspaceIds");
+  }
+
+  @Override
+  public void streamExecuteKeyRanges(
+      Context ctx,
+      StreamExecuteKeyRangesRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    throw new UnsupportedOperationException("streamExecuteKeyRanges");
+  }
+
+  @Override
+  public ListenableFuture<BeginResponse> begin(
+      Context ctx, BeginRequest request) throws SQLException {
+    return unsupported("begin");
+  }
+
+  @Override
+  public ListenableFuture<CommitResponse> commit(
+      Context ctx, CommitRequest request) throws SQLException {
+    return unsupported("commit");
+  }
+
+  @Override
+  public ListenableFuture<RollbackResponse> rollback(
+      Context ctx, RollbackRequest request) throws SQLException {
+    return unsupported("rollback");
+  }
+
+  @Override
+  public ListenableFuture<SplitQueryResponse> splitQuery(
+      Context ctx, SplitQueryRequest request) throws SQLException {
+    return unsupported("splitQuery");
+  }
+
+  @Override
+  public ListenableFuture<GetSrvKeyspaceResponse> getSrvKeyspace(
+      Context ctx, GetSrvKeyspaceRequest request) throws SQLException {
+    return unsupported("getSrvKeyspace");
+  }
+
+  @Override
+  public void close() throws IOException {}
+
+  private static <V> ListenableFuture<V> unsupported(String method) {
+    return Futures.immediateFailedFuture(new UnsupportedOperationException(method));
+  }
+}
@@ -0,0 +1,220 @@
+package com.youtube.vitess.client;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.youtube.vitess.client.HedgingRpcClient.LatencyHistogram;
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteResponse;
+
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class HedgingRpcClientTest {
+  private static final ExecuteResponse FAST_RESPONSE =
+      ExecuteResponse.newBuilder().setResult(QueryResult.newBuilder().setRowsAffected(1)).build();
+  private static final ExecuteResponse HEDGE_RESPONSE =
+      ExecuteResponse.newBuilder().setResult(QueryResult.newBuilder().setRowsAffected(2)).build();
+
+  @Test(timeout = 10000)
+  public void testHedgesSlowRead() throws Exception {
+    SlowClient slow = new SlowClient();
+    CountingClient fast = new CountingClient(HEDGE_RESPONSE);
+    try (HedgingRpcClient client =
+        new HedgingRpcClient(Arrays.asList(slow, fast), 0.9, Duration.millis(10))) {
+      warmUp(client, slow);
+
+      // The next call goes to the slow client first, and then to the fast one.
+      ListenableFuture<ExecuteResponse> future = client.execute(Context.getDefault(), read());
+      Assert.assertEquals(HEDGE_RESPONSE, future.get(5, TimeUnit.SECONDS));
+      // The slow call is cancelled right after the result is set.
+      while (!slow.pending.isCancelled()) {
+        Thread.sleep(1);
+      }
+    }
+  }
+
+  @Test
+  public void testDoesNotHedgeMasterOrTransaction() throws Exception {
+    SlowClient slow = new SlowClient();
+    CountingClient fast = new CountingClient(HEDGE_RESPONSE);
+    try (HedgingRpcClient client =
+        new HedgingRpcClient(Arrays.asList(slow, fast), 0.9, Duration.millis(1))) {
+      warmUp(client, slow);
+      int fastCalls = fast.calls.get();
+
+      ExecuteRequest master = read().toBuilder().setTabletType(TabletType.MASTER).build();
+      ListenableFuture<ExecuteResponse> future = client.execute(Context.getDefault(), master);
+      Thread.sleep(50);
+      Assert.assertFalse(future.isDone());
+      Assert.assertEquals(fastCalls, fast.calls.get());
+      future.cancel(true);
+    }
+  }
+
+  @Test
+  public void testFailureWaitsForOtherAttempt() throws Exception {
+    SlowClient first = new SlowClient();
+    SlowClient second = new SlowClient();
+    try (HedgingRpcClient client =
+        new HedgingRpcClient(Arrays.asList(first, second), 0.9, Duration.millis(1))) {
+      warmUp(client, first);
+      second.slow = true;
+
+      ListenableFuture<ExecuteResponse> future = client.execute(Context.getDefault(), read());
+      while (second.pending == null) {
+        Thread.sleep(1);
+      }
+      first.pending.setException(new SQLException("first attempt failed"));
+      Assert.assertFalse(future.isDone());
+      second.pending.set(HEDGE_RESPONSE);
+      Assert.assertEquals(HEDGE_RESPONSE, future.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testHedgeDelayDoesNotShrink() throws Exception {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    DelayedClient first = new DelayedClient(executor, 20);
+    DelayedClient second = new DelayedClient(executor, 20);
+    try (HedgingRpcClient client =
+        new HedgingRpcClient(Arrays.asList(first, second), 0.9, Duration.millis(1))) {
+      executeAll(client, LatencyHistogram.MIN_SAMPLES);
+      long delayMicros = client.hedgeDelayMicros();
+      Assert.assertTrue("delay = " + delayMicros, delayMicros >= 20000);
+
+      // From now on, every call that goes to the first client first is won by a hedge. Those
+      // calls still took at least the hedge delay, so it must not drift down.
+      first.delayMillis = -1;
+      second.delayMillis = 0;
+      executeAll(client, 10 * LatencyHistogram.MIN_SAMPLES);
+      Assert.assertTrue(
+          "delay = " + client.hedgeDelayMicros(), client.hedgeDelayMicros() >= delayMicros);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testHistogramBuckets() throws Exception {
+    for (long value : new long[] {0, 1, 3, 4, 7, 8, 9, 100, 12345, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucket(value);
+      Assert.assertTrue(value <= LatencyHistogram.upperBound(bucket));
+      if (bucket > 0) {
+        Assert.assertTrue(value > LatencyHistogram.upperBound(bucket - 1));
+      }
+    }
+  }
+
+  @Test
+  public void testHistogramPercentile() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(-1, histogram.percentile(0.9));
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 100);
+    }
+    long p90 = histogram.percentile(0.9);
+    Assert.assertTrue("p90 = " + p90, p90 >= 9000 && p90 <= 9000 * 5 / 4);
+  }
+
+  private static ExecuteRequest read() {
+    return ExecuteRequest.newBuilder().setTabletType(TabletType.REPLICA).build();
+  }
+
+  /**
+   * Records enough fast calls on both clients to start hedging.
+   */
+  private static void warmUp(HedgingRpcClient client, SlowClient slow) throws Exception {
+    for (int i = 0; i < LatencyHistogram.MIN_SAMPLES; i++) {
+      client.execute(Context.getDefault(), read()).get();
+    }
+    slow.slow = true;
+  }
+
+  private static void executeAll(HedgingRpcClient client, int count) throws Exception {
+    List<ListenableFuture<ExecuteResponse>> futures = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      futures.add(client.execute(Context.getDefault(), read()));
+    }
+    Futures.allAsList(futures).get();
+  }
+
+  private static class CountingClient extends FakeRpcClient {
+    final AtomicInteger calls = new AtomicInteger();
+    private final ExecuteResponse response;
+
+    CountingClient(ExecuteResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    public ListenableFuture<ExecuteResponse> execute(Context ctx, ExecuteRequest request) {
+      calls.incrementAndGet();
+      return Futures.immediateFuture(response);
+    }
+  }
+
+  /**
+   * Answers after delayMillis, or never if it's negative.
+   */
+  private static class DelayedClient extends FakeRpcClient {
+    volatile long delayMillis;
+    private final ScheduledExecutorService executor;
+
+    DelayedClient(ScheduledExecutorService executor, long delayMillis) {
+      this.executor = executor;
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public ListenableFuture<ExecuteResponse> execute(Context ctx, ExecuteRequest request) {
+      long delay = delayMillis;
+      if (delay == 0) {
+        return Futures.immediateFuture(FAST_RESPONSE);
+      }
+      final SettableFuture<ExecuteResponse> response = SettableFuture.create();
+      if (delay > 0) {
+        executor.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                response.set(FAST_RESPONSE);
+              }
+            },
+            delay,
+            TimeUnit.MILLISECONDS);
+      }
+      return response;
+    }
+  }
+
+  private static class SlowClient extends FakeRpcClient {
+    volatile boolean slow;
+    volatile SettableFuture<ExecuteResponse> pending;
+
+    @Override
+    public ListenableFuture<ExecuteResponse> execute(Context ctx, ExecuteRequest request) {
+      if (!slow) {
+        return Futures.immediateFuture(FAST_RESPONSE);
+      }
+      pending = SettableFuture.create();
+      return pending;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package com.youtube.vitess.client;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.client.cursor.Cursor;
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Topodata.KeyRange;
+import com.youtube.vitess.proto.Topodata.ShardReference;
+import com.youtube.vitess.proto.Topodata.SrvKeyspace;
+import com.youtube.vitess.proto.Topodata.SrvKeyspace.KeyspacePartition;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.BoundShardQuery;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsResponse;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceRequest;
+import com.youtube.vitess.proto.Vtgate.GetSrvKeyspaceResponse;
+import com.youtube.vitess.proto.Vtrpc.CallerID;
+
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLDataException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class KeyspaceRouterTest {
+  private static final String KEYSPACE = "test_keyspace";
+
+  private static final SrvKeyspace SRV_KEYSPACE =
+      SrvKeyspace.newBuilder()
+          .addPartitions(
+              KeyspacePartition.newBuilder()
+                  .setServedType(TabletType.REPLICA)
+                  // Deliberately out of order.
+                  .addShardReferences(shard("80-", new byte[] {(byte) 0x80}, new byte[] {}))
+                  .addShardReferences(shard("40-80", new byte[] {0x40}, new byte[] {(byte) 0x80}))
+                  .addShardReferences(shard("-40", new byte[] {}, new byte[] {0x40})))
+          .addPartitions(
+              KeyspacePartition.newBuilder()
+                  .setServedType(TabletType.MASTER)
+                  .addShardReferences(shard("0", new byte[] {}, new byte[] {})))
+          .build();
+
+  private final AtomicInteger srvKeyspaceCalls = new AtomicInteger();
+  private Context lastSrvKeyspaceCtx;
+  private SettableFuture<GetSrvKeyspaceResponse> pendingSrvKeyspace;
+  private ExecuteBatchShardsRequest lastBatchRequest;
+  private KeyspaceRouter router;
+
+  @Before
+  public void setUp() {
+    RpcClient client =
+        new FakeRpcClient() {
+          @Override
+          public ListenableFuture<GetSrvKeyspaceResponse> getSrvKeyspace(
+              Context ctx, GetSrvKeyspaceRequest request) {
+            srvKeyspaceCalls.incrementAndGet();
+            lastSrvKeyspaceCtx = ctx;
+            if (pendingSrvKeyspace != null) {
+              return pendingSrvKeyspace;
+            }
+            return Futures.immediateFuture(
+                GetSrvKeyspaceResponse.newBuilder().setSrvKeyspace(SRV_KEYSPACE).build());
+          }
+
+          @Override
+          public ListenableFuture<ExecuteBatchShardsResponse> executeBatchShards(
+              Context ctx, ExecuteBatchShardsRequest request) {
+            lastBatchRequest = request;
+            ExecuteBatchShardsResponse.Builder response = ExecuteBatchShardsResponse.newBuilder();
+            for (int i = 0; i < request.getQueriesCount(); i++) {
+              response.addResults(QueryResult.getDefaultInstance());
+            }
+            return Futures.immediateFuture(response.build());
+          }
+        };
+    router = new KeyspaceRouter(new VTGateConn(client), Duration.standardMinutes(1));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    router.close();
+  }
+
+  @Test
+  public void testGetShard() throws Exception {
+    Context ctx = Context.getDefault();
+    Assert.assertEquals(
+        "-40", router.getShard(ctx, KEYSPACE, TabletType.REPLICA, new byte[] {0x00}));
+    Assert.assertEquals(
+        "40-80", router.getShard(ctx, KEYSPACE, TabletType.REPLICA, new byte[] {0x40}));
+    Assert.assertEquals(
+        "40-80", router.getShard(ctx, KEYSPACE, TabletType.REPLICA, new byte[] {0x7f, 0x01}));
+    Assert.assertEquals(
+        "80-", router.getShard(ctx, KEYSPACE, TabletType.REPLICA, new byte[] {(byte) 0xff}));
+    Assert.assertEquals(
+        "0", router.getShard(ctx, KEYSPACE, TabletType.MASTER, new byte[] {(byte) 0xff}));
+    // The SrvKeyspace should only be fetched once.
+    Assert.assertEquals(1, srvKeyspaceCalls.get());
+  }
+
+  @Test(expected = SQLDataException.class)
+  public void testGetShardUnknownTabletType() throws Exception {
+    router.getShard(Context.getDefault(), KEYSPACE, TabletType.RDONLY, new byte[] {0x00});
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    router.getShard(Context.getDefault(), KEYSPACE, TabletType.MASTER, new byte[] {0x00});
+    router.invalidate(KEYSPACE);
+    router.getShard(Context.getDefault(), KEYSPACE, TabletType.MASTER, new byte[] {0x00});
+    Assert.assertEquals(2, srvKeyspaceCalls.get());
+  }
+
+  @Test
+  public void testRefreshUsesCallerContext() throws Exception {
+    CallerID callerId = CallerID.newBuilder().setPrincipal("user").build();
+    Context ctx =
+        Context.getDefault().withCallerId(callerId).withDeadlineAfter(Duration.standardSeconds(5));
+    router.getShard(ctx, KEYSPACE, TabletType.MASTER, new byte[] {0x00});
+
+    router.refreshAll();
+    Assert.assertEquals(2, srvKeyspaceCalls.get());
+    Assert.assertEquals(callerId, lastSrvKeyspaceCtx.getCallerId());
+    // The caller's timeout is shorter than the refresh interval.
+    Assert.assertFalse(
+        lastSrvKeyspaceCtx.getTimeout().isLongerThan(Duration.standardSeconds(5)));
+  }
+
+  @Test
+  public void testRefreshAfterInvalidate() throws Exception {
+    router.getShard(Context.getDefault(), KEYSPACE, TabletType.MASTER, new byte[] {0x00});
+    pendingSrvKeyspace = SettableFuture.create();
+    router.refreshAll();
+    router.invalidate(KEYSPACE);
+    pendingSrvKeyspace.set(
+        GetSrvKeyspaceResponse.newBuilder().setSrvKeyspace(SRV_KEYSPACE).build());
+    Assert.assertEquals(2, srvKeyspaceCalls.get());
+
+    // The refresh that completed after the invalidation didn't bring the keyspace back.
+    pendingSrvKeyspace = null;
+    router.getShard(Context.getDefault(), KEYSPACE, TabletType.MASTER, new byte[] {0x00});
+    Assert.assertEquals(3, srvKeyspaceCalls.get());
+  }
+
+  @Test
+  public void testGroupByShard() throws Exception {
+    byte[] id1 = new byte[] {(byte) 0x90};
+    byte[] id2 = new byte[] {0x10};
+    byte[] id3 = new byte[] {0x20};
+    Map<String, List<byte[]>> groups =
+        router.groupByShard(
+            Context.getDefault(), KEYSPACE, TabletType.REPLICA, Arrays.asList(id1, id2, id3));
+    Assert.assertEquals(Arrays.asList("-40", "80-"), Arrays.asList(groups.keySet().toArray()));
+    Assert.assertEquals(Arrays.asList(id2, id3), groups.get("-40"));
+    Assert.assertEquals(Arrays.asList(id1), groups.get("80-"));
+  }
+
+  @Test
+  public void testExecuteBatchShards() throws Exception {
+    // Two entities may share a keyspace ID.
+    List<Map.Entry<byte[], Object>> entityKeyspaceIds =
+        Arrays.asList(
+            Maps.<byte[], Object>immutableEntry(new byte[] {(byte) 0x90}, 9),
+            Maps.<byte[], Object>immutableEntry(new byte[] {0x10}, 1),
+            Maps.<byte[], Object>immutableEntry(new byte[] {0x20}, 2),
+            Maps.<byte[], Object>immutableEntry(new byte[] {(byte) 0x90}, 10));
+    List<Cursor> cursors =
+        router
+            .executeBatchShards(
+                Context.getDefault(),
+                "select * from t where id in ::ids",
+                KEYSPACE,
+                "ids",
+                entityKeyspaceIds,
+                ImmutableMap.of("x", 1),
+                TabletType.REPLICA)
+            .checkedGet();
+    Assert.assertEquals(2, cursors.size());
+    Assert.assertEquals(2, lastBatchRequest.getQueriesCount());
+
+    BoundShardQuery first = lastBatchRequest.getQueries(0);
+    Assert.assertEquals(Arrays.asList("-40"), first.getShardsList());
+    Assert.assertEquals(
+        Proto.buildBindVariable(Arrays.asList(1, 2)),
+        first.getQuery().getBindVariables().get("ids"));
+    Assert.assertEquals(
+        Proto.buildBindVariable(1), first.getQuery().getBindVariables().get("x"));
+
+    BoundShardQuery second = lastBatchRequest.getQueries(1);
+    Assert.assertEquals(Arrays.asList("80-"), second.getShardsList());
+    Assert.assertEquals(
+        Proto.buildBindVariable(Arrays.asList(9, 10)),
+        second.getQuery().getBindVariables().get("ids"));
+  }
+
+  private static ShardReference shard(String name, byte[] start, byte[] end) {
+    return ShardReference.newBuilder()
+        .setName(name)
+        .setKeyRange(
+            KeyRange.newBuilder()
+                .setStart(ByteString.copyFrom(start))
+                .setEnd(ByteString.copyFrom(end)))
+        .build();
+  }
+}
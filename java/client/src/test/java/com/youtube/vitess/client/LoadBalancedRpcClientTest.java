@@ -0,0 +1,134 @@
+package com.youtube.vitess.client;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.youtube.vitess.client.LoadBalancedRpcClient.Strategy;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteResponse;
+
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class LoadBalancedRpcClientTest {
+  @Test
+  public void testLeastOutstanding() throws Exception {
+    PendingClient busy = new PendingClient();
+    PendingClient idle = new PendingClient();
+    try (LoadBalancedRpcClient client =
+        new LoadBalancedRpcClient(
+            Arrays.asList(busy, idle), Strategy.LEAST_OUTSTANDING, Duration.standardSeconds(30))) {
+      // With two clients, both are always compared, so calls alternate as they pile up.
+      for (int i = 0; i < 10; i++) {
+        client.execute(Context.getDefault(), ExecuteRequest.getDefaultInstance());
+      }
+      Assert.assertEquals(Arrays.asList(5, 5), client.getOutstanding());
+
+      // Completing calls on one client makes it preferred.
+      for (SettableFuture<ExecuteResponse> future : idle.pending) {
+        future.set(ExecuteResponse.getDefaultInstance());
+      }
+      Assert.assertEquals(Arrays.asList(5, 0), client.getOutstanding());
+      for (int i = 0; i < 5; i++) {
+        client.execute(Context.getDefault(), ExecuteRequest.getDefaultInstance());
+      }
+      Assert.assertEquals(5, busy.pending.size());
+      Assert.assertEquals(10, idle.pending.size());
+    }
+  }
+
+  @Test
+  public void testPeakEwmaPrefersFasterClient() throws Exception {
+    PendingClient slow = new PendingClient();
+    PendingClient fast = new PendingClient();
+    try (LoadBalancedRpcClient client =
+        new LoadBalancedRpcClient(
+            Arrays.asList(slow, fast), Strategy.PEAK_EWMA, Duration.standardSeconds(30))) {
+      // The first call goes to either client, and is answered right away.
+      client.execute(Context.getDefault(), ExecuteRequest.getDefaultInstance());
+      PendingClient first = slow.pending.isEmpty() ? fast : slow;
+      PendingClient second = first == slow ? fast : slow;
+      first.pending.get(0).set(ExecuteResponse.getDefaultInstance());
+      // The second call goes to the client without samples yet, and takes longer.
+      client.execute(Context.getDefault(), ExecuteRequest.getDefaultInstance());
+      Assert.assertEquals(1, second.pending.size());
+      Thread.sleep(50);
+      second.pending.get(0).set(ExecuteResponse.getDefaultInstance());
+      // Now the first client is preferred.
+      for (int i = 0; i < 3; i++) {
+        client.execute(Context.getDefault(), ExecuteRequest.getDefaultInstance());
+        first.pending.get(first.pending.size() - 1).set(ExecuteResponse.getDefaultInstance());
+      }
+      Assert.assertEquals(4, first.pending.size());
+      Assert.assertEquals(1, second.pending.size());
+    }
+  }
+
+  @Test
+  public void testEjectsUnavailableClient() throws Exception {
+    final AtomicInteger badCalls = new AtomicInteger();
+    RpcClient bad =
+        new FakeRpcClient() {
+          @Override
+          public ListenableFuture<ExecuteResponse> execute(Context ctx, ExecuteRequest request) {
+            badCalls.incrementAndGet();
+            return Futures.immediateFailedFuture(new SQLTransientException("UNAVAILABLE"));
+          }
+        };
+    PendingClient good = new PendingClient();
+    try (LoadBalancedRpcClient client =
+        new LoadBalancedRpcClient(
+            Arrays.asList(bad, good), Strategy.LEAST_OUTSTANDING, Duration.standardSeconds(30))) {
+      // The bad client has no outstanding calls, so it's picked until it's ejected.
+      for (int i = 0; i < 10; i++) {
+        client.execute(Context.getDefault(), ExecuteRequest.getDefaultInstance());
+      }
+      Assert.assertEquals(LoadBalancedRpcClient.EJECTION_THRESHOLD, badCalls.get());
+    }
+  }
+
+  @Test
+  public void testQueryErrorsDoNotEject() throws Exception {
+    final AtomicInteger badCalls = new AtomicInteger();
+    RpcClient bad =
+        new FakeRpcClient() {
+          @Override
+          public ListenableFuture<ExecuteResponse> execute(Context ctx, ExecuteRequest request) {
+            badCalls.incrementAndGet();
+            return Futures.immediateFailedFuture(new SQLSyntaxErrorException("bad query"));
+          }
+        };
+    PendingClient good = new PendingClient();
+    try (LoadBalancedRpcClient client =
+        new LoadBalancedRpcClient(
+            Arrays.asList(bad, good), Strategy.LEAST_OUTSTANDING, Duration.standardSeconds(30))) {
+      for (int i = 0; i < 10; i++) {
+        client.execute(Context.getDefault(), ExecuteRequest.getDefaultInstance());
+      }
+      Assert.assertTrue(badCalls.get() > LoadBalancedRpcClient.EJECTION_THRESHOLD);
+    }
+  }
+
+  private static class PendingClient extends FakeRpcClient {
+    final List<SettableFuture<ExecuteResponse>> pending = new ArrayList<>();
+
+    @Override
+    public ListenableFuture<ExecuteResponse> execute(Context ctx, ExecuteRequest request) {
+      SettableFuture<ExecuteResponse> future = SettableFuture.create();
+      pending.add(future);
+      return future;
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package com.youtube.vitess.client;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.youtube.vitess.client.cursor.Cursor;
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtrpc.ErrorCode;
+import com.youtube.vitess.proto.Vtrpc.RPCError;
+
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class LookupCoalescerTest {
+  private static final String QUERY = "select * from t where id = :id";
+  private static final String KEYSPACE = "test_keyspace";
+
+  private final List<ExecuteBatchKeyspaceIdsRequest> requests =
+      Collections.synchronizedList(new ArrayList<ExecuteBatchKeyspaceIdsRequest>());
+
+  /**
+   * Echoes back one QueryResult per query, with rowsAffected set to the query's index.
+   */
+  private final RpcClient echoClient =
+      new FakeRpcClient() {
+        @Override
+        public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> executeBatchKeyspaceIds(
+            Context ctx, ExecuteBatchKeyspaceIdsRequest request) {
+          requests.add(request);
+          ExecuteBatchKeyspaceIdsResponse.Builder response =
+              ExecuteBatchKeyspaceIdsResponse.newBuilder();
+          for (int i = 0; i < request.getQueriesCount(); i++) {
+            response.addResults(QueryResult.newBuilder().setRowsAffected(i));
+          }
+          return Futures.immediateFuture(response.build());
+        }
+      };
+
+  @Test
+  public void testFlushWhenFull() throws Exception {
+    try (LookupCoalescer coalescer =
+        new LookupCoalescer(new VTGateConn(echoClient), 3, Duration.standardHours(1))) {
+      List<SQLFuture<Cursor>> futures = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        futures.add(
+            coalescer.executeKeyspaceIds(
+                Context.getDefault(),
+                QUERY,
+                KEYSPACE,
+                Arrays.asList(new byte[] {(byte) i}),
+                Collections.singletonMap("id", i),
+                TabletType.REPLICA));
+      }
+      for (int i = 0; i < 3; i++) {
+        Assert.assertEquals(i, futures.get(i).checkedGet().getRowsAffected());
+      }
+      Assert.assertEquals(1, requests.size());
+      Assert.assertEquals(3, requests.get(0).getQueriesCount());
+      Assert.assertFalse(requests.get(0).getAsTransaction());
+    }
+  }
+
+  @Test
+  public void testFlushAfterDelay() throws Exception {
+    try (LookupCoalescer coalescer =
+        new LookupCoalescer(new VTGateConn(echoClient), 100, Duration.millis(10))) {
+      SQLFuture<Cursor> future =
+          coalescer.executeKeyspaceIds(
+              Context.getDefault(),
+              QUERY,
+              KEYSPACE,
+              Arrays.asList(new byte[] {1}),
+              null,
+              TabletType.REPLICA);
+      Assert.assertEquals(0, future.checkedGet().getRowsAffected());
+      Assert.assertEquals(1, requests.size());
+    }
+  }
+
+  @Test
+  public void testDifferentShapesAreNotMerged() throws Exception {
+    try (LookupCoalescer coalescer =
+        new LookupCoalescer(new VTGateConn(echoClient), 100, Duration.standardHours(1))) {
+      SQLFuture<Cursor> replica =
+          coalescer.executeKeyspaceIds(
+              Context.getDefault(),
+              QUERY,
+              KEYSPACE,
+              Arrays.asList(new byte[] {1}),
+              null,
+              TabletType.REPLICA);
+      SQLFuture<Cursor> rdonly =
+          coalescer.executeKeyspaceIds(
+              Context.getDefault(),
+              QUERY,
+              KEYSPACE,
+              Arrays.asList(new byte[] {1}),
+              null,
+              TabletType.RDONLY);
+      Assert.assertFalse(replica.isDone());
+      coalescer.close();
+      replica.checkedGet();
+      rdonly.checkedGet();
+      Assert.assertEquals(2, requests.size());
+    }
+  }
+
+  @Test
+  public void testRequestAfterClose() throws Exception {
+    LookupCoalescer coalescer =
+        new LookupCoalescer(new VTGateConn(echoClient), 2, Duration.standardHours(1));
+    coalescer.close();
+    // Neither request may be left waiting in a batch that is never flushed.
+    for (int i = 0; i < 2; i++) {
+      SQLFuture<Cursor> future =
+          coalescer.executeKeyspaceIds(
+              Context.getDefault(),
+              QUERY,
+              KEYSPACE,
+              Arrays.asList(new byte[] {1}),
+              null,
+              TabletType.REPLICA);
+      try {
+        future.checkedGet();
+        Assert.fail("expected SQLException");
+      } catch (SQLException e) {
+        Assert.assertTrue(e instanceof SQLDataException);
+      }
+    }
+    Assert.assertEquals(0, requests.size());
+  }
+
+  @Test
+  public void testBatchErrorFailsAllRequests() throws Exception {
+    RpcClient errorClient =
+        new FakeRpcClient() {
+          @Override
+          public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> executeBatchKeyspaceIds(
+              Context ctx, ExecuteBatchKeyspaceIdsRequest request) {
+            return Futures.immediateFuture(
+                ExecuteBatchKeyspaceIdsResponse.newBuilder()
+                    .setError(RPCError.newBuilder().setCode(ErrorCode.TRANSIENT_ERROR))
+                    .build());
+          }
+        };
+    try (LookupCoalescer coalescer =
+        new LookupCoalescer(new VTGateConn(errorClient), 2, Duration.standardHours(1))) {
+      List<SQLFuture<Cursor>> futures = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        futures.add(
+            coalescer.executeKeyspaceIds(
+                Context.getDefault(),
+                QUERY,
+                KEYSPACE,
+                Arrays.asList(new byte[] {(byte) i}),
+                null,
+                TabletType.REPLICA));
+      }
+      for (SQLFuture<Cursor> future : futures) {
+        try {
+          future.checkedGet();
+          Assert.fail("expected SQLException");
+        } catch (SQLException e) {
+          Assert.assertTrue(e instanceof SQLTransientException);
+        }
+      }
+    }
+  }
+}
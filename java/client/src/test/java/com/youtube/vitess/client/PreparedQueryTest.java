@@ -0,0 +1,56 @@
+package com.youtube.vitess.client;
+
+import com.google.common.collect.ImmutableMap;
+
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.StreamExecuteRequest;
+import com.youtube.vitess.proto.Vtrpc.CallerID;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class PreparedQueryTest {
+  private static final String SQL = "select * from t where id in ::ids and name = :name";
+  private static final Map<String, ?> BIND_VARS =
+      ImmutableMap.of("ids", Arrays.asList(1L, 2L), "name", "caf\u00e9");
+
+  @Test
+  public void testExecuteRequest() throws Exception {
+    CallerID callerId = CallerID.newBuilder().setPrincipal("user").build();
+    Context ctx = Context.getDefault().withCallerId(callerId);
+    PreparedQuery query = new PreparedQuery(SQL, "ks", TabletType.REPLICA);
+
+    ExecuteRequest expected =
+        ExecuteRequest.newBuilder()
+            .setCallerId(callerId)
+            .setQuery(Proto.bindQuery(SQL, BIND_VARS))
+            .setTabletType(TabletType.REPLICA)
+            .setKeyspace("ks")
+            .build();
+    // The same template is reused for each execution.
+    for (int i = 0; i < 2; i++) {
+      Assert.assertEquals(expected, query.newExecuteRequest(ctx, BIND_VARS).build());
+    }
+    Assert.assertEquals(SQL, query.getSql());
+  }
+
+  @Test
+  public void testStreamExecuteRequest() throws Exception {
+    PreparedQuery query = new PreparedQuery(SQL, TabletType.RDONLY);
+    StreamExecuteRequest expected =
+        StreamExecuteRequest.newBuilder()
+            .setQuery(Proto.bindQuery(SQL, null))
+            .setTabletType(TabletType.RDONLY)
+            .build();
+    Assert.assertEquals(
+        expected, query.newStreamExecuteRequest(Context.getDefault(), null).build());
+    Assert.assertNull(query.getKeyspace());
+  }
+}
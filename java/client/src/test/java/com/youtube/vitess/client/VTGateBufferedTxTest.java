@@ -0,0 +1,173 @@
+package com.youtube.vitess.client;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.youtube.vitess.client.cursor.Cursor;
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class VTGateBufferedTxTest {
+  private static final List<byte[]> IDS = Arrays.asList(new byte[] {1});
+
+  private final List<ExecuteBatchKeyspaceIdsRequest> requests = new ArrayList<>();
+  private final List<ExecuteBatchShardsRequest> shardRequests = new ArrayList<>();
+
+  /**
+   * Echoes back one QueryResult per query, with rowsAffected set to the query's index (plus 7 for
+   * shards), and fails batches with a query named "duplicate".
+   */
+  private final VTGateConn conn =
+      new VTGateConn(
+          new FakeRpcClient() {
+            @Override
+            public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> executeBatchKeyspaceIds(
+                Context ctx, ExecuteBatchKeyspaceIdsRequest request) {
+              requests.add(request);
+              ExecuteBatchKeyspaceIdsResponse.Builder response =
+                  ExecuteBatchKeyspaceIdsResponse.newBuilder();
+              for (int i = 0; i < request.getQueriesCount(); i++) {
+                if (request.getQueries(i).getQuery().getSql().equals("duplicate")) {
+                  return Futures.immediateFailedFuture(
+                      new SQLIntegrityConstraintViolationException("duplicate"));
+                }
+                response.addResults(QueryResult.newBuilder().setRowsAffected(i));
+              }
+              return Futures.immediateFuture(response.build());
+            }
+
+            @Override
+            public ListenableFuture<ExecuteBatchShardsResponse> executeBatchShards(
+                Context ctx, ExecuteBatchShardsRequest request) {
+              shardRequests.add(request);
+              Assert.assertTrue(request.getAsTransaction());
+              ExecuteBatchShardsResponse.Builder response = ExecuteBatchShardsResponse.newBuilder();
+              for (int i = 0; i < request.getQueriesCount(); i++) {
+                if (request.getQueries(i).getQuery().getSql().equals("duplicate")) {
+                  return Futures.immediateFailedFuture(
+                      new SQLIntegrityConstraintViolationException("duplicate"));
+                }
+                response.addResults(QueryResult.newBuilder().setRowsAffected(7 + i));
+              }
+              return Futures.immediateFuture(response.build());
+            }
+          });
+
+  @Test
+  public void testCommit() throws Exception {
+    VTGateBufferedTx tx = conn.beginBuffered();
+    SQLFuture<Cursor> first = tx.executeKeyspaceIds("insert 1", "ks", IDS, null);
+    SQLFuture<Cursor> second = tx.executeKeyspaceIds("insert 2", "ks", IDS, null);
+    // Nothing is sent before the commit.
+    Assert.assertTrue(requests.isEmpty());
+    Assert.assertFalse(first.isDone());
+
+    tx.commit(Context.getDefault()).checkedGet();
+    Assert.assertEquals(1, requests.size());
+    ExecuteBatchKeyspaceIdsRequest request = requests.get(0);
+    Assert.assertTrue(request.getAsTransaction());
+    Assert.assertFalse(request.hasSession());
+    Assert.assertEquals(TabletType.MASTER, request.getTabletType());
+    Assert.assertEquals("insert 2", request.getQueries(1).getQuery().getSql());
+    Assert.assertEquals(0, first.checkedGet().getRowsAffected());
+    Assert.assertEquals(1, second.checkedGet().getRowsAffected());
+
+    try {
+      tx.executeKeyspaceIds("insert 3", "ks", IDS, null);
+      Assert.fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCommitShards() throws Exception {
+    VTGateBufferedTx tx = conn.beginBuffered();
+    SQLFuture<Cursor> result = tx.executeShards("insert", "ks", Arrays.asList("-80"), null);
+    try {
+      tx.executeKeyspaceIds("insert", "ks", IDS, null);
+      Assert.fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    tx.commit(Context.getDefault()).checkedGet();
+    Assert.assertEquals(7, result.checkedGet().getRowsAffected());
+  }
+
+  @Test
+  public void testCommitMultiShard() throws Exception {
+    VTGateBufferedTx tx = conn.beginBuffered();
+    SQLFuture<Cursor> first = tx.executeShards("insert 1", "ks", Arrays.asList("-80"), null);
+    SQLFuture<Cursor> second = tx.executeShards("insert 2", "ks", Arrays.asList("80-"), null);
+    tx.commit(Context.getDefault()).checkedGet();
+    // All shards go in one batch, which vtgate commits with one transaction per shard.
+    Assert.assertEquals(1, shardRequests.size());
+    ExecuteBatchShardsRequest request = shardRequests.get(0);
+    Assert.assertEquals(2, request.getQueriesCount());
+    Assert.assertEquals("-80", request.getQueries(0).getShards(0));
+    Assert.assertEquals("80-", request.getQueries(1).getShards(0));
+    Assert.assertEquals(7, first.checkedGet().getRowsAffected());
+    Assert.assertEquals(8, second.checkedGet().getRowsAffected());
+
+    // If one shard fails, the statements of the other shards fail too, though they may have
+    // been committed.
+    tx = conn.beginBuffered();
+    first = tx.executeShards("insert 1", "ks", Arrays.asList("-80"), null);
+    tx.executeShards("duplicate", "ks", Arrays.asList("80-"), null);
+    try {
+      tx.commit(Context.getDefault()).checkedGet();
+      Assert.fail("expected SQLIntegrityConstraintViolationException");
+    } catch (SQLIntegrityConstraintViolationException e) {
+      // expected
+    }
+    try {
+      first.checkedGet();
+      Assert.fail("expected SQLIntegrityConstraintViolationException");
+    } catch (SQLIntegrityConstraintViolationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCommitFailure() throws Exception {
+    VTGateBufferedTx tx = conn.beginBuffered();
+    SQLFuture<Cursor> first = tx.executeKeyspaceIds("insert", "ks", IDS, null);
+    tx.executeKeyspaceIds("duplicate", "ks", IDS, null);
+    try {
+      tx.commit(Context.getDefault()).checkedGet();
+      Assert.fail("expected SQLIntegrityConstraintViolationException");
+    } catch (SQLIntegrityConstraintViolationException e) {
+      // expected
+    }
+    try {
+      first.checkedGet();
+      Assert.fail("expected SQLIntegrityConstraintViolationException");
+    } catch (SQLIntegrityConstraintViolationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRollback() throws Exception {
+    VTGateBufferedTx tx = conn.beginBuffered();
+    SQLFuture<Cursor> result = tx.executeKeyspaceIds("insert", "ks", IDS, null);
+    tx.rollback();
+    Assert.assertTrue(result.isCancelled());
+    Assert.assertTrue(requests.isEmpty());
+  }
+}
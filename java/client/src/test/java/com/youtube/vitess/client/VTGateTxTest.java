@@ -0,0 +1,239 @@
+package com.youtube.vitess.client;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.youtube.vitess.client.cursor.Cursor;
+import com.youtube.vitess.proto.Query.QueryResult;
+import com.youtube.vitess.proto.Topodata.TabletType;
+import com.youtube.vitess.proto.Vtgate.BeginRequest;
+import com.youtube.vitess.proto.Vtgate.BeginResponse;
+import com.youtube.vitess.proto.Vtgate.CommitRequest;
+import com.youtube.vitess.proto.Vtgate.CommitResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchKeyspaceIdsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteBatchShardsResponse;
+import com.youtube.vitess.proto.Vtgate.ExecuteRequest;
+import com.youtube.vitess.proto.Vtgate.ExecuteResponse;
+import com.youtube.vitess.proto.Vtgate.Session;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+@RunWith(JUnit4.class)
+public class VTGateTxTest {
+  private static final Session SESSION = Session.newBuilder().setInTransaction(true).build();
+
+  private final List<Session> sessions = new ArrayList<>();
+
+  /**
+   * Records the sessions it receives, and echoes back the session with one more shard session.
+   */
+  private final RpcClient txClient =
+      new FakeRpcClient() {
+        @Override
+        public ListenableFuture<BeginResponse> begin(Context ctx, BeginRequest request) {
+          return Futures.immediateFuture(BeginResponse.newBuilder().setSession(SESSION).build());
+        }
+
+        @Override
+        public ListenableFuture<ExecuteResponse> execute(Context ctx, ExecuteRequest request) {
+          sessions.add(request.getSession());
+          return Futures.immediateFuture(
+              ExecuteResponse.newBuilder()
+                  .setSession(nextSession(request.getSession()))
+                  .setResult(QueryResult.newBuilder().setRowsAffected(1))
+                  .build());
+        }
+
+        @Override
+        public ListenableFuture<ExecuteBatchShardsResponse> executeBatchShards(
+            Context ctx, ExecuteBatchShardsRequest request) {
+          sessions.add(request.getSession());
+          ExecuteBatchShardsResponse.Builder response =
+              ExecuteBatchShardsResponse.newBuilder().setSession(nextSession(request.getSession()));
+          for (int i = 0; i < request.getQueriesCount(); i++) {
+            response.addResults(QueryResult.newBuilder().setRowsAffected(100 + i));
+          }
+          return Futures.immediateFuture(response.build());
+        }
+
+        @Override
+        public ListenableFuture<ExecuteBatchKeyspaceIdsResponse> executeBatchKeyspaceIds(
+            Context ctx, ExecuteBatchKeyspaceIdsRequest request) throws SQLException {
+          if (request.getQueries(0).getQuery().getSql().equals("throw")) {
+            throw new SQLNonTransientConnectionException("can't send");
+          }
+          sessions.add(request.getSession());
+          if (request.getQueries(0).getQuery().getSql().equals("fail")) {
+            return Futures.immediateFailedFuture(new SQLTransientException("batch failed"));
+          }
+          ExecuteBatchKeyspaceIdsResponse.Builder response =
+              ExecuteBatchKeyspaceIdsResponse.newBuilder()
+                  .setSession(nextSession(request.getSession()));
+          for (int i = 0; i < request.getQueriesCount(); i++) {
+            response.addResults(QueryResult.newBuilder().setRowsAffected(i));
+          }
+          return Futures.immediateFuture(response.build());
+        }
+
+        @Override
+        public ListenableFuture<CommitResponse> commit(Context ctx, CommitRequest request) {
+          sessions.add(request.getSession());
+          return Futures.immediateFuture(CommitResponse.getDefaultInstance());
+        }
+      };
+
+  private static Session nextSession(Session session) {
+    return session.toBuilder().addShardSessions(Session.ShardSession.getDefaultInstance()).build();
+  }
+
+  @Test
+  public void testSessionIsUpdated() throws Exception {
+    Context ctx = Context.getDefault();
+    VTGateTx tx = new VTGateConn(txClient).begin(ctx).checkedGet();
+    tx.execute(ctx, "insert", null, TabletType.MASTER).checkedGet();
+    tx.execute(ctx, "insert", null, TabletType.MASTER).checkedGet();
+    tx.commit(ctx).checkedGet();
+
+    Assert.assertEquals(3, sessions.size());
+    for (int i = 0; i < sessions.size(); i++) {
+      Assert.assertEquals(i, sessions.get(i).getShardSessionsCount());
+    }
+    try {
+      tx.execute(ctx, "insert", null, TabletType.MASTER);
+      Assert.fail("expected SQLDataException");
+    } catch (SQLDataException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testExecutor() throws Exception {
+    final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+    Context ctx =
+        Context.getDefault()
+            .withExecutor(
+                new Executor() {
+                  @Override
+                  public void execute(Runnable command) {
+                    tasks.add(command);
+                  }
+                });
+
+    SQLFuture<VTGateTx> begin = new VTGateConn(txClient).begin(ctx);
+    // The response is only processed once the executor runs the task.
+    Assert.assertFalse(begin.isDone());
+    Assert.assertEquals(1, tasks.size());
+    tasks.remove(0).run();
+    VTGateTx tx = begin.checkedGet();
+
+    SQLFuture<Cursor> execute = tx.execute(ctx, "insert", null, TabletType.MASTER);
+    Assert.assertFalse(execute.isDone());
+    try {
+      tx.commit(ctx);
+      Assert.fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    tasks.remove(0).run();
+    Assert.assertEquals(1, execute.checkedGet().getRowsAffected());
+  }
+
+  @Test
+  public void testPipeline() throws Exception {
+    Context ctx = Context.getDefault();
+    VTGateTx tx = new VTGateConn(txClient).begin(ctx).checkedGet();
+    List<byte[]> ids = Arrays.asList(new byte[] {1});
+    List<SQLFuture<Cursor>> results = new ArrayList<>();
+    results.add(tx.queueExecuteKeyspaceIds("insert", "ks", ids, null));
+    results.add(tx.queueExecuteKeyspaceIds("insert", "ks", ids, null));
+    results.add(tx.queueExecuteShards("insert", "ks", Arrays.asList("-80"), null));
+    results.add(tx.queueExecuteKeyspaceIds("insert", "ks", ids, null));
+    try {
+      tx.commit(ctx);
+      Assert.fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    Assert.assertTrue(sessions.isEmpty());
+
+    tx.flush(ctx, TabletType.MASTER).checkedGet();
+    // One RPC per run of statements of the same kind, each with the session of the last one.
+    Assert.assertEquals(3, sessions.size());
+    for (int i = 0; i < sessions.size(); i++) {
+      Assert.assertEquals(i, sessions.get(i).getShardSessionsCount());
+    }
+    long[] expected = {0, 1, 100, 0};
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertEquals(expected[i], results.get(i).checkedGet().getRowsAffected());
+    }
+    tx.commit(ctx).checkedGet();
+  }
+
+  @Test
+  public void testPipelineFailure() throws Exception {
+    Context ctx = Context.getDefault();
+    VTGateTx tx = new VTGateConn(txClient).begin(ctx).checkedGet();
+    List<byte[]> ids = Arrays.asList(new byte[] {1});
+    SQLFuture<Cursor> sent = tx.queueExecuteShards("insert", "ks", Arrays.asList("-80"), null);
+    SQLFuture<Cursor> failed = tx.queueExecuteKeyspaceIds("fail", "ks", ids, null);
+    try {
+      tx.flush(ctx, TabletType.MASTER).checkedGet();
+      Assert.fail("expected SQLTransientException");
+    } catch (SQLTransientException e) {
+      // expected
+    }
+    Assert.assertEquals(100, sent.checkedGet().getRowsAffected());
+    try {
+      failed.checkedGet();
+      Assert.fail("expected SQLTransientException");
+    } catch (SQLTransientException e) {
+      // expected
+    }
+
+    // Rolling back discards statements that were never flushed.
+    SQLFuture<Cursor> discarded = tx.queueExecuteKeyspaceIds("insert", "ks", ids, null);
+    tx.rollback(ctx);
+    Assert.assertTrue(discarded.isCancelled());
+  }
+
+  @Test
+  public void testPipelineSendFailure() throws Exception {
+    Context ctx = Context.getDefault();
+    VTGateTx tx = new VTGateConn(txClient).begin(ctx).checkedGet();
+    List<byte[]> ids = Arrays.asList(new byte[] {1});
+    SQLFuture<Cursor> first = tx.queueExecuteKeyspaceIds("throw", "ks", ids, null);
+    SQLFuture<Cursor> second = tx.queueExecuteShards("insert", "ks", Arrays.asList("-80"), null);
+    try {
+      tx.flush(ctx, TabletType.MASTER);
+      Assert.fail("expected SQLNonTransientConnectionException");
+    } catch (SQLNonTransientConnectionException e) {
+      // expected
+    }
+    // The statements that were dequeued fail instead of being lost.
+    for (SQLFuture<Cursor> result : Arrays.asList(first, second)) {
+      try {
+        result.checkedGet();
+        Assert.fail("expected SQLNonTransientConnectionException");
+      } catch (SQLNonTransientConnectionException e) {
+        // expected
+      }
+    }
+    // Nothing is left queued or in flight, so the transaction can still be ended.
+    tx.commit(ctx).checkedGet();
+  }
+}
@@ -0,0 +1,110 @@
+package com.youtube.vitess.client;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.UnsignedLong;
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.proto.Query;
+import com.youtube.vitess.proto.Query.BindVariable;
+import com.youtube.vitess.proto.Vtgate.ExecuteEntityIdsRequest.EntityId;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ValueEncoderTest {
+  @Test
+  public void testNumbers() throws Exception {
+    for (long value :
+        new long[] {0, 7, -7, 10, -10, 999999999999999999L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      Assert.assertEquals(
+          ByteString.copyFromUtf8(Long.toString(value)),
+          Proto.buildBindVariable(value).getValue());
+    }
+    for (UnsignedLong value :
+        Arrays.asList(
+            UnsignedLong.ZERO,
+            UnsignedLong.fromLongBits(Long.MIN_VALUE),
+            UnsignedLong.fromLongBits(-10),
+            UnsignedLong.MAX_VALUE)) {
+      Assert.assertEquals(
+          ByteString.copyFromUtf8(value.toString()), Proto.buildBindVariable(value).getValue());
+    }
+  }
+
+  @Test
+  public void testUtf8() throws Exception {
+    // ASCII, 2-byte, 3-byte and 4-byte characters, and an unpaired surrogate.
+    String value = "a\u00e9\u4e2d\ud83d\ude00\ud83d!";
+    StringBuilder longValue = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      longValue.append(value);
+    }
+    // Strings in a list go through the encoder; a single string is copied directly.
+    for (String string : Arrays.asList(value, longValue.toString())) {
+      Assert.assertEquals(
+          ByteString.copyFromUtf8(string), Proto.buildBindVariable(string).getValue());
+      Assert.assertEquals(
+          ByteString.copyFromUtf8(string),
+          Proto.buildBindVariable(Arrays.asList(string)).getValues(0).getValue());
+    }
+  }
+
+  @Test
+  public void testTuple() throws Exception {
+    List<Object> values = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      values.add((long) i);
+    }
+    values.add("x");
+    values.add(new byte[] {1, 2});
+    values.add(null);
+    values.add(new BigDecimal("1.50"));
+    values.add(true);
+
+    BindVariable.Builder expected = BindVariable.newBuilder().setType(Query.Type.TUPLE);
+    for (Object value : values) {
+      BindVariable single = Proto.buildBindVariable(value);
+      expected.addValues(
+          Query.Value.newBuilder().setType(single.getType()).setValue(single.getValue()));
+    }
+    Assert.assertEquals(expected.build(), Proto.buildBindVariable(values));
+  }
+
+  @Test
+  public void testKeyspaceIds() throws Exception {
+    List<byte[]> keyspaceIds = Arrays.asList(new byte[] {1, 2, 3}, new byte[] {}, new byte[] {4});
+    Assert.assertEquals(
+        Arrays.asList(
+            ByteString.copyFrom(new byte[] {1, 2, 3}),
+            ByteString.EMPTY,
+            ByteString.copyFrom(new byte[] {4})),
+        Proto.toByteStrings(keyspaceIds));
+
+    byte[] first = new byte[] {1, 2};
+    byte[] second = new byte[] {3};
+    Assert.assertEquals(
+        Arrays.asList(Proto.buildEntityId(first, 5), Proto.buildEntityId(second, "a")),
+        Proto.buildEntityIds(ImmutableMap.<byte[], Object>of(first, 5, second, "a").entrySet()));
+  }
+
+  @Test
+  public void testReuseAfterLargeRequest() throws Exception {
+    // A request bigger than the pooled buffer, followed by a small one on the same thread.
+    Proto.buildBindVariable(Arrays.asList(new byte[100000], new byte[1]));
+    EntityId expected =
+        EntityId.newBuilder()
+            .setKeyspaceId(ByteString.copyFrom(new byte[] {9}))
+            .setType(Query.Type.INT64)
+            .setValue(ByteString.copyFromUtf8("1"))
+            .build();
+    Assert.assertEquals(expected, Proto.buildEntityId(new byte[] {9}, 1));
+  }
+}
@@ -0,0 +1,213 @@
+package com.youtube.vitess.client.cursor;
+
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.client.cursor.AggregateCombiner.Aggregate;
+import com.youtube.vitess.proto.Query;
+import com.youtube.vitess.proto.Query.Field;
+import com.youtube.vitess.proto.Query.QueryResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLDataException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class AggregateCombinerTest {
+  private static final List<Field> FIELDS =
+      Arrays.asList(
+          Field.newBuilder().setName("type").setType(Query.Type.INT64).build(),
+          Field.newBuilder().setName("cnt").setType(Query.Type.INT64).build(),
+          Field.newBuilder().setName("total").setType(Query.Type.DECIMAL).build(),
+          Field.newBuilder().setName("lo").setType(Query.Type.INT64).build(),
+          Field.newBuilder().setName("hi").setType(Query.Type.INT64).build());
+
+  private static final List<Aggregate> AGGREGATES =
+      Arrays.asList(
+          Aggregate.groupBy(),
+          Aggregate.count(),
+          Aggregate.sum(),
+          Aggregate.min(),
+          Aggregate.max());
+
+  @Test
+  public void testGroupByInteger() throws Exception {
+    AggregateCombiner combiner = new AggregateCombiner(AGGREGATES);
+    combiner.add(result(FIELDS, row("1", "2", "10", "3", "7"), row("2", "1", "5", "5", "5")));
+    combiner.add(result(FIELDS, row("2", "3", "6", "1", "4"), row(null, "1", null, null, null)));
+    combiner.add(result(FIELDS, row("1", "1", "1.5", "-2", "2")));
+
+    Assert.assertEquals(
+        Arrays.asList(
+            Arrays.asList("1", "3", "11.5", "-2", "7"),
+            Arrays.asList("2", "4", "11", "1", "5"),
+            Arrays.asList(null, "1", null, null, null)),
+        values(combiner.getResult()));
+  }
+
+  @Test
+  public void testGroupByMultipleColumns() throws Exception {
+    List<Field> fields =
+        Arrays.asList(
+            Field.newBuilder().setName("a").setType(Query.Type.VARCHAR).build(),
+            Field.newBuilder().setName("b").setType(Query.Type.VARCHAR).build(),
+            Field.newBuilder().setName("cnt").setType(Query.Type.INT64).build(),
+            Field.newBuilder().setName("hi").setType(Query.Type.VARCHAR).build());
+    AggregateCombiner combiner =
+        new AggregateCombiner(
+            Arrays.asList(
+                Aggregate.groupBy(), Aggregate.groupBy(), Aggregate.count(), Aggregate.max()));
+    combiner.add(result(fields, row("x", "y", "1", "abc"), row("x", null, "2", "b")));
+    combiner.add(result(fields, row("x", "y", "4", "abd"), row("xy", "", "1", "a")));
+
+    Assert.assertEquals(
+        Arrays.asList(
+            Arrays.asList("x", "y", "5", "abd"),
+            Arrays.asList("x", null, "2", "b"),
+            Arrays.asList("xy", "", "1", "a")),
+        values(combiner.getResult()));
+  }
+
+  @Test
+  public void testNoGroupBy() throws Exception {
+    List<Field> fields =
+        Arrays.asList(
+            Field.newBuilder().setName("cnt").setType(Query.Type.INT64).build(),
+            Field.newBuilder().setName("total").setType(Query.Type.FLOAT64).build());
+    AggregateCombiner combiner =
+        new AggregateCombiner(Arrays.asList(Aggregate.count(), Aggregate.sum()));
+    combiner.add(result(fields, row("2", "1.5")));
+    combiner.add(result(fields, row("0", null)));
+    combiner.add(result(fields, row("1", "2.25")));
+
+    Assert.assertEquals(
+        Arrays.asList(Arrays.asList("3", "3.75")), values(combiner.getResult()));
+  }
+
+  @Test
+  public void testNoGroupByNoRows() throws Exception {
+    List<Field> fields =
+        Arrays.asList(
+            Field.newBuilder().setName("cnt").setType(Query.Type.INT64).build(),
+            Field.newBuilder().setName("total").setType(Query.Type.INT64).build(),
+            Field.newBuilder().setName("lo").setType(Query.Type.INT64).build(),
+            Field.newBuilder().setName("hi").setType(Query.Type.INT64).build(),
+            Field.newBuilder().setName("avg").setType(Query.Type.DECIMAL).build());
+    AggregateCombiner combiner =
+        new AggregateCombiner(
+            Arrays.asList(
+                Aggregate.count(),
+                Aggregate.sum(),
+                Aggregate.min(),
+                Aggregate.max(),
+                Aggregate.avg(1)));
+    combiner.add(result(fields));
+    combiner.add(result(fields));
+
+    // MySQL returns a single row for an aggregate without GROUP BY, even over no rows.
+    Assert.assertEquals(
+        Arrays.asList(Arrays.asList("0", null, null, null, null)), values(combiner.getResult()));
+  }
+
+  @Test
+  public void testGroupByNoRows() throws Exception {
+    AggregateCombiner combiner = new AggregateCombiner(AGGREGATES);
+    combiner.add(result(FIELDS));
+
+    Assert.assertEquals(Arrays.asList(), values(combiner.getResult()));
+  }
+
+  @Test
+  public void testAverage() throws Exception {
+    List<Field> fields =
+        Arrays.asList(
+            Field.newBuilder().setName("avg").setType(Query.Type.DECIMAL).build(),
+            Field.newBuilder().setName("cnt").setType(Query.Type.INT64).build());
+    AggregateCombiner combiner =
+        new AggregateCombiner(Arrays.asList(Aggregate.avg(2), Aggregate.count()));
+    combiner.add(result(fields, row("10", "3")));
+    combiner.add(result(fields, row("0", "0")));
+    combiner.add(result(fields, row("1", "1")));
+
+    Assert.assertEquals(
+        Arrays.asList(Arrays.asList("2.7500", "4")), values(combiner.getResult()));
+  }
+
+  @Test
+  public void testSumOverflow() throws Exception {
+    List<Field> fields =
+        Arrays.asList(Field.newBuilder().setName("total").setType(Query.Type.DECIMAL).build());
+    AggregateCombiner combiner = new AggregateCombiner(Arrays.asList(Aggregate.sum()));
+    combiner.add(result(fields, row("900000000000000000"), row("900000000000000000")));
+    combiner.add(result(fields, row("99999999999999999999")));
+
+    Assert.assertEquals(
+        Arrays.asList(Arrays.asList("101799999999999999999")), values(combiner.getResult()));
+  }
+
+  @Test
+  public void testManyGroups() throws Exception {
+    AggregateCombiner combiner = new AggregateCombiner(AGGREGATES);
+    for (int shard = 0; shard < 3; shard++) {
+      QueryResult.Builder builder = QueryResult.newBuilder().addAllFields(FIELDS);
+      for (int i = 0; i < 1000; i++) {
+        String value = Integer.toString(i);
+        builder.addRows(row(value, "1", value, value, value));
+      }
+      combiner.add(builder.build());
+    }
+
+    List<List<String>> values = values(combiner.getResult());
+    Assert.assertEquals(1000, values.size());
+    Assert.assertEquals(Arrays.asList("999", "3", "2997", "999", "999"), values.get(999));
+  }
+
+  @Test
+  public void testColumnCountMismatch() throws Exception {
+    AggregateCombiner combiner = new AggregateCombiner(Arrays.asList(Aggregate.count()));
+    try {
+      combiner.add(result(FIELDS, row("1", "2", "3", "4", "5")));
+      Assert.fail("expected SQLDataException");
+    } catch (SQLDataException e) {
+      // expected
+    }
+  }
+
+  private static QueryResult result(List<Field> fields, Query.Row... rows) {
+    return QueryResult.newBuilder().addAllFields(fields).addAllRows(Arrays.asList(rows)).build();
+  }
+
+  private static Query.Row row(String... values) {
+    Query.Row.Builder builder = Query.Row.newBuilder();
+    StringBuilder buf = new StringBuilder();
+    for (String value : values) {
+      if (value == null) {
+        builder.addLengths(-1);
+      } else {
+        builder.addLengths(value.length());
+        buf.append(value);
+      }
+    }
+    return builder.setValues(ByteString.copyFromUtf8(buf.toString())).build();
+  }
+
+  private static List<List<String>> values(Cursor cursor) throws Exception {
+    List<List<String>> rows = new ArrayList<>();
+    Row row;
+    while ((row = cursor.next()) != null) {
+      List<String> values = new ArrayList<>();
+      for (int i = 1; i <= row.size(); i++) {
+        ByteString value = row.getRawValue(i);
+        values.add(value == null ? null : new String(value.toByteArray(), StandardCharsets.UTF_8));
+      }
+      rows.add(values);
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,142 @@
+package com.youtube.vitess.client.cursor;
+
+import com.google.common.primitives.UnsignedLong;
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.client.StreamIterator;
+import com.youtube.vitess.proto.Query;
+import com.youtube.vitess.proto.Query.Field;
+import com.youtube.vitess.proto.Query.QueryResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLDataException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+@RunWith(JUnit4.class)
+public class ColumnBatchTest {
+  private static final QueryResult FIELDS =
+      QueryResult.newBuilder()
+          .addFields(Field.newBuilder().setName("id").setType(Query.Type.INT64))
+          .addFields(Field.newBuilder().setName("big").setType(Query.Type.UINT64))
+          .addFields(Field.newBuilder().setName("score").setType(Query.Type.FLOAT64))
+          .addFields(Field.newBuilder().setName("name").setType(Query.Type.VARCHAR))
+          .build();
+
+  @Test
+  public void testSimpleCursorBatch() throws Exception {
+    QueryResult result =
+        FIELDS
+            .toBuilder()
+            .addRows(row("1", "18446744073709551615", "1.5", "alice"))
+            .addRows(row("-2", null, "-0.25", null))
+            .addRows(row(null, "0", null, ""))
+            .build();
+    try (Cursor cursor = new SimpleCursor(result)) {
+      ColumnBatch batch = cursor.nextBatch();
+      Assert.assertEquals(3, batch.getRowCount());
+      Assert.assertEquals(4, batch.getColumnCount());
+
+      int id = batch.findColumn("ID");
+      Assert.assertArrayEquals(new long[] {1, -2, 0}, batch.getLongs(id));
+      Assert.assertFalse(batch.isNull(id, 0));
+      Assert.assertTrue(batch.isNull(id, 2));
+
+      Assert.assertEquals(
+          UnsignedLong.MAX_VALUE, UnsignedLong.fromLongBits(batch.getLongs(2)[0]));
+      Assert.assertTrue(batch.isNull(2, 1));
+
+      Assert.assertArrayEquals(new double[] {1.5, -0.25, 0}, batch.getDoubles(3), 0);
+      Assert.assertTrue(batch.isNull(3, 2));
+
+      Assert.assertArrayEquals("alice".getBytes(), batch.getBytes(4));
+      Assert.assertArrayEquals(new int[] {0, 5, 5, 5}, batch.getOffsets(4));
+      Assert.assertTrue(batch.isNull(4, 1));
+      Assert.assertFalse(batch.isNull(4, 2));
+
+      Assert.assertNull(cursor.nextBatch());
+      Assert.assertNull(cursor.next());
+    }
+  }
+
+  @Test
+  public void testTypeMismatch() throws Exception {
+    QueryResult result = FIELDS.toBuilder().addRows(row("1", "2", "3", "4")).build();
+    try (Cursor cursor = new SimpleCursor(result)) {
+      ColumnBatch batch = cursor.nextBatch();
+      try {
+        batch.getDoubles(1);
+        Assert.fail("expected SQLDataException");
+      } catch (SQLDataException e) {
+        // expected
+      }
+      try {
+        batch.getLongs(4);
+        Assert.fail("expected SQLDataException");
+      } catch (SQLDataException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testStreamCursorBatches() throws Exception {
+    QueryResult first =
+        QueryResult.newBuilder()
+            .addRows(row("1", "1", "1", "a"))
+            .addRows(row("2", "2", "2", "b"))
+            .build();
+    QueryResult empty = QueryResult.getDefaultInstance();
+    QueryResult second = QueryResult.newBuilder().addRows(row("3", "3", "3", "c")).build();
+    try (Cursor cursor = new StreamCursor(stream(FIELDS, first, empty, second))) {
+      // A batch after next() has only the rows that are left in the chunk.
+      Assert.assertEquals(1, cursor.next().getLong(1));
+      ColumnBatch batch = cursor.nextBatch();
+      Assert.assertArrayEquals(new long[] {2}, batch.getLongs(1));
+
+      // Chunks without rows are skipped.
+      batch = cursor.nextBatch();
+      Assert.assertArrayEquals(new long[] {3}, batch.getLongs(1));
+      Assert.assertArrayEquals("c".getBytes(), batch.getBytes(4));
+
+      Assert.assertNull(cursor.nextBatch());
+    }
+  }
+
+  private static Query.Row row(String... values) {
+    Query.Row.Builder builder = Query.Row.newBuilder();
+    StringBuilder packed = new StringBuilder();
+    for (String value : values) {
+      if (value == null) {
+        builder.addLengths(-1);
+      } else {
+        builder.addLengths(value.length());
+        packed.append(value);
+      }
+    }
+    return builder.setValues(ByteString.copyFromUtf8(packed.toString())).build();
+  }
+
+  private static StreamIterator<QueryResult> stream(QueryResult... results) {
+    final Iterator<QueryResult> iterator = Arrays.asList(results).iterator();
+    return new StreamIterator<QueryResult>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public QueryResult next() throws NoSuchElementException {
+        return iterator.next();
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+}
@@ -7,6 +7,7 @@ import com.youtube.vitess.proto.Query;
 import com.youtube.vitess.proto.Query.Field;
 import com.youtube.vitess.proto.Query.QueryResult;
 
+import org.joda.time.LocalDateTime;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -15,8 +16,11 @@ import org.junit.runners.JUnit4;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Date;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
@@ -280,8 +284,15 @@ public class CursorTest {
         ts.setNanos(123456000);
         Assert.assertEquals(ts, row.getTimestamp("col1", GMT));
         Assert.assertFalse(row.wasNull());
+        Assert.assertEquals(
+            new LocalDateTime(2008, 1, 2, 14, 15, 16, 123), row.getLocalDateTime("col1"));
+        Assert.assertEquals(
+            Timestamp.valueOf("2008-01-02 14:15:16.123456").getTime() * 1000 + 456,
+            row.getTimestampMicros("col1"));
         Assert.assertEquals(null, row.getTimestamp("null"));
         Assert.assertTrue(row.wasNull());
+        Assert.assertEquals(0, row.getTimestampMicros("null"));
+        Assert.assertTrue(row.wasNull());
       }
     }
   }
@@ -386,4 +397,136 @@ public class CursorTest {
       Assert.assertTrue(row.wasNull());
     }
   }
+
+  @Test
+  public void testPackedCells() throws Exception {
+    try (Cursor cursor =
+            new SimpleCursor(
+                QueryResult.newBuilder()
+                    .addFields(Field.newBuilder().setName("a").setType(Query.Type.VARCHAR).build())
+                    .addFields(Field.newBuilder().setName("b").setType(Query.Type.VARCHAR).build())
+                    .addFields(Field.newBuilder().setName("c").setType(Query.Type.VARCHAR).build())
+                    .addFields(Field.newBuilder().setName("d").setType(Query.Type.VARCHAR).build())
+                    .addRows(
+                        Query.Row.newBuilder()
+                            .addLengths(3)
+                            .addLengths(-1) // SQL NULL
+                            .addLengths(0) // empty string
+                            .addLengths(2)
+                            .setValues(ByteString.copyFromUtf8("abcde")))
+                    .build())) {
+      Row row = cursor.next();
+      Assert.assertEquals(4, row.size());
+      // Read out of order, so cells are located by offset rather than in sequence.
+      Assert.assertArrayEquals("de".getBytes(), row.getBytes("d"));
+      Assert.assertArrayEquals(new byte[0], row.getBytes("c"));
+      Assert.assertFalse(row.wasNull());
+      Assert.assertEquals(null, row.getBytes("b"));
+      Assert.assertTrue(row.wasNull());
+      Assert.assertArrayEquals("abc".getBytes(), row.getBytes("a"));
+      Assert.assertEquals(ByteString.copyFromUtf8("de"), row.getRawValue(4));
+    }
+  }
+
+  @Test
+  public void testPrimitiveGettersMatchBoxedPath() throws Exception {
+    String[] doubles = {
+      "0", "-0", "1.5", "-12.25", "3.141592653589793", "0.1", "1e22", "1e-22", "1.", ".5",
+      "1.7976931348623157e308", "4.9e-324", "123456789012345678", "2E+3",
+      "1000000000000000000000000"
+    };
+    for (String text : doubles) {
+      Row row = singleValueRow(Query.Type.FLOAT64, text);
+      Assert.assertEquals(
+          text,
+          Double.doubleToRawLongBits(Double.valueOf(text)),
+          Double.doubleToRawLongBits(row.getDouble(2)));
+    }
+    Assert.assertEquals(
+        Long.MIN_VALUE, singleValueRow(Query.Type.INT64, "-9223372036854775808").getLong(2));
+    Assert.assertEquals(
+        Integer.MAX_VALUE, singleValueRow(Query.Type.INT32, "+2147483647").getInt(2));
+    Assert.assertEquals(1999, singleValueRow(Query.Type.YEAR, "1999").getShort(2));
+  }
+
+  @Test
+  public void testPrimitiveGetterErrors() throws Exception {
+    try {
+      singleValueRow(Query.Type.INT32, "2147483648").getInt(2);
+      Assert.fail("expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      // expected, as with Integer.valueOf()
+    }
+    try {
+      singleValueRow(Query.Type.INT64, "9223372036854775808").getLong(2);
+      Assert.fail("expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      // expected, as with Long.valueOf()
+    }
+    try {
+      singleValueRow(Query.Type.FLOAT64, "abc").getDouble(2);
+      Assert.fail("expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      // expected, as with Double.valueOf()
+    }
+    try {
+      singleValueRow(Query.Type.INT64, "1").getInt(2);
+      Assert.fail("expected SQLDataException");
+    } catch (SQLDataException e) {
+      // expected: INT64 is returned as Long
+    }
+  }
+
+  private static Row singleValueRow(Query.Type type, String value) throws Exception {
+    try (Cursor cursor =
+            new SimpleCursor(
+                QueryResult.newBuilder()
+                    .addFields(Field.newBuilder().setName("col1").setType(type).build())
+                    .addFields(Field.newBuilder().setName("col2").setType(type).build())
+                    .addRows(
+                        Query.Row.newBuilder()
+                            .addLengths(1)
+                            .addLengths(value.length())
+                            // The value doesn't start at offset 0 of the packed buffer.
+                            .setValues(ByteString.copyFromUtf8("0" + value)))
+                    .build())) {
+      return cursor.next();
+    }
+  }
+
+  @Test
+  public void testForEachRow() throws Exception {
+    QueryResult.Builder result =
+        QueryResult.newBuilder()
+            .addFields(Field.newBuilder().setName("id").setType(Query.Type.INT64).build())
+            .addFields(Field.newBuilder().setName("name").setType(Query.Type.VARCHAR).build());
+    for (int i = 1; i <= 4; i++) {
+      String id = Integer.toString(i);
+      String name = i == 3 ? "" : "name" + i;
+      result.addRows(
+          Query.Row.newBuilder()
+              .addLengths(id.length())
+              .addLengths(i == 3 ? -1 : name.length()) // row 3 has a SQL NULL name
+              .setValues(ByteString.copyFromUtf8(id + name)));
+    }
+    try (Cursor cursor = new SimpleCursor(result.build())) {
+      // Rows already returned by next() aren't visited again.
+      Assert.assertEquals(1, cursor.next().getLong("id"));
+      final List<Row> seen = new ArrayList<>();
+      final List<String> names = new ArrayList<>();
+      cursor.forEachRow(
+          new RowVisitor() {
+            @Override
+            public void visit(Row row) throws SQLException {
+              seen.add(row);
+              byte[] name = row.getBytes("name");
+              names.add(row.getLong("id") + ":" + (name == null ? null : new String(name)));
+            }
+          });
+      Assert.assertEquals(Arrays.asList("2:name2", "3:null", "4:name4"), names);
+      // The same Row object is re-pointed at each row.
+      Assert.assertSame(seen.get(0), seen.get(2));
+      Assert.assertNull(cursor.next());
+    }
+  }
 }
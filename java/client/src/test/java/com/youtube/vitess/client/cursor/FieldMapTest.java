@@ -0,0 +1,55 @@
+package com.youtube.vitess.client.cursor;
+
+import com.youtube.vitess.proto.Query.Field;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class FieldMapTest {
+  @Test
+  public void testCaseInsensitiveLookup() throws Exception {
+    FieldMap fieldMap =
+        new FieldMap(
+            Arrays.asList(field("id"), field("Name"), field("ID"), field("straße"), field("")));
+    Assert.assertEquals(1, fieldMap.indexOf("Id"));
+    Assert.assertEquals(Integer.valueOf(1), fieldMap.getIndex("iD"));
+    Assert.assertEquals(2, fieldMap.indexOf("NAME"));
+    Assert.assertEquals(4, fieldMap.indexOf("STRAßE"));
+    Assert.assertEquals(5, fieldMap.indexOf(""));
+    Assert.assertEquals(0, fieldMap.indexOf("missing"));
+    Assert.assertEquals(0, fieldMap.indexOf(null));
+    Assert.assertNull(fieldMap.getIndex("missing"));
+  }
+
+  @Test
+  public void testManyColumns() throws Exception {
+    List<Field> fields = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      fields.add(field("col" + i));
+    }
+    FieldMap fieldMap = new FieldMap(fields);
+    for (int i = 0; i < 500; i++) {
+      Assert.assertEquals(i + 1, fieldMap.indexOf("COL" + i));
+    }
+    Assert.assertEquals(0, fieldMap.indexOf("col500"));
+  }
+
+  @Test
+  public void testSharedInstances() throws Exception {
+    List<Field> fields = Arrays.asList(field("a"), field("b"));
+    FieldMap fieldMap = FieldMap.of(fields);
+    Assert.assertSame(fieldMap, FieldMap.of(new ArrayList<>(fields)));
+    Assert.assertNotSame(fieldMap, FieldMap.of(Arrays.asList(field("a"))));
+  }
+
+  private static Field field(String name) {
+    return Field.newBuilder().setName(name).build();
+  }
+}
@@ -0,0 +1,168 @@
+package com.youtube.vitess.client.cursor;
+
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.client.cursor.MergeSortCursor.SortKey;
+import com.youtube.vitess.proto.Query;
+import com.youtube.vitess.proto.Query.Field;
+import com.youtube.vitess.proto.Query.QueryResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class MergeSortCursorTest {
+  @Test
+  public void testMergeInt64() throws Exception {
+    Assert.assertEquals(
+        Arrays.asList("-5", "1", "2", "3", "10", "20", "100"),
+        merge(
+            Query.Type.INT64,
+            Arrays.asList(SortKey.ascending(1)),
+            Arrays.asList("1", "3", "100"),
+            Arrays.asList("-5", "2", "20"),
+            Arrays.<String>asList(),
+            Arrays.asList("10")));
+  }
+
+  @Test
+  public void testMergeDescending() throws Exception {
+    Assert.assertEquals(
+        Arrays.asList("100", "20", "3", "2", "1"),
+        merge(
+            Query.Type.UINT64,
+            Arrays.asList(SortKey.descending(1)),
+            Arrays.asList("100", "3", "1"),
+            Arrays.asList("20", "2")));
+  }
+
+  @Test
+  public void testMergeNullsFirst() throws Exception {
+    Assert.assertEquals(
+        Arrays.asList(null, "1", "2"),
+        merge(
+            Query.Type.INT32,
+            Arrays.asList(SortKey.ascending(1)),
+            Arrays.asList("2"),
+            Arrays.asList(null, "1")));
+  }
+
+  @Test
+  public void testMergeDecimal() throws Exception {
+    Assert.assertEquals(
+        Arrays.asList("-10.5", "-2", "0.00", "0.25", "1.5", "9.99", "10"),
+        merge(
+            Query.Type.DECIMAL,
+            Arrays.asList(SortKey.ascending(1)),
+            Arrays.asList("-10.5", "0.00", "1.5", "10"),
+            Arrays.asList("-2", "0.25", "9.99")));
+  }
+
+  @Test
+  public void testMergeDouble() throws Exception {
+    Assert.assertEquals(
+        Arrays.asList("-1e300", "-2.5", "1e-2", "0.1", "1E1", "12.75", "1.7976931348623157e308"),
+        merge(
+            Query.Type.FLOAT64,
+            Arrays.asList(SortKey.ascending(1)),
+            Arrays.asList("-1e300", "1e-2", "12.75"),
+            Arrays.asList("-2.5", "0.1", "1E1", "1.7976931348623157e308")));
+  }
+
+  @Test
+  public void testMergeTime() throws Exception {
+    Assert.assertEquals(
+        Arrays.asList("-100:00:00", "-01:00:00", "00:00:01", "23:59:59", "838:59:59"),
+        merge(
+            Query.Type.TIME,
+            Arrays.asList(SortKey.ascending(1)),
+            Arrays.asList("-100:00:00", "00:00:01", "838:59:59"),
+            Arrays.asList("-01:00:00", "23:59:59")));
+  }
+
+  @Test
+  public void testMergeVarbinary() throws Exception {
+    Assert.assertEquals(
+        Arrays.asList("a", "ab", "b", "ba"),
+        merge(
+            Query.Type.VARBINARY,
+            Arrays.asList(SortKey.ascending(1)),
+            Arrays.asList("ab", "ba"),
+            Arrays.asList("a", "b")));
+  }
+
+  @Test
+  public void testMergeMultipleKeys() throws Exception {
+    Field type = Field.newBuilder().setName("type").setType(Query.Type.INT64).build();
+    Field name = Field.newBuilder().setName("name").setType(Query.Type.VARCHAR).build();
+    List<Cursor> cursors =
+        Arrays.<Cursor>asList(
+            new SimpleCursor(
+                QueryResult.newBuilder()
+                    .addFields(type)
+                    .addFields(name)
+                    .addRows(row("1", "b"))
+                    .addRows(row("2", "a"))
+                    .build()),
+            new SimpleCursor(
+                QueryResult.newBuilder()
+                    .addFields(type)
+                    .addFields(name)
+                    .addRows(row("1", "c"))
+                    .addRows(row("2", "b"))
+                    .build()));
+    List<String> names = new ArrayList<>();
+    try (Cursor cursor =
+        new MergeSortCursor(
+            cursors, Arrays.asList(SortKey.ascending(1), SortKey.descending(2)))) {
+      Row row;
+      while ((row = cursor.next()) != null) {
+        names.add(row.getLong("type") + new String(row.getBytes(2), StandardCharsets.UTF_8));
+      }
+    }
+    Assert.assertEquals(Arrays.asList("1c", "1b", "2b", "2a"), names);
+  }
+
+  private static List<String> merge(
+      Query.Type type, List<SortKey> sortKeys, List<String>... inputs) throws Exception {
+    Field field = Field.newBuilder().setName("col1").setType(type).build();
+    List<Cursor> cursors = new ArrayList<>();
+    for (List<String> input : inputs) {
+      QueryResult.Builder result = QueryResult.newBuilder().addFields(field);
+      for (String value : input) {
+        result.addRows(row(value));
+      }
+      cursors.add(new SimpleCursor(result.build()));
+    }
+    List<String> values = new ArrayList<>();
+    try (Cursor cursor = new MergeSortCursor(cursors, sortKeys)) {
+      Row row;
+      while ((row = cursor.next()) != null) {
+        ByteString value = row.getRawValue(1);
+        values.add(value == null ? null : value.toStringUtf8());
+      }
+    }
+    return values;
+  }
+
+  private static Query.Row row(String... values) {
+    Query.Row.Builder row = Query.Row.newBuilder();
+    StringBuilder buf = new StringBuilder();
+    for (String value : values) {
+      if (value == null) {
+        row.addLengths(-1);
+      } else {
+        row.addLengths(value.length());
+        buf.append(value);
+      }
+    }
+    return row.setValues(ByteString.copyFromUtf8(buf.toString())).build();
+  }
+}
@@ -0,0 +1,217 @@
+package com.youtube.vitess.client.cursor;
+
+import com.google.protobuf.ByteString;
+
+import com.youtube.vitess.client.StreamIterator;
+import com.youtube.vitess.proto.Query;
+import com.youtube.vitess.proto.Query.Field;
+import com.youtube.vitess.proto.Query.QueryResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(JUnit4.class)
+public class ParallelStreamCursorTest {
+  private static final Field FIELD =
+      Field.newBuilder().setName("col1").setType(Query.Type.INT64).build();
+
+  @Test
+  public void testMergesAllRows() throws Exception {
+    List<StreamIterator<QueryResult>> streams =
+        Arrays.<StreamIterator<QueryResult>>asList(
+            stream(fieldsOnly(), rows(1, 2), rows(3)),
+            stream(fieldsOnly(), rows(10), rows(11, 12)),
+            stream(fieldsOnly()));
+    List<Long> values = new ArrayList<>();
+    try (Cursor cursor = new ParallelStreamCursor(streams, 1)) {
+      Assert.assertEquals(Arrays.asList(FIELD), cursor.getFields());
+      Row row;
+      while ((row = cursor.next()) != null) {
+        values.add(row.getLong("col1"));
+      }
+    }
+    Collections.sort(values);
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 10L, 11L, 12L), values);
+  }
+
+  @Test
+  public void testStreamError() throws Exception {
+    final SQLException error = new SQLTransientException("shard unavailable");
+    StreamIterator<QueryResult> failing =
+        new FakeStream(Collections.<QueryResult>emptyIterator()) {
+          @Override
+          public boolean hasNext() throws SQLException {
+            throw error;
+          }
+        };
+    List<StreamIterator<QueryResult>> streams =
+        Arrays.<StreamIterator<QueryResult>>asList(stream(fieldsOnly(), rows(1)), failing);
+    try (Cursor cursor = new ParallelStreamCursor(streams)) {
+      try {
+        while (cursor.next() != null) {}
+        Assert.fail("expected SQLException");
+      } catch (SQLException e) {
+        Assert.assertSame(error, e);
+      }
+      // The error is thrown again rather than looking like the end of the rows.
+      try {
+        cursor.next();
+        Assert.fail("expected SQLException");
+      } catch (SQLException e) {
+        Assert.assertSame(error, e);
+      }
+    }
+  }
+
+  @Test
+  public void testCloseClosesStreams() throws Exception {
+    FakeStream first = stream(fieldsOnly(), rows(1), rows(2), rows(3));
+    FakeStream second = stream(fieldsOnly(), rows(4));
+    Cursor cursor =
+        new ParallelStreamCursor(Arrays.<StreamIterator<QueryResult>>asList(first, second), 1);
+    Assert.assertNotNull(cursor.next());
+    cursor.close();
+    Assert.assertTrue(first.closed);
+    Assert.assertTrue(second.closed);
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseWaitsForReaders() throws Exception {
+    // A single-consumer stream that is slow to return, and checks that it's not closed meanwhile.
+    final CountDownLatch reading = new CountDownLatch(1);
+    final AtomicBoolean closedWhileReading = new AtomicBoolean();
+    FakeStream slow =
+        new FakeStream(Collections.<QueryResult>emptyIterator()) {
+          volatile boolean inHasNext;
+
+          @Override
+          public boolean hasNext() throws SQLException {
+            inHasNext = true;
+            reading.countDown();
+            try {
+              Thread.sleep(100);
+            } catch (InterruptedException e) {
+              // Ignore the interrupt, so close() has to wait for this reader.
+            }
+            inHasNext = false;
+            return false;
+          }
+
+          @Override
+          public void close() {
+            if (inHasNext) {
+              closedWhileReading.set(true);
+            }
+            super.close();
+          }
+        };
+    Cursor cursor = new ParallelStreamCursor(Arrays.<StreamIterator<QueryResult>>asList(slow));
+    reading.await();
+    cursor.close();
+    Assert.assertTrue(slow.closed);
+    Assert.assertFalse(closedWhileReading.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testCloseWithFullBuffer() throws Exception {
+    // Like the gRPC stream, hasNext() turns an interrupt into an SQLException and clears it.
+    final CountDownLatch blocked = new CountDownLatch(1);
+    FakeStream stream =
+        new FakeStream(Arrays.asList(fieldsOnly(), rows(1)).iterator()) {
+          @Override
+          public boolean hasNext() throws SQLException {
+            if (super.hasNext()) {
+              return true;
+            }
+            blocked.countDown();
+            try {
+              Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+              throw new SQLDataException("interrupted", e);
+            }
+            return false;
+          }
+        };
+    Cursor cursor =
+        new ParallelStreamCursor(Arrays.<StreamIterator<QueryResult>>asList(stream), 2);
+    // Both chunks are buffered, and the reader is waiting for a third one.
+    blocked.await();
+    cursor.close();
+    Assert.assertTrue(stream.closed);
+  }
+
+  @Test
+  public void testCloseException() throws Exception {
+    final IllegalStateException error = new IllegalStateException("close failed");
+    FakeStream stream =
+        new FakeStream(Arrays.asList(fieldsOnly()).iterator()) {
+          @Override
+          public void close() {
+            throw error;
+          }
+        };
+    Cursor cursor = new ParallelStreamCursor(Arrays.<StreamIterator<QueryResult>>asList(stream));
+    try {
+      cursor.close();
+      Assert.fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      Assert.assertSame(error, e);
+    }
+  }
+
+  private static QueryResult fieldsOnly() {
+    return QueryResult.newBuilder().addFields(FIELD).build();
+  }
+
+  private static QueryResult rows(long... values) {
+    QueryResult.Builder builder = QueryResult.newBuilder();
+    for (long value : values) {
+      String str = Long.toString(value);
+      builder.addRows(
+          Query.Row.newBuilder().addLengths(str.length()).setValues(ByteString.copyFromUtf8(str)));
+    }
+    return builder.build();
+  }
+
+  private static FakeStream stream(QueryResult... results) {
+    return new FakeStream(Arrays.asList(results).iterator());
+  }
+
+  private static class FakeStream implements StreamIterator<QueryResult> {
+    private final Iterator<QueryResult> results;
+    volatile boolean closed;
+
+    FakeStream(Iterator<QueryResult> results) {
+      this.results = results;
+    }
+
+    @Override
+    public boolean hasNext() throws SQLException {
+      return results.hasNext();
+    }
+
+    @Override
+    public QueryResult next() throws NoSuchElementException, SQLException {
+      return results.next();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -1,9 +1,14 @@
 package com.youtube.vitess.mysql;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -12,6 +17,9 @@ import org.junit.runners.JUnit4;
 import java.sql.Date;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
@@ -286,4 +294,128 @@ public class DateTimeTest {
       assertEquals(tsString, DateTime.formatTimestamp(ts, GMT));
     }
   }
+
+  @Test
+  public void testParseByteStringMatchesString() throws Exception {
+    // The byte-level parser must agree with the Calendar-based one, including around DST
+    // transitions and in the ranges where it falls back.
+    final List<String> ZONES =
+        ImmutableList.of(
+            "GMT",
+            "GMT-8",
+            "GMT+0530",
+            "America/Los_Angeles",
+            "Europe/London",
+            "Australia/Lord_Howe");
+    final List<String> TEST_TIMESTAMPS =
+        new ImmutableList.Builder<String>()
+            .add("1970-01-01 00:00:00")
+            .add("1969-12-31 23:59:59.999")
+            .add("2008-01-02 14:15:16.123456")
+            .add("2016-02-30 12:00:00")
+            .add("2016-03-13 02:30:00")
+            .add("2016-03-27 01:30:00")
+            .add("2016-10-02 02:15:00")
+            .add("2016-11-06 01:30:00.5")
+            .add("1500-06-15 10:00:00")
+            .add("9999-12-31 23:59:59.999999")
+            .add("2008-1-2 3:04:05")
+            .build();
+    final List<String> TEST_TIMES =
+        ImmutableList.of(
+            "00:00:00", "12:34:56.789", "-01:02:03.4", "-00:30:00", "838:59:59", "1:2");
+
+    for (String zone : ZONES) {
+      Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(zone));
+      for (String tsString : TEST_TIMESTAMPS) {
+        ByteString bytes = ByteString.copyFromUtf8(tsString);
+        assertEquals(
+            zone + " " + tsString,
+            DateTime.parseTimestamp(tsString, cal),
+            DateTime.parseTimestamp(bytes, cal));
+        String dateString = tsString.substring(0, tsString.indexOf(' '));
+        assertEquals(
+            zone + " " + dateString,
+            DateTime.parseDate(dateString, cal),
+            DateTime.parseDate(ByteString.copyFromUtf8(dateString), cal));
+      }
+      for (String timeString : TEST_TIMES) {
+        assertEquals(
+            zone + " " + timeString,
+            DateTime.parseTime(timeString, cal),
+            DateTime.parseTime(ByteString.copyFromUtf8(timeString), cal));
+      }
+    }
+  }
+
+  @Test
+  public void testParseByteStringAcrossDays() throws Exception {
+    // Values on many days, in an order that keeps switching between DST periods, must all convert
+    // with the right offset.
+    final List<String> ZONES =
+        ImmutableList.of("GMT+0530", "America/Los_Angeles", "Europe/London", "Australia/Lord_Howe");
+    DateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    dateTimeFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    for (String zone : ZONES) {
+      Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(zone));
+      // Step by a prime number of minutes over a few years, alternating with a value half a year
+      // later.
+      for (long millis = 1388534400000L; millis < 1483228800000L; millis += 1009L * 60000) {
+        for (long localMillis : new long[] {millis, millis + 182L * 24 * 3600 * 1000}) {
+          String tsString = dateTimeFormat.format(new java.util.Date(localMillis));
+          assertEquals(
+              zone + " " + tsString,
+              DateTime.parseTimestamp(tsString, cal),
+              DateTime.parseTimestamp(ByteString.copyFromUtf8(tsString), cal));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFormatMatchesDateFormat() throws Exception {
+    final List<String> ZONES =
+        ImmutableList.of("GMT", "GMT+0530", "America/Los_Angeles", "Australia/Lord_Howe");
+    for (String zone : ZONES) {
+      Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(zone));
+      DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+      dateFormat.setCalendar(cal);
+      DateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+      dateTimeFormat.setCalendar(cal);
+      // Step by a prime number of minutes from before the Gregorian cutover to the 2030s.
+      for (long millis = -12500000000000L; millis < 2000000000000L; millis += 7919L * 60000) {
+        Timestamp ts = makeTimestamp(millis, 120000000);
+        assertEquals(dateTimeFormat.format(ts) + ".12", DateTime.formatTimestamp(ts, cal));
+        Date date = new Date(millis);
+        assertEquals(dateFormat.format(date), DateTime.formatDate(date, cal));
+      }
+    }
+  }
+
+  @Test
+  public void testParseLocal() throws Exception {
+    assertEquals(
+        new LocalDate(2008, 1, 2), DateTime.parseLocalDate(ByteString.copyFromUtf8("2008-01-02")));
+    assertEquals(
+        new LocalDateTime(2008, 1, 2, 14, 15, 16, 123),
+        DateTime.parseLocalDateTime(ByteString.copyFromUtf8("2008-01-02 14:15:16.123456")));
+    // Joda-Time doesn't use the Julian calendar for early dates.
+    assertEquals(
+        new LocalDate(1500, 6, 15), DateTime.parseLocalDate(ByteString.copyFromUtf8("1500-06-15")));
+    assertEquals(
+        1199283316123456L,
+        DateTime.parseTimestampMicros(
+            ByteString.copyFromUtf8("2008-01-02 14:15:16.123456789"), GMT.getTimeZone()));
+    assertEquals(
+        -1L,
+        DateTime.parseTimestampMicros(
+            ByteString.copyFromUtf8("1969-12-31 23:59:59.999999"), GMT.getTimeZone()));
+
+    try {
+      DateTime.parseLocalDate(ByteString.copyFromUtf8("0000-00-00"));
+      fail("expected ParseException");
+    } catch (ParseException e) {
+      // expected
+    }
+  }
 }
@@ -7,6 +7,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.youtube.vitess.client.Context;
 import com.youtube.vitess.client.RpcClient;
 import com.youtube.vitess.client.StreamIterator;
+import com.youtube.vitess.client.StreamSubscriber;
 import com.youtube.vitess.proto.Query.QueryResult;
 import com.youtube.vitess.proto.Vtgate.BeginRequest;
 import com.youtube.vitess.proto.Vtgate.BeginResponse;
@@ -46,7 +47,9 @@ import com.youtube.vitess.proto.grpc.VitessGrpc.VitessStub;
 
 import org.joda.time.Duration;
 
+import io.grpc.ClientCall;
 import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
 import io.grpc.StatusRuntimeException;
 
 import java.io.IOException;
@@ -66,9 +69,41 @@ public class GrpcClient implements RpcClient {
   private final ManagedChannel channel;
   private final VitessStub asyncStub;
   private final VitessFutureStub futureStub;
+  private final int readAheadChunks;
+  private final long readAheadBytes;
+  private final StreamBudget budget;
 
   public GrpcClient(ManagedChannel channel) {
+    this(
+        channel,
+        GrpcStreamAdapter.DEFAULT_READ_AHEAD_CHUNKS,
+        GrpcStreamAdapter.DEFAULT_READ_AHEAD_BYTES);
+  }
+
+  /**
+   * Creates a client whose streaming calls read ahead of the consumer by up to
+   * {@code readAheadChunks} responses, as long as the buffered responses take less than
+   * {@code readAheadBytes}.
+   */
+  public GrpcClient(ManagedChannel channel, int readAheadChunks, long readAheadBytes) {
+    this(
+        channel,
+        readAheadChunks,
+        readAheadBytes,
+        GrpcStreamAdapter.DEFAULT_CLIENT_READ_AHEAD_BYTES);
+  }
+
+  /**
+   * Creates a client whose streaming calls read ahead as above, and which also stops asking for
+   * more responses while the buffered responses of all its streams take
+   * {@code clientReadAheadBytes} or more.
+   */
+  public GrpcClient(
+      ManagedChannel channel, int readAheadChunks, long readAheadBytes, long clientReadAheadBytes) {
     this.channel = channel;
+    this.readAheadChunks = readAheadChunks;
+    this.readAheadBytes = readAheadBytes;
+    this.budget = new StreamBudget(clientReadAheadBytes);
     asyncStub = VitessGrpc.newStub(channel);
     futureStub = VitessGrpc.newFutureStub(channel);
   }
@@ -145,13 +180,14 @@ public class GrpcClient implements RpcClient {
   public StreamIterator<QueryResult> streamExecute(Context ctx, StreamExecuteRequest request)
       throws SQLException {
     GrpcStreamAdapter<StreamExecuteResponse, QueryResult> adapter =
-        new GrpcStreamAdapter<StreamExecuteResponse, QueryResult>() {
+        new GrpcStreamAdapter<StreamExecuteResponse, QueryResult>(
+            readAheadChunks, readAheadBytes, budget) {
           @Override
           QueryResult getResult(StreamExecuteResponse response) throws SQLException {
             return response.getResult();
           }
         };
-    getAsyncStub(ctx).streamExecute(request, adapter);
+    adapter.start(newCall(ctx, VitessGrpc.METHOD_STREAM_EXECUTE), request);
     return adapter;
   }
 
@@ -159,13 +195,14 @@ public class GrpcClient implements RpcClient {
   public StreamIterator<QueryResult> streamExecuteShards(
       Context ctx, StreamExecuteShardsRequest request) throws SQLException {
     GrpcStreamAdapter<StreamExecuteShardsResponse, QueryResult> adapter =
-        new GrpcStreamAdapter<StreamExecuteShardsResponse, QueryResult>() {
+        new GrpcStreamAdapter<StreamExecuteShardsResponse, QueryResult>(
+            readAheadChunks, readAheadBytes, budget) {
           @Override
           QueryResult getResult(StreamExecuteShardsResponse response) throws SQLException {
             return response.getResult();
           }
         };
-    getAsyncStub(ctx).streamExecuteShards(request, adapter);
+    adapter.start(newCall(ctx, VitessGrpc.METHOD_STREAM_EXECUTE_SHARDS), request);
     return adapter;
   }
 
@@ -173,13 +210,14 @@ public class GrpcClient implements RpcClient {
   public StreamIterator<QueryResult> streamExecuteKeyspaceIds(
       Context ctx, StreamExecuteKeyspaceIdsRequest request) throws SQLException {
     GrpcStreamAdapter<StreamExecuteKeyspaceIdsResponse, QueryResult> adapter =
-        new GrpcStreamAdapter<StreamExecuteKeyspaceIdsResponse, QueryResult>() {
+        new GrpcStreamAdapter<StreamExecuteKeyspaceIdsResponse, QueryResult>(
+            readAheadChunks, readAheadBytes, budget) {
           @Override
           QueryResult getResult(StreamExecuteKeyspaceIdsResponse response) throws SQLException {
             return response.getResult();
           }
         };
-    getAsyncStub(ctx).streamExecuteKeyspaceIds(request, adapter);
+    adapter.start(newCall(ctx, VitessGrpc.METHOD_STREAM_EXECUTE_KEYSPACE_IDS), request);
     return adapter;
   }
 
@@ -187,16 +225,77 @@ public class GrpcClient implements RpcClient {
   public StreamIterator<QueryResult> streamExecuteKeyRanges(
       Context ctx, StreamExecuteKeyRangesRequest request) throws SQLException {
     GrpcStreamAdapter<StreamExecuteKeyRangesResponse, QueryResult> adapter =
-        new GrpcStreamAdapter<StreamExecuteKeyRangesResponse, QueryResult>() {
+        new GrpcStreamAdapter<StreamExecuteKeyRangesResponse, QueryResult>(
+            readAheadChunks, readAheadBytes, budget) {
           @Override
           QueryResult getResult(StreamExecuteKeyRangesResponse response) throws SQLException {
             return response.getResult();
           }
         };
-    getAsyncStub(ctx).streamExecuteKeyRanges(request, adapter);
+    adapter.start(newCall(ctx, VitessGrpc.METHOD_STREAM_EXECUTE_KEY_RANGES), request);
     return adapter;
   }
 
+  @Override
+  public void streamExecute(
+      Context ctx, StreamExecuteRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    GrpcStreamSubscription<StreamExecuteResponse, QueryResult> subscription =
+        new GrpcStreamSubscription<StreamExecuteResponse, QueryResult>(subscriber) {
+          @Override
+          QueryResult getResult(StreamExecuteResponse response) throws SQLException {
+            return response.getResult();
+          }
+        };
+    subscription.start(newCall(ctx, VitessGrpc.METHOD_STREAM_EXECUTE), request);
+  }
+
+  @Override
+  public void streamExecuteShards(
+      Context ctx, StreamExecuteShardsRequest request, StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    GrpcStreamSubscription<StreamExecuteShardsResponse, QueryResult> subscription =
+        new GrpcStreamSubscription<StreamExecuteShardsResponse, QueryResult>(subscriber) {
+          @Override
+          QueryResult getResult(StreamExecuteShardsResponse response) throws SQLException {
+            return response.getResult();
+          }
+        };
+    subscription.start(newCall(ctx, VitessGrpc.METHOD_STREAM_EXECUTE_SHARDS), request);
+  }
+
+  @Override
+  public void streamExecuteKeyspaceIds(
+      Context ctx,
+      StreamExecuteKeyspaceIdsRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    GrpcStreamSubscription<StreamExecuteKeyspaceIdsResponse, QueryResult> subscription =
+        new GrpcStreamSubscription<StreamExecuteKeyspaceIdsResponse, QueryResult>(subscriber) {
+          @Override
+          QueryResult getResult(StreamExecuteKeyspaceIdsResponse response) throws SQLException {
+            return response.getResult();
+          }
+        };
+    subscription.start(newCall(ctx, VitessGrpc.METHOD_STREAM_EXECUTE_KEYSPACE_IDS), request);
+  }
+
+  @Override
+  public void streamExecuteKeyRanges(
+      Context ctx,
+      StreamExecuteKeyRangesRequest request,
+      StreamSubscriber<QueryResult> subscriber)
+      throws SQLException {
+    GrpcStreamSubscription<StreamExecuteKeyRangesResponse, QueryResult> subscription =
+        new GrpcStreamSubscription<StreamExecuteKeyRangesResponse, QueryResult>(subscriber) {
+          @Override
+          QueryResult getResult(StreamExecuteKeyRangesResponse response) throws SQLException {
+            return response.getResult();
+          }
+        };
+    subscription.start(newCall(ctx, VitessGrpc.METHOD_STREAM_EXECUTE_KEY_RANGES), request);
+  }
+
   @Override
   public ListenableFuture<BeginResponse> begin(Context ctx, BeginRequest request)
       throws SQLException {
@@ -287,6 +386,12 @@ public class GrpcClient implements RpcClient {
     return asyncStub.withDeadlineAfter(timeout.getMillis(), TimeUnit.MILLISECONDS);
   }
 
+  private <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+      Context ctx, MethodDescriptor<ReqT, RespT> method) {
+    VitessStub stub = getAsyncStub(ctx);
+    return stub.getChannel().newCall(method, stub.getCallOptions());
+  }
+
   private VitessFutureStub getFutureStub(Context ctx) {
     Duration timeout = ctx.getTimeout();
     if (timeout == null) {
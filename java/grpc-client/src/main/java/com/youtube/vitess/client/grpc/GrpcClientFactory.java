@@ -1,21 +1,127 @@
 package com.youtube.vitess.client.grpc;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import com.youtube.vitess.client.Context;
 import com.youtube.vitess.client.RpcClient;
 import com.youtube.vitess.client.RpcClientFactory;
 
+import io.grpc.ManagedChannel;
 import io.grpc.netty.NegotiationType;
 import io.grpc.netty.NettyChannelBuilder;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * GrpcClientFactory creates RpcClients with the gRPC implemenation.
  */
 public class GrpcClientFactory implements RpcClientFactory {
+  public static final int DEFAULT_READ_AHEAD_CHUNKS = GrpcStreamAdapter.DEFAULT_READ_AHEAD_CHUNKS;
+  public static final long DEFAULT_READ_AHEAD_BYTES = GrpcStreamAdapter.DEFAULT_READ_AHEAD_BYTES;
+  public static final long DEFAULT_CLIENT_READ_AHEAD_BYTES =
+      GrpcStreamAdapter.DEFAULT_CLIENT_READ_AHEAD_BYTES;
+
+  private final int readAheadChunks;
+  private final long readAheadBytes;
+  private final long clientReadAheadBytes;
+  private final int channelsPerEndpoint;
+  /**
+   * The transport for new channels, or null to use {@link GrpcTransport#shared()}.
+   */
+  private final GrpcTransport transport;
+
+  public GrpcClientFactory() {
+    this(DEFAULT_READ_AHEAD_CHUNKS, DEFAULT_READ_AHEAD_BYTES);
+  }
+
+  /**
+   * Creates a factory whose clients read ahead of the consumer of a streaming query by up to
+   * {@code readAheadChunks} responses, as long as the buffered responses take less than
+   * {@code readAheadBytes}.
+   */
+  public GrpcClientFactory(int readAheadChunks, long readAheadBytes) {
+    this(readAheadChunks, readAheadBytes, 1);
+  }
+
+  /**
+   * Creates a factory whose clients open {@code channelsPerEndpoint} connections to their vtgate,
+   * and send each call to the connection with the fewest active calls.
+   *
+   * @see ManagedChannelPool
+   */
+  public GrpcClientFactory(int readAheadChunks, long readAheadBytes, int channelsPerEndpoint) {
+    this(
+        readAheadChunks,
+        readAheadBytes,
+        DEFAULT_CLIENT_READ_AHEAD_BYTES,
+        channelsPerEndpoint,
+        null);
+  }
+
+  private GrpcClientFactory(
+      int readAheadChunks,
+      long readAheadBytes,
+      long clientReadAheadBytes,
+      int channelsPerEndpoint,
+      GrpcTransport transport) {
+    if (channelsPerEndpoint < 1) {
+      throw new IllegalArgumentException("channelsPerEndpoint must be at least 1");
+    }
+    if (clientReadAheadBytes <= 0) {
+      throw new IllegalArgumentException("clientReadAheadBytes must be positive");
+    }
+    this.readAheadChunks = readAheadChunks;
+    this.readAheadBytes = readAheadBytes;
+    this.clientReadAheadBytes = clientReadAheadBytes;
+    this.channelsPerEndpoint = channelsPerEndpoint;
+    this.transport = transport;
+  }
+
+  /**
+   * Returns a copy of this factory whose clients use the given event loop group and channel type,
+   * instead of the {@link GrpcTransport#shared() shared} transport.
+   */
+  public GrpcClientFactory withTransport(GrpcTransport transport) {
+    return new GrpcClientFactory(
+        readAheadChunks,
+        readAheadBytes,
+        clientReadAheadBytes,
+        channelsPerEndpoint,
+        checkNotNull(transport));
+  }
+
+  /**
+   * Returns a copy of this factory whose clients stop asking for more streaming responses while
+   * the buffered responses of all their streams take {@code clientReadAheadBytes} or more.
+   */
+  public GrpcClientFactory withClientReadAheadBytes(long clientReadAheadBytes) {
+    return new GrpcClientFactory(
+        readAheadChunks, readAheadBytes, clientReadAheadBytes, channelsPerEndpoint, transport);
+  }
+
   @Override
   public RpcClient create(Context ctx, InetSocketAddress address) {
-    return new GrpcClient(
-        NettyChannelBuilder.forAddress(address).negotiationType(NegotiationType.PLAINTEXT).build());
+    GrpcTransport transport = this.transport != null ? this.transport : GrpcTransport.shared();
+    ManagedChannel channel;
+    if (channelsPerEndpoint == 1) {
+      channel = newChannel(transport, address);
+    } else {
+      List<ManagedChannel> channels = new ArrayList<>(channelsPerEndpoint);
+      for (int i = 0; i < channelsPerEndpoint; i++) {
+        channels.add(newChannel(transport, address));
+      }
+      channel = new ManagedChannelPool(channels);
+    }
+    return new GrpcClient(channel, readAheadChunks, readAheadBytes, clientReadAheadBytes);
+  }
+
+  private static ManagedChannel newChannel(GrpcTransport transport, InetSocketAddress address) {
+    return NettyChannelBuilder.forAddress(address)
+        .eventLoopGroup(transport.getEventLoopGroup())
+        .channelType(transport.getChannelType())
+        .negotiationType(NegotiationType.PLAINTEXT)
+        .build();
   }
 }
@@ -1,36 +1,73 @@
 package com.youtube.vitess.client.grpc;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.protobuf.MessageLite;
+
 import com.youtube.vitess.client.StreamIterator;
 
-import io.grpc.stub.StreamObserver;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.Status;
 
 import java.sql.SQLDataException;
 import java.sql.SQLException;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A {@link StreamIterator} that returns results provided by a gRPC {@link StreamObserver}
+ * A {@link StreamIterator} that returns results received by a gRPC {@link ClientCall}.
  *
- * <p>This adapter allows iteration (with checked exceptions) over results obtained through the
- * gRPC {@code StreamObserver} interface.
+ * <p>This adapter allows iteration (with checked exceptions) over the responses of a
+ * server-streaming call.
  *
  * <p>This class is abstract because it needs to be told how to extract the result
  * (e.g. {@link com.youtube.vitess.proto.Query.QueryResult QueryResult}) from a given RPC response
  * (e.g. {@link com.youtube.vitess.proto.Vtgate.StreamExecuteResponse StreamExecuteResponse}).
  * Callers must therefore implement {@link #getResult(Object)} when instantiating this class.
  *
- * <p>The {@code StreamObserver} side will block until the result has been returned to the consumer
- * by the {@code StreamIterator} side. Therefore, the {@link #close()} method must be called when
- * done, to unblock the {@code StreamObserver} side.
+ * <p>The adapter uses manual flow control to read ahead: it asks the server for up to
+ * {@code readAheadChunks} responses before the consumer has asked for them, so the network
+ * transfer of the next chunks overlaps with the processing of the current one. It stops asking
+ * while the buffered responses add up to {@code readAheadBytes} or more, which bounds the memory
+ * used by a slow consumer. A {@link StreamBudget} shared by all the streams of a client bounds
+ * their buffered responses in total the same way. Neither side of the adapter blocks the gRPC
+ * threads.
+ *
+ * <p>Responses are handed from the gRPC listener callbacks (which gRPC never runs concurrently for
+ * one call) to the consuming thread through a lock-free ring buffer. The consumer parks only when
+ * the buffer is empty, and the producer unparks it at most once per wait, so no monitor is taken
+ * per response.
  *
- * @param <V> The type of value sent through the {@link StreamObserver} interface.
+ * <p>Like other {@code StreamIterator}s, an adapter must only be consumed by one thread at a time.
+ * The {@link #close()} method must be called if the stream is not read to the end, to cancel
+ * the call.
+ *
+ * @param <V> The type of value received by the {@link ClientCall}.
  * @param <E> The type of value to return through the {@link StreamIterator} interface.
  */
-abstract class GrpcStreamAdapter<V, E>
-    implements StreamObserver<V>, StreamIterator<E>, AutoCloseable {
+abstract class GrpcStreamAdapter<V, E> extends ClientCall.Listener<V>
+    implements StreamIterator<E>, AutoCloseable {
+  /**
+   * The default maximum number of responses buffered or requested ahead of the consumer.
+   */
+  static final int DEFAULT_READ_AHEAD_CHUNKS = 4;
+  /**
+   * The default size of buffered responses above which no more are requested.
+   */
+  static final long DEFAULT_READ_AHEAD_BYTES = 8 * 1024 * 1024;
+  /**
+   * The default size of buffered responses across all the streams of a client, above which no
+   * more are requested.
+   */
+  static final long DEFAULT_CLIENT_READ_AHEAD_BYTES = 64 * 1024 * 1024;
+
   /**
    * getResult must be implemented to tell the adapter how to convert from
-   * the StreamObserver value type (V) to the StreamIterator value type (E).
+   * the ClientCall value type (V) to the StreamIterator value type (E).
    * Before converting, getResult() should check for application-level errors
    * in the RPC response and throw the appropriate SQLException.
    * @param value The RPC response object.
@@ -39,95 +76,271 @@ abstract class GrpcStreamAdapter<V, E>
    */
   abstract E getResult(V value) throws SQLException;
 
-  private E nextValue;
-  private Throwable error;
-  private boolean completed = false;
-  private boolean closed = false;
+  private final int readAheadChunks;
+  private final long readAheadBytes;
+  private final StreamBudget budget;
 
-  @Override
-  public void onNext(V value) {
-    synchronized (this) {
-      try {
-        // Wait until the previous value has been consumed.
-        while (nextValue != null) {
-          // If there's been an error, or the iterator was closed, drain the rest of the stream
-          // without blocking.
-          if (closed || error != null) {
-            return;
-          }
-
-          wait();
-        }
-
-        nextValue = getResult(value);
-        notifyAll();
-      } catch (InterruptedException e) {
-        onError(e);
-      } catch (SQLException e) {
-        onError(e);
-      }
+  // The ring buffer. Slots in [head, tail) hold values that the consumer hasn't taken yet. Since
+  // no more than readAheadChunks responses are ever requested ahead of the consumer, the producer
+  // never finds the ring full.
+  private final Object[] values;
+  private final int[] sizes;
+  private final int mask;
+  /**
+   * The number of values taken by the consumer. Written only by the consumer.
+   */
+  private final AtomicLong head = new AtomicLong();
+  /**
+   * The number of values added by the producer. Written only by the producer.
+   */
+  private final AtomicLong tail = new AtomicLong();
+  /**
+   * The total size of values in the ring, which is also charged to the budget. The producer adds
+   * to it, and the consumer subtracts from it.
+   */
+  private final AtomicLong bufferedBytes = new AtomicLong();
+  /**
+   * The number of responses requested from the server so far. Only accessed by the consumer.
+   */
+  private long requested;
+
+  /**
+   * The consumer thread, while it is about to park or parked waiting for a value. The producer
+   * takes it out before unparking it, so later values don't unpark it again. Each extra unpark
+   * would make the consumer's next park return right away, costing it another round trip through
+   * the loop in {@link #hasNext()} and often a context switch.
+   */
+  private final AtomicReference<Thread> waiter = new AtomicReference<>();
+  private final AtomicReference<Throwable> error = new AtomicReference<>();
+  private volatile boolean completed = false;
+  private volatile boolean closed = false;
+  private ClientCall<?, V> call;
+
+  /**
+   * @param readAheadChunks The maximum number of responses buffered or requested ahead of the
+   *     consumer.
+   * @param readAheadBytes No more responses are requested while the buffered ones add up to at
+   *     least this many bytes.
+   */
+  GrpcStreamAdapter(int readAheadChunks, long readAheadBytes) {
+    this(readAheadChunks, readAheadBytes, new StreamBudget(Long.MAX_VALUE));
+  }
+
+  /**
+   * @param readAheadChunks The maximum number of responses buffered or requested ahead of the
+   *     consumer.
+   * @param readAheadBytes No more responses are requested while the buffered ones add up to at
+   *     least this many bytes.
+   * @param budget The budget for buffered responses shared with other streams of the client.
+   */
+  GrpcStreamAdapter(int readAheadChunks, long readAheadBytes, StreamBudget budget) {
+    checkArgument(readAheadChunks > 0, "readAheadChunks must be positive");
+    checkArgument(readAheadChunks <= 1 << 30, "readAheadChunks is too large");
+    checkArgument(readAheadBytes > 0, "readAheadBytes must be positive");
+    this.readAheadChunks = readAheadChunks;
+    this.readAheadBytes = readAheadBytes;
+    this.budget = checkNotNull(budget);
+    int capacity = Integer.highestOneBit(readAheadChunks);
+    if (capacity < readAheadChunks) {
+      capacity <<= 1;
     }
+    values = new Object[capacity];
+    sizes = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Starts the call, sends the request and asks for the first responses.
+   *
+   * <p>This must be called by the thread that consumes the iterator, or before the iterator is
+   * handed to that thread.
+   */
+  <R> void start(ClientCall<R, V> call, R request) {
+    this.call = call;
+    try {
+      call.start(this, new Metadata());
+      call.sendMessage(request);
+      call.halfClose();
+    } catch (RuntimeException e) {
+      call.cancel();
+      throw e;
+    }
+    requestMore();
+  }
+
+  /**
+   * Returns the size of a response, for the {@code readAheadBytes} limit.
+   */
+  int getSize(V value) {
+    return value instanceof MessageLite ? ((MessageLite) value).getSerializedSize() : 0;
   }
 
   @Override
-  public void onCompleted() {
-    synchronized (this) {
-      completed = true;
-      notifyAll();
+  public void onMessage(V value) {
+    // If there's been an error, or the iterator was closed, drop the rest of the stream.
+    if (closed || error.get() != null) {
+      return;
+    }
+    long t = tail.get();
+    if (t - head.get() > mask) {
+      fail(new IllegalStateException("received more responses than requested"));
+      return;
+    }
+    int size;
+    E result;
+    try {
+      size = getSize(value);
+      result = getResult(value);
+    } catch (SQLException e) {
+      fail(e);
+      return;
     }
+    int slot = (int) t & mask;
+    values[slot] = result;
+    sizes[slot] = size;
+    budget.charge(size);
+    bufferedBytes.addAndGet(size);
+    // This must be a volatile write, so signal() can't miss a consumer that just started waiting.
+    tail.set(t + 1);
+    if (closed) {
+      // The consumer closed the iterator while this value was being added, and may not have
+      // seen it. Either way, the charge is refunded exactly once.
+      refundBuffered();
+    }
+    signal();
   }
 
   @Override
-  public void onError(Throwable error) {
-    synchronized (this) {
-      this.error = error;
-      notifyAll();
+  public void onClose(Status status, Metadata trailers) {
+    if (status.isOk()) {
+      completed = true;
+    } else {
+      error.compareAndSet(null, status.asRuntimeException());
     }
+    signal();
   }
 
   @Override
   public boolean hasNext() throws SQLException {
-    synchronized (this) {
-      try {
-        // Wait for a new value to show up.
-        while (nextValue == null) {
-          if (completed) {
-            return false;
-          }
-          if (error != null) {
-            // We got an error from the gRPC layer.
-            throw GrpcClient.convertGrpcError(error);
-          }
-
-          wait();
-        }
-
+    long h = head.get();
+    while (true) {
+      // Read the final states before the tail, so values added before them aren't missed.
+      boolean done = completed;
+      Throwable e = error.get();
+      if (h < tail.get()) {
         return true;
-      } catch (InterruptedException e) {
-        onError(e);
-        throw new SQLDataException("gRPC StreamIterator interrupted while waiting for value", e);
+      }
+      if (done) {
+        return false;
+      }
+      if (e instanceof SQLException) {
+        // We got an error from getResult().
+        throw (SQLException) e;
+      }
+      if (e != null) {
+        // We got an error from the gRPC layer.
+        throw GrpcClient.convertGrpcError(e);
+      }
+
+      // Wait for a new value to show up.
+      waiter.set(Thread.currentThread());
+      if (h == tail.get() && !completed && error.get() == null) {
+        LockSupport.park(this);
+      }
+      waiter.lazySet(null);
+      if (Thread.interrupted()) {
+        InterruptedException interrupted = new InterruptedException();
+        fail(interrupted);
+        throw new SQLDataException(
+            "gRPC StreamIterator interrupted while waiting for value", interrupted);
       }
     }
   }
 
   @Override
   public E next() throws NoSuchElementException, SQLException {
-    synchronized (this) {
-      if (hasNext()) {
-        E value = nextValue;
-        nextValue = null;
-        notifyAll();
-        return value;
-      } else {
-        throw new NoSuchElementException("stream completed");
-      }
+    if (!hasNext()) {
+      throw new NoSuchElementException("stream completed");
     }
+    long h = head.get();
+    int slot = (int) h & mask;
+    @SuppressWarnings("unchecked")
+    E value = (E) values[slot];
+    values[slot] = null;
+    bufferedBytes.addAndGet(-sizes[slot]);
+    budget.refund(sizes[slot]);
+    head.lazySet(h + 1);
+    requestMore();
+    return value;
   }
 
   @Override
   public void close() throws Exception {
-    synchronized (this) {
-      closed = true;
+    closed = true;
+    // Release the buffered values. The producer doesn't touch slots in [head, tail).
+    long t = tail.get();
+    for (long h = head.get(); h < t; h++) {
+      values[(int) h & mask] = null;
+    }
+    head.lazySet(t);
+    refundBuffered();
+    if (!completed) {
+      call.cancel();
+    }
+  }
+
+  /**
+   * Records an error for the consumer, and cancels the call.
+   */
+  private void fail(Throwable e) {
+    error.compareAndSet(null, e);
+    signal();
+    call.cancel();
+  }
+
+  /**
+   * Refunds the size of the buffered values to the budget, once the iterator is closed.
+   */
+  private void refundBuffered() {
+    budget.refund(bufferedBytes.getAndSet(0));
+  }
+
+  /**
+   * Wakes up the consumer if it's waiting.
+   */
+  private void signal() {
+    if (waiter.get() != null) {
+      Thread thread = waiter.getAndSet(null);
+      if (thread != null) {
+        LockSupport.unpark(thread);
+      }
+    }
+  }
+
+  /**
+   * Tops up the number of requested responses to the read-ahead window. Only called by the
+   * consumer.
+   */
+  private void requestMore() {
+    if (closed || completed || error.get() != null) {
+      return;
+    }
+    if (bufferedBytes.get() >= readAheadBytes) {
+      return;
+    }
+    // Responses that are buffered or in flight.
+    long outstanding = requested - head.get();
+    int count;
+    if (budget.isExhausted()) {
+      // Other streams are holding the client's budget. Keep one response coming, so this stream
+      // still makes progress once its buffer is empty.
+      count = outstanding == 0 ? 1 : 0;
+    } else {
+      count = (int) (readAheadChunks - outstanding);
+    }
+    if (count > 0) {
+      requested += count;
+      call.request(count);
     }
   }
 }
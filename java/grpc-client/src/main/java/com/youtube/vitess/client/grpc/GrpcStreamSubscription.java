@@ -0,0 +1,206 @@
+package com.youtube.vitess.client.grpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import com.youtube.vitess.client.StreamSubscriber;
+import com.youtube.vitess.client.StreamSubscription;
+
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link StreamSubscription} that pushes the responses of a gRPC {@link ClientCall} to a
+ * {@link StreamSubscriber}.
+ *
+ * <p>Unlike {@link GrpcStreamAdapter}, nothing is buffered and no thread ever waits: the demand of
+ * the subscriber is passed straight to the call's inbound flow control, and each response is handed
+ * to the subscriber from the gRPC callback that received it.
+ *
+ * <p>gRPC doesn't allow concurrent calls to a {@link ClientCall}, but the subscriber may request
+ * and cancel from its own threads while a callback cancels the call after an error. So
+ * {@link #request(long)} and {@link #cancel()} only record what to do, and whichever thread gets
+ * into {@link #drain()} first passes it on to the call, on behalf of the others as well.
+ *
+ * <p>This class is abstract for the same reason as {@link GrpcStreamAdapter}: callers must
+ * implement {@link #getResult(Object)}.
+ *
+ * @param <V> The type of value received by the {@link ClientCall}.
+ * @param <E> The type of value to pass to the {@link StreamSubscriber}.
+ */
+abstract class GrpcStreamSubscription<V, E> extends ClientCall.Listener<V>
+    implements StreamSubscription {
+  /**
+   * Converts an RPC response to the result for the subscriber, like
+   * {@link GrpcStreamAdapter#getResult(Object)}.
+   */
+  abstract E getResult(V value) throws SQLException;
+
+  private final StreamSubscriber<? super E> subscriber;
+  /**
+   * The most responses requested from the call but not received yet at any time.
+   */
+  private final int maxOutstanding;
+  /**
+   * Requested responses that haven't been passed on to the call yet. {@code Long.MAX_VALUE} means
+   * unbounded demand.
+   */
+  private final AtomicLong pending = new AtomicLong();
+  /**
+   * Responses requested from the call but not received yet. gRPC counts these in an int, so no
+   * more than {@link #maxOutstanding} are passed on at a time, and the rest stay in
+   * {@link #pending}.
+   */
+  private final AtomicInteger outstanding = new AtomicInteger();
+  /**
+   * The number of threads that want to run {@link #drain()}.
+   */
+  private final AtomicInteger drainers = new AtomicInteger();
+  private volatile boolean started = false;
+  private volatile boolean cancelled = false;
+  /**
+   * Whether the subscriber has been told that the stream ended. Only accessed by gRPC callbacks.
+   */
+  private boolean terminated = false;
+  private ClientCall<?, V> call;
+
+  GrpcStreamSubscription(StreamSubscriber<? super E> subscriber) {
+    this(subscriber, Integer.MAX_VALUE);
+  }
+
+  @VisibleForTesting
+  GrpcStreamSubscription(StreamSubscriber<? super E> subscriber, int maxOutstanding) {
+    checkArgument(maxOutstanding > 0, "maxOutstanding must be positive");
+    this.subscriber = checkNotNull(subscriber);
+    this.maxOutstanding = maxOutstanding;
+  }
+
+  /**
+   * Hands the subscription to the subscriber, then starts the call and sends the request.
+   */
+  <R> void start(ClientCall<R, V> call, R request) {
+    this.call = call;
+    // No responses can arrive before the call is started, so onSubscribe() always comes first.
+    subscriber.onSubscribe(this);
+    if (cancelled) {
+      return;
+    }
+    try {
+      call.start(this, new Metadata());
+      call.sendMessage(request);
+      call.halfClose();
+    } catch (RuntimeException e) {
+      call.cancel();
+      throw e;
+    }
+    started = true;
+    drain();
+  }
+
+  @Override
+  public void request(long n) {
+    checkArgument(n > 0, "number of requested results must be positive");
+    long current;
+    long next;
+    do {
+      current = pending.get();
+      next = current + n;
+      if (next < 0) {
+        // Long.MAX_VALUE means unbounded, as in Reactive Streams.
+        next = Long.MAX_VALUE;
+      }
+    } while (!pending.compareAndSet(current, next));
+    drain();
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+    drain();
+  }
+
+  @Override
+  public void onMessage(V value) {
+    // Once everything passed on has arrived, pass on the demand that didn't fit.
+    if (outstanding.decrementAndGet() == 0 && pending.get() > 0) {
+      drain();
+    }
+    if (cancelled || terminated) {
+      return;
+    }
+    E result;
+    try {
+      result = getResult(value);
+    } catch (SQLException e) {
+      terminated = true;
+      cancel();
+      subscriber.onError(e);
+      return;
+    }
+    subscriber.onNext(result);
+  }
+
+  @Override
+  public void onClose(Status status, Metadata trailers) {
+    if (cancelled || terminated) {
+      return;
+    }
+    terminated = true;
+    if (status.isOk()) {
+      subscriber.onComplete();
+    } else {
+      subscriber.onError(GrpcClient.convertGrpcError(status.asRuntimeException()));
+    }
+  }
+
+  /**
+   * Passes pending requests and cancellation on to the call, once it has been started. Only one
+   * thread at a time gets past the first check; the others leave their work to it.
+   */
+  private void drain() {
+    if (drainers.getAndIncrement() != 0) {
+      return;
+    }
+    do {
+      if (!started) {
+        continue;
+      }
+      if (cancelled) {
+        call.cancel();
+        continue;
+      }
+      int n = takePending(maxOutstanding - outstanding.get());
+      if (n > 0) {
+        outstanding.addAndGet(n);
+        call.request(n);
+      }
+    } while (drainers.decrementAndGet() != 0);
+  }
+
+  /**
+   * Takes up to {@code max} responses from {@link #pending}. Unbounded demand is never used up.
+   */
+  private int takePending(int max) {
+    while (max > 0) {
+      long current = pending.get();
+      if (current == 0) {
+        return 0;
+      }
+      if (current == Long.MAX_VALUE) {
+        return max;
+      }
+      int n = (int) Math.min(current, max);
+      if (pending.compareAndSet(current, current - n)) {
+        return n;
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,104 @@
+package com.youtube.vitess.client.grpc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * GrpcTransport is the Netty event loop group and socket channel type that gRPC channels use.
+ *
+ * <p>{@link #shared()} returns a single transport for the whole JVM, so I/O threads and buffer
+ * pools don't multiply with the number of vtgates and JDBC users. It uses the native epoll
+ * transport if netty-transport-native-epoll is on the classpath and works on this platform, and
+ * falls back to NIO otherwise.
+ */
+public final class GrpcTransport {
+  /**
+   * Pooled direct buffer allocator shared by all NIO channels of the shared transport.
+   */
+  static final ByteBufAllocator ALLOCATOR = new PooledByteBufAllocator(true /* preferDirect */);
+
+  private static final String EPOLL_PACKAGE = "io.netty.channel.epoll.";
+
+  private final EventLoopGroup eventLoopGroup;
+  private final Class<? extends Channel> channelType;
+
+  /**
+   * Creates a transport on an event loop group owned by the caller, who must shut it down after
+   * all channels using it are closed.
+   *
+   * @param channelType The socket channel class, which must match the event loop group.
+   */
+  public GrpcTransport(EventLoopGroup eventLoopGroup, Class<? extends Channel> channelType) {
+    this.eventLoopGroup = checkNotNull(eventLoopGroup);
+    this.channelType = checkNotNull(channelType);
+  }
+
+  /**
+   * Returns the transport shared by every client in the JVM. It's created on first use, and its
+   * daemon threads live until the JVM exits.
+   */
+  public static GrpcTransport shared() {
+    return SharedHolder.SHARED;
+  }
+
+  public EventLoopGroup getEventLoopGroup() {
+    return eventLoopGroup;
+  }
+
+  public Class<? extends Channel> getChannelType() {
+    return channelType;
+  }
+
+  /**
+   * Returns true if this transport uses native epoll rather than NIO.
+   */
+  public boolean isEpoll() {
+    return channelType.getName().startsWith(EPOLL_PACKAGE);
+  }
+
+  private static class SharedHolder {
+    static final GrpcTransport SHARED = createShared();
+  }
+
+  private static GrpcTransport createShared() {
+    ThreadFactory threadFactory =
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("vitess-grpc-%d").build();
+    // The epoll transport is an optional, platform-specific dependency, so it's loaded by name.
+    try {
+      Class<?> epoll = Class.forName(EPOLL_PACKAGE + "Epoll");
+      if ((Boolean) epoll.getMethod("isAvailable").invoke(null)) {
+        EventLoopGroup group =
+            (EventLoopGroup)
+                Class.forName(EPOLL_PACKAGE + "EpollEventLoopGroup")
+                    .getConstructor(int.class, ThreadFactory.class)
+                    .newInstance(0, threadFactory);
+        return new GrpcTransport(
+            group, Class.forName(EPOLL_PACKAGE + "EpollSocketChannel").asSubclass(Channel.class));
+      }
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // Fall through to NIO.
+    }
+    return new GrpcTransport(new NioEventLoopGroup(0, threadFactory), PooledNioSocketChannel.class);
+  }
+
+  /**
+   * A NIO socket channel that allocates its buffers from the shared pooled direct allocator.
+   *
+   * <p>It's public because Netty creates channels reflectively.
+   */
+  public static final class PooledNioSocketChannel extends NioSocketChannel {
+    public PooledNioSocketChannel() {
+      config().setAllocator(ALLOCATOR);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.youtube.vitess.client.grpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ManagedChannel} that spreads calls over several channels to the same endpoint.
+ *
+ * <p>Each {@code ManagedChannel} uses a single HTTP/2 connection, so all calls on it share one TCP
+ * congestion window and the server's limit on concurrent streams per connection. A pool of
+ * channels opens one connection per channel, and sends each new call (unary or streaming) to the
+ * channel with the fewest active calls.
+ */
+public class ManagedChannelPool extends ManagedChannel {
+  private final List<ManagedChannel> channels;
+  private final AtomicInteger[] activeCalls;
+  /**
+   * Rotates the starting point of the least-loaded scan, so ties are spread evenly.
+   */
+  private final AtomicInteger nextChannel = new AtomicInteger();
+
+  /**
+   * @param channels The channels to spread calls over. They're shut down with the pool.
+   */
+  public ManagedChannelPool(List<? extends ManagedChannel> channels) {
+    checkArgument(!channels.isEmpty(), "at least one channel is required");
+    this.channels = ImmutableList.copyOf(channels);
+    activeCalls = new AtomicInteger[channels.size()];
+    for (int i = 0; i < activeCalls.length; i++) {
+      activeCalls[i] = new AtomicInteger();
+    }
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+      MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+    final int index = leastLoaded();
+    final AtomicInteger active = activeCalls[index];
+    return new SimpleForwardingClientCall<ReqT, RespT>(
+        channels.get(index).newCall(method, callOptions)) {
+      @Override
+      public void start(Listener<RespT> responseListener, Metadata headers) {
+        active.incrementAndGet();
+        try {
+          super.start(
+              new SimpleForwardingClientCallListener<RespT>(responseListener) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                  active.decrementAndGet();
+                  super.onClose(status, trailers);
+                }
+              },
+              headers);
+        } catch (RuntimeException e) {
+          active.decrementAndGet();
+          throw e;
+        }
+      }
+    };
+  }
+
+  @Override
+  public String authority() {
+    return channels.get(0).authority();
+  }
+
+  @Override
+  public ManagedChannelPool shutdown() {
+    for (ManagedChannel channel : channels) {
+      channel.shutdown();
+    }
+    return this;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    for (ManagedChannel channel : channels) {
+      if (!channel.isShutdown()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    for (ManagedChannel channel : channels) {
+      if (!channel.isTerminated()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public ManagedChannelPool shutdownNow() {
+    for (ManagedChannel channel : channels) {
+      channel.shutdownNow();
+    }
+    return this;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ManagedChannel channel : channels) {
+      long remaining = deadline - System.nanoTime();
+      if (!channel.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of active calls on each channel.
+   */
+  int[] getActiveCalls() {
+    int[] counts = new int[activeCalls.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = activeCalls[i].get();
+    }
+    return counts;
+  }
+
+  private int leastLoaded() {
+    int size = activeCalls.length;
+    int start = (nextChannel.getAndIncrement() & Integer.MAX_VALUE) % size;
+    int best = start;
+    int bestCount = activeCalls[start].get();
+    for (int i = 1; i < size && bestCount > 0; i++) {
+      int index = (start + i) % size;
+      int count = activeCalls[index].get();
+      if (count < bestCount) {
+        best = index;
+        bestCount = count;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,44 @@
+package com.youtube.vitess.client.grpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StreamBudget bounds the memory held by streaming responses that have been received but not yet
+ * consumed, across all the streams of a {@link GrpcClient}.
+ *
+ * <p>Each {@link GrpcStreamAdapter} charges the size of the responses it buffers to the budget,
+ * and refunds them when the consumer takes them or the stream is closed. While the budget is
+ * exhausted, streams stop requesting more responses from the server, except for one at a time
+ * when a stream has nothing buffered, so no stream can stall waiting for the others.
+ */
+final class StreamBudget {
+  private final long limitBytes;
+  private final AtomicLong usedBytes = new AtomicLong();
+
+  StreamBudget(long limitBytes) {
+    checkArgument(limitBytes > 0, "limitBytes must be positive");
+    this.limitBytes = limitBytes;
+  }
+
+  void charge(long bytes) {
+    usedBytes.addAndGet(bytes);
+  }
+
+  void refund(long bytes) {
+    usedBytes.addAndGet(-bytes);
+  }
+
+  boolean isExhausted() {
+    return usedBytes.get() >= limitBytes;
+  }
+
+  long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  long getLimitBytes() {
+    return limitBytes;
+  }
+}
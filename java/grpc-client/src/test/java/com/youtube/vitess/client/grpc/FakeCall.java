@@ -0,0 +1,40 @@
+package com.youtube.vitess.client.grpc;
+
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+
+/**
+ * A {@link ClientCall} that records what is done with it, for testing the stream listeners.
+ */
+class FakeCall extends ClientCall<String, String> {
+  Listener<String> listener;
+  String request;
+  int requested;
+  boolean halfClosed;
+  boolean cancelled;
+
+  @Override
+  public void start(Listener<String> listener, Metadata headers) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void request(int numMessages) {
+    requested += numMessages;
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+  }
+
+  @Override
+  public void halfClose() {
+    halfClosed = true;
+  }
+
+  @Override
+  public void sendMessage(String message) {
+    request = message;
+  }
+}
@@ -0,0 +1,187 @@
+package com.youtube.vitess.client.grpc;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of handing streamed responses from a gRPC callback thread to the
+ * consuming thread, through {@link GrpcStreamAdapter} and through a copy of the monitor-based
+ * buffer it replaced.
+ *
+ * <p>This isn't run as a test. Run it with
+ * {@code java -cp <test classpath> com.youtube.vitess.client.grpc.GrpcStreamAdapterBenchmark
+ * [messages] [readAheadChunks]}.
+ */
+public class GrpcStreamAdapterBenchmark {
+  private static final int ROUNDS = 10;
+  private static final int WARMUP_ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+    int readAheadChunks = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    String[] values = new String[1024];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Integer.toString(i);
+    }
+
+    for (int round = 0; round < ROUNDS; round++) {
+      long monitorNanos = runMonitor(values, messages, readAheadChunks);
+      long ringNanos = runAdapter(values, messages, readAheadChunks);
+      if (round >= WARMUP_ROUNDS) {
+        System.out.printf(
+            "round %d: monitor %,d msgs/s, ring %,d msgs/s%n",
+            round - WARMUP_ROUNDS,
+            perSecond(messages, monitorNanos),
+            perSecond(messages, ringNanos));
+      }
+    }
+  }
+
+  private static long perSecond(int messages, long nanos) {
+    return messages * TimeUnit.SECONDS.toNanos(1) / nanos;
+  }
+
+  private static long runAdapter(final String[] values, final int messages, int readAheadChunks)
+      throws Exception {
+    final Semaphore permits = new Semaphore(0);
+    FakeCall call =
+        new FakeCall() {
+          @Override
+          public void request(int numMessages) {
+            permits.release(numMessages);
+          }
+        };
+    final Adapter adapter = new Adapter(readAheadChunks);
+    adapter.start(call, "request");
+    Thread producer =
+        new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < messages; i++) {
+              permits.acquireUninterruptibly();
+              adapter.onMessage(values[i & (values.length - 1)]);
+            }
+            adapter.onClose(Status.OK, new Metadata());
+          }
+        };
+    long start = System.nanoTime();
+    producer.start();
+    int count = 0;
+    while (adapter.hasNext()) {
+      adapter.next();
+      count++;
+    }
+    long nanos = System.nanoTime() - start;
+    producer.join();
+    check(count, messages);
+    return nanos;
+  }
+
+  private static long runMonitor(final String[] values, final int messages, int readAheadChunks)
+      throws Exception {
+    final Semaphore permits = new Semaphore(0);
+    final MonitorBuffer buffer = new MonitorBuffer(permits, readAheadChunks);
+    buffer.requestMore();
+    Thread producer =
+        new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < messages; i++) {
+              permits.acquireUninterruptibly();
+              buffer.onMessage(values[i & (values.length - 1)]);
+            }
+            buffer.onClose();
+          }
+        };
+    long start = System.nanoTime();
+    producer.start();
+    int count = 0;
+    while (buffer.next() != null) {
+      count++;
+    }
+    long nanos = System.nanoTime() - start;
+    producer.join();
+    check(count, messages);
+    return nanos;
+  }
+
+  private static void check(int count, int messages) {
+    if (count != messages) {
+      throw new AssertionError("received " + count + " of " + messages + " messages");
+    }
+  }
+
+  private static class Adapter extends GrpcStreamAdapter<String, String> {
+    Adapter(int readAheadChunks) {
+      super(readAheadChunks, Long.MAX_VALUE);
+    }
+
+    @Override
+    String getResult(String value) {
+      return value;
+    }
+  }
+
+  /**
+   * The hand-off of the adapter before the ring buffer: an ArrayDeque guarded by the monitor of
+   * the buffer, with wait() and notifyAll().
+   */
+  private static class MonitorBuffer {
+    private final Semaphore permits;
+    private final int readAheadChunks;
+    private final ArrayDeque<String> buffer = new ArrayDeque<>();
+    private int requested;
+    private boolean completed;
+
+    MonitorBuffer(Semaphore permits, int readAheadChunks) {
+      this.permits = permits;
+      this.readAheadChunks = readAheadChunks;
+    }
+
+    void onMessage(String value) {
+      synchronized (this) {
+        requested--;
+        buffer.add(value);
+        notifyAll();
+      }
+    }
+
+    void onClose() {
+      synchronized (this) {
+        completed = true;
+        notifyAll();
+      }
+    }
+
+    String next() throws InterruptedException {
+      String value;
+      synchronized (this) {
+        while (buffer.isEmpty()) {
+          if (completed) {
+            return null;
+          }
+          wait();
+        }
+        value = buffer.poll();
+      }
+      requestMore();
+      return value;
+    }
+
+    void requestMore() {
+      int count;
+      synchronized (this) {
+        count = readAheadChunks - buffer.size() - requested;
+        if (count <= 0) {
+          return;
+        }
+        requested += count;
+      }
+      permits.release(count);
+    }
+  }
+}
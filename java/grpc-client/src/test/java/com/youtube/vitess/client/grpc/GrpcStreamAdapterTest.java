@@ -0,0 +1,211 @@
+package com.youtube.vitess.client.grpc;
+
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This tests GrpcStreamAdapter flow control with a fake {@link ClientCall}.
+ */
+@RunWith(JUnit4.class)
+public class GrpcStreamAdapterTest {
+  @Test
+  public void testReadAheadWindow() throws Exception {
+    FakeCall call = new FakeCall();
+    Adapter adapter = new Adapter(3, Long.MAX_VALUE);
+    adapter.start(call, "request");
+    Assert.assertEquals("request", call.request);
+    Assert.assertTrue(call.halfClosed);
+    Assert.assertEquals(3, call.requested);
+
+    // Responses can arrive before the consumer asks for them.
+    adapter.onMessage("a");
+    adapter.onMessage("b");
+    Assert.assertEquals(3, call.requested);
+
+    Assert.assertEquals("a", adapter.next());
+    Assert.assertEquals(4, call.requested);
+    Assert.assertEquals("b", adapter.next());
+    Assert.assertEquals(5, call.requested);
+
+    adapter.onMessage("c");
+    adapter.onClose(Status.OK, new Metadata());
+    Assert.assertEquals("c", adapter.next());
+    Assert.assertFalse(adapter.hasNext());
+    Assert.assertEquals(5, call.requested);
+    try {
+      adapter.next();
+      Assert.fail("expected NoSuchElementException");
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testReadAheadBytes() throws Exception {
+    FakeCall call = new FakeCall();
+    Adapter adapter = new Adapter(10, 3);
+    adapter.start(call, "request");
+    Assert.assertEquals(10, call.requested);
+
+    adapter.onMessage("abc");
+    adapter.onMessage("defg");
+    // 4 bytes are still buffered after consuming the first one, so no more are requested.
+    Assert.assertEquals("abc", adapter.next());
+    Assert.assertEquals(10, call.requested);
+    // Now the buffer is empty, so the window is topped up again.
+    Assert.assertEquals("defg", adapter.next());
+    Assert.assertEquals(12, call.requested);
+  }
+
+  @Test
+  public void testClientBudget() throws Exception {
+    StreamBudget budget = new StreamBudget(5);
+    FakeCall callA = new FakeCall();
+    Adapter a = new Adapter(3, Long.MAX_VALUE, budget);
+    a.start(callA, "request");
+    Assert.assertEquals(3, callA.requested);
+    a.onMessage("abcdef");
+    Assert.assertTrue(budget.isExhausted());
+
+    // While another stream holds the budget, only one response at a time is requested.
+    FakeCall callB = new FakeCall();
+    Adapter b = new Adapter(3, Long.MAX_VALUE, budget);
+    b.start(callB, "request");
+    Assert.assertEquals(1, callB.requested);
+    b.onMessage("x");
+    Assert.assertEquals("x", b.next());
+    Assert.assertEquals(2, callB.requested);
+
+    // Consuming the big response frees the budget, so both windows open up again.
+    Assert.assertEquals("abcdef", a.next());
+    Assert.assertEquals(0, budget.getUsedBytes());
+    Assert.assertEquals(4, callA.requested);
+    b.onMessage("y");
+    Assert.assertEquals("y", b.next());
+    Assert.assertEquals(5, callB.requested);
+
+    // Closing a stream refunds whatever it still buffers.
+    a.onMessage("ghijkl");
+    Assert.assertEquals(6, budget.getUsedBytes());
+    a.close();
+    Assert.assertEquals(0, budget.getUsedBytes());
+    a.onMessage("late");
+    Assert.assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  public void testErrorAfterBufferedResults() throws Exception {
+    FakeCall call = new FakeCall();
+    Adapter adapter = new Adapter(2, Long.MAX_VALUE);
+    adapter.start(call, "request");
+    adapter.onMessage("a");
+    adapter.onClose(Status.DEADLINE_EXCEEDED, new Metadata());
+
+    Assert.assertEquals("a", adapter.next());
+    try {
+      adapter.hasNext();
+      Assert.fail("expected SQLException");
+    } catch (SQLTimeoutException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testApplicationErrorCancels() throws Exception {
+    FakeCall call = new FakeCall();
+    Adapter adapter = new Adapter(2, Long.MAX_VALUE);
+    adapter.start(call, "request");
+    adapter.onMessage("error");
+    Assert.assertTrue(call.cancelled);
+    try {
+      adapter.next();
+      Assert.fail("expected SQLException");
+    } catch (SQLException e) {
+      Assert.assertEquals("application error", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testCloseCancels() throws Exception {
+    FakeCall call = new FakeCall();
+    Adapter adapter = new Adapter(2, Long.MAX_VALUE);
+    adapter.start(call, "request");
+    adapter.onMessage("a");
+    adapter.close();
+    Assert.assertTrue(call.cancelled);
+
+    // Late responses are dropped.
+    adapter.onMessage("b");
+    adapter.onClose(Status.CANCELLED, new Metadata());
+    Assert.assertEquals(2, call.requested);
+  }
+
+  @Test(timeout = 30000)
+  public void testConcurrentHandoff() throws Exception {
+    final int count = 100000;
+    final Semaphore permits = new Semaphore(0);
+    FakeCall call =
+        new FakeCall() {
+          @Override
+          public void request(int numMessages) {
+            super.request(numMessages);
+            permits.release(numMessages);
+          }
+        };
+    final Adapter adapter = new Adapter(4, Long.MAX_VALUE);
+    adapter.start(call, "request");
+
+    // Like gRPC, only send as many responses as were requested.
+    Thread producer =
+        new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < count; i++) {
+              permits.acquireUninterruptibly();
+              adapter.onMessage(Integer.toString(i));
+            }
+            adapter.onClose(Status.OK, new Metadata());
+          }
+        };
+    producer.start();
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(Integer.toString(i), adapter.next());
+    }
+    Assert.assertFalse(adapter.hasNext());
+    producer.join();
+  }
+
+  private static class Adapter extends GrpcStreamAdapter<String, String> {
+    Adapter(int readAheadChunks, long readAheadBytes) {
+      super(readAheadChunks, readAheadBytes);
+    }
+
+    Adapter(int readAheadChunks, long readAheadBytes, StreamBudget budget) {
+      super(readAheadChunks, readAheadBytes, budget);
+    }
+
+    @Override
+    String getResult(String value) throws SQLException {
+      if (value.equals("error")) {
+        throw new SQLException("application error");
+      }
+      return value;
+    }
+
+    @Override
+    int getSize(String value) {
+      return value.length();
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package com.youtube.vitess.client.grpc;
+
+import com.youtube.vitess.client.StreamSubscriber;
+import com.youtube.vitess.client.StreamSubscription;
+
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This tests that GrpcStreamSubscription passes subscriber demand to a fake {@link ClientCall}.
+ */
+@RunWith(JUnit4.class)
+public class GrpcStreamSubscriptionTest {
+  @Test
+  public void testDemand() throws Exception {
+    FakeCall call = new FakeCall();
+    Subscriber subscriber = new Subscriber(2);
+    new Subscription(subscriber).start(call, "request");
+    Assert.assertEquals("request", call.request);
+    Assert.assertTrue(call.halfClosed);
+    // The request made in onSubscribe() is passed on once the call has started.
+    Assert.assertEquals(2, call.requested);
+
+    call.listener.onMessage("a");
+    call.listener.onMessage("b");
+    Assert.assertEquals(2, call.requested);
+    subscriber.subscription.request(3);
+    Assert.assertEquals(5, call.requested);
+
+    call.listener.onMessage("c");
+    call.listener.onClose(Status.OK, new Metadata());
+    Assert.assertEquals(3, subscriber.values.size());
+    Assert.assertEquals("c", subscriber.values.get(2));
+    Assert.assertTrue(subscriber.completed);
+    Assert.assertNull(subscriber.error);
+  }
+
+  @Test
+  public void testUnboundedDemand() throws Exception {
+    FakeCall call = new FakeCall();
+    Subscriber subscriber = new Subscriber(Long.MAX_VALUE);
+    new Subscription(subscriber).start(call, "request");
+    Assert.assertEquals(Integer.MAX_VALUE, call.requested);
+    // Further requests can't add to unbounded demand.
+    subscriber.subscription.request(Long.MAX_VALUE);
+    subscriber.subscription.request(1);
+    Assert.assertEquals(Integer.MAX_VALUE, call.requested);
+  }
+
+  @Test
+  public void testDemandOverMaxOutstanding() throws Exception {
+    FakeCall call = new FakeCall();
+    Subscriber subscriber = new Subscriber(10);
+    new Subscription(subscriber, 4).start(call, "request");
+    // No more than 4 responses are requested at a time. The rest of the demand isn't dropped, but
+    // passed on once those have arrived.
+    Assert.assertEquals(4, call.requested);
+    for (int i = 0; i < 3; i++) {
+      call.listener.onMessage("a");
+    }
+    Assert.assertEquals(4, call.requested);
+    call.listener.onMessage("a");
+    Assert.assertEquals(8, call.requested);
+    subscriber.subscription.request(1);
+    Assert.assertEquals(8, call.requested);
+    for (int i = 0; i < 4; i++) {
+      call.listener.onMessage("a");
+    }
+    Assert.assertEquals(11, call.requested);
+  }
+
+  @Test
+  public void testCancelBeforeStart() throws Exception {
+    FakeCall call = new FakeCall();
+    Subscriber subscriber =
+        new Subscriber(1) {
+          @Override
+          public void onSubscribe(StreamSubscription subscription) {
+            subscription.cancel();
+          }
+        };
+    new Subscription(subscriber).start(call, "request");
+    Assert.assertNull(call.listener);
+    Assert.assertEquals(0, call.requested);
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    FakeCall call = new FakeCall();
+    Subscriber subscriber = new Subscriber(1);
+    new Subscription(subscriber).start(call, "request");
+    subscriber.subscription.cancel();
+    Assert.assertTrue(call.cancelled);
+
+    // Nothing is delivered after cancellation.
+    call.listener.onMessage("a");
+    call.listener.onClose(Status.CANCELLED, new Metadata());
+    Assert.assertTrue(subscriber.values.isEmpty());
+    Assert.assertFalse(subscriber.completed);
+    Assert.assertNull(subscriber.error);
+  }
+
+  @Test
+  public void testGrpcError() throws Exception {
+    FakeCall call = new FakeCall();
+    Subscriber subscriber = new Subscriber(1);
+    new Subscription(subscriber).start(call, "request");
+    call.listener.onClose(Status.DEADLINE_EXCEEDED, new Metadata());
+    Assert.assertTrue(subscriber.error instanceof SQLTimeoutException);
+  }
+
+  @Test
+  public void testApplicationErrorCancels() throws Exception {
+    FakeCall call = new FakeCall();
+    Subscriber subscriber = new Subscriber(2);
+    new Subscription(subscriber).start(call, "request");
+    call.listener.onMessage("error");
+    Assert.assertTrue(call.cancelled);
+    Assert.assertEquals("application error", subscriber.error.getMessage());
+
+    // The error is only reported once.
+    subscriber.error = null;
+    call.listener.onClose(Status.CANCELLED, new Metadata());
+    Assert.assertNull(subscriber.error);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRequest() throws Exception {
+    Subscriber subscriber = new Subscriber(1);
+    new Subscription(subscriber).start(new FakeCall(), "request");
+    subscriber.subscription.request(0);
+  }
+
+  private static class Subscription extends GrpcStreamSubscription<String, String> {
+    Subscription(StreamSubscriber<String> subscriber) {
+      super(subscriber);
+    }
+
+    Subscription(StreamSubscriber<String> subscriber, int maxOutstanding) {
+      super(subscriber, maxOutstanding);
+    }
+
+    @Override
+    String getResult(String value) throws SQLException {
+      if (value.equals("error")) {
+        throw new SQLException("application error");
+      }
+      return value;
+    }
+  }
+
+  private static class Subscriber implements StreamSubscriber<String> {
+    final long initialRequest;
+    StreamSubscription subscription;
+    List<String> values = new ArrayList<>();
+    SQLException error;
+    boolean completed;
+
+    Subscriber(long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(StreamSubscription subscription) {
+      this.subscription = subscription;
+      subscription.request(initialRequest);
+    }
+
+    @Override
+    public void onNext(String value) {
+      values.add(value);
+    }
+
+    @Override
+    public void onError(SQLException e) {
+      error = e;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+  }
+}
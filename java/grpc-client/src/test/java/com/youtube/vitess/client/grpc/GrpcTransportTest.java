@@ -0,0 +1,33 @@
+package com.youtube.vitess.client.grpc;
+
+import com.youtube.vitess.client.grpc.GrpcTransport.PooledNioSocketChannel;
+
+import io.netty.channel.Channel;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GrpcTransportTest {
+  @Test
+  public void testSharedTransport() throws Exception {
+    GrpcTransport transport = GrpcTransport.shared();
+    Assert.assertSame(transport, GrpcTransport.shared());
+    Assert.assertFalse(transport.getEventLoopGroup().isShuttingDown());
+    if (!transport.isEpoll()) {
+      Assert.assertEquals(PooledNioSocketChannel.class, transport.getChannelType());
+    }
+  }
+
+  @Test
+  public void testPooledNioSocketChannel() throws Exception {
+    Channel channel = new PooledNioSocketChannel();
+    try {
+      Assert.assertSame(GrpcTransport.ALLOCATOR, channel.config().getAllocator());
+    } finally {
+      channel.unsafe().closeForcibly();
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.youtube.vitess.client.grpc;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This tests ManagedChannelPool call spreading with fake channels.
+ */
+@RunWith(JUnit4.class)
+public class ManagedChannelPoolTest {
+  @Test
+  public void testLeastLoaded() throws Exception {
+    FakeChannel a = new FakeChannel();
+    FakeChannel b = new FakeChannel();
+    FakeChannel c = new FakeChannel();
+    ManagedChannelPool pool = new ManagedChannelPool(Arrays.asList(a, b, c));
+
+    for (int i = 0; i < 6; i++) {
+      startCall(pool);
+    }
+    Assert.assertArrayEquals(new int[] {2, 2, 2}, pool.getActiveCalls());
+
+    // Closing calls on one channel makes it preferred.
+    for (FakeCall call : b.calls) {
+      call.listener.onClose(Status.OK, new Metadata());
+    }
+    Assert.assertArrayEquals(new int[] {2, 0, 2}, pool.getActiveCalls());
+    for (int i = 0; i < 2; i++) {
+      startCall(pool);
+    }
+    Assert.assertEquals(2, a.calls.size());
+    Assert.assertEquals(4, b.calls.size());
+    Assert.assertEquals(2, c.calls.size());
+  }
+
+  @Test
+  public void testCallsNotStartedAreNotCounted() throws Exception {
+    FakeChannel a = new FakeChannel();
+    FakeChannel b = new FakeChannel();
+    ManagedChannelPool pool = new ManagedChannelPool(Arrays.asList(a, b));
+    for (int i = 0; i < 4; i++) {
+      pool.newCall(null, CallOptions.DEFAULT);
+    }
+    Assert.assertArrayEquals(new int[] {0, 0}, pool.getActiveCalls());
+    Assert.assertEquals(2, a.calls.size());
+    Assert.assertEquals(2, b.calls.size());
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    FakeChannel a = new FakeChannel();
+    FakeChannel b = new FakeChannel();
+    ManagedChannelPool pool = new ManagedChannelPool(Arrays.asList(a, b));
+    Assert.assertFalse(pool.isShutdown());
+    pool.shutdown();
+    Assert.assertTrue(a.shutdown);
+    Assert.assertTrue(b.shutdown);
+    Assert.assertTrue(pool.isShutdown());
+    Assert.assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+    Assert.assertTrue(pool.isTerminated());
+  }
+
+  private static void startCall(ManagedChannel channel) {
+    ClientCall<String, String> call = channel.newCall(null, CallOptions.DEFAULT);
+    call.start(new ClientCall.Listener<String>() {}, new Metadata());
+  }
+
+  private static class FakeChannel extends ManagedChannel {
+    final List<FakeCall> calls = new ArrayList<>();
+    boolean shutdown;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+      FakeCall call = new FakeCall();
+      calls.add(call);
+      return (ClientCall<ReqT, RespT>) call;
+    }
+
+    @Override
+    public String authority() {
+      return "fake";
+    }
+
+    @Override
+    public FakeChannel shutdown() {
+      shutdown = true;
+      return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return shutdown;
+    }
+
+    @Override
+    public FakeChannel shutdownNow() {
+      return shutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return shutdown;
+    }
+  }
+
+  private static class FakeCall extends ClientCall<Object, Object> {
+    Listener<Object> listener;
+
+    @Override
+    public void start(Listener<Object> responseListener, Metadata headers) {
+      listener = responseListener;
+    }
+
+    @Override
+    public void request(int numMessages) {}
+
+    @Override
+    public void cancel() {}
+
+    @Override
+    public void halfClose() {}
+
+    @Override
+    public void sendMessage(Object message) {}
+  }
+}
@@ -1,6 +1,7 @@
 package com.flipkart.vitess.jdbc;
 
 import com.flipkart.vitess.util.Constants;
+import com.youtube.vitess.client.LoadBalancedRpcClient;
 import com.youtube.vitess.proto.Topodata;
 
 import java.io.UnsupportedEncodingException;
@@ -25,6 +26,8 @@ public class VitessJDBCUrl {
     private final String keyspace;
     private String catalog;
     private final String executeType;
+    private final int channelsPerVTGate;
+    private final LoadBalancedRpcClient.Strategy loadBalanceStrategy;
 
 
     /*
@@ -90,6 +93,8 @@ public class VitessJDBCUrl {
         String executeType = info.getProperty(Constants.Property.EXECUTE_TYPE);
 
         this.executeType = executeType;
+        this.channelsPerVTGate = getChannelsPerVTGate(info);
+        this.loadBalanceStrategy = getLoadBalanceStrategy(info);
         this.url = url;
     }
 
@@ -121,6 +126,61 @@ public class VitessJDBCUrl {
         this.catalog = catalog;
     }
 
+    /**
+     * Number of gRPC connections opened to each vtgate. Calls and streams are spread over them.
+     *
+     * @return
+     */
+    public int getChannelsPerVTGate() {
+        return channelsPerVTGate;
+    }
+
+    private static int getChannelsPerVTGate(Properties info) throws SQLException {
+        String channels = info.getProperty(Constants.Property.CHANNELS_PER_VTGATE);
+        if (null == channels) {
+            return Constants.DEFAULT_CHANNELS_PER_VTGATE;
+        }
+        int channelsPerVTGate;
+        try {
+            channelsPerVTGate = Integer.parseInt(channels);
+        } catch (NumberFormatException e) {
+            channelsPerVTGate = 0;
+        }
+        if (channelsPerVTGate < 1) {
+            throw new SQLException(Constants.SQLExceptionMessages.ILLEGAL_VALUE_FOR
+                + Constants.Property.CHANNELS_PER_VTGATE);
+        }
+        return channelsPerVTGate;
+    }
+
+    /**
+     * How calls are spread over the vtgates of the url. Null means round-robin over one
+     * connection per vtgate, which is the default. Otherwise, all vtgates share one connection
+     * that sends each call to the less loaded of two random vtgates, by the given measure.
+     *
+     * @return
+     */
+    public LoadBalancedRpcClient.Strategy getLoadBalanceStrategy() {
+        return loadBalanceStrategy;
+    }
+
+    private static LoadBalancedRpcClient.Strategy getLoadBalanceStrategy(Properties info)
+        throws SQLException {
+        String loadBalance = info.getProperty(Constants.Property.LOAD_BALANCE);
+        if (null == loadBalance || Constants.LOAD_BALANCE_ROUND_ROBIN.equals(loadBalance)) {
+            return null;
+        }
+        switch (loadBalance) {
+            case Constants.LOAD_BALANCE_LEAST_OUTSTANDING:
+                return LoadBalancedRpcClient.Strategy.LEAST_OUTSTANDING;
+            case Constants.LOAD_BALANCE_PEAK_EWMA:
+                return LoadBalancedRpcClient.Strategy.PEAK_EWMA;
+            default:
+                throw new SQLException(Constants.SQLExceptionMessages.ILLEGAL_VALUE_FOR
+                    + Constants.Property.LOAD_BALANCE);
+        }
+    }
+
     public Constants.QueryExecuteType getExecuteType() {
         if (this.executeType != null){
             switch (this.executeType) {
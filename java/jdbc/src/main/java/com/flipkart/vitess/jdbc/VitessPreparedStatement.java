@@ -3,6 +3,7 @@ package com.flipkart.vitess.jdbc;
 import com.flipkart.vitess.util.Constants;
 import com.flipkart.vitess.util.StringUtils;
 import com.youtube.vitess.client.Context;
+import com.youtube.vitess.client.PreparedQuery;
 import com.youtube.vitess.client.VTGateConn;
 import com.youtube.vitess.client.VTGateTx;
 import com.youtube.vitess.client.cursor.Cursor;
@@ -30,6 +31,8 @@ public class VitessPreparedStatement extends VitessStatement implements Prepared
     private static Logger logger = Logger.getLogger(VitessPreparedStatement.class.getName());
     private final String sql;
     private final Map<String, Object> bindVariables;
+    /* The sql encoded for the tablet type it was last executed with */
+    private PreparedQuery preparedQuery;
 
     public VitessPreparedStatement(VitessConnection vitessConnection, String sql)
         throws SQLException {
@@ -69,11 +72,12 @@ public class VitessPreparedStatement extends VitessStatement implements Prepared
             if (tabletType != Topodata.TabletType.MASTER || this.vitessConnection.getAutoCommit()) {
                 Context context = this.vitessConnection.createContext(this.queryTimeoutInMillis);
                 if (Constants.QueryExecuteType.SIMPLE == vitessConnection.getExecuteTypeParam()) {
-                    cursor = vtGateConn.execute(context, this.sql, this.bindVariables, tabletType)
+                    cursor = vtGateConn
+                        .execute(context, getPreparedQuery(tabletType), this.bindVariables)
                         .checkedGet();
                 } else {
-                    cursor =
-                        vtGateConn.streamExecute(context, this.sql, this.bindVariables, tabletType);
+                    cursor = vtGateConn
+                        .streamExecute(context, getPreparedQuery(tabletType), this.bindVariables);
                 }
             } else {
                 VTGateTx vtGateTx = this.vitessConnection.getVtGateTx();
@@ -84,7 +88,7 @@ public class VitessPreparedStatement extends VitessStatement implements Prepared
                     this.vitessConnection.setVtGateTx(vtGateTx);
                 }
                 Context context = this.vitessConnection.createContext(this.queryTimeoutInMillis);
-                cursor = vtGateTx.execute(context, this.sql, this.bindVariables, tabletType)
+                cursor = vtGateTx.execute(context, getPreparedQuery(tabletType), this.bindVariables)
                     .checkedGet();
             }
         }
@@ -121,14 +125,14 @@ public class VitessPreparedStatement extends VitessStatement implements Prepared
 
         if (this.vitessConnection.getAutoCommit()) {
             Context context = this.vitessConnection.createContext(this.queryTimeoutInMillis);
-            cursor =
-                vtGateTx.execute(context, this.sql, this.bindVariables, tabletType).checkedGet();
+            cursor = vtGateTx.execute(context, getPreparedQuery(tabletType), this.bindVariables)
+                .checkedGet();
             vtGateTx.commit(context).checkedGet();
             this.vitessConnection.setVtGateTx(null);
         } else {
             Context context = this.vitessConnection.createContext(this.queryTimeoutInMillis);
-            cursor =
-                vtGateTx.execute(context, this.sql, this.bindVariables, tabletType).checkedGet();
+            cursor = vtGateTx.execute(context, getPreparedQuery(tabletType), this.bindVariables)
+                .checkedGet();
         }
 
         if (null == cursor) {
@@ -614,6 +618,17 @@ public class VitessPreparedStatement extends VitessStatement implements Prepared
         }
     }
 
+    /**
+     * Returns the PreparedQuery for the sql of this statement, so it's only encoded once for all
+     * executions. It's rebuilt if the connection's tablet type has changed since the last one.
+     */
+    private PreparedQuery getPreparedQuery(Topodata.TabletType tabletType) {
+        if (null == this.preparedQuery || this.preparedQuery.getTabletType() != tabletType) {
+            this.preparedQuery = new PreparedQuery(this.sql, tabletType);
+        }
+        return this.preparedQuery;
+    }
+
     private void setNumericObject(int parameterIndex, Object parameterObj, int targetSqlType,
         int scale) throws SQLException {
         Number numberParam;
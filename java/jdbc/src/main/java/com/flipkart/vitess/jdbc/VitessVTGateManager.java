@@ -3,9 +3,11 @@ package com.flipkart.vitess.jdbc;
 import com.flipkart.vitess.util.CommonUtils;
 import com.flipkart.vitess.util.Constants;
 import com.youtube.vitess.client.Context;
+import com.youtube.vitess.client.LoadBalancedRpcClient;
 import com.youtube.vitess.client.RpcClient;
 import com.youtube.vitess.client.VTGateConn;
 import com.youtube.vitess.client.grpc.GrpcClientFactory;
+import org.joda.time.Duration;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -14,13 +16,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by naveen.nahata on 24/02/16.
  */
 public class VitessVTGateManager {
     /*
-    Current implementation have one VTGateConn for ip-port-username combination
+    Current implementation have one VTGateConn for ip-port-username-channelsPerVTGate combination
     */
     private static ConcurrentHashMap<String, VTGateConn> vtGateConnHashMap =
         new ConcurrentHashMap<>();
@@ -28,10 +31,13 @@ public class VitessVTGateManager {
 
     /**
      * VTGateConnections object consist of vtGateIdentifire list and return vtGate object in round robin.
+     * If the url sets a load balancing strategy, the list has a single VTGateConn that balances
+     * calls over all the vtgates instead.
+     * It is safe to use from multiple threads.
      */
     public static class VTGateConnections {
         private List<String> vtGateIdentifiers = new ArrayList<>();
-        int counter;
+        private final AtomicInteger counter;
 
         /**
          * Constructor
@@ -39,19 +45,31 @@ public class VitessVTGateManager {
          * @param vitessJDBCUrl
          */
         public VTGateConnections(VitessJDBCUrl vitessJDBCUrl) {
+            if (null != vitessJDBCUrl.getLoadBalanceStrategy()) {
+                String identifier = getLoadBalancedIdentifier(vitessJDBCUrl);
+                synchronized (VitessVTGateManager.class) {
+                    if (!vtGateConnHashMap.containsKey(identifier)) {
+                        vtGateConnHashMap.put(identifier, getLoadBalancedVtGateConn(vitessJDBCUrl));
+                    }
+                }
+                vtGateIdentifiers.add(identifier);
+                counter = new AtomicInteger();
+                return;
+            }
             for (VitessJDBCUrl.HostInfo hostInfo : vitessJDBCUrl.getHostInfos()) {
                 String identifier = getIdentifer(hostInfo.getHostname(), hostInfo.getPort(),
-                    vitessJDBCUrl.getUsername());
+                    vitessJDBCUrl.getUsername(), vitessJDBCUrl.getChannelsPerVTGate());
                 synchronized (VitessVTGateManager.class) {
                     if (!vtGateConnHashMap.containsKey(identifier)) {
                         updateVtGateConnHashMap(identifier, hostInfo.getHostname(),
-                            hostInfo.getPort(), vitessJDBCUrl.getUsername());
+                            hostInfo.getPort(), vitessJDBCUrl.getUsername(),
+                            vitessJDBCUrl.getChannelsPerVTGate());
                     }
                 }
                 vtGateIdentifiers.add(identifier);
             }
             Random random = new Random();
-            counter = random.nextInt(vtGateIdentifiers.size());
+            counter = new AtomicInteger(random.nextInt(vtGateIdentifiers.size()));
         }
 
         /**
@@ -60,15 +78,50 @@ public class VitessVTGateManager {
          * @return
          */
         public VTGateConn getVtGateConnInstance() {
-            counter++;
-            counter = counter % vtGateIdentifiers.size();
-            return vtGateConnHashMap.get(vtGateIdentifiers.get(counter));
+            // Mask the sign bit so the index stays valid when the counter overflows.
+            int index = (counter.incrementAndGet() & Integer.MAX_VALUE) % vtGateIdentifiers.size();
+            return vtGateConnHashMap.get(vtGateIdentifiers.get(index));
         }
 
     }
 
-    private static String getIdentifer(String hostname, int port, String userIdentifer) {
-        return (hostname + port + userIdentifer);
+    /**
+     * URLs that ask for a different number of channels get their own VTGateConn, so the pool
+     * size of a shared connection always matches the URL that uses it.
+     */
+    private static String getIdentifer(String hostname, int port, String userIdentifer,
+                                       int channels) {
+        return (hostname + port + userIdentifer + ":" + channels);
+    }
+
+    private static String getLoadBalancedIdentifier(VitessJDBCUrl vitessJDBCUrl) {
+        StringBuilder identifier = new StringBuilder();
+        for (VitessJDBCUrl.HostInfo hostInfo : vitessJDBCUrl.getHostInfos()) {
+            identifier.append(getIdentifer(hostInfo.getHostname(), hostInfo.getPort(),
+                vitessJDBCUrl.getUsername(), vitessJDBCUrl.getChannelsPerVTGate())).append(',');
+        }
+        return identifier.append(vitessJDBCUrl.getLoadBalanceStrategy()).toString();
+    }
+
+    /**
+     * Create one vtGateConn object that balances calls over all the vtgates of the url.
+     *
+     * @param vitessJDBCUrl
+     * @return
+     */
+    private static VTGateConn getLoadBalancedVtGateConn(VitessJDBCUrl vitessJDBCUrl) {
+        Context context = CommonUtils
+            .createContext(vitessJDBCUrl.getUsername(), Constants.CONNECTION_TIMEOUT);
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (VitessJDBCUrl.HostInfo hostInfo : vitessJDBCUrl.getHostInfos()) {
+            addresses.add(new InetSocketAddress(hostInfo.getHostname(), hostInfo.getPort()));
+        }
+        RpcClient client = LoadBalancedRpcClient.create(
+            new GrpcClientFactory(GrpcClientFactory.DEFAULT_READ_AHEAD_CHUNKS,
+                GrpcClientFactory.DEFAULT_READ_AHEAD_BYTES, vitessJDBCUrl.getChannelsPerVTGate()),
+            context, addresses, vitessJDBCUrl.getLoadBalanceStrategy(),
+            Duration.millis(Constants.VTGATE_EJECTION_TIME));
+        return (new VTGateConn(client));
     }
 
     /**
@@ -77,12 +130,16 @@ public class VitessVTGateManager {
      * @param hostname
      * @param port
      * @param username
+     * @param channels
      * @return
      */
-    private static VTGateConn getVtGateConn(String hostname, int port, String username) {
+    private static VTGateConn getVtGateConn(String hostname, int port, String username,
+                                            int channels) {
         Context context = CommonUtils.createContext(username, Constants.CONNECTION_TIMEOUT);
         InetSocketAddress inetSocketAddress = new InetSocketAddress(hostname, port);
-        RpcClient client = new GrpcClientFactory().create(context, inetSocketAddress);
+        RpcClient client = new GrpcClientFactory(GrpcClientFactory.DEFAULT_READ_AHEAD_CHUNKS,
+            GrpcClientFactory.DEFAULT_READ_AHEAD_BYTES, channels)
+            .create(context, inetSocketAddress);
         return (new VTGateConn(client));
     }
 
@@ -93,10 +150,11 @@ public class VitessVTGateManager {
      * @param hostname
      * @param port
      * @param username
+     * @param channels
      */
     private static void updateVtGateConnHashMap(String identifier, String hostname, int port,
-                                                String username) {
-        vtGateConnHashMap.put(identifier, getVtGateConn(hostname, port, username));
+                                                String username, int channels) {
+        vtGateConnHashMap.put(identifier, getVtGateConn(hostname, port, username, channels));
     }
 
     public static void close() throws SQLException {
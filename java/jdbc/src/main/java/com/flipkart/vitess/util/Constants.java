@@ -35,6 +35,11 @@ public class Constants {
     public static final Constants.QueryExecuteType DEFAULT_EXECUTE_TYPE = QueryExecuteType.SIMPLE;
     public static final String EXECUTE_TYPE_DESC = "Query execution type: simple or stream \n";
     public static final String USERNAME_DESC = "Username used for ACL validation \n";
+    public static final int DEFAULT_CHANNELS_PER_VTGATE = 1;
+    public static final String LOAD_BALANCE_ROUND_ROBIN = "roundRobin";
+    public static final String LOAD_BALANCE_LEAST_OUTSTANDING = "leastOutstanding";
+    public static final String LOAD_BALANCE_PEAK_EWMA = "peakEwma";
+    public static final long VTGATE_EJECTION_TIME = 30000; //In miliseconds
 
 
     private Constants() {
@@ -108,6 +113,8 @@ public class Constants {
         public static final String KEYSPACE = "KEYSPACE";
         public static final String USERNAME = "userName";
         public static final String EXECUTE_TYPE = "executeType";
+        public static final String CHANNELS_PER_VTGATE = "channelsPerVTGate";
+        public static final String LOAD_BALANCE = "loadBalance";
     }
 
     public enum QueryExecuteType {
@@ -1,10 +1,13 @@
 package com.flipkart.vitess.jdbc.test;
 
 import com.flipkart.vitess.jdbc.VitessJDBCUrl;
+import com.flipkart.vitess.util.Constants;
+import com.youtube.vitess.client.LoadBalancedRpcClient;
 import com.youtube.vitess.proto.Topodata;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.sql.SQLException;
 import java.util.Properties;
 
 /**
@@ -112,5 +115,72 @@ public class VitessJDBCUrlTest {
         Assert.assertEquals("user", vitessJDBCUrl.getUsername());
     }
 
+    @Test
+    public void testChannelsPerVTGateDefault() throws Exception {
+        VitessJDBCUrl vitessJDBCUrl =
+            new VitessJDBCUrl("jdbc:vitess://10.33.17.231:15991/shipment/shipment",
+                new Properties());
+        Assert.assertEquals(Constants.DEFAULT_CHANNELS_PER_VTGATE,
+            vitessJDBCUrl.getChannelsPerVTGate());
+    }
+
+    @Test
+    public void testChannelsPerVTGate() throws Exception {
+        VitessJDBCUrl vitessJDBCUrl = new VitessJDBCUrl(
+            "jdbc:vitess://10.33.17.231:15991/shipment/shipment?channelsPerVTGate=4",
+            new Properties());
+        Assert.assertEquals(4, vitessJDBCUrl.getChannelsPerVTGate());
+
+        Properties info = new Properties();
+        info.setProperty(Constants.Property.CHANNELS_PER_VTGATE, "2");
+        vitessJDBCUrl =
+            new VitessJDBCUrl("jdbc:vitess://10.33.17.231:15991/shipment/shipment", info);
+        Assert.assertEquals(2, vitessJDBCUrl.getChannelsPerVTGate());
+    }
+
+    @Test
+    public void testIllegalChannelsPerVTGate() throws Exception {
+        for (String channels : new String[] {"0", "-1", "two"}) {
+            try {
+                new VitessJDBCUrl(
+                    "jdbc:vitess://10.33.17.231:15991/shipment/shipment?channelsPerVTGate="
+                        + channels, new Properties());
+                Assert.fail("expected SQLException for channelsPerVTGate=" + channels);
+            } catch (SQLException e) {
+                Assert.assertEquals(Constants.SQLExceptionMessages.ILLEGAL_VALUE_FOR
+                    + Constants.Property.CHANNELS_PER_VTGATE, e.getMessage());
+            }
+        }
+    }
 
+    @Test
+    public void testLoadBalance() throws Exception {
+        VitessJDBCUrl vitessJDBCUrl =
+            new VitessJDBCUrl("jdbc:vitess://10.33.17.231:15991/shipment/shipment",
+                new Properties());
+        Assert.assertNull(vitessJDBCUrl.getLoadBalanceStrategy());
+        vitessJDBCUrl = new VitessJDBCUrl(
+            "jdbc:vitess://10.33.17.231:15991/shipment/shipment?loadBalance=roundRobin",
+            new Properties());
+        Assert.assertNull(vitessJDBCUrl.getLoadBalanceStrategy());
+        vitessJDBCUrl = new VitessJDBCUrl(
+            "jdbc:vitess://10.33.17.231:15991/shipment/shipment?loadBalance=leastOutstanding",
+            new Properties());
+        Assert.assertEquals(LoadBalancedRpcClient.Strategy.LEAST_OUTSTANDING,
+            vitessJDBCUrl.getLoadBalanceStrategy());
+        vitessJDBCUrl = new VitessJDBCUrl(
+            "jdbc:vitess://10.33.17.231:15991/shipment/shipment?loadBalance=peakEwma",
+            new Properties());
+        Assert.assertEquals(LoadBalancedRpcClient.Strategy.PEAK_EWMA,
+            vitessJDBCUrl.getLoadBalanceStrategy());
+        try {
+            new VitessJDBCUrl(
+                "jdbc:vitess://10.33.17.231:15991/shipment/shipment?loadBalance=random",
+                new Properties());
+            Assert.fail("expected SQLException");
+        } catch (SQLException e) {
+            Assert.assertEquals(Constants.SQLExceptionMessages.ILLEGAL_VALUE_FOR
+                + Constants.Property.LOAD_BALANCE, e.getMessage());
+        }
+    }
 }
@@ -4,6 +4,7 @@ import com.flipkart.vitess.jdbc.VitessConnection;
 import com.flipkart.vitess.jdbc.VitessPreparedStatement;
 import com.flipkart.vitess.util.Constants;
 import com.youtube.vitess.client.Context;
+import com.youtube.vitess.client.PreparedQuery;
 import com.youtube.vitess.client.SQLFuture;
 import com.youtube.vitess.client.VTGateConn;
 import com.youtube.vitess.client.VTGateTx;
@@ -80,6 +81,9 @@ import java.util.*;
         PowerMockito.when(mockVtGateConn
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFutureCursor);
+        PowerMockito.when(mockVtGateConn
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFutureCursor);
         PowerMockito.when(mockConn.getVtGateTx()).thenReturn(null);
         PowerMockito.when(mockConn.getExecuteTypeParam())
             .thenReturn(Constants.QueryExecuteType.SIMPLE);
@@ -88,6 +92,9 @@ import java.util.*;
         PowerMockito.when(mockVtGateTx
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFutureCursor);
+        PowerMockito.when(mockVtGateTx
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFutureCursor);
         PowerMockito.when(mockSqlFutureCursor.checkedGet()).thenReturn(mockCursor);
         PowerMockito.when(mockSqlFutureVtGateTx.checkedGet()).thenReturn(mockVtGateTx);
 
@@ -158,15 +165,24 @@ import java.util.*;
         PowerMockito.when(mockVtGateConn
             .streamExecute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockCursor);
+        PowerMockito.when(mockVtGateConn
+            .streamExecute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockCursor);
         PowerMockito.when(mockVtGateConn
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFutureCursor);
+        PowerMockito.when(mockVtGateConn
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFutureCursor);
         PowerMockito.when(mockConn.getVtGateTx()).thenReturn(null);
         PowerMockito.when(mockVtGateConn.begin(Matchers.any(Context.class)))
             .thenReturn(mockSqlFutureVtGateTx);
         PowerMockito.when(mockVtGateTx
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFutureCursor);
+        PowerMockito.when(mockVtGateTx
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFutureCursor);
         PowerMockito.when(mockSqlFutureCursor.checkedGet()).thenReturn(mockCursor);
         PowerMockito.when(mockSqlFutureVtGateTx.checkedGet()).thenReturn(mockVtGateTx);
         PowerMockito.when(mockConn.getExecuteTypeParam())
@@ -238,9 +254,15 @@ import java.util.*;
         PowerMockito.when(mockVtGateTx
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFutureCursor);
+        PowerMockito.when(mockVtGateTx
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFutureCursor);
         PowerMockito.when(mockVtGateConn
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFutureCursor);
+        PowerMockito.when(mockVtGateConn
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFutureCursor);
         PowerMockito.when(mockVtGateConn
             .executeKeyspaceIds(Matchers.any(Context.class), Matchers.anyString(),
                 Matchers.anyString(), Matchers.anyCollection(), Matchers.anyMap(),
@@ -321,6 +343,9 @@ import java.util.*;
         PowerMockito.when(mockVtGateConn
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFutureCursor);
+        PowerMockito.when(mockVtGateConn
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFutureCursor);
         PowerMockito.when(mockConn.getExecuteTypeParam())
             .thenReturn(Constants.QueryExecuteType.SIMPLE);
         PowerMockito.when(mockVtGateConn
@@ -334,6 +359,9 @@ import java.util.*;
         PowerMockito.when(mockVtGateTx
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFutureCursor);
+        PowerMockito.when(mockVtGateTx
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFutureCursor);
         PowerMockito.when(mockConn.getAutoCommit()).thenReturn(true);
         PowerMockito.when(mockVtGateTx.commit(Matchers.any(Context.class)))
             .thenReturn(mockSqlFutureCursor);
@@ -396,6 +424,9 @@ import java.util.*;
         PowerMockito.when(mockVtGateTx
             .execute(Matchers.any(Context.class), Matchers.anyString(), Matchers.anyMap(),
                 Matchers.any(Topodata.TabletType.class))).thenReturn(mockSqlFuture);
+        PowerMockito.when(mockVtGateTx
+            .execute(Matchers.any(Context.class), Matchers.any(PreparedQuery.class),
+                Matchers.anyMap())).thenReturn(mockSqlFuture);
         PowerMockito.when(mockSqlFuture.checkedGet()).thenReturn(mockCursor);
         PowerMockito.when(mockCursor.getFields()).thenReturn(null);
 
@@ -85,4 +85,54 @@ public class VitessVTGateManagerTest {
         VitessVTGateManager.close();
     }
 
+    @Test
+    public void testVtGateConnectionsPerChannelCount()
+        throws SQLException, NoSuchFieldException, IllegalAccessException, IOException {
+        VitessVTGateManager.close();
+        Properties info = new Properties();
+        info.setProperty("username", "user");
+        VitessVTGateManager.VTGateConnections vtGateConnections =
+            new VitessVTGateManager.VTGateConnections(new VitessJDBCUrl(
+                "jdbc:vitess://10.33.17.231:15991/shipment/shipment?channelsPerVTGate=1", info));
+        VitessVTGateManager.VTGateConnections vtGateConnections1 =
+            new VitessVTGateManager.VTGateConnections(new VitessJDBCUrl(
+                "jdbc:vitess://10.33.17.231:15991/shipment/shipment?channelsPerVTGate=4", info));
+        Assert.assertNotSame(vtGateConnections.getVtGateConnInstance(),
+            vtGateConnections1.getVtGateConnInstance());
+
+        Field privateMapField = VitessVTGateManager.class.
+            getDeclaredField("vtGateConnHashMap");
+        privateMapField.setAccessible(true);
+        ConcurrentHashMap<String, VTGateConn> map =
+            (ConcurrentHashMap<String, VTGateConn>) privateMapField.get(VitessVTGateManager.class);
+        Assert.assertEquals(2, map.size());
+        VitessVTGateManager.close();
+    }
+
+    @Test
+    public void testVtGateConnectionsLoadBalanced()
+        throws SQLException, NoSuchFieldException, IllegalAccessException, IOException {
+        VitessVTGateManager.close();
+        Properties info = new Properties();
+        info.setProperty("username", "user");
+        VitessJDBCUrl vitessJDBCUrl = new VitessJDBCUrl(
+            "jdbc:vitess://10.33.17.231:15991,10.33.17.232:15991/shipment/shipment"
+                + "?loadBalance=peakEwma", info);
+        VitessVTGateManager.VTGateConnections vtGateConnections =
+            new VitessVTGateManager.VTGateConnections(vitessJDBCUrl);
+        // All vtgates share one balancing connection, which every call gets.
+        Assert.assertSame(vtGateConnections.getVtGateConnInstance(),
+            vtGateConnections.getVtGateConnInstance());
+        Assert.assertSame(vtGateConnections.getVtGateConnInstance(),
+            new VitessVTGateManager.VTGateConnections(vitessJDBCUrl).getVtGateConnInstance());
+
+        Field privateMapField = VitessVTGateManager.class.
+            getDeclaredField("vtGateConnHashMap");
+        privateMapField.setAccessible(true);
+        ConcurrentHashMap<String, VTGateConn> map =
+            (ConcurrentHashMap<String, VTGateConn>) privateMapField.get(VitessVTGateManager.class);
+        Assert.assertEquals(1, map.size());
+        VitessVTGateManager.close();
+    }
+
 }